@@ -0,0 +1,90 @@
+package com.sentaroh.android.JcifsFile2;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2011-2018 Sentaroh
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights to use,
+copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software,
+and to permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+*/
+import java.util.Locale;
+
+/**
+ * Selects the backend a benchmark runs against. MEMORY uses the in-memory backend. SMB1 and
+ * SMB212 use the Samba share configured with the jcifs.bench.url, jcifs.bench.domain,
+ * jcifs.bench.user and jcifs.bench.pass system properties, or the JCIFS_BENCH_URL,
+ * JCIFS_BENCH_DOMAIN, JCIFS_BENCH_USER and JCIFS_BENCH_PASS environment variables.
+ * The url must name a writable directory, e.g. smb://192.168.0.10/share/bench/.
+ * Each trial works in its own subdirectory, which is deleted in tearDown.
+ */
+final class BenchmarkTarget {
+
+    final static public String SMB_LEVEL_MEMORY = "MEMORY";
+    final static public String SMB_LEVEL_SMB1 = "SMB1";
+    final static public String SMB_LEVEL_SMB212 = "SMB212";
+
+    final static private String MEMORY_URL = "smb://bench/share/dir/";
+
+    private final String mSmbLevel;
+    private final JcifsAuth mAuth;
+    private final String mUrl;
+
+    BenchmarkTarget(String smb_level) throws Exception {
+        mSmbLevel = smb_level;
+        if (SMB_LEVEL_MEMORY.equals(smb_level)) {
+            JcifsMemoryFileSystem.getDefault().clear();
+            mAuth = new JcifsAuth(JcifsAuth.JCIFS_FILE_MEMORY, null, "user", "pass");
+            mUrl = MEMORY_URL;
+        } else {
+            String url = getSetting("url");
+            if (url == null)
+                throw new IllegalStateException("SMB level " + smb_level + " needs jcifs.bench.url or JCIFS_BENCH_URL");
+            if (!url.endsWith("/")) url += "/";
+            int level = SMB_LEVEL_SMB1.equals(smb_level) ? JcifsAuth.JCIFS_FILE_SMB1 : JcifsAuth.JCIFS_FILE_SMB212;
+            mAuth = new JcifsAuth(level, getSetting("domain"), getSetting("user"), getSetting("pass"));
+            mUrl = url + "jcifs-bench-" + smb_level.toLowerCase(Locale.US) + "-" + System.nanoTime() + "/";
+        }
+        new JcifsFile(mUrl, mAuth).mkdirs();
+    }
+
+    JcifsAuth getAuth() {
+        return mAuth;
+    }
+
+    /**
+     * Returns the url of the trial directory, ending with a slash.
+     */
+    String getUrl() {
+        return mUrl;
+    }
+
+    void close() throws Exception {
+        try {
+            if (SMB_LEVEL_MEMORY.equals(mSmbLevel)) JcifsMemoryFileSystem.getDefault().clear();
+            else new JcifsFile(mUrl, mAuth).delete();
+        } finally {
+            mAuth.close();
+        }
+    }
+
+    private static String getSetting(String name) {
+        String value = System.getProperty("jcifs.bench." + name);
+        if (value == null || value.isEmpty()) value = System.getenv("JCIFS_BENCH_" + name.toUpperCase(Locale.US));
+        return value == null || value.isEmpty() ? null : value;
+    }
+}
@@ -0,0 +1,78 @@
+package com.sentaroh.android.JcifsFile2;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2011-2018 Sentaroh
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights to use,
+copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software,
+and to permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+*/
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JcifsAuth construction for SMB1, SMB212 and the in-memory backend, and the JcifsUtil
+ * lookups that do not need the network. None of these connect to a server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JcifsAuthBenchmark {
+
+    private final JcifsException mException = new JcifsException("Access denied", 0xC0000022);
+
+    @Benchmark
+    public JcifsAuth authSmb1() {
+        return new JcifsAuth(JcifsAuth.JCIFS_FILE_SMB1, null, "user", "pass");
+    }
+
+    @Benchmark
+    public JcifsAuth authSmb212() {
+        JcifsAuth auth = new JcifsAuth(JcifsAuth.JCIFS_FILE_SMB212, null, "user", "pass");
+        auth.close();
+        return auth;
+    }
+
+    @Benchmark
+    public JcifsAuth authMemory() {
+        return new JcifsAuth(JcifsAuth.JCIFS_FILE_MEMORY, null, "user", "pass");
+    }
+
+    @Benchmark
+    public boolean isValidIpAddress() {
+        return JcifsUtil.isValidIpAddress("192.168.100.200");
+    }
+
+    @Benchmark
+    public String[] analyzeNtStatusCode() {
+        return JcifsUtil.analyzeNtStatusCode(mException, "smb://bench/share/dir/", "user");
+    }
+}
@@ -0,0 +1,118 @@
+package com.sentaroh.android.JcifsFile2;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2011-2018 Sentaroh
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights to use,
+copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software,
+and to permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+*/
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * listFiles and the metadata getters, with and without the metadata cache. See
+ * BenchmarkTarget for the SMB levels.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JcifsFileBenchmark {
+
+    @Param({BenchmarkTarget.SMB_LEVEL_MEMORY, BenchmarkTarget.SMB_LEVEL_SMB1, BenchmarkTarget.SMB_LEVEL_SMB212})
+    public String smbLevel;
+
+    @Param({"10", "1000"})
+    public int entries;
+
+    @Param({"false", "true"})
+    public boolean cached;
+
+    private BenchmarkTarget mTarget;
+    private JcifsFile mDirectory;
+    private JcifsFile mFile;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        mTarget = new BenchmarkTarget(smbLevel);
+        JcifsAuth auth = mTarget.getAuth();
+        if (cached) auth.setMetadataCache(new JcifsMetadataCache());
+        mDirectory = new JcifsFile(mTarget.getUrl(), auth);
+        for (int i = 0; i < entries; i++) {
+            new JcifsFile(mTarget.getUrl() + "file" + i, auth).createNew();
+        }
+        mFile = new JcifsFile(mTarget.getUrl() + "file0", auth);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        mTarget.close();
+    }
+
+    @Benchmark
+    public JcifsFile[] listFiles() throws JcifsException {
+        return mDirectory.listFiles();
+    }
+
+    @Benchmark
+    public JcifsFileEntry[] listEntries() throws JcifsException {
+        return mDirectory.listEntries();
+    }
+
+    @Benchmark
+    public boolean exists() throws JcifsException {
+        return mFile.exists();
+    }
+
+    @Benchmark
+    public long length() throws JcifsException {
+        return mFile.length();
+    }
+
+    @Benchmark
+    public long getLastModified() throws JcifsException {
+        return mFile.getLastModified();
+    }
+
+    @Benchmark
+    public boolean isDirectory() throws JcifsException {
+        return mFile.isDirectory();
+    }
+
+    @Benchmark
+    public int getAttributes() throws JcifsException {
+        return mFile.getAttributes();
+    }
+}
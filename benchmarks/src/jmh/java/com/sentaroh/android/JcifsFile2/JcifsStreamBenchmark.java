@@ -0,0 +1,117 @@
+package com.sentaroh.android.JcifsFile2;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2011-2018 Sentaroh
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights to use,
+copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software,
+and to permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+*/
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Stream read and write throughput for several buffer sizes. Each invocation moves
+ * FILE_SIZE bytes, so the score is the time per file. See BenchmarkTarget for the SMB levels.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JcifsStreamBenchmark {
+
+    final static public int FILE_SIZE = 8 * 1024 * 1024;
+
+    @Param({BenchmarkTarget.SMB_LEVEL_MEMORY, BenchmarkTarget.SMB_LEVEL_SMB1, BenchmarkTarget.SMB_LEVEL_SMB212})
+    public String smbLevel;
+
+    @Param({"4096", "65536", "1048576"})
+    public int bufferSize;
+
+    private BenchmarkTarget mTarget;
+    private JcifsAuth mAuth;
+    private String mReadUrl;
+    private String mWriteUrl;
+    private byte[] mBuffer;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        mTarget = new BenchmarkTarget(smbLevel);
+        mAuth = mTarget.getAuth();
+        mReadUrl = mTarget.getUrl() + "read";
+        mWriteUrl = mTarget.getUrl() + "write";
+        mBuffer = new byte[bufferSize];
+        write(new JcifsFile(mReadUrl, mAuth));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        mTarget.close();
+    }
+
+    @Benchmark
+    public long read() throws Exception {
+        InputStream is = new JcifsFile(mReadUrl, mAuth).getInputStream();
+        long total = 0;
+        try {
+            int n;
+            while ((n = is.read(mBuffer)) > 0) total += n;
+        } finally {
+            is.close();
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long write() throws Exception {
+        return write(new JcifsFile(mWriteUrl, mAuth));
+    }
+
+    private long write(JcifsFile file) throws Exception {
+        OutputStream os = file.getOutputStream();
+        long total = 0;
+        try {
+            while (total < FILE_SIZE) {
+                int n = (int) Math.min(mBuffer.length, FILE_SIZE - total);
+                os.write(mBuffer, 0, n);
+                total += n;
+            }
+        } finally {
+            os.close();
+        }
+        return total;
+    }
+}
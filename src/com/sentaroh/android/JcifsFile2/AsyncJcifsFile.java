@@ -0,0 +1,396 @@
+package com.sentaroh.android.JcifsFile2;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2011-2018 Sentaroh
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights to use,
+copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software,
+and to permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+*/
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Asynchronous counterpart of JcifsFile. Every operation returns a CompletableFuture and
+ * runs on an executor, by default a virtual thread per task where the JDK supports it and
+ * a cached daemon thread pool otherwise.
+ *
+ * Requests to one server are limited by JcifsHostLimiter. Requests over the limit wait in
+ * a queue instead of occupying a thread. A failed future holds a JcifsException with the
+ * NT status of the failed request.
+ */
+public class AsyncJcifsFile {
+    private static final Logger log = LoggerFactory.getLogger(AsyncJcifsFile.class);
+
+    private static Executor mDefaultExecutor = null;
+    private static final HashMap<String, HostQueue> mHostQueueList = new HashMap<String, HostQueue>();
+
+    private final JcifsFile mFile;
+    private final Executor mExecutor;
+
+    public AsyncJcifsFile(JcifsFile file) {
+        this(file, null);
+    }
+
+    /**
+     * @param file     the file
+     * @param executor executor running the requests, null for the default executor
+     */
+    public AsyncJcifsFile(JcifsFile file, Executor executor) {
+        mFile = file;
+        mExecutor = executor == null ? getDefaultExecutor() : executor;
+    }
+
+    public AsyncJcifsFile(String url, JcifsAuth auth) throws java.net.MalformedURLException, JcifsException {
+        this(new JcifsFile(url, auth), null);
+    }
+
+    public JcifsFile getFile() {
+        return mFile;
+    }
+
+    public Executor getExecutor() {
+        return mExecutor;
+    }
+
+    /**
+     * Replaces the executor used by instances created without an executor.
+     */
+    public static synchronized void setDefaultExecutor(Executor executor) {
+        mDefaultExecutor = executor;
+    }
+
+    public static synchronized Executor getDefaultExecutor() {
+        if (mDefaultExecutor == null) mDefaultExecutor = createDefaultExecutor();
+        return mDefaultExecutor;
+    }
+
+    private static Executor createDefaultExecutor() {
+        try {
+            return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            log.debug("Virtual threads are not available, a cached thread pool is used.");
+        }
+        ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread th = new Thread(r, "AsyncJcifsFile");
+                th.setDaemon(true);
+                return th;
+            }
+        });
+        return executor;
+    }
+
+    public CompletableFuture<Boolean> exists() {
+        return submit(new Operation<Boolean>() {
+            @Override
+            public Boolean call() throws JcifsException {
+                return mFile.exists();
+            }
+        });
+    }
+
+    public CompletableFuture<Boolean> isDirectory() {
+        return submit(new Operation<Boolean>() {
+            @Override
+            public Boolean call() throws JcifsException {
+                return mFile.isDirectory();
+            }
+        });
+    }
+
+    public CompletableFuture<Boolean> isFile() {
+        return submit(new Operation<Boolean>() {
+            @Override
+            public Boolean call() throws JcifsException {
+                return mFile.isFile();
+            }
+        });
+    }
+
+    public CompletableFuture<Long> length() {
+        return submit(new Operation<Long>() {
+            @Override
+            public Long call() throws JcifsException {
+                return mFile.length();
+            }
+        });
+    }
+
+    public CompletableFuture<Long> getLastModified() {
+        return submit(new Operation<Long>() {
+            @Override
+            public Long call() throws JcifsException {
+                return mFile.getLastModified();
+            }
+        });
+    }
+
+    public CompletableFuture<Integer> getAttributes() {
+        return submit(new Operation<Integer>() {
+            @Override
+            public Integer call() throws JcifsException {
+                return mFile.getAttributes();
+            }
+        });
+    }
+
+    /**
+     * @return future of the metadata, completed with null if the file does not exist
+     */
+    public CompletableFuture<JcifsFileEntry> stat() {
+        return submit(new Operation<JcifsFileEntry>() {
+            @Override
+            public JcifsFileEntry call() throws JcifsException {
+                return mFile.stat();
+            }
+        });
+    }
+
+    public CompletableFuture<Void> delete() {
+        return submit(new Operation<Void>() {
+            @Override
+            public Void call() throws JcifsException {
+                mFile.delete();
+                return null;
+            }
+        });
+    }
+
+    public CompletableFuture<Void> mkdir() {
+        return submit(new Operation<Void>() {
+            @Override
+            public Void call() throws JcifsException {
+                mFile.mkdir();
+                return null;
+            }
+        });
+    }
+
+    public CompletableFuture<Void> mkdirs() {
+        return submit(new Operation<Void>() {
+            @Override
+            public Void call() throws JcifsException {
+                mFile.mkdirs();
+                return null;
+            }
+        });
+    }
+
+    public CompletableFuture<Void> createNew() {
+        return submit(new Operation<Void>() {
+            @Override
+            public Void call() throws JcifsException {
+                mFile.createNew();
+                return null;
+            }
+        });
+    }
+
+    public CompletableFuture<Void> setLastModified(final long lm) {
+        return submit(new Operation<Void>() {
+            @Override
+            public Void call() throws JcifsException {
+                mFile.setLastModified(lm);
+                return null;
+            }
+        });
+    }
+
+    public CompletableFuture<Void> renameTo(final JcifsFile d) {
+        return submit(new Operation<Void>() {
+            @Override
+            public Void call() throws JcifsException {
+                mFile.renameTo(d);
+                return null;
+            }
+        });
+    }
+
+    public CompletableFuture<String[]> list() {
+        return submit(new Operation<String[]>() {
+            @Override
+            public String[] call() throws JcifsException {
+                return mFile.list();
+            }
+        });
+    }
+
+    public CompletableFuture<JcifsFile[]> listFiles() {
+        return submit(new Operation<JcifsFile[]>() {
+            @Override
+            public JcifsFile[] call() throws JcifsException {
+                return mFile.listFiles();
+            }
+        });
+    }
+
+    public CompletableFuture<JcifsFileEntry[]> listEntries() {
+        return submit(new Operation<JcifsFileEntry[]>() {
+            @Override
+            public JcifsFileEntry[] call() throws JcifsException {
+                return mFile.listEntries();
+            }
+        });
+    }
+
+    /**
+     * Runs any blocking operation on this file under the same executor and host limit.
+     */
+    public <T> CompletableFuture<T> submit(final Operation<T> operation) {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        final String host = JcifsHostLimiter.getHostKey(mFile.getServer());
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (!future.isDone()) future.complete(operation.call());
+                } catch (Throwable e) {
+                    future.completeExceptionally(toJcifsException(e));
+                } finally {
+                    JcifsHostLimiter.release(host);
+                    finished(host);
+                }
+            }
+        };
+        schedule(host, task, future);
+        return future;
+    }
+
+    public interface Operation<T> {
+        T call() throws JcifsException;
+    }
+
+    final static JcifsException toJcifsException(Throwable e) {
+        if (e instanceof JcifsException) return (JcifsException) e;
+        if (e instanceof java.io.IOException) return JcifsException.fromIOException((java.io.IOException) e);
+        if (e.getCause() instanceof java.io.IOException) return JcifsException.fromIOException((java.io.IOException) e.getCause());
+        return new JcifsException(e, 0, e.getCause());
+    }
+
+    private void schedule(String host, Runnable task, CompletableFuture<?> future) {
+        HostQueue queue = getHostQueue(host);
+        synchronized (queue) {
+            if (JcifsHostLimiter.tryAcquire(host)) {
+                queue.mRunning++;
+                execute(mExecutor, task, future);
+            } else if (queue.mRunning == 0) {
+                // The permits are held by other users of JcifsHostLimiter, none of ours will
+                // drain the queue, so one task waits for a permit on its own thread.
+                queue.mRunning++;
+                execute(mExecutor, new BlockingTask(host, task, future), future);
+            } else {
+                queue.mPendingList.add(new PendingTask(mExecutor, task, future));
+            }
+        }
+    }
+
+    private static void finished(String host) {
+        HostQueue queue = getHostQueue(host);
+        synchronized (queue) {
+            queue.mRunning--;
+            while (!queue.mPendingList.isEmpty() && JcifsHostLimiter.tryAcquire(host)) {
+                PendingTask pending = queue.mPendingList.poll();
+                queue.mRunning++;
+                execute(pending.mExecutor, pending.mTask, pending.mFuture);
+            }
+            if (!queue.mPendingList.isEmpty() && queue.mRunning == 0) {
+                PendingTask pending = queue.mPendingList.poll();
+                queue.mRunning++;
+                execute(pending.mExecutor, new BlockingTask(host, pending.mTask, pending.mFuture), pending.mFuture);
+            }
+        }
+    }
+
+    private static void execute(Executor executor, Runnable task, CompletableFuture<?> future) {
+        try {
+            executor.execute(task);
+        } catch (RuntimeException e) {
+            // Rejected, the task only releases its permit and queue slot.
+            future.completeExceptionally(new JcifsException(e, 0, e.getCause()));
+            task.run();
+        }
+    }
+
+    private static HostQueue getHostQueue(String host) {
+        synchronized (mHostQueueList) {
+            HostQueue queue = mHostQueueList.get(host);
+            if (queue == null) {
+                queue = new HostQueue();
+                mHostQueueList.put(host, queue);
+            }
+            return queue;
+        }
+    }
+
+    private static class HostQueue {
+        int mRunning = 0;
+        final ArrayDeque<PendingTask> mPendingList = new ArrayDeque<PendingTask>();
+    }
+
+    private static class PendingTask {
+        final Executor mExecutor;
+        final Runnable mTask;
+        final CompletableFuture<?> mFuture;
+
+        PendingTask(Executor executor, Runnable task, CompletableFuture<?> future) {
+            mExecutor = executor;
+            mTask = task;
+            mFuture = future;
+        }
+    }
+
+    private static class BlockingTask implements Runnable {
+        private final String mHost;
+        private final Runnable mTask;
+        private final CompletableFuture<?> mFuture;
+
+        BlockingTask(String host, Runnable task, CompletableFuture<?> future) {
+            mHost = host;
+            mTask = task;
+            mFuture = future;
+        }
+
+        @Override
+        public void run() {
+            if (mFuture.isDone()) {
+                finished(mHost);
+                return;
+            }
+            try {
+                JcifsHostLimiter.acquire(mHost);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                mFuture.completeExceptionally(new JcifsException(e, 0, e.getCause()));
+                finished(mHost);
+                return;
+            }
+            mTask.run();
+        }
+    }
+}
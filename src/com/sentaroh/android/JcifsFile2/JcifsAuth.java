@@ -23,14 +23,16 @@ OTHER DEALINGS IN THE SOFTWARE.
 
 */
 
-import java.util.Properties;
-
 public class JcifsAuth {
     final static public int JCIFS_FILE_SMB1 = 1;
     final static public int JCIFS_FILE_SMB212 = 2;
+    /** In-memory files of JcifsMemoryFileSystem.getDefault(), no server needed */
+    final static public int JCIFS_FILE_MEMORY = 3;
     private jcifs.smb.NtlmPasswordAuthentication mSmb1Auth = null;
     private jcifsng212.CIFSContext mSmb212Auth = null;
     private int mSmbLevel = JCIFS_FILE_SMB1;
+    private JcifsContextPool.ContextKey mContextKey = null;
+    private JcifsMetadataCache mMetadataCache = null;
 
     private String mDomain = null, mUserName = null, mUserPass = null;
 
@@ -52,16 +54,7 @@ public class JcifsAuth {
         if (mSmbLevel==JCIFS_FILE_SMB1) {
             mSmb1Auth = new jcifs.smb.NtlmPasswordAuthentication(domain, user, pass);
         } else if (mSmbLevel==JCIFS_FILE_SMB212) {
-            try {
-                Properties prop = new Properties();
-                prop.setProperty("jcifs.smb.client.minVersion", "SMB202");
-                prop.setProperty("jcifs.smb.client.maxVersion", "SMB300");
-                jcifsng212.context.BaseContext bc = new jcifsng212.context.BaseContext(new jcifsng212.config.PropertyConfiguration(prop));
-                jcifsng212.smb.NtlmPasswordAuthentication creds = new jcifsng212.smb.NtlmPasswordAuthentication(bc, domain, user, pass);
-                mSmb212Auth = bc.withCredentials(creds);
-            } catch (jcifsng212.CIFSException e) {
-                e.printStackTrace();
-            }
+            acquireSmb212Context(new JcifsContextPool.ContextKey(smb_level, domain, user, pass, null, null, "SMB202", "SMB300"));
         }
     }
 
@@ -82,20 +75,8 @@ public class JcifsAuth {
         mUserName = user;
         mUserPass = pass;
         if (isSmb212()) {
-            try {
-                Properties prop = new Properties();
-                if (ipc_signing_enforced) prop.setProperty("jcifs.smb.client.ipcSigningEnforced", "true");
-                else prop.setProperty("jcifs.smb.client.ipcSigningEnforced", "false");
-                
-                prop.setProperty("jcifs.smb.client.minVersion", "SMB202");
-                prop.setProperty("jcifs.smb.client.maxVersion", "SMB300");
-
-                jcifsng212.context.BaseContext bc = new jcifsng212.context.BaseContext(new jcifsng212.config.PropertyConfiguration(prop));
-                jcifsng212.smb.NtlmPasswordAuthentication creds = new jcifsng212.smb.NtlmPasswordAuthentication(bc, domain, user, pass);
-                mSmb212Auth = bc.withCredentials(creds);
-            } catch (jcifsng212.CIFSException e) {
-                e.printStackTrace();
-            }
+            acquireSmb212Context(new JcifsContextPool.ContextKey(smb_level, domain, user, pass,
+                    ipc_signing_enforced, null, "SMB202", "SMB300"));
         }
     }
 
@@ -117,23 +98,8 @@ public class JcifsAuth {
         mUserName = user;
         mUserPass = pass;
         if (isSmb212()) {
-            try {
-                Properties prop = new Properties();
-                if (ipc_signing_enforced) prop.setProperty("jcifs.smb.client.ipcSigningEnforced", "true");
-                else prop.setProperty("jcifs.smb.client.ipcSigningEnforced", "false");
-                
-                if (use_smb2_nego) prop.setProperty("jcifs.smb.client.useSMB2Negotiation", "true");
-                else prop.setProperty("jcifs.smb.client.useSMB2Negotiation", "false");
-                
-                prop.setProperty("jcifs.smb.client.minVersion", "SMB202");
-                prop.setProperty("jcifs.smb.client.maxVersion", "SMB300");
-
-                jcifsng212.context.BaseContext bc = new jcifsng212.context.BaseContext(new jcifsng212.config.PropertyConfiguration(prop));
-                jcifsng212.smb.NtlmPasswordAuthentication creds = new jcifsng212.smb.NtlmPasswordAuthentication(bc, domain, user, pass);
-                mSmb212Auth = bc.withCredentials(creds);
-            } catch (jcifsng212.CIFSException e) {
-                e.printStackTrace();
-            }
+            acquireSmb212Context(new JcifsContextPool.ContextKey(smb_level, domain, user, pass,
+                    ipc_signing_enforced, use_smb2_nego, "SMB202", "SMB300"));
         }
     }
     
@@ -156,24 +122,52 @@ public class JcifsAuth {
         mUserName = user;
         mUserPass = pass;
         if (isSmb212()) {
-            try {
-                Properties prop = new Properties();
-                if (ipc_signing_enforced)
-                    prop.setProperty("jcifs.smb.client.ipcSigningEnforced", "true");
-                else prop.setProperty("jcifs.smb.client.ipcSigningEnforced", "false");
-                prop.setProperty("jcifs.smb.client.useSMB2Negotiation", "true");
-                prop.setProperty("jcifs.smb.client.minVersion", min_version);
-                prop.setProperty("jcifs.smb.client.maxVersion", max_version);
-
-                jcifsng212.context.BaseContext bc = new jcifsng212.context.BaseContext(new jcifsng212.config.PropertyConfiguration(prop));
-                jcifsng212.smb.NtlmPasswordAuthentication creds = new jcifsng212.smb.NtlmPasswordAuthentication(bc, domain, user, pass);
-                mSmb212Auth = bc.withCredentials(creds);
-            } catch (jcifsng212.CIFSException e) {
-                e.printStackTrace();
-            }
+            acquireSmb212Context(new JcifsContextPool.ContextKey(smb_level, domain, user, pass,
+                    ipc_signing_enforced, true, min_version, max_version));
+        }
+    }
+
+    private void acquireSmb212Context(JcifsContextPool.ContextKey key) {
+        try {
+            mSmb212Auth = JcifsContextPool.acquire(key, this);
+            mContextKey = key;
+        } catch (jcifsng212.CIFSException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Releases the shared SMB2 context. The context is closed by JcifsContextPool after
+     * it has been idle for the idle timeout. JcifsFile objects created with this
+     * JcifsAuth must not be used after close().
+     */
+    public void close() {
+        synchronized (this) {
+            if (mContextKey == null) return;
+            JcifsContextPool.release(mContextKey, this);
+            mContextKey = null;
         }
     }
 
+    /**
+     * Enables the metadata cache for the JcifsFile objects created with this JcifsAuth.
+     *
+     * @param cache the cache, null disables caching
+     */
+    public JcifsAuth setMetadataCache(JcifsMetadataCache cache) {
+        mMetadataCache = cache;
+        return this;
+    }
+
+    public JcifsMetadataCache getMetadataCache() {
+        return mMetadataCache;
+    }
+
+    void putMetadata(JcifsFileEntry entry) {
+        JcifsMetadataCache cache = mMetadataCache;
+        if (cache != null) cache.put(entry.getPath(), entry);
+    }
+
     public int getSmbLevel() {
         return mSmbLevel;
     }
@@ -0,0 +1,178 @@
+package com.sentaroh.android.JcifsFile2;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2011-2018 Sentaroh
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights to use,
+copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software,
+and to permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+*/
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * One remote file as seen by a protocol implementation.
+ *
+ * JcifsFile delegates every operation to its backend, which is created by the
+ * JcifsBackendProvider registered for the SMB level of the JcifsAuth. Implementations
+ * map the errors of their library to JcifsException, keeping the NT status.
+ * Paths and names follow jcifs: URLs of the form "smb://server/share/dir/file", and
+ * directory names end with "/".
+ */
+public interface JcifsBackend {
+
+    /**
+     * Receives the entries of a directory listing. A child must be turned into whatever
+     * the caller needs from within the callback, while it still holds the attributes
+     * returned by the listing.
+     */
+    interface ListHandler {
+        void onEntry(JcifsBackend child) throws JcifsException;
+    }
+
+    /**
+     * Lazy iterator over the entries of a directory. Must be closed.
+     */
+    interface Children {
+        boolean hasNext() throws JcifsException;
+
+        JcifsBackend next() throws JcifsException;
+
+        void close();
+    }
+
+    /**
+     * An open file handle with a file pointer.
+     */
+    interface RandomAccess {
+        int read(byte[] b, int off, int len) throws JcifsException;
+
+        void readFully(byte[] b, int off, int len) throws JcifsException;
+
+        void write(byte[] b, int off, int len) throws JcifsException;
+
+        void seek(long position) throws JcifsException;
+
+        long getFilePointer() throws JcifsException;
+
+        long length() throws JcifsException;
+
+        void setLength(long length) throws JcifsException;
+
+        void close() throws JcifsException;
+    }
+
+    /**
+     * @return the SMB level of the JcifsAuth this backend was created for
+     */
+    int getSmbLevel();
+
+    String getName();
+
+    String getPath();
+
+    String getCanonicalPath();
+
+    String getShare();
+
+    String getServer();
+
+    String getUncPath();
+
+    String getParent();
+
+    boolean exists() throws JcifsException;
+
+    int getType() throws JcifsException;
+
+    int getAttributes() throws JcifsException;
+
+    boolean canRead() throws JcifsException;
+
+    boolean canWrite() throws JcifsException;
+
+    boolean isDirectory() throws JcifsException;
+
+    boolean isFile() throws JcifsException;
+
+    boolean isHidden() throws JcifsException;
+
+    long length() throws JcifsException;
+
+    long lastModified() throws JcifsException;
+
+    long createTime() throws JcifsException;
+
+    void setLastModified(long time) throws JcifsException;
+
+    void delete() throws JcifsException;
+
+    void mkdir() throws JcifsException;
+
+    void mkdirs() throws JcifsException;
+
+    void createNewFile() throws JcifsException;
+
+    void connect() throws JcifsException;
+
+    void close() throws JcifsException;
+
+    /**
+     * @param dest a backend of the same implementation
+     */
+    void renameTo(JcifsBackend dest) throws JcifsException;
+
+    /**
+     * Copies this file to dest on the server, without moving the data through the client.
+     *
+     * @param dest a backend of any implementation
+     * @return false if this backend cannot copy to dest on the server, nothing is copied then
+     */
+    boolean serverCopyTo(JcifsBackend dest) throws JcifsException;
+
+    InputStream getInputStream() throws JcifsException;
+
+    OutputStream getOutputStream() throws JcifsException;
+
+    /**
+     * @param mode "r" or "rw" as in java.io.RandomAccessFile
+     */
+    RandomAccess openRandomAccess(String mode) throws JcifsException;
+
+    /**
+     * @param name name of an entry of this directory, directories ending with "/"
+     * @return the entry, without a request to the server
+     */
+    JcifsBackend getChild(String name) throws JcifsException;
+
+    String[] list() throws JcifsException;
+
+    JcifsBackend[] listFiles() throws JcifsException;
+
+    /**
+     * Lists the directory, passing every entry to the handler as soon as it is received.
+     */
+    void listFiles(ListHandler handler) throws JcifsException;
+
+    /**
+     * @param wildcard DOS style wildcard, null for all entries
+     * @return a lazy iterator, or null if the implementation cannot list lazily
+     */
+    Children children(String wildcard) throws JcifsException;
+}
@@ -0,0 +1,55 @@
+package com.sentaroh.android.JcifsFile2;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2011-2018 Sentaroh
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights to use,
+copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software,
+and to permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+*/
+
+import java.net.MalformedURLException;
+
+/**
+ * Creates the JcifsBackend of one SMB level and provides its name service.
+ *
+ * Providers for JCIFS_FILE_SMB1, JCIFS_FILE_SMB212 and JCIFS_FILE_MEMORY are built in.
+ * Another implementation is plugged in with JcifsBackendRegistry.register() under a level
+ * of its own, which is then passed to the JcifsAuth constructor.
+ */
+public interface JcifsBackendProvider {
+
+    /**
+     * @return short name of the level, e.g. "SMB1"
+     */
+    String getName();
+
+    JcifsBackend open(String url, JcifsAuth auth) throws MalformedURLException, JcifsException;
+
+    /**
+     * @return the IP address of a NetBIOS name, null if it cannot be resolved
+     */
+    String getIpAddressFromName(String host);
+
+    /**
+     * @return the server name of an IP address, "" if it cannot be resolved
+     */
+    String getHostNameFromAddress(String address);
+
+    boolean isNbtAddressActive(String address);
+}
@@ -0,0 +1,86 @@
+package com.sentaroh.android.JcifsFile2;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2011-2018 Sentaroh
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights to use,
+copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software,
+and to permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+*/
+
+import java.util.HashMap;
+
+/**
+ * Maps SMB levels to JcifsBackendProvider instances.
+ */
+public class JcifsBackendRegistry {
+
+    private static final HashMap<Integer, JcifsBackendProvider> mProviderList = new HashMap<Integer, JcifsBackendProvider>();
+
+    static {
+        mProviderList.put(JcifsAuth.JCIFS_FILE_SMB1, new JcifsSmb1Backend.Provider());
+        mProviderList.put(JcifsAuth.JCIFS_FILE_SMB212, new JcifsSmb212Backend.Provider());
+        mProviderList.put(JcifsAuth.JCIFS_FILE_MEMORY, new JcifsMemoryBackend.Provider(JcifsMemoryFileSystem.getDefault()));
+    }
+
+    private JcifsBackendRegistry() {
+    }
+
+    /**
+     * Registers or replaces the provider of a level.
+     */
+    public static void register(int smb_level, JcifsBackendProvider provider) {
+        synchronized (mProviderList) {
+            mProviderList.put(smb_level, provider);
+        }
+    }
+
+    /**
+     * @return the provider of the level, null if none is registered
+     */
+    public static JcifsBackendProvider getProvider(int smb_level) {
+        synchronized (mProviderList) {
+            return mProviderList.get(smb_level);
+        }
+    }
+
+    public static String getLevelName(int smb_level) {
+        JcifsBackendProvider provider = getProvider(smb_level);
+        return provider == null ? String.valueOf(smb_level) : provider.getName();
+    }
+
+    static JcifsBackend open(String url, JcifsAuth auth) throws java.net.MalformedURLException, JcifsException {
+        JcifsBackendProvider provider = getProvider(auth.getSmbLevel());
+        if (provider == null)
+            throw (new JcifsException(JcifsException.NT_STATUS_DESC_INVALID_JCIFS_LEVEL, JcifsException.NT_STATUS_INT_INVALID_JCIFS_LEVEL));
+        return provider.open(url, auth);
+    }
+
+    /**
+     * Carries an exception of a JcifsBackend.ListHandler through the filter callback of a
+     * library.
+     */
+    static class HandlerException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        final JcifsException mException;
+
+        HandlerException(JcifsException e) {
+            mException = e;
+        }
+    }
+}
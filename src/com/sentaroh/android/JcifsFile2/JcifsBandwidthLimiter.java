@@ -0,0 +1,454 @@
+package com.sentaroh.android.JcifsFile2;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2011-2018 Sentaroh
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights to use,
+copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software,
+and to permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+*/
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bandwidth limits of the JcifsFile streams and JcifsRandomAccessFile.
+ *
+ * Limits are token buckets in bytes per second, one for every share, one for every server
+ * and one for all servers; a transfer waits until all three allow it. Limits can be changed
+ * at any time and apply to the streams already open. A waiting transfer sleeps in a timed
+ * wait until the bucket has refilled enough for it.
+ *
+ * Transfers waiting on a bucket are served in start time fair queueing order, so concurrent
+ * jobs get bandwidth in proportion to their weights. A stream belongs to the Job attached
+ * to the thread that opened it; a stream opened with no job attached is a job of its own
+ * with DEFAULT_WEIGHT.
+ *
+ * The current rate of every bucket and job is measured, with or without a limit. While none
+ * of the buckets of a stream has a limit its transfers take no lock, they only add to the
+ * meters.
+ */
+public class JcifsBandwidthLimiter {
+
+    final static public long UNLIMITED = 0L;
+    final static public int DEFAULT_WEIGHT = 1;
+
+    final static private int MAX_CHUNK = 64 * 1024;
+    final static private long BURST_TIME = 100L;
+    final static private long RATE_WINDOW = 1000L;
+
+    private static final Bucket mGlobalBucket = new Bucket();
+    private static final HashMap<String, Bucket> mHostList = new HashMap<String, Bucket>();
+    private static final HashMap<String, Bucket> mShareList = new HashMap<String, Bucket>();
+    private static final ThreadLocal<Job> mCurrentJob = new ThreadLocal<Job>();
+
+    private JcifsBandwidthLimiter() {
+    }
+
+    /**
+     * @param bytes_per_second limit of all servers together, UNLIMITED removes it
+     */
+    public static void setGlobalLimit(long bytes_per_second) {
+        mGlobalBucket.setLimit(bytes_per_second);
+    }
+
+    public static long getGlobalLimit() {
+        return mGlobalBucket.getLimit();
+    }
+
+    /**
+     * @return bytes per second transferred by all servers over the last second
+     */
+    public static long getGlobalRate() {
+        return mGlobalBucket.getRate();
+    }
+
+    /**
+     * @param host             server name as returned by JcifsFile.getServer()
+     * @param bytes_per_second limit of the server, UNLIMITED removes it
+     */
+    public static void setHostLimit(String host, long bytes_per_second) {
+        getHostBucket(host).setLimit(bytes_per_second);
+    }
+
+    public static long getHostLimit(String host) {
+        return getHostBucket(host).getLimit();
+    }
+
+    public static long getHostRate(String host) {
+        return getHostBucket(host).getRate();
+    }
+
+    /**
+     * @param share            share name as returned by JcifsFile.getShare()
+     * @param bytes_per_second limit of the share, UNLIMITED removes it
+     */
+    public static void setShareLimit(String host, String share, long bytes_per_second) {
+        getShareBucket(host, share).setLimit(bytes_per_second);
+    }
+
+    public static long getShareLimit(String host, String share) {
+        return getShareBucket(host, share).getLimit();
+    }
+
+    public static long getShareRate(String host, String share) {
+        return getShareBucket(host, share).getRate();
+    }
+
+    /**
+     * Removes all limits. Open streams continue unlimited.
+     */
+    public static void clearLimits() {
+        mGlobalBucket.setLimit(UNLIMITED);
+        Bucket[] list;
+        synchronized (mHostList) {
+            list = mHostList.values().toArray(new Bucket[mHostList.size()]);
+        }
+        for (Bucket bucket : list) bucket.setLimit(UNLIMITED);
+        synchronized (mShareList) {
+            list = mShareList.values().toArray(new Bucket[mShareList.size()]);
+        }
+        for (Bucket bucket : list) bucket.setLimit(UNLIMITED);
+    }
+
+    private static Bucket getHostBucket(String host) {
+        return getBucket(mHostList, JcifsHostLimiter.getHostKey(host));
+    }
+
+    private static Bucket getShareBucket(String host, String share) {
+        return getBucket(mShareList, JcifsHostLimiter.getHostKey(host) + "/" + (share == null ? "" : share.toLowerCase()));
+    }
+
+    private static Bucket getBucket(HashMap<String, Bucket> list, String key) {
+        synchronized (list) {
+            Bucket bucket = list.get(key);
+            if (bucket == null) {
+                bucket = new Bucket();
+                list.put(key, bucket);
+            }
+            return bucket;
+        }
+    }
+
+    /**
+     * @return the throttle of a stream or random access file of the file opened now
+     */
+    static Throttle getThrottle(JcifsFile file) {
+        Job job = mCurrentJob.get();
+        if (job == null) job = new Job(null, DEFAULT_WEIGHT);
+        return new Throttle(job, new Bucket[]{getShareBucket(file.getServer(), file.getShare()),
+                getHostBucket(file.getServer()), mGlobalBucket});
+    }
+
+    static InputStream wrap(JcifsFile file, InputStream is) {
+        if (is == null) return is;
+        return new ThrottledInputStream(is, getThrottle(file));
+    }
+
+    static OutputStream wrap(JcifsFile file, OutputStream os) {
+        if (os == null) return os;
+        return new ThrottledOutputStream(os, getThrottle(file));
+    }
+
+    /**
+     * Transfers sharing bandwidth in proportion to the weight. Streams opened by a thread
+     * while the job is attached to it belong to the job.
+     */
+    public static class Job {
+        private final String mName;
+        private volatile int mWeight;
+        private final RateMeter mMeter = new RateMeter();
+
+        /**
+         * @param name   name for display, may be null
+         * @param weight share of the bandwidth relative to the other jobs, at least 1
+         */
+        public Job(String name, int weight) {
+            mName = name;
+            mWeight = Math.max(1, weight);
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * Takes effect with the next transfer of the job.
+         */
+        public Job setWeight(int weight) {
+            mWeight = Math.max(1, weight);
+            return this;
+        }
+
+        public int getWeight() {
+            return mWeight;
+        }
+
+        /**
+         * @return bytes per second transferred by the job over the last second
+         */
+        public long getRate() {
+            return mMeter.getRate();
+        }
+
+        public long getTransferredBytes() {
+            return mMeter.getTotal();
+        }
+
+        /**
+         * Streams the current thread opens from now on belong to this job.
+         */
+        public void attach() {
+            mCurrentJob.set(this);
+        }
+
+        /**
+         * Streams the current thread opens from now on no longer belong to this job.
+         */
+        public void detach() {
+            if (mCurrentJob.get() == this) mCurrentJob.remove();
+        }
+
+        @Override
+        public String toString() {
+            return (mName == null ? "job" : mName) + " weight=" + mWeight + " rate=" + getRate() + "B/s";
+        }
+    }
+
+    /**
+     * Charges the transfers of one stream to its buckets and job.
+     */
+    static class Throttle {
+        private final Job mJob;
+        private final Bucket[] mBucketList;
+
+        Throttle(Job job, Bucket[] bucket_list) {
+            mJob = job;
+            mBucketList = bucket_list;
+        }
+
+        /**
+         * @return the bytes the next transfer of up to len bytes may move at once, smaller
+         * while a limit applies so the waits of concurrent jobs interleave
+         */
+        int getChunkSize(int len) {
+            return isLimited() ? Math.min(len, MAX_CHUNK) : len;
+        }
+
+        /**
+         * Waits until all buckets allow the bytes.
+         */
+        void acquire(long bytes) throws InterruptedIOException {
+            if (bytes <= 0) return;
+            if (!isLimited()) {
+                for (Bucket bucket : mBucketList) bucket.mMeter.add(bytes);
+                mJob.mMeter.add(bytes);
+                return;
+            }
+            try {
+                for (Bucket bucket : mBucketList) bucket.acquire(mJob, bytes);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while throttled");
+            }
+            mJob.mMeter.add(bytes);
+        }
+
+        private boolean isLimited() {
+            for (Bucket bucket : mBucketList) if (bucket.isLimited()) return true;
+            return false;
+        }
+    }
+
+    private static class Bucket {
+        private volatile long mLimit = UNLIMITED;
+        private double mTokens = 0;
+        private long mLastRefill = System.nanoTime();
+        private double mVirtualTime = 0;
+        private long mSequence = 0;
+        private final TreeSet<Request> mWaitList = new TreeSet<Request>();
+        private final WeakHashMap<Job, Double> mFinishTagList = new WeakHashMap<Job, Double>();
+        private final RateMeter mMeter = new RateMeter();
+
+        synchronized void setLimit(long bytes_per_second) {
+            refill();
+            mLimit = Math.max(0, bytes_per_second);
+            mTokens = Math.min(mTokens, getCapacity());
+            notifyAll();
+        }
+
+        long getLimit() {
+            return mLimit;
+        }
+
+        boolean isLimited() {
+            return mLimit != UNLIMITED;
+        }
+
+        long getRate() {
+            return mMeter.getRate();
+        }
+
+        private double getCapacity() {
+            return Math.max(1.0d, mLimit * BURST_TIME / 1000.0d);
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            if (mLimit != UNLIMITED)
+                mTokens = Math.min(getCapacity(), mTokens + (now - mLastRefill) * mLimit / 1000000000.0d);
+            mLastRefill = now;
+        }
+
+        /**
+         * A transfer may start when it is first in the queue and the bucket is not in debt;
+         * it may take more than the tokens left, later transfers then wait for the debt.
+         */
+        synchronized void acquire(Job job, long bytes) throws InterruptedException {
+            Double finish = mFinishTagList.get(job);
+            double start = Math.max(mVirtualTime, finish == null ? 0 : finish);
+            mFinishTagList.put(job, start + (double) bytes / job.mWeight);
+            Request request = new Request(start, mSequence++);
+            mWaitList.add(request);
+            try {
+                while (true) {
+                    refill();
+                    boolean first = mWaitList.first() == request;
+                    if (first && (mLimit == UNLIMITED || mTokens > 0)) break;
+                    if (first) wait(Math.max(1L, (long) Math.ceil(-mTokens * 1000.0d / mLimit)));
+                    else wait(RATE_WINDOW);
+                }
+                if (mLimit != UNLIMITED) mTokens -= bytes;
+                mVirtualTime = Math.max(mVirtualTime, start);
+            } finally {
+                mWaitList.remove(request);
+                notifyAll();
+            }
+            mMeter.add(bytes);
+        }
+    }
+
+    private static class Request implements Comparable<Request> {
+        final double mStartTag;
+        final long mSequence;
+
+        Request(double start_tag, long sequence) {
+            mStartTag = start_tag;
+            mSequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Request o) {
+            if (mStartTag != o.mStartTag) return mStartTag < o.mStartTag ? -1 : 1;
+            return mSequence < o.mSequence ? -1 : (mSequence > o.mSequence ? 1 : 0);
+        }
+    }
+
+    /**
+     * Bytes over a sliding window of one second. Transfers only add to the total; getRate()
+     * splits the bytes added since the last window start into windows, spread evenly over
+     * the time passed.
+     */
+    private static class RateMeter {
+        private final AtomicLong mTotal = new AtomicLong();
+        private long mWindowStart = System.currentTimeMillis();
+        private long mWindowStartTotal = 0;
+        private long mPrevious = 0;
+
+        void add(long bytes) {
+            mTotal.addAndGet(bytes);
+        }
+
+        synchronized long getRate() {
+            long now = System.currentTimeMillis();
+            long total = mTotal.get();
+            long elapsed = now - mWindowStart;
+            if (elapsed >= RATE_WINDOW) {
+                double bytes = total - mWindowStartTotal;
+                long start = mWindowStart + elapsed / RATE_WINDOW * RATE_WINDOW;
+                long current = (long) (bytes * (now - start) / elapsed);
+                mPrevious = (long) (bytes * RATE_WINDOW / elapsed);
+                mWindowStart = start;
+                mWindowStartTotal = total - current;
+            }
+            double part = (double) (now - mWindowStart) / RATE_WINDOW;
+            return (long) (mPrevious * (1.0d - part) + (total - mWindowStartTotal));
+        }
+
+        long getTotal() {
+            return mTotal.get();
+        }
+    }
+
+    private static class ThrottledInputStream extends FilterInputStream {
+        private final Throttle mThrottle;
+
+        ThrottledInputStream(InputStream is, Throttle throttle) {
+            super(is);
+            mThrottle = throttle;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) mThrottle.acquire(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, mThrottle.getChunkSize(len));
+            if (n > 0) mThrottle.acquire(n);
+            return n;
+        }
+    }
+
+    private static class ThrottledOutputStream extends FilterOutputStream {
+        private final Throttle mThrottle;
+
+        ThrottledOutputStream(OutputStream os, Throttle throttle) {
+            super(os);
+            mThrottle = throttle;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            mThrottle.acquire(1);
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = mThrottle.getChunkSize(len);
+                mThrottle.acquire(n);
+                out.write(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package com.sentaroh.android.JcifsFile2;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2011-2018 Sentaroh
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights to use,
+copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software,
+and to permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+*/
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Applies one operation to many paths at once.
+ *
+ * Paths are grouped by share. Every file of a share is created as a child of one share
+ * root, which is connected when it is created. With jcifs-ng the children take over the
+ * tree connection of that root instead of resolving the tree for every path; jcifs-1.3.17
+ * looks the tree up in the tree list of its session for every file. Items run with bounded parallelism under the
+ * JcifsHostLimiter limit, and a failing item does not stop the batch; the outcome of every
+ * item is returned in a Report.
+ */
+public class JcifsBatch {
+
+    final static public int DEFAULT_PARALLELISM = 4;
+
+    private final JcifsAuth mAuth;
+    private int mParallelism = DEFAULT_PARALLELISM;
+    private volatile boolean mCancelled = false;
+
+    private final HashMap<String, JcifsFile> mShareList = new HashMap<String, JcifsFile>();
+
+    public JcifsBatch(JcifsAuth auth) {
+        mAuth = auth;
+    }
+
+    public JcifsBatch setParallelism(int parallelism) {
+        mParallelism = Math.max(1, parallelism);
+        return this;
+    }
+
+    /**
+     * Items of the running batch not yet started are reported as failed with "Cancelled".
+     * The next batch of this instance runs normally again.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * Deletes the files and directories, directories with their contents.
+     */
+    public Report deleteAll(Collection<String> urls) {
+        ArrayList<Item> list = new ArrayList<Item>();
+        for (String url : urls) list.add(new Item(url, null));
+        return run(list, new ItemOperation() {
+            @Override
+            public void run(JcifsFile file, Item item) throws JcifsException {
+                file.delete();
+            }
+        });
+    }
+
+    /**
+     * Creates the directories with their missing parents.
+     */
+    public Report mkdirsAll(Collection<String> urls) {
+        ArrayList<Item> list = new ArrayList<Item>();
+        for (String url : urls) list.add(new Item(url, null));
+        return run(list, new ItemOperation() {
+            @Override
+            public void run(JcifsFile file, Item item) throws JcifsException {
+                try {
+                    file.mkdirs();
+                } catch (JcifsException e) {
+                    // Another item may have created a common parent at the same time. A file
+                    // in the way fails again.
+                    if (!file.isDirectory()) file.mkdirs();
+                }
+            }
+        });
+    }
+
+    /**
+     * @param url_time last modified time in milliseconds for every url
+     */
+    public Report setLastModifiedAll(Map<String, Long> url_time) {
+        ArrayList<Item> list = new ArrayList<Item>();
+        for (Map.Entry<String, Long> e : url_time.entrySet()) list.add(new Item(e.getKey(), e.getValue()));
+        return run(list, new ItemOperation() {
+            @Override
+            public void run(JcifsFile file, Item item) throws JcifsException {
+                file.setLastModified((Long) item.mArgument);
+            }
+        });
+    }
+
+    /**
+     * @param from_to new url for every url, both on the same share
+     */
+    public Report renameAll(Map<String, String> from_to) {
+        ArrayList<Item> list = new ArrayList<Item>();
+        for (Map.Entry<String, String> e : from_to.entrySet()) list.add(new Item(e.getKey(), e.getValue()));
+        return run(list, new ItemOperation() {
+            @Override
+            public void run(JcifsFile file, Item item) throws JcifsException {
+                file.renameTo(getFile((String) item.mArgument));
+            }
+        });
+    }
+
+    private Report run(List<Item> list, final ItemOperation operation) {
+        mCancelled = false;
+        final Result[] result = new Result[list.size()];
+        final CountDownLatch latch = new CountDownLatch(list.size());
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(mParallelism, Math.max(1, list.size())));
+        try {
+            for (int i = 0; i < list.size(); i++) {
+                final int index = i;
+                final Item item = list.get(i);
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            result[index] = runItem(item, operation);
+                        } finally {
+                            latch.countDown();
+                        }
+                    }
+                });
+            }
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            mCancelled = true;
+        } finally {
+            executor.shutdownNow();
+        }
+        for (int i = 0; i < result.length; i++) {
+            if (result[i] == null) result[i] = new Result(list.get(i).mUrl, new JcifsException("Cancelled"));
+        }
+        return new Report(result);
+    }
+
+    private Result runItem(Item item, ItemOperation operation) {
+        if (mCancelled) return new Result(item.mUrl, new JcifsException("Cancelled"));
+        JcifsFile file;
+        try {
+            file = getFile(item.mUrl);
+        } catch (JcifsException e) {
+            return new Result(item.mUrl, e);
+        }
+        String host = file.getServer();
+        try {
+            JcifsHostLimiter.acquire(host);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Result(item.mUrl, new JcifsException("Cancelled"));
+        }
+        try {
+            operation.run(file, item);
+            return new Result(item.mUrl, null);
+        } catch (JcifsException e) {
+            return new Result(item.mUrl, e);
+        } finally {
+            JcifsHostLimiter.release(host);
+        }
+    }
+
+    /**
+     * Returns the file as a child of the shared root of its share. The root is connected
+     * the first time, so its children can use its tree connection.
+     */
+    JcifsFile getFile(String url) throws JcifsException {
+        int host_end = url.startsWith("smb://") ? url.indexOf('/', 6) : -1;
+        int share_end = host_end < 0 ? -1 : url.indexOf('/', host_end + 1);
+        if (share_end < 0 || share_end == url.length() - 1)
+            throw new JcifsException("Not a file or directory in a share: " + url);
+        String share_url = url.substring(0, share_end + 1);
+        String key = share_url.toLowerCase();
+        String name = url.substring(share_end + 1);
+        try {
+            JcifsFile share;
+            synchronized (mShareList) {
+                share = mShareList.get(key);
+            }
+            if (share == null) {
+                // Connected outside the lock so that a slow share does not hold up the others.
+                JcifsFile connected = new JcifsFile(share_url, mAuth);
+                connected.connect();
+                synchronized (mShareList) {
+                    share = mShareList.get(key);
+                    if (share == null) {
+                        share = connected;
+                        mShareList.put(key, share);
+                    }
+                }
+            }
+            return new JcifsFile(mAuth, share.getBackend().getChild(name));
+        } catch (IOException e) {
+            throw (new JcifsException(e, 0, e.getCause()));
+        }
+    }
+
+    private interface ItemOperation {
+        void run(JcifsFile file, Item item) throws JcifsException;
+    }
+
+    private static class Item {
+        final String mUrl;
+        final Object mArgument;
+
+        Item(String url, Object argument) {
+            mUrl = url;
+            mArgument = argument;
+        }
+    }
+
+    /**
+     * Outcome of one item.
+     */
+    public static class Result {
+        private final String mUrl;
+        private final JcifsException mException;
+
+        Result(String url, JcifsException e) {
+            mUrl = url;
+            mException = e;
+        }
+
+        public String getUrl() {
+            return mUrl;
+        }
+
+        public boolean isSuccess() {
+            return mException == null;
+        }
+
+        /**
+         * @return the exception of a failed item, null on success
+         */
+        public JcifsException getException() {
+            return mException;
+        }
+
+        public int getNtStatus() {
+            return mException == null ? 0 : mException.getNtStatus();
+        }
+    }
+
+    /**
+     * Outcome of a batch, results are in the order the items were given.
+     */
+    public static class Report {
+        private final Result[] mResultList;
+        private int mFailureCount = 0;
+
+        Report(Result[] result) {
+            mResultList = result;
+            for (Result r : result) if (!r.isSuccess()) mFailureCount++;
+        }
+
+        public Result[] getResults() {
+            return mResultList;
+        }
+
+        public Result[] getFailures() {
+            ArrayList<Result> list = new ArrayList<Result>();
+            for (Result r : mResultList) if (!r.isSuccess()) list.add(r);
+            return list.toArray(new Result[list.size()]);
+        }
+
+        public int getSuccessCount() {
+            return mResultList.length - mFailureCount;
+        }
+
+        public int getFailureCount() {
+            return mFailureCount;
+        }
+
+        public boolean isAllSuccess() {
+            return mFailureCount == 0;
+        }
+    }
+}
@@ -0,0 +1,438 @@
+package com.sentaroh.android.JcifsFile2;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2011-2018 Sentaroh
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights to use,
+copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software,
+and to permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+*/
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Size bounded cache of fixed size blocks of remote files.
+ *
+ * Blocks are keyed by the user, the file path and the block index, and tagged with the last
+ * modified time and length of the file. Every cached stream queries both from the server
+ * once when it is opened, bypassing the metadata cache, so a changed file never returns
+ * stale blocks and a user never reads blocks another user has cached without having been
+ * authenticated by the server. Least recently used blocks are evicted first;
+ * with a spill directory they move to a second, larger tier on the local disk instead of
+ * being dropped.
+ */
+public class JcifsBlockCache {
+
+    private static final Logger log = LoggerFactory.getLogger(JcifsBlockCache.class);
+
+    final static public int DEFAULT_BLOCK_SIZE = 64 * 1024;
+    final static public long DEFAULT_MAX_BYTES = 32L * 1024L * 1024L;
+
+    final static private int NT_STATUS_OBJECT_NAME_NOT_FOUND = 0xC0000034;
+
+    private final int mBlockSize;
+    private final long mMaxBytes;
+    private long mCachedBytes = 0;
+    private final LinkedHashMap<BlockKey, Block> mBlockList = new LinkedHashMap<BlockKey, Block>(256, 0.75f, true);
+
+    private File mSpillDirectory = null;
+    private long mMaxSpillBytes = 0;
+    private long mSpilledBytes = 0;
+    private final LinkedHashMap<BlockKey, SpilledBlock> mSpillList = new LinkedHashMap<BlockKey, SpilledBlock>(256, 0.75f, true);
+
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+    private final AtomicLong mBytesSaved = new AtomicLong();
+
+    public JcifsBlockCache() {
+        this(DEFAULT_BLOCK_SIZE, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param block_size bytes per block
+     * @param max_bytes  maximum bytes held in memory
+     */
+    public JcifsBlockCache(int block_size, long max_bytes) {
+        mBlockSize = block_size;
+        mMaxBytes = max_bytes;
+    }
+
+    /**
+     * Enables the local disk tier. Blocks evicted from memory are written to the directory
+     * and read back from there on the next access.
+     *
+     * @param dir       directory for the block files, created if needed
+     * @param max_bytes maximum bytes kept in the directory
+     */
+    public synchronized void setSpillDirectory(File dir, long max_bytes) {
+        clearSpill();
+        mSpillDirectory = dir;
+        mMaxSpillBytes = max_bytes;
+        if (dir != null && !dir.exists()) dir.mkdirs();
+    }
+
+    /**
+     * Opens a stream that reads the file through this cache.
+     *
+     * @throws JcifsException
+     */
+    public InputStream getInputStream(JcifsFile file) throws JcifsException {
+        JcifsFileEntry entry = file.stat(true);
+        if (entry == null)
+            throw (new JcifsException("The system cannot find the file specified: " + file.getPath(), NT_STATUS_OBJECT_NAME_NOT_FOUND));
+        return new CachedInputStream(file, entry.getLastModified(), entry.length());
+    }
+
+    /**
+     * Removes every block of the file.
+     */
+    public void invalidate(JcifsFile file) {
+        invalidate(file.getPath());
+    }
+
+    public void invalidate(String path) {
+        ArrayList<File> deleted = new ArrayList<File>();
+        synchronized (this) {
+            Iterator<Map.Entry<BlockKey, Block>> it = mBlockList.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<BlockKey, Block> e = it.next();
+                if (e.getKey().mPath.equals(path)) {
+                    mCachedBytes -= e.getValue().mData.length;
+                    it.remove();
+                }
+            }
+            Iterator<Map.Entry<BlockKey, SpilledBlock>> sit = mSpillList.entrySet().iterator();
+            while (sit.hasNext()) {
+                Map.Entry<BlockKey, SpilledBlock> e = sit.next();
+                if (e.getKey().mPath.equals(path)) {
+                    mSpilledBytes -= e.getValue().mSize;
+                    deleted.add(e.getValue().mFile);
+                    sit.remove();
+                }
+            }
+        }
+        for (File f : deleted) f.delete();
+    }
+
+    public void clear() {
+        synchronized (this) {
+            mBlockList.clear();
+            mCachedBytes = 0;
+            clearSpill();
+        }
+    }
+
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    public double getHitRatio() {
+        long hit = mHitCount.get(), total = hit + mMissCount.get();
+        return total == 0 ? 0.0d : (double) hit / total;
+    }
+
+    /**
+     * @return bytes served from the cache instead of the server
+     */
+    public long getBytesSaved() {
+        return mBytesSaved.get();
+    }
+
+    public synchronized long getCachedBytes() {
+        return mCachedBytes;
+    }
+
+    public synchronized long getSpilledBytes() {
+        return mSpilledBytes;
+    }
+
+    public void resetStatistics() {
+        mHitCount.set(0);
+        mMissCount.set(0);
+        mBytesSaved.set(0);
+    }
+
+    private byte[] getBlock(BlockKey key, long last_modified, long length) {
+        SpilledBlock spilled;
+        synchronized (this) {
+            Block block = mBlockList.get(key);
+            if (block != null) {
+                if (block.mLastModified == last_modified && block.mLength == length) return block.mData;
+                mBlockList.remove(key);
+                mCachedBytes -= block.mData.length;
+            }
+            spilled = mSpillList.remove(key);
+            if (spilled != null) mSpilledBytes -= spilled.mSize;
+        }
+        if (spilled == null) return null;
+        byte[] data = null;
+        if (spilled.mLastModified == last_modified && spilled.mLength == length) data = readSpillFile(spilled);
+        spilled.mFile.delete();
+        if (data != null) putBlock(key, data, last_modified, length);
+        return data;
+    }
+
+    private void putBlock(BlockKey key, byte[] data, long last_modified, long length) {
+        ArrayList<Map.Entry<BlockKey, Block>> evicted = new ArrayList<Map.Entry<BlockKey, Block>>();
+        synchronized (this) {
+            Block old = mBlockList.put(key, new Block(data, last_modified, length));
+            if (old != null) mCachedBytes -= old.mData.length;
+            mCachedBytes += data.length;
+            Iterator<Map.Entry<BlockKey, Block>> it = mBlockList.entrySet().iterator();
+            while (mCachedBytes > mMaxBytes && it.hasNext()) {
+                Map.Entry<BlockKey, Block> e = it.next();
+                mCachedBytes -= e.getValue().mData.length;
+                if (mSpillDirectory != null) evicted.add(e);
+                it.remove();
+            }
+        }
+        for (Map.Entry<BlockKey, Block> e : evicted) spill(e.getKey(), e.getValue());
+    }
+
+    private void spill(BlockKey key, Block block) {
+        File dir;
+        synchronized (this) {
+            dir = mSpillDirectory;
+        }
+        if (dir == null) return;
+        File f = new File(dir, Integer.toHexString(key.mPath.hashCode()) + "-" + key.mIndex + "-" + System.nanoTime() + ".blk");
+        try {
+            FileOutputStream fos = new FileOutputStream(f);
+            try {
+                fos.write(block.mData);
+            } finally {
+                fos.close();
+            }
+        } catch (IOException e) {
+            log.error("spill IOException", e);
+            f.delete();
+            return;
+        }
+        ArrayList<File> deleted = new ArrayList<File>();
+        synchronized (this) {
+            SpilledBlock old = mSpillList.put(key, new SpilledBlock(f, block.mData.length, block.mLastModified, block.mLength));
+            if (old != null) {
+                mSpilledBytes -= old.mSize;
+                deleted.add(old.mFile);
+            }
+            mSpilledBytes += block.mData.length;
+            Iterator<Map.Entry<BlockKey, SpilledBlock>> it = mSpillList.entrySet().iterator();
+            while (mSpilledBytes > mMaxSpillBytes && it.hasNext()) {
+                SpilledBlock sb = it.next().getValue();
+                mSpilledBytes -= sb.mSize;
+                deleted.add(sb.mFile);
+                it.remove();
+            }
+        }
+        for (File d : deleted) d.delete();
+    }
+
+    private byte[] readSpillFile(SpilledBlock spilled) {
+        byte[] data = new byte[spilled.mSize];
+        try {
+            FileInputStream fis = new FileInputStream(spilled.mFile);
+            try {
+                int filled = 0;
+                while (filled < data.length) {
+                    int n = fis.read(data, filled, data.length - filled);
+                    if (n < 0) return null;
+                    filled += n;
+                }
+            } finally {
+                fis.close();
+            }
+        } catch (IOException e) {
+            log.error("readSpillFile IOException", e);
+            return null;
+        }
+        return data;
+    }
+
+    private void clearSpill() {
+        for (SpilledBlock sb : mSpillList.values()) sb.mFile.delete();
+        mSpillList.clear();
+        mSpilledBytes = 0;
+    }
+
+    private class CachedInputStream extends InputStream {
+        private final JcifsFile mFile;
+        private final String mUser;
+        private final String mPath;
+        private final long mLastModified;
+        private final long mLength;
+        private long mPosition = 0;
+        private JcifsRandomAccessFile mRaf = null;
+        private boolean mClosed = false;
+        private long mCurrentIndex = -1;
+        private byte[] mCurrentBlock = null;
+
+        CachedInputStream(JcifsFile file, long last_modified, long length) {
+            mFile = file;
+            mUser = getUser(file.getAuth());
+            mPath = file.getPath();
+            mLastModified = last_modified;
+            mLength = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int n = read(b, 0, 1);
+            return n <= 0 ? -1 : (b[0] & 0xff);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (mClosed) throw new IOException("Stream closed");
+            if (len == 0) return 0;
+            if (mPosition >= mLength) return -1;
+            long index = mPosition / mBlockSize;
+            if (index != mCurrentIndex) {
+                mCurrentBlock = loadBlock(index);
+                mCurrentIndex = index;
+            }
+            byte[] block = mCurrentBlock;
+            int offset = (int) (mPosition - index * mBlockSize);
+            int count = Math.min(len, block.length - offset);
+            if (count <= 0) return -1;
+            System.arraycopy(block, offset, b, off, count);
+            mPosition += count;
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = Math.max(0, Math.min(n, mLength - mPosition));
+            mPosition += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, mLength - mPosition);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mClosed) return;
+            mClosed = true;
+            mCurrentBlock = null;
+            if (mRaf != null) {
+                try {
+                    mRaf.close();
+                } catch (JcifsException e) {
+                    throw new IOException(e.getMessage(), e);
+                }
+            }
+        }
+
+        private byte[] loadBlock(long index) throws IOException {
+            BlockKey key = new BlockKey(mUser, mPath, index);
+            byte[] block = getBlock(key, mLastModified, mLength);
+            if (block != null) {
+                mHitCount.incrementAndGet();
+                mBytesSaved.addAndGet(block.length);
+                return block;
+            }
+            mMissCount.incrementAndGet();
+            long start = index * mBlockSize;
+            block = new byte[(int) Math.min(mBlockSize, mLength - start)];
+            try {
+                if (mRaf == null) mRaf = new JcifsRandomAccessFile(mFile, "r");
+                mRaf.seek(start);
+                mRaf.readFully(block, 0, block.length);
+            } catch (JcifsException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+            putBlock(key, block, mLastModified, mLength);
+            return block;
+        }
+    }
+
+    private static String getUser(JcifsAuth auth) {
+        String domain = auth.getDomain() == null ? "" : auth.getDomain().toLowerCase();
+        String user = auth.getUserName() == null ? "" : auth.getUserName().toLowerCase();
+        return auth.getSmbLevel() + ":" + domain + "\\" + user;
+    }
+
+    private static class BlockKey {
+        final String mUser;
+        final String mPath;
+        final long mIndex;
+
+        BlockKey(String user, String path, long index) {
+            mUser = user;
+            mPath = path;
+            mIndex = index;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof BlockKey)) return false;
+            BlockKey k = (BlockKey) o;
+            return mIndex == k.mIndex && mPath.equals(k.mPath) && mUser.equals(k.mUser);
+        }
+
+        @Override
+        public int hashCode() {
+            return (mUser.hashCode() * 31 + mPath.hashCode()) * 31 + (int) (mIndex ^ (mIndex >>> 32));
+        }
+    }
+
+    private static class Block {
+        final byte[] mData;
+        final long mLastModified;
+        final long mLength;
+
+        Block(byte[] data, long last_modified, long length) {
+            mData = data;
+            mLastModified = last_modified;
+            mLength = length;
+        }
+    }
+
+    private static class SpilledBlock {
+        final File mFile;
+        final int mSize;
+        final long mLastModified;
+        final long mLength;
+
+        SpilledBlock(File file, int size, long last_modified, long length) {
+            mFile = file;
+            mSize = size;
+            mLastModified = last_modified;
+            mLength = length;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.sentaroh.android.JcifsFile2;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2011-2018 Sentaroh
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights to use,
+copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software,
+and to permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+*/
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+/**
+ * Pool of transfer buffers shared by the copy helpers, so that copying many files does
+ * not allocate a large byte[] for every file.
+ */
+public class JcifsBufferPool {
+
+    /** jcifs-1.3.17 never reads or writes more than about 64KB per SMB1 request. */
+    final static public int SMB1_TRANSFER_BUFFER_SIZE = 64 * 1024;
+    /** SMB2 servers commonly negotiate a MaxReadSize/MaxWriteSize of 1MB or more. */
+    final static public int SMB212_TRANSFER_BUFFER_SIZE = 1024 * 1024;
+
+    final static public int DEFAULT_MAX_POOLED_BUFFERS = 16;
+
+    private static final HashMap<Integer, ArrayDeque<byte[]>> mPoolList = new HashMap<Integer, ArrayDeque<byte[]>>();
+    private static int mMaxPooledBuffers = DEFAULT_MAX_POOLED_BUFFERS;
+
+    private JcifsBufferPool() {
+    }
+
+    /**
+     * @return the buffer size that lets one buffer fill a whole SMB read or write request
+     */
+    public static int getTransferBufferSize(JcifsAuth auth) {
+        if (auth != null && auth.isSmb212()) return SMB212_TRANSFER_BUFFER_SIZE;
+        return SMB1_TRANSFER_BUFFER_SIZE;
+    }
+
+    /**
+     * Returns a pooled buffer of exactly the size, or a new one if none is pooled.
+     * The buffer must be returned with {@link #release(byte[])}.
+     */
+    public static byte[] acquire(int size) {
+        synchronized (mPoolList) {
+            ArrayDeque<byte[]> pool = mPoolList.get(size);
+            if (pool != null && !pool.isEmpty()) return pool.pollFirst();
+        }
+        return new byte[size];
+    }
+
+    public static void release(byte[] buffer) {
+        if (buffer == null) return;
+        synchronized (mPoolList) {
+            ArrayDeque<byte[]> pool = mPoolList.get(buffer.length);
+            if (pool == null) {
+                pool = new ArrayDeque<byte[]>();
+                mPoolList.put(buffer.length, pool);
+            }
+            if (pool.size() < mMaxPooledBuffers) pool.addFirst(buffer);
+        }
+    }
+
+    /**
+     * @param max_buffers maximum number of idle buffers kept for each buffer size
+     */
+    public static void setMaxPooledBuffers(int max_buffers) {
+        synchronized (mPoolList) {
+            mMaxPooledBuffers = max_buffers;
+            for (ArrayDeque<byte[]> pool : mPoolList.values()) {
+                while (pool.size() > mMaxPooledBuffers) pool.pollLast();
+            }
+        }
+    }
+
+    public static void clear() {
+        synchronized (mPoolList) {
+            mPoolList.clear();
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package com.sentaroh.android.JcifsFile2;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2011-2018 Sentaroh
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights to use,
+copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software,
+and to permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+*/
+
+import java.io.Closeable;
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the sessions of one JcifsAuth alive and reconnects them in the background.
+ *
+ * Neither library exposes an SMB echo request, so every monitored server is probed with
+ * a request that always goes over the wire: a listing of a share root, or of the shares of
+ * the server. An existence check is not enough, as both libraries answer it for a share
+ * root or IPC$ from the tree they already hold. Regular probes keep NAT and firewall state
+ * alive. A failed probe makes the library drop the transport; the monitor
+ * then probes again with increasing delays until the session is re-established, so that
+ * foreground calls find a working connection instead of waiting for the socket timeout.
+ */
+public class JcifsConnectionMonitor implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(JcifsConnectionMonitor.class);
+
+    final static public long DEFAULT_PROBE_INTERVAL = 60000L;
+    final static public long DEFAULT_RECONNECT_DELAY = 2000L;
+
+    final static public int STATE_UNKNOWN = 0;
+    final static public int STATE_CONNECTED = 1;
+    final static public int STATE_DISCONNECTED = 2;
+
+    public interface StateListener {
+        /**
+         * Called from the monitor thread when the state of a server changes.
+         */
+        void onStateChanged(HostStatus status, int old_state);
+    }
+
+    private final JcifsAuth mAuth;
+    private long mProbeInterval = DEFAULT_PROBE_INTERVAL;
+    private long mReconnectDelay = DEFAULT_RECONNECT_DELAY;
+    private StateListener mListener = null;
+
+    private final LinkedHashMap<String, HostStatus> mHostList = new LinkedHashMap<String, HostStatus>();
+    private final ScheduledExecutorService mScheduler;
+
+    public JcifsConnectionMonitor(JcifsAuth auth) {
+        mAuth = auth;
+        mScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread th = new Thread(r, "JcifsConnectionMonitor");
+                th.setDaemon(true);
+                return th;
+            }
+        });
+    }
+
+    /**
+     * @param interval time between two probes of a healthy server. Should be shorter than
+     *                 the idle timeout of NAT devices and of the server.
+     */
+    public JcifsConnectionMonitor setProbeInterval(long interval) {
+        mProbeInterval = Math.max(1000L, interval);
+        return this;
+    }
+
+    /**
+     * @param delay first delay before a reconnect attempt, doubled after every failure
+     *              up to the probe interval
+     */
+    public JcifsConnectionMonitor setReconnectDelay(long delay) {
+        mReconnectDelay = Math.max(100L, delay);
+        return this;
+    }
+
+    public JcifsConnectionMonitor setStateListener(StateListener listener) {
+        mListener = listener;
+        return this;
+    }
+
+    /**
+     * Starts monitoring the server of the url. The first probe runs immediately.
+     *
+     * @param url "smb://server/" or "smb://server/share/". The root of a share is listed
+     *            when given, the shares of the server otherwise; a share with a small
+     *            root makes the cheaper probe.
+     */
+    public void addHost(String url) throws JcifsException {
+        String probe_url = getProbeUrl(url);
+        JcifsFile probe;
+        try {
+            probe = new JcifsFile(probe_url, mAuth);
+        } catch (MalformedURLException e) {
+            throw (new JcifsException(e, 0, e.getCause()));
+        }
+        String key = JcifsHostLimiter.getHostKey(probe.getServer());
+        synchronized (mHostList) {
+            if (mHostList.containsKey(key)) return;
+            HostStatus status = new HostStatus(probe.getServer(), probe);
+            mHostList.put(key, status);
+            schedule(status, 0);
+        }
+    }
+
+    public void removeHost(String host) {
+        synchronized (mHostList) {
+            HostStatus status = mHostList.remove(JcifsHostLimiter.getHostKey(host));
+            if (status != null && status.mTask != null) status.mTask.cancel(false);
+        }
+    }
+
+    /**
+     * Probes the server now, e.g. after the network changed.
+     */
+    public void probeNow(String host) {
+        synchronized (mHostList) {
+            HostStatus status = mHostList.get(JcifsHostLimiter.getHostKey(host));
+            if (status == null) return;
+            if (status.mTask != null) status.mTask.cancel(false);
+            schedule(status, 0);
+        }
+    }
+
+    public HostStatus getHostStatus(String host) {
+        synchronized (mHostList) {
+            return mHostList.get(JcifsHostLimiter.getHostKey(host));
+        }
+    }
+
+    public List<HostStatus> getHostStatusList() {
+        synchronized (mHostList) {
+            return new ArrayList<HostStatus>(mHostList.values());
+        }
+    }
+
+    @Override
+    public void close() {
+        mScheduler.shutdownNow();
+        synchronized (mHostList) {
+            mHostList.clear();
+        }
+    }
+
+    private void schedule(final HostStatus status, long delay) {
+        if (mScheduler.isShutdown()) return;
+        status.mTask = mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                probe(status);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void probe(HostStatus status) {
+        synchronized (mHostList) {
+            if (mHostList.get(JcifsHostLimiter.getHostKey(status.mHost)) != status) return;
+        }
+        int old_state = status.mState;
+        long start = System.currentTimeMillis();
+        long next;
+        try {
+            status.mProbe.list();
+            long now = System.currentTimeMillis();
+            synchronized (status) {
+                status.mLatency = now - start;
+                status.mLastSuccessTime = now;
+                status.mLastProbeTime = now;
+                status.mLastError = null;
+                status.mFailureCount = 0;
+                if (old_state == STATE_DISCONNECTED) status.mReconnectCount++;
+                status.mState = STATE_CONNECTED;
+            }
+            next = mProbeInterval;
+        } catch (JcifsException e) {
+            synchronized (status) {
+                status.mLastProbeTime = System.currentTimeMillis();
+                status.mLastError = e;
+                status.mFailureCount++;
+                status.mState = STATE_DISCONNECTED;
+                next = Math.min(mProbeInterval, mReconnectDelay << Math.min(status.mFailureCount - 1, 16));
+            }
+            log.debug("probe " + status.mHost + " failed, status=" + String.format("0x%08x", e.getNtStatus()));
+        }
+        if (old_state != status.mState) notifyStateChanged(status, old_state);
+        synchronized (mHostList) {
+            if (mHostList.get(JcifsHostLimiter.getHostKey(status.mHost)) == status) schedule(status, next);
+        }
+    }
+
+    private void notifyStateChanged(HostStatus status, int old_state) {
+        StateListener listener = mListener;
+        if (listener == null) return;
+        try {
+            listener.onStateChanged(status, old_state);
+        } catch (RuntimeException e) {
+            log.error("connection monitor listener RuntimeException", e);
+        }
+    }
+
+    final static String getProbeUrl(String url) {
+        String path = url.startsWith("smb://") ? url.substring(6) : url;
+        int host_end = path.indexOf('/');
+        String host = host_end < 0 ? path : path.substring(0, host_end);
+        String rest = host_end < 0 ? "" : path.substring(host_end + 1);
+        int share_end = rest.indexOf('/');
+        String share = share_end < 0 ? rest : rest.substring(0, share_end);
+        return "smb://" + host + "/" + (share.length() == 0 ? "" : share + "/");
+    }
+
+    /**
+     * State of one monitored server.
+     */
+    public static class HostStatus {
+        private final String mHost;
+        private final JcifsFile mProbe;
+        private int mState = STATE_UNKNOWN;
+        private int mReconnectCount = 0;
+        private int mFailureCount = 0;
+        private long mLatency = -1;
+        private long mLastProbeTime = 0;
+        private long mLastSuccessTime = 0;
+        private JcifsException mLastError = null;
+        private ScheduledFuture<?> mTask = null;
+
+        HostStatus(String host, JcifsFile probe) {
+            mHost = host;
+            mProbe = probe;
+        }
+
+        public String getHost() {
+            return mHost;
+        }
+
+        /**
+         * @return STATE_UNKNOWN before the first probe, STATE_CONNECTED or STATE_DISCONNECTED
+         */
+        public synchronized int getState() {
+            return mState;
+        }
+
+        /**
+         * @return number of times the session came back after a failed probe
+         */
+        public synchronized int getReconnectCount() {
+            return mReconnectCount;
+        }
+
+        /**
+         * @return failed probes since the last successful one
+         */
+        public synchronized int getFailureCount() {
+            return mFailureCount;
+        }
+
+        /**
+         * @return round trip time of the last successful probe in milliseconds, -1 if none
+         */
+        public synchronized long getLatency() {
+            return mLatency;
+        }
+
+        public synchronized long getLastProbeTime() {
+            return mLastProbeTime;
+        }
+
+        public synchronized long getLastSuccessTime() {
+            return mLastSuccessTime;
+        }
+
+        public synchronized JcifsException getLastError() {
+            return mLastError;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return mHost + " state=" + (mState == STATE_CONNECTED ? "CONNECTED" : mState == STATE_DISCONNECTED ? "DISCONNECTED" : "UNKNOWN")
+                    + " reconnects=" + mReconnectCount + " failures=" + mFailureCount + " latency=" + mLatency;
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package com.sentaroh.android.JcifsFile2;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2011-2018 Sentaroh
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights to use,
+copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software,
+and to permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+*/
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registry of shared jcifs-ng contexts.
+ *
+ * Every JcifsAuth created with the same SMB level, credentials and client settings
+ * gets the same CIFSContext, so all of them share one transport pool and one
+ * negotiated session per server. Contexts are referenced by their JcifsAuth objects and
+ * closed when they have been unused for longer than the idle timeout. A JcifsAuth stops
+ * using its context with JcifsAuth.close(), or when it is garbage collected.
+ *
+ * jcifs-1.3.17 (SMB1) keeps a process wide transport pool by itself, so only SMB212
+ * contexts are pooled here.
+ */
+public class JcifsContextPool {
+
+    private static final Logger log = LoggerFactory.getLogger(JcifsContextPool.class);
+
+    final static public long DEFAULT_IDLE_TIMEOUT = 5L * 60L * 1000L;
+
+    private static final HashMap<ContextKey, ContextEntry> mContextList = new HashMap<ContextKey, ContextEntry>();
+    private static final ReferenceQueue<JcifsAuth> mCollectedList = new ReferenceQueue<JcifsAuth>();
+    private static long mIdleTimeout = DEFAULT_IDLE_TIMEOUT;
+
+    private JcifsContextPool() {
+    }
+
+    /**
+     * Returns the shared context for the key and adds the owner to its references. The
+     * reference is dropped by {@link #release(ContextKey, JcifsAuth)}, or when the owner has
+     * been garbage collected.
+     */
+    @SuppressWarnings("deprecation")
+    static synchronized jcifsng212.CIFSContext acquire(ContextKey key, JcifsAuth owner) throws jcifsng212.CIFSException {
+        evictIdleContextsLocked(System.currentTimeMillis());
+        ContextEntry entry = mContextList.get(key);
+        if (entry == null) {
+            jcifsng212.context.BaseContext bc = new jcifsng212.context.BaseContext(new jcifsng212.config.PropertyConfiguration(key.toProperties()));
+            jcifsng212.smb.NtlmPasswordAuthentication creds = new jcifsng212.smb.NtlmPasswordAuthentication(bc, key.mDomain, key.mUserName, key.mUserPass);
+            entry = new ContextEntry(bc, bc.withCredentials(creds));
+            mContextList.put(key, entry);
+        }
+        entry.mOwnerList.add(new OwnerReference(owner, key, mCollectedList));
+        return entry.mAuthContext;
+    }
+
+    /**
+     * Drops the reference of the owner. The context stays open until it has been idle for
+     * the idle timeout so that a following JcifsAuth can reuse it.
+     */
+    static synchronized void release(ContextKey key, JcifsAuth owner) {
+        ContextEntry entry = mContextList.get(key);
+        if (entry == null) return;
+        Iterator<OwnerReference> it = entry.mOwnerList.iterator();
+        while (it.hasNext()) {
+            OwnerReference ref = it.next();
+            if (ref.get() == owner) {
+                it.remove();
+                ref.clear();
+                break;
+            }
+        }
+        if (entry.mOwnerList.isEmpty()) entry.mIdleSince = System.currentTimeMillis();
+        evictIdleContextsLocked(System.currentTimeMillis());
+    }
+
+    /**
+     * Drops the references of the JcifsAuth objects garbage collected without close().
+     */
+    private static void releaseCollectedLocked() {
+        Reference<? extends JcifsAuth> collected;
+        while ((collected = mCollectedList.poll()) != null) {
+            OwnerReference ref = (OwnerReference) collected;
+            ContextEntry entry = mContextList.get(ref.mKey);
+            if (entry != null && entry.mOwnerList.remove(ref) && entry.mOwnerList.isEmpty())
+                entry.mIdleSince = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Closes every context that is not referenced and has been idle longer than the idle timeout.
+     *
+     * @return number of closed contexts
+     */
+    public static synchronized int evictIdleContexts() {
+        return evictIdleContextsLocked(System.currentTimeMillis());
+    }
+
+    /**
+     * Closes every context that is not referenced, regardless of the idle time.
+     *
+     * @return number of closed contexts
+     */
+    public static synchronized int closeUnusedContexts() {
+        return evictIdleContextsLocked(Long.MAX_VALUE);
+    }
+
+    public static synchronized void setIdleTimeout(long timeout) {
+        mIdleTimeout = timeout;
+    }
+
+    public static synchronized long getIdleTimeout() {
+        return mIdleTimeout;
+    }
+
+    public static synchronized int getContextCount() {
+        return mContextList.size();
+    }
+
+    public static synchronized int getActiveContextCount() {
+        releaseCollectedLocked();
+        int count = 0;
+        for (ContextEntry entry : mContextList.values()) {
+            if (!entry.mOwnerList.isEmpty()) count++;
+        }
+        return count;
+    }
+
+    private static int evictIdleContextsLocked(long now) {
+        releaseCollectedLocked();
+        ArrayList<ContextEntry> evicted = new ArrayList<ContextEntry>();
+        Iterator<Map.Entry<ContextKey, ContextEntry>> it = mContextList.entrySet().iterator();
+        while (it.hasNext()) {
+            ContextEntry entry = it.next().getValue();
+            if (entry.mOwnerList.isEmpty() && (now == Long.MAX_VALUE || now - entry.mIdleSince >= mIdleTimeout)) {
+                evicted.add(entry);
+                it.remove();
+            }
+        }
+        for (ContextEntry entry : evicted) {
+            try {
+                entry.mBaseContext.close();
+            } catch (jcifsng212.CIFSException e) {
+                log.error("evictIdleContexts CIFSException", e);
+            }
+        }
+        return evicted.size();
+    }
+
+    private static class ContextEntry {
+        final jcifsng212.context.BaseContext mBaseContext;
+        final jcifsng212.CIFSContext mAuthContext;
+        final ArrayList<OwnerReference> mOwnerList = new ArrayList<OwnerReference>();
+        long mIdleSince = 0;
+
+        ContextEntry(jcifsng212.context.BaseContext base, jcifsng212.CIFSContext auth) {
+            mBaseContext = base;
+            mAuthContext = auth;
+        }
+    }
+
+    private static class OwnerReference extends WeakReference<JcifsAuth> {
+        final ContextKey mKey;
+
+        OwnerReference(JcifsAuth owner, ContextKey key, ReferenceQueue<JcifsAuth> queue) {
+            super(owner, queue);
+            mKey = key;
+        }
+    }
+
+    /**
+     * Identifies a shared context. A null client setting means the jcifs-ng default is used.
+     */
+    static class ContextKey {
+        final int mSmbLevel;
+        final String mDomain, mUserName, mUserPass;
+        final Boolean mIpcSigningEnforced;
+        final Boolean mUseSmb2Negotiation;
+        final String mMinVersion, mMaxVersion;
+
+        ContextKey(int smb_level, String domain, String user, String pass,
+                   Boolean ipc_signing_enforced, Boolean use_smb2_nego, String min_version, String max_version) {
+            mSmbLevel = smb_level;
+            mDomain = domain;
+            mUserName = user;
+            mUserPass = pass;
+            mIpcSigningEnforced = ipc_signing_enforced;
+            mUseSmb2Negotiation = use_smb2_nego;
+            mMinVersion = min_version;
+            mMaxVersion = max_version;
+        }
+
+        Properties toProperties() {
+            Properties prop = new Properties();
+            if (mIpcSigningEnforced != null)
+                prop.setProperty("jcifs.smb.client.ipcSigningEnforced", mIpcSigningEnforced ? "true" : "false");
+            if (mUseSmb2Negotiation != null)
+                prop.setProperty("jcifs.smb.client.useSMB2Negotiation", mUseSmb2Negotiation ? "true" : "false");
+            prop.setProperty("jcifs.smb.client.minVersion", mMinVersion);
+            prop.setProperty("jcifs.smb.client.maxVersion", mMaxVersion);
+            return prop;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ContextKey)) return false;
+            ContextKey k = (ContextKey) o;
+            return mSmbLevel == k.mSmbLevel && isEqual(mDomain, k.mDomain) && isEqual(mUserName, k.mUserName) &&
+                    isEqual(mUserPass, k.mUserPass) && isEqual(mIpcSigningEnforced, k.mIpcSigningEnforced) &&
+                    isEqual(mUseSmb2Negotiation, k.mUseSmb2Negotiation) &&
+                    isEqual(mMinVersion, k.mMinVersion) && isEqual(mMaxVersion, k.mMaxVersion);
+        }
+
+        @Override
+        public int hashCode() {
+            int h = mSmbLevel;
+            h = 31 * h + hash(mDomain);
+            h = 31 * h + hash(mUserName);
+            h = 31 * h + hash(mIpcSigningEnforced);
+            h = 31 * h + hash(mUseSmb2Negotiation);
+            h = 31 * h + hash(mMinVersion);
+            h = 31 * h + hash(mMaxVersion);
+            return h;
+        }
+
+        private static boolean isEqual(Object a, Object b) {
+            return a == null ? b == null : a.equals(b);
+        }
+
+        private static int hash(Object o) {
+            return o == null ? 0 : o.hashCode();
+        }
+    }
+}
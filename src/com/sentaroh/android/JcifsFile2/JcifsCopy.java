@@ -0,0 +1,322 @@
+package com.sentaroh.android.JcifsFile2;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2011-2018 Sentaroh
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights to use,
+copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software,
+and to permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+*/
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Copies files between SMB shares and the local file system.
+ *
+ * Data is moved in buffers taken from JcifsBufferPool, sized so that one buffer fills a
+ * whole SMB read or write request. The local side uses a FileChannel. The destination is
+ * written under a temporary name and renamed when complete, so readers never see a
+ * partially written file. One JcifsCopy may run several copies at the same time.
+ *
+ * A remote to remote copy within one share of an SMB212 server is done by the server, so
+ * the data never passes through this client. Progress is then reported once at the end.
+ */
+public class JcifsCopy {
+
+    private static final Logger log = LoggerFactory.getLogger(JcifsCopy.class);
+
+    public interface ProgressListener {
+        /**
+         * @param copied bytes copied so far
+         * @param total  size of the source file
+         */
+        void onProgress(long copied, long total);
+    }
+
+    private int mBufferSize = 0;
+    private boolean mPreserveLastModified = true;
+    private boolean mUseTemporaryFile = true;
+    private ProgressListener mListener = null;
+    private volatile boolean mCancelled = false;
+    private volatile int mCancelGeneration = 0;
+
+    public JcifsCopy() {
+    }
+
+    /**
+     * @param size transfer buffer size, 0 is use JcifsBufferPool.getTransferBufferSize()
+     */
+    public JcifsCopy setBufferSize(int size) {
+        mBufferSize = size;
+        return this;
+    }
+
+    public JcifsCopy setPreserveLastModified(boolean preserve) {
+        mPreserveLastModified = preserve;
+        return this;
+    }
+
+    /**
+     * @param use true is write to a temporary name and rename to the destination at the end
+     */
+    public JcifsCopy setUseTemporaryFile(boolean use) {
+        mUseTemporaryFile = use;
+        return this;
+    }
+
+    public JcifsCopy setProgressListener(ProgressListener listener) {
+        mListener = listener;
+        return this;
+    }
+
+    /**
+     * Stops all copies running on this JcifsCopy. Their temporary files are deleted.
+     * Copies started after cancel() run normally.
+     */
+    public synchronized void cancel() {
+        mCancelled = true;
+        mCancelGeneration++;
+    }
+
+    /**
+     * @return true if cancel() was called after the last copy started
+     */
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    private synchronized int startCopy() {
+        mCancelled = false;
+        return mCancelGeneration;
+    }
+
+    /**
+     * Copies a remote file to a local file.
+     *
+     * @return number of bytes copied
+     * @throws JcifsException
+     */
+    public long copy(JcifsFile src, File dest) throws JcifsException {
+        int generation = startCopy();
+        long total = src.length();
+        long last_modified = mPreserveLastModified ? src.getLastModified() : 0L;
+        File temp = mUseTemporaryFile ? new File(dest.getParentFile(), getTemporaryName(dest.getName())) : dest;
+        long copied = 0;
+        boolean completed = false;
+        InputStream is = src.getInputStream();
+        byte[] buffer = JcifsBufferPool.acquire(getBufferSize(src.getAuth()));
+        try {
+            FileOutputStream fos = new FileOutputStream(temp);
+            try {
+                FileChannel out = fos.getChannel();
+                ByteBuffer bb = ByteBuffer.wrap(buffer);
+                int n;
+                while ((n = is.read(buffer)) > 0) {
+                    checkCancelled(generation);
+                    bb.clear().limit(n);
+                    while (bb.hasRemaining()) out.write(bb);
+                    copied += n;
+                    notifyProgress(copied, total);
+                }
+            } finally {
+                fos.close();
+            }
+            if (mPreserveLastModified) temp.setLastModified(last_modified);
+            if (temp != dest) {
+                if (dest.exists() && !dest.delete()) throw new JcifsException("Destination file can not be replaced: " + dest.getPath());
+                if (!temp.renameTo(dest)) throw new JcifsException("Temporary file can not be renamed: " + temp.getPath());
+            }
+            completed = true;
+        } catch (IOException e) {
+            throw JcifsException.fromIOException(e);
+        } finally {
+            closeStream(is);
+            JcifsBufferPool.release(buffer);
+            if (!completed && temp != dest) temp.delete();
+        }
+        return copied;
+    }
+
+    /**
+     * Copies a local file to a remote file.
+     *
+     * @return number of bytes copied
+     * @throws JcifsException
+     */
+    public long copy(File src, JcifsFile dest) throws JcifsException {
+        int generation = startCopy();
+        long total = src.length();
+        long last_modified = src.lastModified();
+        JcifsFile temp = mUseTemporaryFile ? getTemporaryFile(dest) : dest;
+        long copied = 0;
+        boolean completed = false;
+        byte[] buffer = JcifsBufferPool.acquire(getBufferSize(dest.getAuth()));
+        try {
+            FileInputStream fis = new FileInputStream(src);
+            try {
+                FileChannel in = fis.getChannel();
+                ByteBuffer bb = ByteBuffer.wrap(buffer);
+                OutputStream os = temp.getOutputStream();
+                try {
+                    int n;
+                    while ((n = in.read(bb)) >= 0) {
+                        checkCancelled(generation);
+                        if (n > 0) {
+                            os.write(buffer, 0, n);
+                            copied += n;
+                            notifyProgress(copied, total);
+                        }
+                        bb.clear();
+                    }
+                } finally {
+                    os.close();
+                }
+            } finally {
+                fis.close();
+            }
+            finishRemote(temp, dest, last_modified);
+            completed = true;
+        } catch (IOException e) {
+            throw JcifsException.fromIOException(e);
+        } finally {
+            JcifsBufferPool.release(buffer);
+            if (!completed && temp != dest) deleteQuietly(temp);
+        }
+        return copied;
+    }
+
+    /**
+     * Copies a remote file to another remote file, on the server if both are in one share.
+     *
+     * @return number of bytes copied
+     * @throws JcifsException
+     */
+    public long copy(JcifsFile src, JcifsFile dest) throws JcifsException {
+        int generation = startCopy();
+        long total = src.length();
+        long last_modified = mPreserveLastModified ? src.getLastModified() : 0L;
+        JcifsFile temp = mUseTemporaryFile ? getTemporaryFile(dest) : dest;
+        if (copyOnServer(src, temp, dest, total, last_modified, generation)) return total;
+        long copied = 0;
+        boolean completed = false;
+        InputStream is = src.getInputStream();
+        byte[] buffer = JcifsBufferPool.acquire(Math.max(getBufferSize(src.getAuth()), getBufferSize(dest.getAuth())));
+        try {
+            OutputStream os = temp.getOutputStream();
+            try {
+                int n;
+                while ((n = is.read(buffer)) > 0) {
+                    checkCancelled(generation);
+                    os.write(buffer, 0, n);
+                    copied += n;
+                    notifyProgress(copied, total);
+                }
+            } finally {
+                os.close();
+            }
+            finishRemote(temp, dest, last_modified);
+            completed = true;
+        } catch (IOException e) {
+            throw JcifsException.fromIOException(e);
+        } finally {
+            closeStream(is);
+            JcifsBufferPool.release(buffer);
+            if (!completed && temp != dest) deleteQuietly(temp);
+        }
+        return copied;
+    }
+
+    /**
+     * @return false if the server cannot or refuses to copy src to temp, the caller streams
+     * the data then
+     */
+    private boolean copyOnServer(JcifsFile src, JcifsFile temp, JcifsFile dest, long total, long last_modified, int generation) throws JcifsException {
+        checkCancelled(generation);
+        try {
+            if (!src.serverCopyTo(temp)) return false;
+            finishRemote(temp, dest, last_modified);
+        } catch (JcifsException e) {
+            if (temp != dest) deleteQuietly(temp);
+            throw e;
+        }
+        notifyProgress(total, total);
+        return true;
+    }
+
+    private void finishRemote(JcifsFile temp, JcifsFile dest, long last_modified) throws JcifsException {
+        if (mPreserveLastModified) temp.setLastModified(last_modified);
+        if (temp != dest) {
+            if (dest.exists()) dest.delete();
+            temp.renameTo(dest);
+        }
+    }
+
+    private int getBufferSize(JcifsAuth auth) {
+        if (mBufferSize > 0) return mBufferSize;
+        return JcifsBufferPool.getTransferBufferSize(auth);
+    }
+
+    private void checkCancelled(int generation) throws JcifsException {
+        if (mCancelGeneration != generation) throw new JcifsException("Copy cancelled.");
+    }
+
+    private void notifyProgress(long copied, long total) {
+        ProgressListener listener = mListener;
+        if (listener != null) listener.onProgress(copied, total);
+    }
+
+    final static String getTemporaryName(String name) {
+        String base = name.endsWith("/") ? name.substring(0, name.length() - 1) : name;
+        return "." + base + "." + Long.toHexString(System.nanoTime()) + ".tmp";
+    }
+
+    final static JcifsFile getTemporaryFile(JcifsFile dest) throws JcifsException {
+        try {
+            return new JcifsFile(dest.getParent() + getTemporaryName(dest.getName()), dest.getAuth());
+        } catch (MalformedURLException e) {
+            throw (new JcifsException(e, 0, e.getCause()));
+        }
+    }
+
+    private static void closeStream(InputStream is) {
+        try {
+            is.close();
+        } catch (IOException e) {
+            log.error("copy InputStream close IOException", e);
+        }
+    }
+
+    private static void deleteQuietly(JcifsFile file) {
+        try {
+            if (file.exists()) file.delete();
+        } catch (JcifsException e) {
+            log.error("copy temporary file delete JcifsException", e);
+        }
+    }
+}
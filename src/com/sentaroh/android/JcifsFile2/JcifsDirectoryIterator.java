@@ -0,0 +1,199 @@
+package com.sentaroh.android.JcifsFile2;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2011-2018 Sentaroh
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights to use,
+copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software,
+and to permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+*/
+
+import java.io.Closeable;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lazy iterator over the entries of a directory.
+ *
+ * Entries are returned page by page while the directory query is still running, so the
+ * first entry is available after the first response and the whole directory is never
+ * held in memory. The iterator must be closed, which also stops the directory query.
+ *
+ * Backends with a lazy listing API, e.g. the jcifs-ng children iterator of SMB212, are
+ * used directly and filter the wildcard themselves. jcifs-1.3.17 has no lazy listing API,
+ * so for SMB1 the listing runs on a helper thread and its handler hands every entry over
+ * through a bounded queue. The wildcard is matched on the client in that case. jcifs-1.3.17
+ * only sends FIND_CLOSE2 when the enumeration ends normally, so closing the iterator early
+ * does not abort the SMB1 query; the helper thread drops the remaining entries instead.
+ */
+public class JcifsDirectoryIterator implements Closeable {
+
+    final static private int LIST_QUEUE_SIZE = 512;
+    final static private long LIST_OFFER_INTERVAL = 100L;
+
+    private final JcifsFile mDirectory;
+    private final String mWildcard;
+    private JcifsFileEntry mNext = null;
+    private boolean mEnded = false;
+    private volatile boolean mClosed = false;
+
+    private JcifsBackend.Children mChildren = null;
+
+    private ArrayBlockingQueue<Object> mListQueue = null;
+    private Thread mListThread = null;
+    private volatile JcifsException mListError = null;
+    private volatile boolean mListStopped = false;
+    private static final Object END_OF_LIST = new Object();
+
+    JcifsDirectoryIterator(JcifsFile dir, String wildcard) throws JcifsException {
+        mDirectory = dir;
+        mWildcard = (wildcard == null || wildcard.equals("*")) ? null : wildcard;
+        mChildren = dir.getBackend().children(mWildcard);
+        if (mChildren == null) startListing();
+    }
+
+    public boolean hasNext() throws JcifsException {
+        if (mNext != null) return true;
+        if (mEnded || mClosed) return false;
+        if (mChildren != null) mNext = nextChild();
+        else mNext = nextListed();
+        if (mNext == null) mEnded = true;
+        return mNext != null;
+    }
+
+    public JcifsFileEntry next() throws JcifsException {
+        if (!hasNext()) throw new NoSuchElementException();
+        JcifsFileEntry entry = mNext;
+        mNext = null;
+        return entry;
+    }
+
+    /**
+     * Stops the directory query and releases its resources.
+     */
+    @Override
+    public void close() {
+        if (mClosed) return;
+        mClosed = true;
+        mNext = null;
+        if (mChildren != null) mChildren.close();
+        if (mListQueue != null) mListQueue.clear();
+    }
+
+    public JcifsFile getDirectory() {
+        return mDirectory;
+    }
+
+    private JcifsFileEntry nextChild() throws JcifsException {
+        if (!mChildren.hasNext()) return null;
+        JcifsFileEntry entry = JcifsFileEntry.fromBackend(new JcifsFile(mDirectory.getAuth(), mChildren.next()));
+        mDirectory.getAuth().putMetadata(entry);
+        return entry;
+    }
+
+    private JcifsFileEntry nextListed() throws JcifsException {
+        Object item;
+        try {
+            item = mListQueue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw (new JcifsException(e, 0, e.getCause()));
+        }
+        if (item == END_OF_LIST) {
+            JcifsException e = mListError;
+            if (e != null) throw e;
+            return null;
+        }
+        return (JcifsFileEntry) item;
+    }
+
+    private void startListing() {
+        mListQueue = new ArrayBlockingQueue<Object>(LIST_QUEUE_SIZE);
+        final JcifsAuth auth = mDirectory.getAuth();
+        final JcifsBackend.ListHandler handler = new JcifsBackend.ListHandler() {
+            @Override
+            public void onEntry(JcifsBackend child) throws JcifsException {
+                if (mClosed || mListStopped) return;
+                if (mWildcard == null || isWildcardMatch(mWildcard, child.getName())) {
+                    JcifsFileEntry entry = JcifsFileEntry.fromBackend(new JcifsFile(auth, child));
+                    auth.putMetadata(entry);
+                    offerListed(entry);
+                }
+            }
+        };
+        mListThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mDirectory.getBackend().listFiles(handler);
+                } catch (JcifsException e) {
+                    mListError = e;
+                } finally {
+                    offerListed(END_OF_LIST);
+                }
+            }
+        }, "JcifsDirectoryIterator");
+        mListThread.setDaemon(true);
+        mListThread.start();
+    }
+
+    /**
+     * Waits for room in the queue. Stops queueing, without ending the listing, when the
+     * consumer closed the iterator or the helper thread was interrupted.
+     */
+    private void offerListed(Object item) {
+        try {
+            while (!mListQueue.offer(item, LIST_OFFER_INTERVAL, TimeUnit.MILLISECONDS)) {
+                if (mClosed) {
+                    mListStopped = true;
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            mListStopped = true;
+        }
+    }
+
+    /**
+     * Matches a name against a DOS style wildcard ('*' and '?'), ignoring case.
+     * A trailing "/" of directory names is ignored.
+     */
+    final static boolean isWildcardMatch(String wildcard, String name) {
+        String n = name.endsWith("/") ? name.substring(0, name.length() - 1) : name;
+        String w = wildcard.toLowerCase();
+        n = n.toLowerCase();
+        int wi = 0, ni = 0, star = -1, mark = 0;
+        while (ni < n.length()) {
+            if (wi < w.length() && (w.charAt(wi) == '?' || w.charAt(wi) == n.charAt(ni))) {
+                wi++;
+                ni++;
+            } else if (wi < w.length() && w.charAt(wi) == '*') {
+                star = wi++;
+                mark = ni;
+            } else if (star >= 0) {
+                wi = star + 1;
+                ni = ++mark;
+            } else {
+                return false;
+            }
+        }
+        while (wi < w.length() && w.charAt(wi) == '*') wi++;
+        return wi == w.length();
+    }
+}
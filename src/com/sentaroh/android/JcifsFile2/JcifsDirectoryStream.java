@@ -0,0 +1,104 @@
+package com.sentaroh.android.JcifsFile2;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2011-2018 Sentaroh
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights to use,
+copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software,
+and to permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+*/
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * DirectoryStream on a JcifsDirectoryIterator, so entries are returned while the directory
+ * query is still running. Every path keeps the metadata of its entry for readAttributes().
+ */
+class JcifsDirectoryStream implements DirectoryStream<Path> {
+
+    private final JcifsPath mDirectory;
+    private final JcifsDirectoryIterator mIterator;
+    private final Filter<? super Path> mFilter;
+    private boolean mIteratorReturned = false;
+    private boolean mClosed = false;
+
+    JcifsDirectoryStream(JcifsPath dir, JcifsDirectoryIterator iterator, Filter<? super Path> filter) {
+        mDirectory = dir;
+        mIterator = iterator;
+        mFilter = filter;
+    }
+
+    @Override
+    public synchronized Iterator<Path> iterator() {
+        if (mClosed) throw new IllegalStateException("Directory stream is closed");
+        if (mIteratorReturned) throw new IllegalStateException("Iterator already obtained");
+        mIteratorReturned = true;
+        return new Iterator<Path>() {
+            private Path mNext = null;
+
+            @Override
+            public boolean hasNext() {
+                if (mNext == null) mNext = readNext();
+                return mNext != null;
+            }
+
+            @Override
+            public Path next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                Path path = mNext;
+                mNext = null;
+                return path;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("remove");
+            }
+        };
+    }
+
+    private Path readNext() {
+        try {
+            while (!isClosed() && mIterator.hasNext()) {
+                JcifsPath path = mDirectory.resolveEntry(mIterator.next());
+                if (mFilter == null || mFilter.accept(path)) return path;
+            }
+            return null;
+        } catch (JcifsException e) {
+            throw new DirectoryIteratorException(JcifsFileSystemProvider.toIOException(e, mDirectory.toString()));
+        } catch (IOException e) {
+            throw new DirectoryIteratorException(e);
+        }
+    }
+
+    private synchronized boolean isClosed() {
+        return mClosed;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (mClosed) return;
+        mClosed = true;
+        mIterator.close();
+    }
+}
@@ -52,6 +52,19 @@ public class JcifsException extends Exception {
         mNtStatus =nt_status;
     }
 
+    /**
+     * Converts an IOException raised by a stream or random access file of either library,
+     * keeping the NT status when the exception carries one. jcifs-1.3.17 keeps the cause of
+     * an SmbException in getRootCause() instead of getCause().
+     */
+    static JcifsException fromIOException(java.io.IOException e) {
+        if (e instanceof jcifs.smb.SmbException)
+            return new JcifsException(e, ((jcifs.smb.SmbException) e).getNtStatus(), ((jcifs.smb.SmbException) e).getRootCause());
+        if (e instanceof jcifsng212.smb.SmbException)
+            return new JcifsException(e, ((jcifsng212.smb.SmbException) e).getNtStatus(), e.getCause());
+        return new JcifsException(e, 0, e.getCause());
+    }
+
     public int getNtStatus() {
         return mNtStatus;
     }
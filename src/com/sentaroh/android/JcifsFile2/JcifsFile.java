@@ -23,441 +23,524 @@ OTHER DEALINGS IN THE SOFTWARE.
 
 */
 
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.MalformedURLException;
+import java.util.ArrayList;
 
 
 public class JcifsFile {
 
     final static public int JCIFS_FILE_SMB1 = JcifsAuth.JCIFS_FILE_SMB1;
     final static public int JCIFS_FILE_SMB212 = JcifsAuth.JCIFS_FILE_SMB212;
+    final static public int JCIFS_FILE_MEMORY = JcifsAuth.JCIFS_FILE_MEMORY;
 
-    private int mSmbLevel = JCIFS_FILE_SMB1;
+    final static public int ATTR_READONLY = 0x01;
+    final static public int ATTR_HIDDEN = 0x02;
+    final static public int ATTR_SYSTEM = 0x04;
+    final static public int ATTR_DIRECTORY = 0x10;
+    final static public int ATTR_ARCHIVE = 0x20;
 
     private JcifsAuth mAuth = null;
 
-    private jcifsng212.smb.SmbFile mSmb212File = null;
-    private jcifs.smb.SmbFile mSmb1File = null;
+    private final JcifsBackend mBackend;
+
+    private JcifsMetrics.Target mMetricsTarget = null;
 
     public JcifsFile(String url, JcifsAuth auth) throws MalformedURLException, JcifsException {
         if (auth==null) {
             throw new JcifsException("JcifsAuth is null.");
         }
-        mSmbLevel = auth.getSmbLevel();
-        mAuth = auth;
-
-        if (mSmbLevel==JCIFS_FILE_SMB1) {
-            mSmb1File = new jcifs.smb.SmbFile(url, auth.getSmb1Auth());
-        } else if (mSmbLevel==JCIFS_FILE_SMB212) {
-            mSmb212File = new jcifsng212.smb.SmbFile(url, auth.getSmb212Auth());
-        }
-    }
-
-    private JcifsFile(jcifs.smb.SmbFile smb1File, JcifsAuth auth) throws JcifsException {
-        mSmbLevel = JCIFS_FILE_SMB1;
-        if (auth==null || !auth.isSmb1()) {
-            throw new JcifsException("JcifsAuth is null or SMB2.");
-        }
         mAuth = auth;
-        mSmb1File = smb1File;
+        mBackend = JcifsBackendRegistry.open(url, auth);
     }
 
-    private JcifsFile(jcifsng212.smb.SmbFile smb212File, JcifsAuth auth) throws JcifsException {
-        mSmbLevel = JCIFS_FILE_SMB212;
-        if (auth==null || auth.isSmb1()) {
-            throw new JcifsException("JcifsAuth is null or SMB1.");
-        }
+    /**
+     * Wraps a backend of the auth, e.g. a child returned by a directory listing. The auth is
+     * the already validated auth of the parent, so no level check is needed.
+     */
+    JcifsFile(JcifsAuth auth, JcifsBackend backend) {
         mAuth = auth;
-        mSmb212File = smb212File;
+        mBackend = backend;
     }
 
     public boolean isSmb1File() {
-        return mSmbLevel==JCIFS_FILE_SMB1;
+        return mBackend.getSmbLevel()==JCIFS_FILE_SMB1;
     }
 
     public boolean isSmb212File() {
-        return mSmbLevel==JCIFS_FILE_SMB212;
+        return mBackend.getSmbLevel()==JCIFS_FILE_SMB212;
+    }
+
+    /**
+     * @return the backend every operation of this file is delegated to
+     */
+    public JcifsBackend getBackend() {
+        return mBackend;
     }
 
+    /**
+     * @return the jcifs-1.3.17 file, or null if this is not an SMB1 file
+     */
     public jcifs.smb.SmbFile getSmb1File() {
-        return mSmb1File;
+        return mBackend instanceof JcifsSmb1Backend ? ((JcifsSmb1Backend) mBackend).getSmbFile() : null;
     }
 
+    /**
+     * @return the jcifs-ng file, or null if this is not an SMB212 file
+     */
     public jcifsng212.smb.SmbFile getSmb212File() {
-        return mSmb212File;
+        return mBackend instanceof JcifsSmb212Backend ? ((JcifsSmb212Backend) mBackend).getSmbFile() : null;
     }
 
     public boolean exists() throws JcifsException {
+        JcifsMetadataCache.Metadata md = getCachedMetadata();
+        if (md != null) return md.exists();
+        long start = JcifsMetrics.start();
+        JcifsException error = null;
         try {
-            if (mSmbLevel==JCIFS_FILE_SMB1) {
-                return mSmb1File.exists();
-            } else if (mSmbLevel==JCIFS_FILE_SMB212) {
-                return mSmb212File.exists();
-            } else 
-            	throw (new JcifsException(JcifsException.NT_STATUS_DESC_INVALID_JCIFS_LEVEL, JcifsException.NT_STATUS_INT_INVALID_JCIFS_LEVEL));
-        } catch (jcifsng212.smb.SmbException e) {
-            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
-        } catch (jcifs.smb.SmbException e) {
-            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+            return mBackend.exists();
+        } catch (JcifsException e) {
+            throw (error = e);
+        } finally {
+            JcifsMetrics.record(this, JcifsMetrics.OP_EXISTS, start, error);
         }
 
     }
 
+    /**
+     * Returns the metadata of this file, queried with a basic and a standard information
+     * request. With a metadata cache set on the JcifsAuth the result is taken from, or stored
+     * into, the cache.
+     *
+     * @return the metadata, or null if the file does not exist
+     * @throws JcifsException
+     */
+    public JcifsFileEntry stat() throws JcifsException {
+        return stat(false);
+    }
+
+    /**
+     * @param bypass_cache true queries the server even if the metadata is cached, and refreshes the cache
+     * @return the metadata, or null if the file does not exist
+     * @throws JcifsException
+     */
+    public JcifsFileEntry stat(boolean bypass_cache) throws JcifsException {
+        JcifsMetadataCache cache = mAuth.getMetadataCache();
+        if (cache == null) return queryMetadata();
+        if (!bypass_cache) {
+            JcifsMetadataCache.Metadata md = getCachedMetadata();
+            if (md != null) return md.mEntry;
+        }
+        JcifsFileEntry entry = queryMetadata();
+        cache.put(getPath(), entry);
+        return entry;
+    }
+
+    /**
+     * Drops the cached metadata of this file, so that the next getter queries the server.
+     */
+    public void invalidateMetadata() {
+        JcifsMetadataCache cache = mAuth.getMetadataCache();
+        if (cache != null) cache.invalidate(getPath());
+    }
+
+    private void invalidateChangedMetadata() {
+        JcifsMetadataCache cache = mAuth.getMetadataCache();
+        if (cache != null) cache.invalidateChanged(getPath());
+    }
+
+    /**
+     * @return the cached metadata, queried on a miss, or null if the file is not cached at all
+     */
+    private JcifsMetadataCache.Metadata getCachedMetadata() throws JcifsException {
+        JcifsMetadataCache cache = mAuth.getMetadataCache();
+        if (cache == null || !JcifsMetadataCache.isCacheablePath(getPath())) return null;
+        JcifsMetadataCache.Metadata md = cache.get(getPath());
+        if (md == null) md = cache.put(getPath(), queryMetadata());
+        return md;
+    }
+
+    private JcifsFileEntry queryMetadata() throws JcifsException {
+        long start = JcifsMetrics.start();
+        JcifsException error = null;
+        try {
+            if (!mBackend.exists()) return null;
+            return JcifsFileEntry.fromBackend(this);
+        } catch (JcifsException e) {
+            throw (error = e);
+        } finally {
+            JcifsMetrics.record(this, JcifsMetrics.OP_STAT, start, error);
+        }
+    }
+
     public void delete() throws JcifsException {
+        long start = JcifsMetrics.start();
+        JcifsException error = null;
         try {
-            if (mSmbLevel==JCIFS_FILE_SMB1) {
-            	mSmb1File.delete();
-            } else if (mSmbLevel==JCIFS_FILE_SMB212) {
-            	mSmb212File.delete();
-            } else 
-            	throw (new JcifsException(JcifsException.NT_STATUS_DESC_INVALID_JCIFS_LEVEL, JcifsException.NT_STATUS_INT_INVALID_JCIFS_LEVEL));
-        } catch (jcifsng212.smb.SmbException e) {
-            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
-        } catch (jcifs.smb.SmbException e) {
-            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+            mBackend.delete();
+        } catch (JcifsException e) {
+            throw (error = e);
+        } finally {
+            invalidateChangedMetadata();
+            JcifsMetrics.record(this, JcifsMetrics.OP_DELETE, start, error);
         }
 
     }
 
     public void mkdir() throws JcifsException {
+        long start = JcifsMetrics.start();
+        JcifsException error = null;
         try {
-            if (mSmbLevel==JCIFS_FILE_SMB1) {
-            	mSmb1File.mkdir();
-            } else if (mSmbLevel==JCIFS_FILE_SMB212) {
-            	mSmb212File.mkdir();
-            } else 
-            	throw (new JcifsException(JcifsException.NT_STATUS_DESC_INVALID_JCIFS_LEVEL, JcifsException.NT_STATUS_INT_INVALID_JCIFS_LEVEL));
-        } catch (jcifsng212.smb.SmbException e) {
-            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
-        } catch (jcifs.smb.SmbException e) {
-            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+            mBackend.mkdir();
+        } catch (JcifsException e) {
+            throw (error = e);
+        } finally {
+            invalidateChangedMetadata();
+            JcifsMetrics.record(this, JcifsMetrics.OP_MKDIR, start, error);
         }
     }
 
     public void mkdirs() throws JcifsException {
+        long start = JcifsMetrics.start();
+        JcifsException error = null;
         try {
-            if (mSmbLevel==JCIFS_FILE_SMB1) {
-            	mSmb1File.mkdirs();
-            } else if (mSmbLevel==JCIFS_FILE_SMB212) {
-            	mSmb212File.mkdirs();
-            } else 
-            	throw (new JcifsException(JcifsException.NT_STATUS_DESC_INVALID_JCIFS_LEVEL, JcifsException.NT_STATUS_INT_INVALID_JCIFS_LEVEL));
-        } catch (jcifsng212.smb.SmbException e) {
-            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
-        } catch (jcifs.smb.SmbException e) {
-            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+            mBackend.mkdirs();
+        } catch (JcifsException e) {
+            throw (error = e);
+        } finally {
+            invalidateChangedMetadata();
+            JcifsMetrics.record(this, JcifsMetrics.OP_MKDIRS, start, error);
         }
     }
 
     public int getAttributes() throws JcifsException {
+        JcifsMetadataCache.Metadata md = getCachedMetadata();
+        if (md != null && md.exists()) return md.mEntry.getAttributes();
+        long start = JcifsMetrics.start();
+        JcifsException error = null;
         try {
-            if (mSmbLevel==JCIFS_FILE_SMB1) {
-            	return mSmb1File.getAttributes();
-            } else if (mSmbLevel==JCIFS_FILE_SMB212) {
-            	return mSmb212File.getAttributes();
-            } else 
-            	throw (new JcifsException(JcifsException.NT_STATUS_DESC_INVALID_JCIFS_LEVEL, JcifsException.NT_STATUS_INT_INVALID_JCIFS_LEVEL));
-        } catch (jcifsng212.smb.SmbException e) {
-            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
-        } catch (jcifs.smb.SmbException e) {
-            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+            return mBackend.getAttributes();
+        } catch (JcifsException e) {
+            throw (error = e);
+        } finally {
+            JcifsMetrics.record(this, JcifsMetrics.OP_GET_ATTRIBUTES, start, error);
         }
     }
 
     public InputStream getInputStream() throws JcifsException {
+        long start = JcifsMetrics.start();
+        JcifsException error = null;
         try {
-            if (mSmbLevel==JCIFS_FILE_SMB1) {
-            	return mSmb1File.getInputStream();
-            } else if (mSmbLevel==JCIFS_FILE_SMB212) {
-            	return mSmb212File.getInputStream();
-            } else 
-            	throw (new JcifsException(JcifsException.NT_STATUS_DESC_INVALID_JCIFS_LEVEL, JcifsException.NT_STATUS_INT_INVALID_JCIFS_LEVEL));
-        } catch (jcifsng212.smb.SmbException e) {
-            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
-        } catch (jcifs.smb.SmbException e) {
-            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
-        } catch (IOException e) {
-            throw (new JcifsException(e, 0, e.getCause()));
+            return JcifsBandwidthLimiter.wrap(this, JcifsMetrics.wrap(this, mBackend.getInputStream()));
+        } catch (JcifsException e) {
+            throw (error = e);
+        } finally {
+            JcifsMetrics.record(this, JcifsMetrics.OP_OPEN_INPUT, start, error);
         }
     }
 
 
     public OutputStream getOutputStream() throws JcifsException {
+        long start = JcifsMetrics.start();
+        JcifsException error = null;
         try {
-            if (mSmbLevel==JCIFS_FILE_SMB1) {
-            	return mSmb1File.getOutputStream();
-            } else if (mSmbLevel==JCIFS_FILE_SMB212) {
-            	return mSmb212File.getOutputStream();
-            } else 
-            	throw (new JcifsException(JcifsException.NT_STATUS_DESC_INVALID_JCIFS_LEVEL, JcifsException.NT_STATUS_INT_INVALID_JCIFS_LEVEL));
-        } catch (jcifsng212.smb.SmbException e) {
-            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
-        } catch (jcifs.smb.SmbException e) {
-            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
-        } catch (IOException e) {
-            throw (new JcifsException(e, 0, e.getCause()));
+            OutputStream os = JcifsBandwidthLimiter.wrap(this, JcifsMetrics.wrap(this, mBackend.getOutputStream()));
+            if (mAuth.getMetadataCache() == null) return os;
+            return new InvalidatingOutputStream(os);
+        } catch (JcifsException e) {
+            throw (error = e);
+        } finally {
+            invalidateChangedMetadata();
+            JcifsMetrics.record(this, JcifsMetrics.OP_OPEN_OUTPUT, start, error);
         }
     }
 
+    /**
+     * Opens a SeekableByteChannel on this file, for reading only the byte ranges needed.
+     *
+     * @param mode "r" or "rw"
+     * @throws JcifsException
+     */
+    public JcifsSeekableByteChannel getSeekableByteChannel(String mode) throws JcifsException {
+        return new JcifsSeekableByteChannel(this, mode);
+    }
+
     public void close() throws JcifsException {
-        if (mSmbLevel==JCIFS_FILE_SMB1) {
-        	//Nop for JCIFS(SMB1)
-//        	mSmb1File.close();
-        } else if (mSmbLevel==JCIFS_FILE_SMB212) {
-        	mSmb212File.close();
-        } else 
-        	throw (new JcifsException(JcifsException.NT_STATUS_DESC_INVALID_JCIFS_LEVEL, JcifsException.NT_STATUS_INT_INVALID_JCIFS_LEVEL));
+        mBackend.close();
     }
 
     public void connect() throws JcifsException {
+        long start = JcifsMetrics.start();
+        JcifsException error = null;
         try {
-            if (mSmbLevel==JCIFS_FILE_SMB1) {
-            	mSmb1File.connect();
-            } else if (mSmbLevel==JCIFS_FILE_SMB212) {
-            	mSmb212File.connect();
-            } else 
-            	throw (new JcifsException(JcifsException.NT_STATUS_DESC_INVALID_JCIFS_LEVEL, JcifsException.NT_STATUS_INT_INVALID_JCIFS_LEVEL));
-        } catch (jcifsng212.smb.SmbException e) {
-            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
-        } catch (jcifs.smb.SmbException e) {
-            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
-        } catch (IOException e) {
-            throw (new JcifsException(e, 0, e.getCause()));
+            mBackend.connect();
+        } catch (JcifsException e) {
+            throw (error = e);
+        } finally {
+            JcifsMetrics.record(this, JcifsMetrics.OP_CONNECT, start, error);
         }
     }
 
     public void createNew() throws JcifsException {
+        long start = JcifsMetrics.start();
+        JcifsException error = null;
         try {
-            if (mSmbLevel==JCIFS_FILE_SMB1) {
-            	mSmb1File.createNewFile();
-            } else if (mSmbLevel==JCIFS_FILE_SMB212) {
-            	mSmb212File.createNewFile();
-            } else 
-            	throw (new JcifsException(JcifsException.NT_STATUS_DESC_INVALID_JCIFS_LEVEL, JcifsException.NT_STATUS_INT_INVALID_JCIFS_LEVEL));
-        } catch (jcifsng212.smb.SmbException e) {
-            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
-        } catch (jcifs.smb.SmbException e) {
-            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+            mBackend.createNewFile();
+        } catch (JcifsException e) {
+            throw (error = e);
+        } finally {
+            invalidateChangedMetadata();
+            JcifsMetrics.record(this, JcifsMetrics.OP_CREATE_NEW, start, error);
         }
     }
 
     public String getName() {
-        if (mSmbLevel==JCIFS_FILE_SMB1) {
-        	return mSmb1File.getName();
-        } else if (mSmbLevel==JCIFS_FILE_SMB212) {
-        	return mSmb212File.getName();
-        }
-        return null;
+        return mBackend.getName();
     }
 
     public String getPath() {
-        if (mSmbLevel==JCIFS_FILE_SMB1) {
-        	return mSmb1File.getPath();
-        } else if (mSmbLevel==JCIFS_FILE_SMB212) {
-        	return mSmb212File.getPath();
-        }
-        return null;
+        return mBackend.getPath();
     }
 
     public String getCanonicalPath() {
-        if (mSmbLevel==JCIFS_FILE_SMB1) {
-        	return mSmb1File.getCanonicalPath();
-        } else if (mSmbLevel==JCIFS_FILE_SMB212) {
-        	return mSmb212File.getCanonicalPath();
-        }
-        return null;
+        return mBackend.getCanonicalPath();
     }
 
     public String getShare() {
-        if (mSmbLevel==JCIFS_FILE_SMB1) {
-        	return mSmb1File.getShare();
-        } else if (mSmbLevel==JCIFS_FILE_SMB212) {
-        	return mSmb212File.getShare();
-        }
-        return null;
+        return mBackend.getShare();
+    }
+
+    public String getServer() {
+        return mBackend.getServer();
     }
 
     public int getType() throws JcifsException {
+        long start = JcifsMetrics.start();
+        JcifsException error = null;
         try {
-            if (mSmbLevel==JCIFS_FILE_SMB1) {
-            	return mSmb1File.getType();
-            } else if (mSmbLevel==JCIFS_FILE_SMB212) {
-            	return mSmb212File.getType();
-            } else 
-            	throw (new JcifsException(JcifsException.NT_STATUS_DESC_INVALID_JCIFS_LEVEL, JcifsException.NT_STATUS_INT_INVALID_JCIFS_LEVEL));
-        } catch (jcifsng212.smb.SmbException e) {
-            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
-        } catch (jcifs.smb.SmbException e) {
-            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+            return mBackend.getType();
+        } catch (JcifsException e) {
+            throw (error = e);
+        } finally {
+            JcifsMetrics.record(this, JcifsMetrics.OP_GET_TYPE, start, error);
         }
     }
 
     public String getUncPath() {
-        if (mSmbLevel==JCIFS_FILE_SMB1) {
-        	return mSmb1File.getUncPath();
-        } else if (mSmbLevel==JCIFS_FILE_SMB212) {
-        	return mSmb212File.getUncPath();
-        }
-        return null;
+        return mBackend.getUncPath();
     }
 
     public String getParent() {
-        if (mSmbLevel==JCIFS_FILE_SMB1) {
-        	return mSmb1File.getParent();
-        } else if (mSmbLevel==JCIFS_FILE_SMB212) {
-        	return mSmb212File.getParent();
-        }
-        return null;
+        return mBackend.getParent();
     }
 
     public boolean canRead() throws JcifsException {
+        JcifsMetadataCache.Metadata md = getCachedMetadata();
+        if (md != null) return md.exists();
+        long start = JcifsMetrics.start();
+        JcifsException error = null;
         try {
-            if (mSmbLevel==JCIFS_FILE_SMB1) {
-            	return mSmb1File.canRead();
-            } else if (mSmbLevel==JCIFS_FILE_SMB212) {
-            	return mSmb212File.canRead();
-            } else 
-            	throw (new JcifsException(JcifsException.NT_STATUS_DESC_INVALID_JCIFS_LEVEL, JcifsException.NT_STATUS_INT_INVALID_JCIFS_LEVEL));
-        } catch (jcifsng212.smb.SmbException e) {
-            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
-        } catch (jcifs.smb.SmbException e) {
-            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+            return mBackend.canRead();
+        } catch (JcifsException e) {
+            throw (error = e);
+        } finally {
+            JcifsMetrics.record(this, JcifsMetrics.OP_CAN_READ, start, error);
         }
     }
 
     public boolean canWrite() throws JcifsException {
+        JcifsMetadataCache.Metadata md = getCachedMetadata();
+        if (md != null) return md.exists() && !md.mEntry.isReadOnly();
+        long start = JcifsMetrics.start();
+        JcifsException error = null;
         try {
-            if (mSmbLevel==JCIFS_FILE_SMB1) {
-            	return mSmb1File.canWrite();
-            } else if (mSmbLevel==JCIFS_FILE_SMB212) {
-            	return mSmb212File.canWrite();
-            } else 
-            	throw (new JcifsException(JcifsException.NT_STATUS_DESC_INVALID_JCIFS_LEVEL, JcifsException.NT_STATUS_INT_INVALID_JCIFS_LEVEL));
-        } catch (jcifsng212.smb.SmbException e) {
-            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
-        } catch (jcifs.smb.SmbException e) {
-            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+            return mBackend.canWrite();
+        } catch (JcifsException e) {
+            throw (error = e);
+        } finally {
+            JcifsMetrics.record(this, JcifsMetrics.OP_CAN_WRITE, start, error);
         }
     }
 
     public boolean isDirectory() throws JcifsException {
+        JcifsMetadataCache.Metadata md = getCachedMetadata();
+        if (md != null) return md.exists() && md.mEntry.isDirectory();
+        long start = JcifsMetrics.start();
+        JcifsException error = null;
         try {
-            if (mSmbLevel==JCIFS_FILE_SMB1) {
-            	return mSmb1File.isDirectory();
-            } else if (mSmbLevel==JCIFS_FILE_SMB212) {
-            	return mSmb212File.isDirectory();
-            } else 
-            	throw (new JcifsException(JcifsException.NT_STATUS_DESC_INVALID_JCIFS_LEVEL, JcifsException.NT_STATUS_INT_INVALID_JCIFS_LEVEL));
-        } catch (jcifsng212.smb.SmbException e) {
-            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
-        } catch (jcifs.smb.SmbException e) {
-            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+            return mBackend.isDirectory();
+        } catch (JcifsException e) {
+            throw (error = e);
+        } finally {
+            JcifsMetrics.record(this, JcifsMetrics.OP_IS_DIRECTORY, start, error);
         }
     }
 
     public boolean isFile() throws JcifsException {
+        JcifsMetadataCache.Metadata md = getCachedMetadata();
+        if (md != null) return md.exists() && md.mEntry.isFile();
+        long start = JcifsMetrics.start();
+        JcifsException error = null;
         try {
-            if (mSmbLevel==JCIFS_FILE_SMB1) {
-            	return mSmb1File.isFile();
-            } else if (mSmbLevel==JCIFS_FILE_SMB212) {
-            	return mSmb212File.isFile();
-            } else 
-            	throw (new JcifsException(JcifsException.NT_STATUS_DESC_INVALID_JCIFS_LEVEL, JcifsException.NT_STATUS_INT_INVALID_JCIFS_LEVEL));
-        } catch (jcifsng212.smb.SmbException e) {
-            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
-        } catch (jcifs.smb.SmbException e) {
-            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+            return mBackend.isFile();
+        } catch (JcifsException e) {
+            throw (error = e);
+        } finally {
+            JcifsMetrics.record(this, JcifsMetrics.OP_IS_FILE, start, error);
         }
     }
 
     public boolean isHidden() throws JcifsException {
+        JcifsMetadataCache.Metadata md = getCachedMetadata();
+        if (md != null) return md.exists() && md.mEntry.isHidden();
+        long start = JcifsMetrics.start();
+        JcifsException error = null;
         try {
-            if (mSmbLevel==JCIFS_FILE_SMB1) {
-            	return mSmb1File.isHidden();
-            } else if (mSmbLevel==JCIFS_FILE_SMB212) {
-            	return mSmb212File.isHidden();
-            } else 
-            	throw (new JcifsException(JcifsException.NT_STATUS_DESC_INVALID_JCIFS_LEVEL, JcifsException.NT_STATUS_INT_INVALID_JCIFS_LEVEL));
-        } catch (jcifsng212.smb.SmbException e) {
-            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
-        } catch (jcifs.smb.SmbException e) {
-            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+            return mBackend.isHidden();
+        } catch (JcifsException e) {
+            throw (error = e);
+        } finally {
+            JcifsMetrics.record(this, JcifsMetrics.OP_IS_HIDDEN, start, error);
         }
     }
 
     public long length() throws JcifsException {
+        JcifsMetadataCache.Metadata md = getCachedMetadata();
+        if (md != null && md.exists()) return md.mEntry.length();
+        long start = JcifsMetrics.start();
+        JcifsException error = null;
         try {
-            if (mSmbLevel==JCIFS_FILE_SMB1) {
-            	return mSmb1File.length();
-            } else if (mSmbLevel==JCIFS_FILE_SMB212) {
-            	return mSmb212File.length();
-            } else 
-            	throw (new JcifsException(JcifsException.NT_STATUS_DESC_INVALID_JCIFS_LEVEL, JcifsException.NT_STATUS_INT_INVALID_JCIFS_LEVEL));
-        } catch (jcifsng212.smb.SmbException e) {
-            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
-        } catch (jcifs.smb.SmbException e) {
-            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+            return mBackend.length();
+        } catch (JcifsException e) {
+            throw (error = e);
+        } finally {
+            JcifsMetrics.record(this, JcifsMetrics.OP_LENGTH, start, error);
         }
     }
 
     public String[] list() throws JcifsException {
+        long start = JcifsMetrics.start();
+        JcifsException error = null;
         try {
-            if (mSmbLevel==JCIFS_FILE_SMB1) {
-            	return mSmb1File.list();
-            } else if (mSmbLevel==JCIFS_FILE_SMB212) {
-            	return mSmb212File.list();
-            } else 
-            	throw (new JcifsException(JcifsException.NT_STATUS_DESC_INVALID_JCIFS_LEVEL, JcifsException.NT_STATUS_INT_INVALID_JCIFS_LEVEL));
-        } catch (jcifsng212.smb.SmbException e) {
-            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
-        } catch (jcifs.smb.SmbException e) {
-            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+            return mBackend.list();
+        } catch (JcifsException e) {
+            throw (error = e);
+        } finally {
+            JcifsMetrics.record(this, JcifsMetrics.OP_LIST, start, error);
         }
     }
 
     public JcifsFile[] listFiles() throws JcifsException {
+        long start = JcifsMetrics.start();
+        JcifsException error = null;
+        try {
+            JcifsBackend[] children = mBackend.listFiles();
+            if (children == null) return null;
+            JcifsFile[] result = new JcifsFile[children.length];
+            for (int i = 0; i < children.length; i++)
+                result[i] = new JcifsFile(mAuth, children[i]);
+            return result;
+        } catch (JcifsException e) {
+            throw (error = e);
+        } finally {
+            JcifsMetrics.record(this, JcifsMetrics.OP_LIST_FILES, start, error);
+        }
+    }
+
+    /**
+     * Lists the directory and returns the metadata of every entry as it was returned by
+     * the directory query. Unlike listFiles() followed by isDirectory(), length() etc. on
+     * every file, this needs no extra request per entry.
+     *
+     * @return entries of this directory
+     * @throws JcifsException
+     */
+    public JcifsFileEntry[] listEntries() throws JcifsException {
+        final ArrayList<JcifsFileEntry> result = new ArrayList<JcifsFileEntry>();
+        long start = JcifsMetrics.start();
+        JcifsException error = null;
         try {
-            if (mSmbLevel==JCIFS_FILE_SMB1) {
-                jcifs.smb.SmbFile[] smb1Files = mSmb1File.listFiles();
-                if (smb1Files == null) return null;
-                JcifsFile[] result = new JcifsFile[smb1Files.length];
-                for (int i = 0; i < smb1Files.length; i++)
-                    result[i] = new JcifsFile(smb1Files[i], mAuth);
-                return result;
-            } else if (mSmbLevel==JCIFS_FILE_SMB212) {
-                jcifsng212.smb.SmbFile[] smb212Files = mSmb212File.listFiles();
-                if (smb212Files == null) return null;
-                JcifsFile[] result = new JcifsFile[smb212Files.length];
-                for (int i = 0; i < smb212Files.length; i++)
-                    result[i] = new JcifsFile(smb212Files[i], mAuth);
-                return result;
-            } else 
-            	throw (new JcifsException(JcifsException.NT_STATUS_DESC_INVALID_JCIFS_LEVEL, JcifsException.NT_STATUS_INT_INVALID_JCIFS_LEVEL));
-        } catch (jcifsng212.smb.SmbException e) {
-            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
-        } catch (jcifs.smb.SmbException e) {
-            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+            mBackend.listFiles(new JcifsBackend.ListHandler() {
+                @Override
+                public void onEntry(JcifsBackend child) throws JcifsException {
+                    JcifsFileEntry entry = JcifsFileEntry.fromBackend(new JcifsFile(mAuth, child));
+                    mAuth.putMetadata(entry);
+                    result.add(entry);
+                }
+            });
+        } catch (JcifsException e) {
+            throw (error = e);
+        } finally {
+            JcifsMetrics.record(this, JcifsMetrics.OP_LIST_ENTRIES, start, error);
         }
+        return result.toArray(new JcifsFileEntry[result.size()]);
+    }
+
+    /**
+     * Opens a lazy iterator over the entries of this directory. The iterator must be closed.
+     *
+     * @return iterator over all entries
+     * @throws JcifsException
+     */
+    public JcifsDirectoryIterator iterateEntries() throws JcifsException {
+        return new JcifsDirectoryIterator(this, null);
+    }
+
+    /**
+     * Opens a lazy iterator over the entries of this directory that match the wildcard.
+     * The iterator must be closed.
+     *
+     * @param wildcard DOS style wildcard, e.g. "*.jpg"
+     * @return iterator over the matching entries
+     * @throws JcifsException
+     */
+    public JcifsDirectoryIterator iterateEntries(String wildcard) throws JcifsException {
+        return new JcifsDirectoryIterator(this, wildcard);
     }
 
     public void renameTo(JcifsFile d) throws JcifsException {
+        long start = JcifsMetrics.start();
+        JcifsException error = null;
         try {
-            if (mSmbLevel==JCIFS_FILE_SMB1) {
-                if (d.getSmb1File() == null)
-                    throw new JcifsException("Null SMB1 file specified.");
-                else mSmb1File.renameTo(d.getSmb1File());
-            } else if (mSmbLevel==JCIFS_FILE_SMB212) {
-                if (d.getSmb212File() == null)
-                    throw new JcifsException("Null SMB212 file specified.");
-                else mSmb212File.renameTo(d.getSmb212File());
-            } else 
-            	throw (new JcifsException(JcifsException.NT_STATUS_DESC_INVALID_JCIFS_LEVEL, JcifsException.NT_STATUS_INT_INVALID_JCIFS_LEVEL));
-        } catch (jcifsng212.smb.SmbException e) {
-            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
-        } catch (jcifs.smb.SmbException e) {
-            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+            mBackend.renameTo(d.mBackend);
+        } catch (JcifsException e) {
+            throw (error = e);
+        } finally {
+            invalidateChangedMetadata();
+            d.invalidateChangedMetadata();
+            JcifsMetrics.record(this, JcifsMetrics.OP_RENAME, start, error);
+        }
+    }
+
+    /**
+     * Copies this file to dest. Within one share of an SMB212 server the data is copied on the
+     * server; SMB1 and files on different shares or servers are streamed through this client.
+     *
+     * @return number of bytes copied
+     * @throws JcifsException
+     */
+    public long copyTo(JcifsFile dest) throws JcifsException {
+        return new JcifsCopy().copy(this, dest);
+    }
+
+    /**
+     * @return false if the backend cannot copy to dest on the server, nothing is copied then
+     */
+    boolean serverCopyTo(JcifsFile dest) throws JcifsException {
+        long start = JcifsMetrics.start();
+        JcifsException error = null;
+        boolean copied = false;
+        try {
+            copied = mBackend.serverCopyTo(dest.mBackend);
+            return copied;
+        } catch (JcifsException e) {
+            throw (error = e);
+        } finally {
+            dest.invalidateChangedMetadata();
+            if (copied || error != null) JcifsMetrics.record(this, JcifsMetrics.OP_SERVER_COPY, start, error);
         }
     }
 
@@ -465,35 +548,63 @@ public class JcifsFile {
         return mAuth;
     }
 
+    JcifsMetrics.Target getMetricsTarget() {
+        if (mMetricsTarget == null) mMetricsTarget = new JcifsMetrics.Target(getServer(), getShare(), mBackend.getSmbLevel());
+        return mMetricsTarget;
+    }
+
 
     public void setLastModified(long lm) throws JcifsException {
+        long start = JcifsMetrics.start();
+        JcifsException error = null;
         try {
-            if (mSmbLevel==JCIFS_FILE_SMB1) {
-            	mSmb1File.setLastModified(lm);
-            } else if (mSmbLevel==JCIFS_FILE_SMB212) {
-            	mSmb212File.setLastModified(lm);
-            } else 
-            	throw (new JcifsException(JcifsException.NT_STATUS_DESC_INVALID_JCIFS_LEVEL, JcifsException.NT_STATUS_INT_INVALID_JCIFS_LEVEL));
-        } catch (jcifsng212.smb.SmbException e) {
-            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
-        } catch (jcifs.smb.SmbException e) {
-            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+            mBackend.setLastModified(lm);
+        } catch (JcifsException e) {
+            throw (error = e);
+        } finally {
+            invalidateChangedMetadata();
+            JcifsMetrics.record(this, JcifsMetrics.OP_SET_LAST_MODIFIED, start, error);
         }
     }
 
     public long getLastModified() throws JcifsException {
+        JcifsMetadataCache.Metadata md = getCachedMetadata();
+        if (md != null && md.exists()) return md.mEntry.getLastModified();
+        long start = JcifsMetrics.start();
+        JcifsException error = null;
         try {
-            if (mSmbLevel==JCIFS_FILE_SMB1) {
-            	return mSmb1File.lastModified();
-            } else if (mSmbLevel==JCIFS_FILE_SMB212) {
-            	return mSmb212File.lastModified();
-            } else 
-            	throw (new JcifsException(JcifsException.NT_STATUS_DESC_INVALID_JCIFS_LEVEL, JcifsException.NT_STATUS_INT_INVALID_JCIFS_LEVEL));
-        } catch (jcifsng212.smb.SmbException e) {
-            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
-        } catch (jcifs.smb.SmbException e) {
-            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+            return mBackend.lastModified();
+        } catch (JcifsException e) {
+            throw (error = e);
+        } finally {
+            JcifsMetrics.record(this, JcifsMetrics.OP_GET_LAST_MODIFIED, start, error);
         }
     }
 
+    /**
+     * Drops the cached metadata again when the stream is closed, as a getter called while
+     * writing caches the size of the partly written file.
+     */
+    private class InvalidatingOutputStream extends FilterOutputStream {
+        private boolean mClosed = false;
+
+        InvalidatingOutputStream(OutputStream os) {
+            super(os);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                out.close();
+            } finally {
+                if (!mClosed) invalidateChangedMetadata();
+                mClosed = true;
+            }
+        }
+    }
 }
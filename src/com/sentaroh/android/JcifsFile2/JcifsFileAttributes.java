@@ -0,0 +1,164 @@
+package com.sentaroh.android.JcifsFile2;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2011-2018 Sentaroh
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights to use,
+copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software,
+and to permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+*/
+
+import java.nio.file.attribute.DosFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Basic and DOS attributes of a JcifsPath, taken from a JcifsFileEntry. The server keeps
+ * no last access time, so the last modified time is returned for it.
+ */
+public class JcifsFileAttributes implements DosFileAttributes {
+
+    final static private String[] BASIC_NAME_LIST = new String[]{"lastModifiedTime", "lastAccessTime",
+            "creationTime", "size", "isRegularFile", "isDirectory", "isSymbolicLink", "isOther", "fileKey"};
+    final static private String[] DOS_NAME_LIST = new String[]{"readonly", "hidden", "system", "archive"};
+
+    private final JcifsFileEntry mEntry;
+
+    JcifsFileAttributes(JcifsFileEntry entry) {
+        mEntry = entry;
+    }
+
+    public JcifsFileEntry getEntry() {
+        return mEntry;
+    }
+
+    @Override
+    public FileTime lastModifiedTime() {
+        return FileTime.fromMillis(mEntry.getLastModified());
+    }
+
+    @Override
+    public FileTime lastAccessTime() {
+        return lastModifiedTime();
+    }
+
+    @Override
+    public FileTime creationTime() {
+        return FileTime.fromMillis(mEntry.getCreateTime());
+    }
+
+    @Override
+    public boolean isRegularFile() {
+        return mEntry.isFile();
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return mEntry.isDirectory();
+    }
+
+    @Override
+    public boolean isSymbolicLink() {
+        return false;
+    }
+
+    @Override
+    public boolean isOther() {
+        return false;
+    }
+
+    @Override
+    public long size() {
+        return mEntry.length();
+    }
+
+    @Override
+    public Object fileKey() {
+        return null;
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return mEntry.isReadOnly();
+    }
+
+    @Override
+    public boolean isHidden() {
+        return mEntry.isHidden();
+    }
+
+    @Override
+    public boolean isArchive() {
+        return (mEntry.getAttributes() & JcifsFile.ATTR_ARCHIVE) != 0;
+    }
+
+    @Override
+    public boolean isSystem() {
+        return (mEntry.getAttributes() & JcifsFile.ATTR_SYSTEM) != 0;
+    }
+
+    /**
+     * @param attributes "[view:]name,name..." or "[view:]*", view "basic" or "dos"
+     * @return the attributes for Files.readAttributes(Path, String)
+     */
+    Map<String, Object> toMap(String attributes) {
+        String view = "basic";
+        String names = attributes;
+        int pos = attributes.indexOf(':');
+        if (pos >= 0) {
+            view = attributes.substring(0, pos);
+            names = attributes.substring(pos + 1);
+        }
+        boolean dos = view.equals("dos");
+        if (!dos && !view.equals("basic")) throw new UnsupportedOperationException("View '" + view + "' not available");
+        HashMap<String, Object> result = new HashMap<String, Object>();
+        for (String name : names.split(",")) {
+            if (name.equals("*")) {
+                for (String n : BASIC_NAME_LIST) result.put(n, getAttribute(n));
+                if (dos) for (String n : DOS_NAME_LIST) result.put(n, getAttribute(n));
+            } else {
+                if (!dos && isDosName(name)) throw new IllegalArgumentException("'" + name + "' not recognized");
+                result.put(name, getAttribute(name));
+            }
+        }
+        return result;
+    }
+
+    private static boolean isDosName(String name) {
+        for (String n : DOS_NAME_LIST) if (n.equals(name)) return true;
+        return false;
+    }
+
+    private Object getAttribute(String name) {
+        if (name.equals("lastModifiedTime")) return lastModifiedTime();
+        if (name.equals("lastAccessTime")) return lastAccessTime();
+        if (name.equals("creationTime")) return creationTime();
+        if (name.equals("size")) return size();
+        if (name.equals("isRegularFile")) return isRegularFile();
+        if (name.equals("isDirectory")) return isDirectory();
+        if (name.equals("isSymbolicLink")) return isSymbolicLink();
+        if (name.equals("isOther")) return isOther();
+        if (name.equals("fileKey")) return fileKey();
+        if (name.equals("readonly")) return isReadOnly();
+        if (name.equals("hidden")) return isHidden();
+        if (name.equals("system")) return isSystem();
+        if (name.equals("archive")) return isArchive();
+        throw new IllegalArgumentException("'" + name + "' not recognized");
+    }
+}
@@ -0,0 +1,119 @@
+package com.sentaroh.android.JcifsFile2;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2011-2018 Sentaroh
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights to use,
+copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software,
+and to permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+*/
+
+/**
+ * Immutable snapshot of the metadata of one directory entry.
+ *
+ * The values come from the directory query that listed the entry, so reading them
+ * never goes back to the server.
+ */
+public class JcifsFileEntry {
+    private final JcifsFile mFile;
+    private final String mName;
+    private final String mPath;
+    private final long mLength;
+    private final long mLastModified;
+    private final long mCreateTime;
+    private final int mAttributes;
+    private final boolean mDirectory;
+
+    JcifsFileEntry(JcifsFile file, String name, String path, long length, long last_modified,
+                   long create_time, int attributes, boolean directory) {
+        mFile = file;
+        mName = name;
+        mPath = path;
+        mLength = length;
+        mLastModified = last_modified;
+        mCreateTime = create_time;
+        mAttributes = attributes;
+        mDirectory = directory;
+    }
+
+    /**
+     * Builds an entry from a file returned by a directory listing. Must be called while the
+     * backend still holds the attributes it was listed with, ideally from the listing
+     * handler itself, so that no getter goes back to the server.
+     */
+    static JcifsFileEntry fromBackend(JcifsFile file) throws JcifsException {
+        JcifsBackend bf = file.getBackend();
+        return new JcifsFileEntry(file, bf.getName(), bf.getPath(), bf.length(), bf.lastModified(),
+                bf.createTime(), bf.getAttributes(), bf.isDirectory());
+    }
+
+    /**
+     * @return the JcifsFile of this entry, sharing the JcifsAuth of the listed directory
+     */
+    public JcifsFile getFile() {
+        return mFile;
+    }
+
+    /**
+     * @return the entry name, directories end with "/"
+     */
+    public String getName() {
+        return mName;
+    }
+
+    public String getPath() {
+        return mPath;
+    }
+
+    public long length() {
+        return mLength;
+    }
+
+    public long getLastModified() {
+        return mLastModified;
+    }
+
+    public long getCreateTime() {
+        return mCreateTime;
+    }
+
+    public int getAttributes() {
+        return mAttributes;
+    }
+
+    public boolean isDirectory() {
+        return mDirectory;
+    }
+
+    public boolean isFile() {
+        return !mDirectory;
+    }
+
+    public boolean isHidden() {
+        return (mAttributes & JcifsFile.ATTR_HIDDEN) != 0;
+    }
+
+    public boolean isReadOnly() {
+        return (mAttributes & JcifsFile.ATTR_READONLY) != 0;
+    }
+
+    @Override
+    public String toString() {
+        return mPath;
+    }
+}
@@ -0,0 +1,257 @@
+package com.sentaroh.android.JcifsFile2;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2011-2018 Sentaroh
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights to use,
+copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software,
+and to permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+*/
+
+import java.net.MalformedURLException;
+import java.nio.file.ClosedFileSystemException;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.UserPrincipalLookupService;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * FileSystem of one SMB server, bound to the JcifsAuth used for every file of it.
+ * Closing the file system does not close the JcifsAuth.
+ */
+public class JcifsFileSystem extends FileSystem {
+
+    private final JcifsFileSystemProvider mProvider;
+    private final String mServer;
+    private final JcifsAuth mAuth;
+    private final JcifsPath mRoot;
+    private volatile boolean mOpen = true;
+    private volatile long mAttributeTtl = JcifsMetadataCache.DEFAULT_TTL;
+
+    JcifsFileSystem(JcifsFileSystemProvider provider, String server, JcifsAuth auth) {
+        mProvider = provider;
+        mServer = server;
+        mAuth = auth;
+        mRoot = new JcifsPath(this, "/");
+    }
+
+    public String getServer() {
+        return mServer;
+    }
+
+    public JcifsAuth getAuth() {
+        return mAuth;
+    }
+
+    /**
+     * @param ttl time in milliseconds the metadata of a directory entry is used for the
+     *            attributes of a path returned by a DirectoryStream, 0 always queries the server
+     */
+    public JcifsFileSystem setAttributeTtl(long ttl) {
+        mAttributeTtl = Math.max(0, ttl);
+        return this;
+    }
+
+    public long getAttributeTtl() {
+        return mAttributeTtl;
+    }
+
+    JcifsPath getRoot() {
+        return mRoot;
+    }
+
+    /**
+     * @param directory true appends "/", which jcifs requires to list a directory
+     */
+    JcifsFile getFile(JcifsPath path, boolean directory) throws MalformedURLException, JcifsException {
+        if (!mOpen) throw new ClosedFileSystemException();
+        String[] names = ((JcifsPath) path.toAbsolutePath().normalize()).getNameList();
+        StringBuilder sb = new StringBuilder("smb://").append(mServer).append('/');
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0) sb.append('/');
+            sb.append(names[i]);
+        }
+        if (names.length > 0 && (directory || names.length == 1)) sb.append('/');
+        return new JcifsFile(sb.toString(), mAuth);
+    }
+
+    @Override
+    public JcifsFileSystemProvider provider() {
+        return mProvider;
+    }
+
+    @Override
+    public void close() {
+        if (!mOpen) return;
+        mOpen = false;
+        mProvider.removeFileSystem(this);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return mOpen;
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return false;
+    }
+
+    @Override
+    public String getSeparator() {
+        return "/";
+    }
+
+    @Override
+    public Iterable<Path> getRootDirectories() {
+        return Collections.<Path>singletonList(mRoot);
+    }
+
+    @Override
+    public Iterable<FileStore> getFileStores() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public Set<String> supportedFileAttributeViews() {
+        return new HashSet<String>(Arrays.asList("basic", "dos"));
+    }
+
+    @Override
+    public Path getPath(String first, String... more) {
+        if (more.length == 0) return new JcifsPath(this, first);
+        StringBuilder sb = new StringBuilder(first);
+        for (String name : more) {
+            if (name.length() == 0) continue;
+            if (sb.length() > 0) sb.append('/');
+            sb.append(name);
+        }
+        return new JcifsPath(this, sb.toString());
+    }
+
+    /**
+     * Supports "glob:" and "regex:". Matching ignores case like the server.
+     */
+    @Override
+    public PathMatcher getPathMatcher(String syntax_and_pattern) {
+        int pos = syntax_and_pattern.indexOf(':');
+        if (pos <= 0) throw new IllegalArgumentException("Invalid syntax and pattern: " + syntax_and_pattern);
+        String syntax = syntax_and_pattern.substring(0, pos);
+        String pattern = syntax_and_pattern.substring(pos + 1);
+        String regex;
+        if (syntax.equalsIgnoreCase("glob")) regex = globToRegex(pattern);
+        else if (syntax.equalsIgnoreCase("regex")) regex = pattern;
+        else throw new UnsupportedOperationException("Syntax '" + syntax + "' not recognized");
+        final Pattern p = Pattern.compile(regex, Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+        return new PathMatcher() {
+            @Override
+            public boolean matches(Path path) {
+                return p.matcher(path.toString()).matches();
+            }
+        };
+    }
+
+    final static String globToRegex(String glob) {
+        StringBuilder sb = new StringBuilder("^");
+        boolean in_group = false;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            switch (c) {
+                case '\\':
+                    if (++i >= glob.length()) throw new PatternSyntaxException("No character to escape", glob, i - 1);
+                    sb.append(Pattern.quote(String.valueOf(glob.charAt(i))));
+                    break;
+                case '*':
+                    if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                        sb.append(".*");
+                        i++;
+                    } else {
+                        sb.append("[^/]*");
+                    }
+                    break;
+                case '?':
+                    sb.append("[^/]");
+                    break;
+                case '[':
+                    int end = glob.indexOf(']', i + 1);
+                    if (end < 0) throw new PatternSyntaxException("Missing ']'", glob, i);
+                    sb.append('[');
+                    int j = i + 1;
+                    if (j < end && glob.charAt(j) == '!') {
+                        sb.append('^');
+                        j++;
+                    }
+                    for (; j < end; j++) {
+                        char b = glob.charAt(j);
+                        if (b == '\\' || b == '[' || b == '^' || b == '&') sb.append('\\');
+                        sb.append(b);
+                    }
+                    sb.append(']');
+                    i = end;
+                    break;
+                case '{':
+                    if (in_group) throw new PatternSyntaxException("Cannot nest groups", glob, i);
+                    sb.append("(?:");
+                    in_group = true;
+                    break;
+                case '}':
+                    if (in_group) {
+                        sb.append(')');
+                        in_group = false;
+                    } else {
+                        sb.append("\\}");
+                    }
+                    break;
+                case ',':
+                    sb.append(in_group ? "|" : ",");
+                    break;
+                default:
+                    if (".^$+()|".indexOf(c) >= 0) sb.append('\\');
+                    sb.append(c);
+            }
+        }
+        if (in_group) throw new PatternSyntaxException("Missing '}'", glob, glob.length());
+        return sb.append('$').toString();
+    }
+
+    @Override
+    public UserPrincipalLookupService getUserPrincipalLookupService() {
+        throw new UnsupportedOperationException("getUserPrincipalLookupService");
+    }
+
+    /**
+     * Not supported, use JcifsWatcher.
+     */
+    @Override
+    public WatchService newWatchService() {
+        throw new UnsupportedOperationException("newWatchService");
+    }
+
+    @Override
+    public String toString() {
+        return JcifsFileSystemProvider.SCHEME + "://" + mServer + "/";
+    }
+}
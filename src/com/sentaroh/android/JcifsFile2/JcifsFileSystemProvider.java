@@ -0,0 +1,479 @@
+package com.sentaroh.android.JcifsFile2;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2011-2018 Sentaroh
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights to use,
+copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software,
+and to permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+*/
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.AccessMode;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.DosFileAttributes;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * java.nio.file provider for "smb://server/share/path" URIs on top of JcifsFile.
+ *
+ * A file system is created per server with the JcifsAuth to use, either with
+ * newFileSystem(server, auth) or newFileSystem(uri, env) and the auth in env under ENV_AUTH.
+ * Then Files.newDirectoryStream(), Files.walk(), Files.copy() etc. work on its paths:
+ * <ul>
+ * <li>directory streams return entries while the listing is running, and the attributes of
+ * the returned paths come from the listing, so a tree walk needs no request per entry</li>
+ * <li>newByteChannel() returns a JcifsSeekableByteChannel, which also reads at a position</li>
+ * <li>copy() uses JcifsCopy, so copies within one share are done by the server</li>
+ * </ul>
+ */
+public class JcifsFileSystemProvider extends FileSystemProvider {
+
+    final static public String SCHEME = "smb";
+    /** Key of the JcifsAuth in the env map of newFileSystem(URI, Map) */
+    final static public String ENV_AUTH = "auth";
+
+    final static private int NT_STATUS_NO_SUCH_FILE = 0xC000000F;
+    final static private int NT_STATUS_ACCESS_DENIED = 0xC0000022;
+    final static private int NT_STATUS_OBJECT_NAME_NOT_FOUND = 0xC0000034;
+    final static private int NT_STATUS_OBJECT_NAME_COLLISION = 0xC0000035;
+    final static private int NT_STATUS_OBJECT_PATH_NOT_FOUND = 0xC000003A;
+    final static private int NT_STATUS_BAD_NETWORK_NAME = 0xC00000CC;
+    final static private int NT_STATUS_DIRECTORY_NOT_EMPTY = 0xC0000101;
+    final static private int NT_STATUS_NOT_A_DIRECTORY = 0xC0000103;
+
+    private final HashMap<String, JcifsFileSystem> mFileSystemList = new HashMap<String, JcifsFileSystem>();
+
+    public JcifsFileSystemProvider() {
+    }
+
+    @Override
+    public String getScheme() {
+        return SCHEME;
+    }
+
+    /**
+     * @param server host name or address, with ":port" if not the default port
+     * @param auth   the auth of every file of the file system
+     */
+    public JcifsFileSystem newFileSystem(String server, JcifsAuth auth) {
+        if (auth == null) throw new IllegalArgumentException("JcifsAuth is null.");
+        String key = server.toLowerCase();
+        synchronized (mFileSystemList) {
+            if (mFileSystemList.containsKey(key)) throw new FileSystemAlreadyExistsException(server);
+            JcifsFileSystem fs = new JcifsFileSystem(this, server, auth);
+            mFileSystemList.put(key, fs);
+            return fs;
+        }
+    }
+
+    @Override
+    public JcifsFileSystem newFileSystem(URI uri, Map<String, ?> env) {
+        checkUri(uri);
+        Object auth = env.get(ENV_AUTH);
+        if (!(auth instanceof JcifsAuth)) throw new IllegalArgumentException("JcifsAuth is not specified as \"" + ENV_AUTH + "\".");
+        return newFileSystem(uri.getAuthority(), (JcifsAuth) auth);
+    }
+
+    @Override
+    public JcifsFileSystem getFileSystem(URI uri) {
+        checkUri(uri);
+        synchronized (mFileSystemList) {
+            JcifsFileSystem fs = mFileSystemList.get(uri.getAuthority().toLowerCase());
+            if (fs == null) throw new FileSystemNotFoundException(uri.toString());
+            return fs;
+        }
+    }
+
+    @Override
+    public Path getPath(URI uri) {
+        String path = uri.getPath();
+        return getFileSystem(uri).getPath(path == null || path.length() == 0 ? "/" : path);
+    }
+
+    void removeFileSystem(JcifsFileSystem fs) {
+        synchronized (mFileSystemList) {
+            String key = fs.getServer().toLowerCase();
+            if (mFileSystemList.get(key) == fs) mFileSystemList.remove(key);
+        }
+    }
+
+    private void checkUri(URI uri) {
+        if (!SCHEME.equalsIgnoreCase(uri.getScheme()))
+            throw new IllegalArgumentException("URI scheme is not \"" + SCHEME + "\": " + uri);
+        if (uri.getAuthority() == null) throw new IllegalArgumentException("URI has no server: " + uri);
+    }
+
+    final static private JcifsPath toJcifsPath(Path path) {
+        if (!(path instanceof JcifsPath)) throw new ProviderMismatchException();
+        return (JcifsPath) path;
+    }
+
+    /**
+     * Maps the NT status to the matching java.nio.file exception.
+     */
+    final static IOException toIOException(JcifsException e, String file) {
+        FileSystemException result;
+        switch (e.getNtStatus()) {
+            case NT_STATUS_NO_SUCH_FILE:
+            case NT_STATUS_OBJECT_NAME_NOT_FOUND:
+            case NT_STATUS_OBJECT_PATH_NOT_FOUND:
+            case NT_STATUS_BAD_NETWORK_NAME:
+                result = new NoSuchFileException(file, null, e.getMessage());
+                break;
+            case NT_STATUS_OBJECT_NAME_COLLISION:
+                result = new FileAlreadyExistsException(file, null, e.getMessage());
+                break;
+            case NT_STATUS_ACCESS_DENIED:
+                result = new AccessDeniedException(file, null, e.getMessage());
+                break;
+            case NT_STATUS_DIRECTORY_NOT_EMPTY:
+                result = new DirectoryNotEmptyException(file);
+                break;
+            case NT_STATUS_NOT_A_DIRECTORY:
+                result = new NotDirectoryException(file);
+                break;
+            default:
+                result = new FileSystemException(file, null, e.getMessage());
+        }
+        result.initCause(e);
+        return result;
+    }
+
+    /**
+     * @param use_listed true uses the metadata the path was listed with, if not expired
+     */
+    private JcifsFileAttributes getAttributes(JcifsPath path, boolean use_listed) throws IOException {
+        JcifsFileEntry entry = use_listed ? path.getListedEntry(path.getFileSystem().getAttributeTtl()) : null;
+        if (entry == null) {
+            try {
+                entry = path.getFileSystem().getFile(path, false).stat();
+            } catch (JcifsException e) {
+                throw toIOException(e, path.toString());
+            }
+            if (entry == null) throw new NoSuchFileException(path.toString());
+        }
+        return new JcifsFileAttributes(entry);
+    }
+
+    private boolean exists(JcifsPath path) throws IOException {
+        try {
+            return path.getFileSystem().getFile(path, false).exists();
+        } catch (JcifsException e) {
+            throw toIOException(e, path.toString());
+        }
+    }
+
+    @Override
+    public SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options, FileAttribute<?>... attrs) throws IOException {
+        JcifsPath jp = toJcifsPath(path);
+        if (attrs.length > 0) throw new UnsupportedOperationException("File attributes are not supported");
+        boolean append = options.contains(StandardOpenOption.APPEND);
+        boolean write = append || options.contains(StandardOpenOption.WRITE);
+        if (append && options.contains(StandardOpenOption.READ)) throw new IllegalArgumentException("READ + APPEND not allowed");
+        if (append && options.contains(StandardOpenOption.TRUNCATE_EXISTING)) throw new IllegalArgumentException("APPEND + TRUNCATE_EXISTING not allowed");
+        try {
+            JcifsFile file = jp.getFileSystem().getFile(jp, false);
+            if (write) {
+                boolean exists = file.exists();
+                if (exists && options.contains(StandardOpenOption.CREATE_NEW)) throw new FileAlreadyExistsException(path.toString());
+                if (!exists && !options.contains(StandardOpenOption.CREATE) && !options.contains(StandardOpenOption.CREATE_NEW))
+                    throw new NoSuchFileException(path.toString());
+                file.invalidateMetadata();
+            }
+            JcifsSeekableByteChannel channel = file.getSeekableByteChannel(write ? "rw" : "r");
+            if (options.contains(StandardOpenOption.TRUNCATE_EXISTING) && write) channel.truncate(0);
+            if (append) channel.position(channel.size());
+            return channel;
+        } catch (JcifsException e) {
+            throw toIOException(e, path.toString());
+        }
+    }
+
+    /**
+     * Reads with the input stream of the library, which reads in large requests.
+     */
+    @Override
+    public InputStream newInputStream(Path path, OpenOption... options) throws IOException {
+        JcifsPath jp = toJcifsPath(path);
+        for (OpenOption option : options) {
+            if (option == StandardOpenOption.APPEND || option == StandardOpenOption.WRITE)
+                throw new UnsupportedOperationException("'" + option + "' not allowed");
+        }
+        try {
+            return jp.getFileSystem().getFile(jp, false).getInputStream();
+        } catch (JcifsException e) {
+            throw toIOException(e, path.toString());
+        }
+    }
+
+    /**
+     * Writes with the output stream of the library. APPEND is written through a channel.
+     */
+    @Override
+    public OutputStream newOutputStream(Path path, OpenOption... options) throws IOException {
+        JcifsPath jp = toJcifsPath(path);
+        Set<OpenOption> set = new HashSet<OpenOption>(Arrays.asList(options));
+        if (set.isEmpty()) set.addAll(Arrays.asList(StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING));
+        if (set.contains(StandardOpenOption.READ)) throw new IllegalArgumentException("READ not allowed");
+        if (set.contains(StandardOpenOption.APPEND)) return super.newOutputStream(path, options);
+        try {
+            JcifsFile file = jp.getFileSystem().getFile(jp, false);
+            if (set.contains(StandardOpenOption.CREATE_NEW)) {
+                if (file.exists()) throw new FileAlreadyExistsException(path.toString());
+            } else if (!set.contains(StandardOpenOption.CREATE)) {
+                if (!file.exists()) throw new NoSuchFileException(path.toString());
+            }
+            return file.getOutputStream();
+        } catch (JcifsException e) {
+            throw toIOException(e, path.toString());
+        }
+    }
+
+    @Override
+    public DirectoryStream<Path> newDirectoryStream(Path dir, DirectoryStream.Filter<? super Path> filter) throws IOException {
+        JcifsPath jp = toJcifsPath(dir);
+        try {
+            return new JcifsDirectoryStream(jp, jp.getFileSystem().getFile(jp, true).iterateEntries(), filter);
+        } catch (JcifsException e) {
+            throw toIOException(e, dir.toString());
+        }
+    }
+
+    @Override
+    public void createDirectory(Path dir, FileAttribute<?>... attrs) throws IOException {
+        JcifsPath jp = toJcifsPath(dir);
+        if (attrs.length > 0) throw new UnsupportedOperationException("File attributes are not supported");
+        try {
+            jp.getFileSystem().getFile(jp, true).mkdir();
+        } catch (JcifsException e) {
+            throw toIOException(e, dir.toString());
+        }
+    }
+
+    /**
+     * jcifs deletes directories with their contents, so a directory is checked to be empty
+     * first, as Files.delete() requires.
+     */
+    @Override
+    public void delete(Path path) throws IOException {
+        JcifsPath jp = toJcifsPath(path);
+        JcifsFileAttributes attrs = getAttributes(jp, false);
+        try {
+            JcifsFile file = jp.getFileSystem().getFile(jp, attrs.isDirectory());
+            if (attrs.isDirectory()) {
+                String[] list = file.list();
+                if (list != null && list.length > 0) throw new DirectoryNotEmptyException(path.toString());
+            }
+            file.delete();
+        } catch (JcifsException e) {
+            throw toIOException(e, path.toString());
+        }
+    }
+
+    /**
+     * Files are copied with JcifsCopy, so within one share the server copies the data and
+     * otherwise it is streamed through this client, also between file systems. A directory
+     * is copied as an empty directory.
+     */
+    @Override
+    public void copy(Path source, Path target, CopyOption... options) throws IOException {
+        JcifsPath src = toJcifsPath(source);
+        JcifsPath dest = toJcifsPath(target);
+        boolean replace = false, copy_attributes = false;
+        for (CopyOption option : options) {
+            if (option == StandardCopyOption.REPLACE_EXISTING) replace = true;
+            else if (option == StandardCopyOption.COPY_ATTRIBUTES) copy_attributes = true;
+            else if (option == StandardCopyOption.ATOMIC_MOVE) throw new UnsupportedOperationException("ATOMIC_MOVE not supported by copy");
+        }
+        if (isSameFile(src, dest)) return;
+        JcifsFileAttributes attrs = getAttributes(src, true);
+        prepareTarget(dest, replace);
+        try {
+            if (attrs.isDirectory()) {
+                JcifsFile dir = dest.getFileSystem().getFile(dest, true);
+                dir.mkdir();
+                if (copy_attributes) dir.setLastModified(attrs.lastModifiedTime().toMillis());
+            } else {
+                new JcifsCopy().setPreserveLastModified(copy_attributes)
+                        .copy(src.getFileSystem().getFile(src, false), dest.getFileSystem().getFile(dest, false));
+            }
+        } catch (JcifsException e) {
+            throw toIOException(e, target.toString());
+        }
+    }
+
+    private void prepareTarget(JcifsPath dest, boolean replace) throws IOException {
+        if (!exists(dest)) return;
+        if (!replace) throw new FileAlreadyExistsException(dest.toString());
+        delete(dest);
+    }
+
+    /**
+     * Renames within one file system, otherwise copies and deletes the source.
+     */
+    @Override
+    public void move(Path source, Path target, CopyOption... options) throws IOException {
+        JcifsPath src = toJcifsPath(source);
+        JcifsPath dest = toJcifsPath(target);
+        boolean replace = false, atomic = false;
+        for (CopyOption option : options) {
+            if (option == StandardCopyOption.REPLACE_EXISTING) replace = true;
+            else if (option == StandardCopyOption.ATOMIC_MOVE) atomic = true;
+        }
+        if (src.getFileSystem() != dest.getFileSystem()) {
+            if (atomic) throw new AtomicMoveNotSupportedException(source.toString(), target.toString(), "Different file systems");
+            copy(src, dest, replace ? new CopyOption[]{StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES}
+                    : new CopyOption[]{StandardCopyOption.COPY_ATTRIBUTES});
+            delete(src);
+            return;
+        }
+        if (isSameFile(src, dest)) return;
+        JcifsFileAttributes attrs = getAttributes(src, false);
+        if (!atomic) prepareTarget(dest, replace);
+        try {
+            JcifsFileSystem fs = src.getFileSystem();
+            fs.getFile(src, attrs.isDirectory()).renameTo(fs.getFile(dest, attrs.isDirectory()));
+        } catch (JcifsException e) {
+            throw toIOException(e, target.toString());
+        }
+    }
+
+    @Override
+    public boolean isSameFile(Path path, Path path2) throws IOException {
+        if (path.equals(path2)) return true;
+        if (!(path instanceof JcifsPath) || !(path2 instanceof JcifsPath)) return false;
+        JcifsPath p1 = (JcifsPath) path, p2 = (JcifsPath) path2;
+        if (!p1.getFileSystem().getServer().equalsIgnoreCase(p2.getFileSystem().getServer())) return false;
+        return p1.toAbsolutePath().normalize().toString().equalsIgnoreCase(p2.toAbsolutePath().normalize().toString());
+    }
+
+    @Override
+    public boolean isHidden(Path path) throws IOException {
+        return getAttributes(toJcifsPath(path), true).isHidden();
+    }
+
+    @Override
+    public FileStore getFileStore(Path path) {
+        throw new UnsupportedOperationException("getFileStore");
+    }
+
+    /**
+     * Execute access is not checked, the server has no execute attribute.
+     */
+    @Override
+    public void checkAccess(Path path, AccessMode... modes) throws IOException {
+        JcifsFileAttributes attrs = getAttributes(toJcifsPath(path), true);
+        for (AccessMode mode : modes) {
+            if (mode == AccessMode.WRITE && attrs.isReadOnly() && !attrs.isDirectory())
+                throw new AccessDeniedException(path.toString());
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <V extends FileAttributeView> V getFileAttributeView(Path path, Class<V> type, LinkOption... options) {
+        if (type == BasicFileAttributeView.class) return (V) new AttributeView(toJcifsPath(path));
+        return null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <A extends BasicFileAttributes> A readAttributes(Path path, Class<A> type, LinkOption... options) throws IOException {
+        if (type != BasicFileAttributes.class && type != DosFileAttributes.class)
+            throw new UnsupportedOperationException(type.getName() + " not supported");
+        return (A) getAttributes(toJcifsPath(path), true);
+    }
+
+    @Override
+    public Map<String, Object> readAttributes(Path path, String attributes, LinkOption... options) throws IOException {
+        return getAttributes(toJcifsPath(path), true).toMap(attributes);
+    }
+
+    /**
+     * Only "lastModifiedTime" can be set.
+     */
+    @Override
+    public void setAttribute(Path path, String attribute, Object value, LinkOption... options) throws IOException {
+        String name = attribute.startsWith("basic:") ? attribute.substring(6) : attribute;
+        if (!name.equals("lastModifiedTime")) throw new UnsupportedOperationException("'" + attribute + "' can not be set");
+        new AttributeView(toJcifsPath(path)).setTimes((FileTime) value, null, null);
+    }
+
+    private class AttributeView implements BasicFileAttributeView {
+        private final JcifsPath mPath;
+
+        AttributeView(JcifsPath path) {
+            mPath = path;
+        }
+
+        @Override
+        public String name() {
+            return "basic";
+        }
+
+        @Override
+        public BasicFileAttributes readAttributes() throws IOException {
+            return getAttributes(mPath, true);
+        }
+
+        /**
+         * Only the last modified time is set, the others are ignored.
+         */
+        @Override
+        public void setTimes(FileTime last_modified, FileTime last_access, FileTime create_time) throws IOException {
+            if (last_modified == null) return;
+            try {
+                mPath.getFileSystem().getFile(mPath, false).setLastModified(last_modified.toMillis());
+            } catch (JcifsException e) {
+                throw toIOException(e, mPath.toString());
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.sentaroh.android.JcifsFile2;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2011-2018 Sentaroh
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights to use,
+copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software,
+and to permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+*/
+
+import java.util.HashMap;
+
+/**
+ * Process wide limit of concurrent requests per SMB server.
+ *
+ * The parallel helpers of this package take a permit for the server before each request,
+ * so several walkers or batch jobs running against the same server share one limit.
+ * Limits can be changed at any time; requests already in flight are not affected.
+ */
+public class JcifsHostLimiter {
+
+    final static public int DEFAULT_HOST_LIMIT = 8;
+
+    private static final HashMap<String, HostPermits> mHostList = new HashMap<String, HostPermits>();
+    private static int mDefaultLimit = DEFAULT_HOST_LIMIT;
+
+    private JcifsHostLimiter() {
+    }
+
+    /**
+     * Waits until a request to the server is allowed.
+     */
+    public static void acquire(String host) throws InterruptedException {
+        HostPermits permits = getHostPermits(host);
+        synchronized (permits) {
+            while (permits.mInFlight >= permits.getLimit()) permits.wait();
+            permits.mInFlight++;
+        }
+    }
+
+    public static boolean tryAcquire(String host) {
+        HostPermits permits = getHostPermits(host);
+        synchronized (permits) {
+            if (permits.mInFlight >= permits.getLimit()) return false;
+            permits.mInFlight++;
+            return true;
+        }
+    }
+
+    public static void release(String host) {
+        HostPermits permits = getHostPermits(host);
+        synchronized (permits) {
+            if (permits.mInFlight > 0) permits.mInFlight--;
+            permits.notifyAll();
+        }
+    }
+
+    /**
+     * @param host  server name as returned by JcifsFile.getServer()
+     * @param limit maximum concurrent requests, 0 or less means the default limit
+     */
+    public static void setHostLimit(String host, int limit) {
+        HostPermits permits = getHostPermits(host);
+        synchronized (permits) {
+            permits.mLimit = limit;
+            permits.notifyAll();
+        }
+    }
+
+    public static int getHostLimit(String host) {
+        HostPermits permits = getHostPermits(host);
+        synchronized (permits) {
+            return permits.getLimit();
+        }
+    }
+
+    public static void setDefaultHostLimit(int limit) {
+        HostPermits[] list;
+        synchronized (mHostList) {
+            mDefaultLimit = Math.max(1, limit);
+            list = mHostList.values().toArray(new HostPermits[mHostList.size()]);
+        }
+        for (HostPermits permits : list) {
+            synchronized (permits) {
+                permits.notifyAll();
+            }
+        }
+    }
+
+    public static int getDefaultHostLimit() {
+        synchronized (mHostList) {
+            return mDefaultLimit;
+        }
+    }
+
+    /**
+     * @return number of requests to the server currently in flight
+     */
+    public static int getInFlight(String host) {
+        HostPermits permits = getHostPermits(host);
+        synchronized (permits) {
+            return permits.mInFlight;
+        }
+    }
+
+    final static String getHostKey(String host) {
+        return host == null ? "" : host.toLowerCase();
+    }
+
+    private static HostPermits getHostPermits(String host) {
+        String key = getHostKey(host);
+        synchronized (mHostList) {
+            HostPermits permits = mHostList.get(key);
+            if (permits == null) {
+                permits = new HostPermits();
+                mHostList.put(key, permits);
+            }
+            return permits;
+        }
+    }
+
+    private static class HostPermits {
+        int mLimit = 0;
+        int mInFlight = 0;
+
+        int getLimit() {
+            if (mLimit > 0) return mLimit;
+            return getDefaultHostLimit();
+        }
+    }
+}
@@ -0,0 +1,527 @@
+package com.sentaroh.android.JcifsFile2;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2011-2018 Sentaroh
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights to use,
+copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software,
+and to permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+*/
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.util.List;
+
+/**
+ * JcifsBackend on a JcifsMemoryFileSystem, for running the library without a server.
+ */
+public final class JcifsMemoryBackend implements JcifsBackend {
+
+    private final JcifsMemoryFileSystem mFileSystem;
+    private final String mUrl;
+    private final String mPath;
+    private final String mKey;
+
+    JcifsMemoryBackend(JcifsMemoryFileSystem fs, String url) {
+        mFileSystem = fs;
+        mUrl = url;
+        mPath = JcifsMemoryFileSystem.getPath(url);
+        mKey = mPath.toLowerCase();
+    }
+
+    public JcifsMemoryFileSystem getFileSystem() {
+        return mFileSystem;
+    }
+
+    @Override
+    public int getSmbLevel() {
+        return JcifsAuth.JCIFS_FILE_MEMORY;
+    }
+
+    @Override
+    public String getName() {
+        if (mPath.length() == 0) return "smb://";
+        String name = mPath.substring(mPath.lastIndexOf('/') + 1);
+        return mUrl.endsWith("/") ? name + "/" : name;
+    }
+
+    @Override
+    public String getPath() {
+        return mUrl;
+    }
+
+    @Override
+    public String getCanonicalPath() {
+        return mUrl;
+    }
+
+    @Override
+    public String getShare() {
+        if (JcifsMemoryFileSystem.getDepth(mPath) < 2) return null;
+        String[] parts = mPath.split("/");
+        return parts[1];
+    }
+
+    @Override
+    public String getServer() {
+        if (mPath.length() == 0) return null;
+        int pos = mPath.indexOf('/');
+        return pos < 0 ? mPath : mPath.substring(0, pos);
+    }
+
+    @Override
+    public String getUncPath() {
+        return "\\\\" + mPath.replace('/', '\\');
+    }
+
+    @Override
+    public String getParent() {
+        if (mPath.length() == 0) return "smb://";
+        String parent = JcifsMemoryFileSystem.getParentKey(mPath);
+        return parent.length() == 0 ? "smb://" : "smb://" + parent + "/";
+    }
+
+    @Override
+    public boolean exists() throws JcifsException {
+        mFileSystem.simulateLatency();
+        return mFileSystem.exists(mKey);
+    }
+
+    @Override
+    public int getType() throws JcifsException {
+        int depth = JcifsMemoryFileSystem.getDepth(mKey);
+        if (depth == 0) return jcifs.smb.SmbFile.TYPE_WORKGROUP;
+        if (depth == 1) return jcifs.smb.SmbFile.TYPE_SERVER;
+        if (depth == 2) return jcifs.smb.SmbFile.TYPE_SHARE;
+        return jcifs.smb.SmbFile.TYPE_FILESYSTEM;
+    }
+
+    @Override
+    public int getAttributes() throws JcifsException {
+        mFileSystem.simulateLatency();
+        synchronized (mFileSystem) {
+            if (JcifsMemoryFileSystem.getDepth(mKey) <= 2) return JcifsFile.ATTR_DIRECTORY;
+            JcifsMemoryFileSystem.Node node = mFileSystem.get(mKey);
+            if (node == null) return 0;
+            return node.mDirectory ? node.mAttributes | JcifsFile.ATTR_DIRECTORY : node.mAttributes;
+        }
+    }
+
+    @Override
+    public boolean canRead() throws JcifsException {
+        return exists();
+    }
+
+    @Override
+    public boolean canWrite() throws JcifsException {
+        return exists() && (getAttributes() & JcifsFile.ATTR_READONLY) == 0;
+    }
+
+    @Override
+    public boolean isDirectory() throws JcifsException {
+        mFileSystem.simulateLatency();
+        return mFileSystem.isDirectory(mKey);
+    }
+
+    @Override
+    public boolean isFile() throws JcifsException {
+        mFileSystem.simulateLatency();
+        return mFileSystem.exists(mKey) && !mFileSystem.isDirectory(mKey);
+    }
+
+    @Override
+    public boolean isHidden() throws JcifsException {
+        return (getAttributes() & JcifsFile.ATTR_HIDDEN) != 0;
+    }
+
+    @Override
+    public long length() throws JcifsException {
+        mFileSystem.simulateLatency();
+        synchronized (mFileSystem) {
+            JcifsMemoryFileSystem.Node node = mFileSystem.get(mKey);
+            return node == null || node.mDirectory ? 0 : node.mLength;
+        }
+    }
+
+    @Override
+    public long lastModified() throws JcifsException {
+        mFileSystem.simulateLatency();
+        synchronized (mFileSystem) {
+            JcifsMemoryFileSystem.Node node = mFileSystem.get(mKey);
+            return node == null ? 0 : node.mLastModified;
+        }
+    }
+
+    @Override
+    public long createTime() throws JcifsException {
+        mFileSystem.simulateLatency();
+        synchronized (mFileSystem) {
+            JcifsMemoryFileSystem.Node node = mFileSystem.get(mKey);
+            return node == null ? 0 : node.mCreateTime;
+        }
+    }
+
+    @Override
+    public void setLastModified(long time) throws JcifsException {
+        mFileSystem.simulateLatency();
+        synchronized (mFileSystem) {
+            JcifsMemoryFileSystem.Node node = mFileSystem.get(mKey);
+            if (node == null)
+                throw (new JcifsException("The system cannot find the file specified: " + mKey,
+                        JcifsMemoryFileSystem.NT_STATUS_OBJECT_NAME_NOT_FOUND));
+            node.mLastModified = time;
+        }
+    }
+
+    /**
+     * Sets the DOS attributes, e.g. JcifsFile.ATTR_HIDDEN. For building test data.
+     */
+    public void setAttributes(int attributes) throws JcifsException {
+        synchronized (mFileSystem) {
+            JcifsMemoryFileSystem.Node node = mFileSystem.get(mKey);
+            if (node == null)
+                throw (new JcifsException("The system cannot find the file specified: " + mKey,
+                        JcifsMemoryFileSystem.NT_STATUS_OBJECT_NAME_NOT_FOUND));
+            node.mAttributes = attributes & ~JcifsFile.ATTR_DIRECTORY;
+        }
+    }
+
+    @Override
+    public void delete() throws JcifsException {
+        mFileSystem.simulateLatency();
+        mFileSystem.delete(mKey);
+    }
+
+    @Override
+    public void mkdir() throws JcifsException {
+        mFileSystem.simulateLatency();
+        mFileSystem.mkdir(mKey, mPath.substring(mPath.lastIndexOf('/') + 1));
+    }
+
+    @Override
+    public void mkdirs() throws JcifsException {
+        mFileSystem.simulateLatency();
+        mFileSystem.mkdirs(mPath);
+    }
+
+    @Override
+    public void createNewFile() throws JcifsException {
+        mFileSystem.simulateLatency();
+        mFileSystem.createFile(mKey, mPath.substring(mPath.lastIndexOf('/') + 1), true);
+    }
+
+    @Override
+    public void connect() throws JcifsException {
+        mFileSystem.simulateLatency();
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void renameTo(JcifsBackend dest) throws JcifsException {
+        if (!(dest instanceof JcifsMemoryBackend) || ((JcifsMemoryBackend) dest).mFileSystem != mFileSystem)
+            throw new JcifsException("Null memory file specified.");
+        JcifsMemoryBackend d = (JcifsMemoryBackend) dest;
+        mFileSystem.simulateLatency();
+        mFileSystem.rename(mKey, d.mKey, d.mPath.substring(d.mPath.lastIndexOf('/') + 1));
+    }
+
+    /**
+     * Copies within the same file system and server with a single request.
+     */
+    @Override
+    public boolean serverCopyTo(JcifsBackend dest) throws JcifsException {
+        if (!(dest instanceof JcifsMemoryBackend) || ((JcifsMemoryBackend) dest).mFileSystem != mFileSystem) return false;
+        JcifsMemoryBackend d = (JcifsMemoryBackend) dest;
+        String server = getServer();
+        if (server == null || !server.equalsIgnoreCase(d.getServer())) return false;
+        mFileSystem.simulateLatency();
+        mFileSystem.copy(mKey, d.mKey, d.mPath.substring(d.mPath.lastIndexOf('/') + 1));
+        return true;
+    }
+
+    @Override
+    public InputStream getInputStream() throws JcifsException {
+        mFileSystem.simulateLatency();
+        return new MemoryInputStream(mFileSystem.getFile(mKey));
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws JcifsException {
+        mFileSystem.simulateLatency();
+        return new MemoryOutputStream(mFileSystem.createFile(mKey, mPath.substring(mPath.lastIndexOf('/') + 1), false));
+    }
+
+    @Override
+    public RandomAccess openRandomAccess(String mode) throws JcifsException {
+        mFileSystem.simulateLatency();
+        boolean writable = mode.indexOf('w') >= 0;
+        JcifsMemoryFileSystem.Node node;
+        synchronized (mFileSystem) {
+            node = mFileSystem.get(mKey);
+            if (node == null && writable) node = mFileSystem.createFile(mKey, mPath.substring(mPath.lastIndexOf('/') + 1), true);
+            else node = mFileSystem.getFile(mKey);
+        }
+        return new MemoryRandomAccess(node, writable);
+    }
+
+    @Override
+    public JcifsBackend getChild(String name) {
+        return new JcifsMemoryBackend(mFileSystem, getDirectoryUrl() + name);
+    }
+
+    private String getDirectoryUrl() {
+        return mUrl.endsWith("/") ? mUrl : mUrl + "/";
+    }
+
+    @Override
+    public String[] list() throws JcifsException {
+        mFileSystem.simulateLatency();
+        List<String> names = mFileSystem.list(mKey);
+        String[] result = new String[names.size()];
+        for (int i = 0; i < result.length; i++) {
+            String name = names.get(i);
+            result[i] = name.endsWith("/") ? name.substring(0, name.length() - 1) : name;
+        }
+        return result;
+    }
+
+    @Override
+    public JcifsBackend[] listFiles() throws JcifsException {
+        mFileSystem.simulateLatency();
+        List<String> names = mFileSystem.list(mKey);
+        JcifsBackend[] result = new JcifsBackend[names.size()];
+        for (int i = 0; i < result.length; i++) result[i] = getChild(names.get(i));
+        return result;
+    }
+
+    @Override
+    public void listFiles(ListHandler handler) throws JcifsException {
+        for (JcifsBackend child : listFiles()) handler.onEntry(child);
+    }
+
+    @Override
+    public Children children(String wildcard) throws JcifsException {
+        final JcifsBackend[] list = listFiles();
+        final String filter = wildcard;
+        return new Children() {
+            private int mPos = 0;
+
+            @Override
+            public boolean hasNext() {
+                while (mPos < list.length && filter != null
+                        && !JcifsDirectoryIterator.isWildcardMatch(filter, list[mPos].getName())) mPos++;
+                return mPos < list.length;
+            }
+
+            @Override
+            public JcifsBackend next() {
+                if (!hasNext()) throw new java.util.NoSuchElementException();
+                return list[mPos++];
+            }
+
+            @Override
+            public void close() {
+                mPos = list.length;
+            }
+        };
+    }
+
+    private class MemoryInputStream extends InputStream {
+        private final JcifsMemoryFileSystem.Node mNode;
+        private long mPosition = 0;
+
+        MemoryInputStream(JcifsMemoryFileSystem.Node node) {
+            mNode = node;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            simulateLatency();
+            synchronized (mFileSystem) {
+                int n = mNode.read(mPosition, b, off, len);
+                if (n > 0) mPosition += n;
+                return n;
+            }
+        }
+
+        @Override
+        public int available() {
+            synchronized (mFileSystem) {
+                return (int) Math.max(0, Math.min(Integer.MAX_VALUE, mNode.mLength - mPosition));
+            }
+        }
+    }
+
+    private class MemoryOutputStream extends OutputStream {
+        private final JcifsMemoryFileSystem.Node mNode;
+        private long mPosition = 0;
+
+        MemoryOutputStream(JcifsMemoryFileSystem.Node node) {
+            mNode = node;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return;
+            simulateLatency();
+            synchronized (mFileSystem) {
+                mNode.write(mPosition, b, off, len);
+                mPosition += len;
+            }
+        }
+    }
+
+    private void simulateLatency() throws IOException {
+        try {
+            mFileSystem.simulateLatency();
+        } catch (JcifsException e) {
+            throw new java.io.InterruptedIOException(e.getMessage());
+        }
+    }
+
+    private class MemoryRandomAccess implements RandomAccess {
+        private final JcifsMemoryFileSystem.Node mNode;
+        private final boolean mWritable;
+        private long mPosition = 0;
+
+        MemoryRandomAccess(JcifsMemoryFileSystem.Node node, boolean writable) {
+            mNode = node;
+            mWritable = writable;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws JcifsException {
+            if (len == 0) return 0;
+            mFileSystem.simulateLatency();
+            synchronized (mFileSystem) {
+                int n = mNode.read(mPosition, b, off, len);
+                if (n > 0) mPosition += n;
+                return n;
+            }
+        }
+
+        @Override
+        public void readFully(byte[] b, int off, int len) throws JcifsException {
+            int done = 0;
+            while (done < len) {
+                int n = read(b, off + done, len - done);
+                if (n < 0) throw new JcifsException("EOF", 0);
+                done += n;
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws JcifsException {
+            if (!mWritable)
+                throw (new JcifsException("Access is denied: " + mKey, JcifsMemoryFileSystem.NT_STATUS_ACCESS_DENIED));
+            if (len == 0) return;
+            mFileSystem.simulateLatency();
+            synchronized (mFileSystem) {
+                mNode.write(mPosition, b, off, len);
+                mPosition += len;
+            }
+        }
+
+        @Override
+        public void seek(long position) {
+            mPosition = position;
+        }
+
+        @Override
+        public long getFilePointer() {
+            return mPosition;
+        }
+
+        @Override
+        public long length() {
+            synchronized (mFileSystem) {
+                return mNode.mLength;
+            }
+        }
+
+        @Override
+        public void setLength(long length) throws JcifsException {
+            if (!mWritable)
+                throw (new JcifsException("Access is denied: " + mKey, JcifsMemoryFileSystem.NT_STATUS_ACCESS_DENIED));
+            mFileSystem.simulateLatency();
+            synchronized (mFileSystem) {
+                mNode.setLength(length);
+                mNode.mLastModified = System.currentTimeMillis();
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Provider of a file system. The default file system is registered for
+     * JcifsAuth.JCIFS_FILE_MEMORY; another one can be registered under a level of its own.
+     */
+    public static class Provider implements JcifsBackendProvider {
+        private final JcifsMemoryFileSystem mFileSystem;
+
+        public Provider(JcifsMemoryFileSystem fs) {
+            mFileSystem = fs;
+        }
+
+        @Override
+        public String getName() {
+            return "MEMORY";
+        }
+
+        @Override
+        public JcifsBackend open(String url, JcifsAuth auth) throws MalformedURLException {
+            if (url == null || !url.startsWith("smb://")) throw new MalformedURLException("Invalid SMB URL: " + url);
+            return new JcifsMemoryBackend(mFileSystem, url);
+        }
+
+        @Override
+        public String getIpAddressFromName(String host) {
+            return null;
+        }
+
+        @Override
+        public String getHostNameFromAddress(String address) {
+            return "";
+        }
+
+        @Override
+        public boolean isNbtAddressActive(String address) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package com.sentaroh.android.JcifsFile2;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2011-2018 Sentaroh
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights to use,
+copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software,
+and to permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+*/
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Files of the in-memory backend, JcifsAuth.JCIFS_FILE_MEMORY.
+ *
+ * Every server and share exists implicitly; directories and files below a share are
+ * created through JcifsFile like on a server. Names are case insensitive. An optional
+ * latency is added to every request, so that caching and parallel layers can be measured
+ * against a predictable round trip time without a server.
+ */
+public class JcifsMemoryFileSystem {
+
+    final static int NT_STATUS_ACCESS_DENIED = 0xC0000022;
+    final static int NT_STATUS_OBJECT_NAME_NOT_FOUND = 0xC0000034;
+    final static int NT_STATUS_OBJECT_NAME_COLLISION = 0xC0000035;
+    final static int NT_STATUS_OBJECT_PATH_NOT_FOUND = 0xC000003A;
+    final static int NT_STATUS_FILE_IS_A_DIRECTORY = 0xC00000BA;
+    final static int NT_STATUS_NOT_A_DIRECTORY = 0xC0000103;
+
+    private static final JcifsMemoryFileSystem mDefault = new JcifsMemoryFileSystem();
+
+    private final TreeMap<String, Node> mNodeList = new TreeMap<String, Node>();
+    private volatile long mLatency = 0;
+
+    /**
+     * @return the file system used by JcifsAuth.JCIFS_FILE_MEMORY
+     */
+    public static JcifsMemoryFileSystem getDefault() {
+        return mDefault;
+    }
+
+    /**
+     * @param latency time in milliseconds added to every request, 0 for none
+     */
+    public JcifsMemoryFileSystem setLatency(long latency) {
+        mLatency = Math.max(0, latency);
+        return this;
+    }
+
+    public long getLatency() {
+        return mLatency;
+    }
+
+    /**
+     * Deletes all files.
+     */
+    public synchronized void clear() {
+        mNodeList.clear();
+    }
+
+    /**
+     * @return number of files and directories below the shares
+     */
+    public synchronized int size() {
+        return mNodeList.size();
+    }
+
+    void simulateLatency() throws JcifsException {
+        long latency = mLatency;
+        if (latency <= 0) return;
+        try {
+            Thread.sleep(latency);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw (new JcifsException(e, 0, e.getCause()));
+        }
+    }
+
+    /**
+     * @return "server/share/dir/name" without "smb://" and trailing "/". The lower case
+     * path is the key of the file.
+     */
+    final static String getPath(String url) {
+        String path = url.startsWith("smb://") ? url.substring(6) : url;
+        while (path.endsWith("/")) path = path.substring(0, path.length() - 1);
+        return path;
+    }
+
+    /**
+     * @return 0 for "smb://", 1 for a server, 2 for a share, more below a share
+     */
+    final static int getDepth(String key) {
+        if (key.length() == 0) return 0;
+        int depth = 1;
+        for (int i = 0; i < key.length(); i++) if (key.charAt(i) == '/') depth++;
+        return depth;
+    }
+
+    final static String getParentKey(String key) {
+        int pos = key.lastIndexOf('/');
+        return pos < 0 ? "" : key.substring(0, pos);
+    }
+
+    private static JcifsException error(String key, int nt_status, String msg) {
+        return new JcifsException(msg + ": " + key, nt_status);
+    }
+
+    synchronized Node get(String key) {
+        return mNodeList.get(key);
+    }
+
+    synchronized boolean exists(String key) {
+        return getDepth(key) <= 2 || mNodeList.containsKey(key);
+    }
+
+    synchronized boolean isDirectory(String key) {
+        if (getDepth(key) <= 2) return true;
+        Node node = mNodeList.get(key);
+        return node != null && node.mDirectory;
+    }
+
+    private void checkParent(String key) throws JcifsException {
+        String parent = getParentKey(key);
+        if (getDepth(parent) <= 2) return;
+        Node node = mNodeList.get(parent);
+        if (node == null) throw error(parent, NT_STATUS_OBJECT_PATH_NOT_FOUND, "The system cannot find the path specified");
+        if (!node.mDirectory) throw error(parent, NT_STATUS_NOT_A_DIRECTORY, "Not a directory");
+    }
+
+    synchronized void mkdir(String key, String name) throws JcifsException {
+        if (exists(key)) throw error(key, NT_STATUS_OBJECT_NAME_COLLISION, "Cannot create a file when that file already exists");
+        checkParent(key);
+        mNodeList.put(key, new Node(name, true));
+    }
+
+    /**
+     * @param path the path as returned by getPath(), keeping the case of every name
+     */
+    synchronized void mkdirs(String path) throws JcifsException {
+        String parent = getParentKey(path);
+        if (!exists(parent.toLowerCase())) mkdirs(parent);
+        mkdir(path.toLowerCase(), path.substring(path.lastIndexOf('/') + 1));
+    }
+
+    /**
+     * @param exclusive true fails if the file exists, false truncates it
+     */
+    synchronized Node createFile(String key, String name, boolean exclusive) throws JcifsException {
+        if (getDepth(key) <= 2) throw error(key, NT_STATUS_ACCESS_DENIED, "Access is denied");
+        Node node = mNodeList.get(key);
+        if (node != null) {
+            if (exclusive) throw error(key, NT_STATUS_OBJECT_NAME_COLLISION, "Cannot create a file when that file already exists");
+            if (node.mDirectory) throw error(key, NT_STATUS_FILE_IS_A_DIRECTORY, "The file is a directory");
+            node.setLength(0);
+            node.mLastModified = System.currentTimeMillis();
+            return node;
+        }
+        checkParent(key);
+        node = new Node(name, false);
+        mNodeList.put(key, node);
+        return node;
+    }
+
+    synchronized Node getFile(String key) throws JcifsException {
+        Node node = mNodeList.get(key);
+        if (node == null) throw error(key, NT_STATUS_OBJECT_NAME_NOT_FOUND, "The system cannot find the file specified");
+        if (node.mDirectory) throw error(key, NT_STATUS_FILE_IS_A_DIRECTORY, "The file is a directory");
+        return node;
+    }
+
+    /**
+     * Deletes the file, or the directory with everything below it.
+     */
+    synchronized void delete(String key) throws JcifsException {
+        if (getDepth(key) <= 2) throw error(key, NT_STATUS_ACCESS_DENIED, "Access is denied");
+        if (mNodeList.remove(key) == null) throw error(key, NT_STATUS_OBJECT_NAME_NOT_FOUND, "The system cannot find the file specified");
+        getSubTree(key).clear();
+    }
+
+    synchronized void rename(String from, String to, String to_name) throws JcifsException {
+        if (getDepth(from) <= 2 || getDepth(to) <= 2) throw error(from, NT_STATUS_ACCESS_DENIED, "Access is denied");
+        Node node = mNodeList.get(from);
+        if (node == null) throw error(from, NT_STATUS_OBJECT_NAME_NOT_FOUND, "The system cannot find the file specified");
+        if (from.equals(to)) {
+            node.mName = to_name;
+            return;
+        }
+        if (mNodeList.containsKey(to)) throw error(to, NT_STATUS_OBJECT_NAME_COLLISION, "Cannot create a file when that file already exists");
+        checkParent(to);
+        if (to.startsWith(from + "/")) throw error(to, NT_STATUS_ACCESS_DENIED, "Access is denied");
+        SortedMap<String, Node> sub_tree = getSubTree(from);
+        TreeMap<String, Node> moved = new TreeMap<String, Node>();
+        for (Map.Entry<String, Node> item : sub_tree.entrySet()) {
+            moved.put(to + item.getKey().substring(from.length()), item.getValue());
+        }
+        sub_tree.clear();
+        mNodeList.remove(from);
+        node.mName = to_name;
+        mNodeList.put(to, node);
+        mNodeList.putAll(moved);
+    }
+
+    /**
+     * Copies the data, attributes and last modified time of a file, replacing an existing file.
+     */
+    synchronized void copy(String from, String to, String to_name) throws JcifsException {
+        Node src = getFile(from);
+        Node dest = createFile(to, to_name, false);
+        if (dest == src) return;
+        dest.setLength(0);
+        dest.write(0, src.mData, 0, (int) src.mLength);
+        dest.mAttributes = src.mAttributes;
+        dest.mLastModified = src.mLastModified;
+    }
+
+    private SortedMap<String, Node> getSubTree(String key) {
+        return mNodeList.subMap(key + "/", key + "0");
+    }
+
+    /**
+     * @return names of the entries of the directory, directories ending with "/"
+     */
+    synchronized List<String> list(String key) throws JcifsException {
+        int depth = getDepth(key);
+        if (depth > 2) {
+            Node node = mNodeList.get(key);
+            if (node == null) throw error(key, NT_STATUS_OBJECT_NAME_NOT_FOUND, "The system cannot find the file specified");
+            if (!node.mDirectory) throw error(key, NT_STATUS_NOT_A_DIRECTORY, "Not a directory");
+        }
+        Map<String, Node> sub_tree = depth == 0 ? mNodeList : getSubTree(key);
+        int start = depth == 0 ? 0 : key.length() + 1;
+        ArrayList<String> result = new ArrayList<String>();
+        if (depth < 2) {
+            // servers or shares, named after the paths below them
+            LinkedHashSet<String> names = new LinkedHashSet<String>();
+            for (String child : sub_tree.keySet()) {
+                int end = child.indexOf('/', start);
+                names.add((end < 0 ? child.substring(start) : child.substring(start, end)) + "/");
+            }
+            result.addAll(names);
+            return result;
+        }
+        for (Map.Entry<String, Node> item : sub_tree.entrySet()) {
+            if (item.getKey().indexOf('/', start) >= 0) continue;
+            Node node = item.getValue();
+            result.add(node.mDirectory ? node.mName + "/" : node.mName);
+        }
+        return result;
+    }
+
+    /**
+     * A file or directory. Fields are guarded by the file system.
+     */
+    static class Node {
+        String mName;
+        final boolean mDirectory;
+        byte[] mData = new byte[0];
+        long mLength = 0;
+        long mLastModified;
+        final long mCreateTime;
+        int mAttributes = 0;
+
+        Node(String name, boolean directory) {
+            mName = name;
+            mDirectory = directory;
+            mCreateTime = mLastModified = System.currentTimeMillis();
+        }
+
+        void setLength(long length) {
+            if (length > Integer.MAX_VALUE - 8) throw new IllegalArgumentException("file too large: " + length);
+            if (length > mData.length) ensureCapacity(length);
+            else if (length < mLength) java.util.Arrays.fill(mData, (int) length, (int) mLength, (byte) 0);
+            mLength = length;
+        }
+
+        void ensureCapacity(long capacity) {
+            if (capacity <= mData.length) return;
+            long size = Math.max(capacity, Math.min((long) Integer.MAX_VALUE - 8, mData.length * 2L));
+            mData = java.util.Arrays.copyOf(mData, (int) size);
+        }
+
+        int read(long position, byte[] b, int off, int len) {
+            if (position >= mLength) return -1;
+            int n = (int) Math.min(len, mLength - position);
+            System.arraycopy(mData, (int) position, b, off, n);
+            return n;
+        }
+
+        void write(long position, byte[] b, int off, int len) {
+            long end = position + len;
+            if (end > Integer.MAX_VALUE - 8) throw new IllegalArgumentException("file too large: " + end);
+            ensureCapacity(end);
+            System.arraycopy(b, off, mData, (int) position, len);
+            if (end > mLength) mLength = end;
+            mLastModified = System.currentTimeMillis();
+        }
+    }
+}
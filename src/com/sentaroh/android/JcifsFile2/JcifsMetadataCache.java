@@ -0,0 +1,177 @@
+package com.sentaroh.android.JcifsFile2;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2011-2018 Sentaroh
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights to use,
+copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software,
+and to permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+*/
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metadata cache of one JcifsAuth, enabled with JcifsAuth.setMetadataCache().
+ *
+ * While enabled, exists(), isDirectory(), isFile(), isHidden(), canRead(), canWrite(),
+ * length(), getAttributes() and getLastModified() of JcifsFile are answered from one
+ * basic and one standard information query per file and TTL. Entries are also filled by
+ * listEntries() and iterateEntries(), and dropped by delete(), renameTo(), mkdir(),
+ * mkdirs(), createNew(), setLastModified() of the same JcifsAuth, and when a stream of
+ * getOutputStream() is opened and again when it is closed.
+ */
+public class JcifsMetadataCache {
+
+    final static public long DEFAULT_TTL = 5000L;
+    final static public int DEFAULT_MAX_ENTRIES = 10000;
+
+    private final long mTtl;
+    private final int mMaxEntries;
+    private final LinkedHashMap<String, Metadata> mMetadataList = new LinkedHashMap<String, Metadata>(256, 0.75f, true);
+
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+
+    public JcifsMetadataCache() {
+        this(DEFAULT_TTL, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param ttl         time in milliseconds an entry is used
+     * @param max_entries maximum number of cached files
+     */
+    public JcifsMetadataCache(long ttl, int max_entries) {
+        mTtl = ttl;
+        mMaxEntries = max_entries;
+    }
+
+    synchronized Metadata get(String path) {
+        String key = getKey(path);
+        Metadata md = mMetadataList.get(key);
+        if (md != null && md.mExpireTime > System.currentTimeMillis()) {
+            mHitCount.incrementAndGet();
+            return md;
+        }
+        if (md != null) mMetadataList.remove(key);
+        mMissCount.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * @param entry the metadata, or null if the file does not exist
+     */
+    synchronized Metadata put(String path, JcifsFileEntry entry) {
+        Metadata md = new Metadata(entry, System.currentTimeMillis() + mTtl);
+        if (!isCacheablePath(path)) return md;
+        mMetadataList.put(getKey(path), md);
+        Iterator<Map.Entry<String, Metadata>> it = mMetadataList.entrySet().iterator();
+        while (mMetadataList.size() > mMaxEntries && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+        return md;
+    }
+
+    public synchronized void invalidate(String path) {
+        mMetadataList.remove(getKey(path));
+    }
+
+    /**
+     * Drops the entry of the path and of everything below it.
+     */
+    public synchronized void invalidateTree(String path) {
+        String key = getKey(path);
+        String prefix = key + "/";
+        Iterator<String> it = mMetadataList.keySet().iterator();
+        while (it.hasNext()) {
+            String k = it.next();
+            if (k.equals(key) || k.startsWith(prefix)) it.remove();
+        }
+    }
+
+    /**
+     * Drops the entries of the path, of everything below it and of its parent directories,
+     * after the path has been created, deleted, renamed or modified.
+     */
+    synchronized void invalidateChanged(String path) {
+        invalidateTree(path);
+        String key = getKey(path);
+        int pos = key.lastIndexOf('/');
+        while (pos > 0 && isCacheablePath(key.substring(0, pos))) {
+            key = key.substring(0, pos);
+            mMetadataList.remove(key);
+            pos = key.lastIndexOf('/');
+        }
+    }
+
+    public synchronized void clear() {
+        mMetadataList.clear();
+    }
+
+    public synchronized int size() {
+        return mMetadataList.size();
+    }
+
+    public long getTtl() {
+        return mTtl;
+    }
+
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * SMB paths are case insensitive, so are the keys.
+     */
+    final static private String getKey(String path) {
+        String key = path.toLowerCase();
+        if (key.length() > 1 && key.endsWith("/")) return key.substring(0, key.length() - 1);
+        return key;
+    }
+
+    /**
+     * Files below a share can be cached. Servers, shares and named pipes are always queried.
+     */
+    final static boolean isCacheablePath(String path) {
+        if (path == null || !path.startsWith("smb://")) return false;
+        String[] part = path.substring(6).split("/");
+        if (part.length < 3) return false;
+        return !part[1].equalsIgnoreCase("IPC$");
+    }
+
+    static class Metadata {
+        final JcifsFileEntry mEntry;
+        final long mExpireTime;
+
+        Metadata(JcifsFileEntry entry, long expire_time) {
+            mEntry = entry;
+            mExpireTime = expire_time;
+        }
+
+        boolean exists() {
+            return mEntry != null;
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package com.sentaroh.android.JcifsFile2;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2011-2018 Sentaroh
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights to use,
+copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software,
+and to permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+*/
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Instrumentation of JcifsFile.
+ *
+ * Every JcifsFile operation reports its latency and outcome, and every stream its bytes
+ * and transfer time, to the registry set with setRegistry(), broken down by Target (server,
+ * share and SMB level). Without a registry, which is the default, nothing is measured.
+ * JcifsMetricsCollector is the built-in registry; JcifsMetricsJmx publishes it over JMX.
+ */
+public class JcifsMetrics {
+
+    final static public int OP_EXISTS = 0;
+    final static public int OP_DELETE = 1;
+    final static public int OP_MKDIR = 2;
+    final static public int OP_MKDIRS = 3;
+    final static public int OP_GET_ATTRIBUTES = 4;
+    final static public int OP_OPEN_INPUT = 5;
+    final static public int OP_OPEN_OUTPUT = 6;
+    final static public int OP_CONNECT = 7;
+    final static public int OP_CREATE_NEW = 8;
+    final static public int OP_GET_TYPE = 9;
+    final static public int OP_CAN_READ = 10;
+    final static public int OP_CAN_WRITE = 11;
+    final static public int OP_IS_DIRECTORY = 12;
+    final static public int OP_IS_FILE = 13;
+    final static public int OP_IS_HIDDEN = 14;
+    final static public int OP_LENGTH = 15;
+    final static public int OP_LIST = 16;
+    final static public int OP_LIST_FILES = 17;
+    final static public int OP_LIST_ENTRIES = 18;
+    final static public int OP_RENAME = 19;
+    final static public int OP_SET_LAST_MODIFIED = 20;
+    final static public int OP_GET_LAST_MODIFIED = 21;
+    final static public int OP_STAT = 22;
+    final static public int OP_READ = 23;
+    final static public int OP_WRITE = 24;
+    final static public int OP_SERVER_COPY = 25;
+    final static public int OP_COUNT = 26;
+
+    final static private String[] OP_NAME = new String[]{"exists", "delete", "mkdir", "mkdirs",
+            "getAttributes", "getInputStream", "getOutputStream", "connect", "createNew", "getType",
+            "canRead", "canWrite", "isDirectory", "isFile", "isHidden", "length", "list", "listFiles",
+            "listEntries", "renameTo", "setLastModified", "getLastModified", "stat", "read", "write",
+            "serverCopy"};
+
+    final static long DISABLED = Long.MIN_VALUE;
+
+    /**
+     * Receives the measurements. Called on the thread of the operation, so implementations
+     * must be thread safe and fast.
+     */
+    public interface Registry {
+        /**
+         * @param nanos     duration of the operation
+         * @param nt_status NT status of a failed operation, 0 on success or when unknown
+         * @param failed    true if the operation threw a JcifsException
+         */
+        void onOperation(Target target, int operation, long nanos, int nt_status, boolean failed);
+
+        /**
+         * Called when a stream is closed.
+         *
+         * @param operation OP_READ or OP_WRITE
+         * @param bytes     bytes transferred by the stream
+         * @param nanos     time spent in read or write calls of the stream
+         */
+        void onTransfer(Target target, int operation, long bytes, long nanos);
+    }
+
+    private static volatile Registry mRegistry = null;
+
+    private JcifsMetrics() {
+    }
+
+    /**
+     * @param registry the registry, null disables measurement
+     */
+    public static void setRegistry(Registry registry) {
+        mRegistry = registry;
+    }
+
+    public static Registry getRegistry() {
+        return mRegistry;
+    }
+
+    public static String getOperationName(int operation) {
+        return operation >= 0 && operation < OP_NAME.length ? OP_NAME[operation] : "unknown";
+    }
+
+    static long start() {
+        return mRegistry == null ? DISABLED : System.nanoTime();
+    }
+
+    static void record(JcifsFile file, int operation, long start, JcifsException e) {
+        if (start == DISABLED) return;
+        Registry registry = mRegistry;
+        if (registry == null) return;
+        registry.onOperation(file.getMetricsTarget(), operation, System.nanoTime() - start,
+                e == null ? 0 : e.getNtStatus(), e != null);
+    }
+
+    static InputStream wrap(JcifsFile file, InputStream is) {
+        if (mRegistry == null || is == null) return is;
+        return new MeteredInputStream(is, file.getMetricsTarget());
+    }
+
+    static OutputStream wrap(JcifsFile file, OutputStream os) {
+        if (mRegistry == null || os == null) return os;
+        return new MeteredOutputStream(os, file.getMetricsTarget());
+    }
+
+    private static void recordTransfer(Target target, int operation, long bytes, long nanos) {
+        Registry registry = mRegistry;
+        if (registry != null) registry.onTransfer(target, operation, bytes, nanos);
+    }
+
+    /**
+     * Server, share and SMB level a measurement belongs to.
+     */
+    public static class Target {
+        private final String mHost;
+        private final String mShare;
+        private final int mSmbLevel;
+        private final int mHashCode;
+
+        public Target(String host, String share, int smb_level) {
+            mHost = host == null ? "" : host.toLowerCase();
+            mShare = share == null ? "" : share.toLowerCase();
+            mSmbLevel = smb_level;
+            mHashCode = (mHost.hashCode() * 31 + mShare.hashCode()) * 31 + smb_level;
+        }
+
+        public String getHost() {
+            return mHost;
+        }
+
+        public String getShare() {
+            return mShare;
+        }
+
+        public int getSmbLevel() {
+            return mSmbLevel;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Target)) return false;
+            Target t = (Target) o;
+            return mSmbLevel == t.mSmbLevel && mHost.equals(t.mHost) && mShare.equals(t.mShare);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+
+        @Override
+        public String toString() {
+            return mHost + "/" + mShare + " " + JcifsBackendRegistry.getLevelName(mSmbLevel);
+        }
+    }
+
+    private static class MeteredInputStream extends FilterInputStream {
+        private final Target mTarget;
+        private long mBytes = 0;
+        private long mNanos = 0;
+        private boolean mClosed = false;
+
+        MeteredInputStream(InputStream is, Target target) {
+            super(is);
+            mTarget = target;
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int b = super.read();
+            mNanos += System.nanoTime() - start;
+            if (b >= 0) mBytes++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            int n = in.read(b, off, len);
+            mNanos += System.nanoTime() - start;
+            if (n > 0) mBytes += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (!mClosed) recordTransfer(mTarget, OP_READ, mBytes, mNanos);
+                mClosed = true;
+            }
+        }
+    }
+
+    private static class MeteredOutputStream extends FilterOutputStream {
+        private final Target mTarget;
+        private long mBytes = 0;
+        private long mNanos = 0;
+        private boolean mClosed = false;
+
+        MeteredOutputStream(OutputStream os, Target target) {
+            super(os);
+            mTarget = target;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            long start = System.nanoTime();
+            out.write(b);
+            mNanos += System.nanoTime() - start;
+            mBytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            out.write(b, off, len);
+            mNanos += System.nanoTime() - start;
+            mBytes += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            long start = System.nanoTime();
+            out.flush();
+            mNanos += System.nanoTime() - start;
+        }
+
+        @Override
+        public void close() throws IOException {
+            long start = System.nanoTime();
+            try {
+                out.close();
+            } finally {
+                mNanos += System.nanoTime() - start;
+                if (!mClosed) recordTransfer(mTarget, OP_WRITE, mBytes, mNanos);
+                mClosed = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package com.sentaroh.android.JcifsFile2;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2011-2018 Sentaroh
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights to use,
+copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software,
+and to permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+*/
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In memory JcifsMetrics registry.
+ *
+ * Statistics are kept per Target and operation. Recording a successful operation or a
+ * transfer only updates counters and histogram buckets that already exist, so the
+ * instrumented call does not allocate once its target has been seen.
+ *
+ * JcifsMetrics.setRegistry(new JcifsMetricsCollector()) enables it.
+ */
+public class JcifsMetricsCollector implements JcifsMetrics.Registry {
+
+    private final ConcurrentHashMap<JcifsMetrics.Target, TargetStats> mTargetList =
+            new ConcurrentHashMap<JcifsMetrics.Target, TargetStats>();
+
+    @Override
+    public void onOperation(JcifsMetrics.Target target, int operation, long nanos, int nt_status, boolean failed) {
+        OperationStats stats = getStats(target, operation);
+        if (stats == null) return;
+        stats.mCallCount.incrementAndGet();
+        stats.mLatency.record(nanos);
+        if (failed) {
+            stats.mErrorCount.incrementAndGet();
+            AtomicLong count = stats.mErrorList.get(nt_status);
+            if (count == null) {
+                AtomicLong new_count = new AtomicLong();
+                count = stats.mErrorList.putIfAbsent(nt_status, new_count);
+                if (count == null) count = new_count;
+            }
+            count.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void onTransfer(JcifsMetrics.Target target, int operation, long bytes, long nanos) {
+        OperationStats stats = getStats(target, operation);
+        if (stats == null) return;
+        stats.mCallCount.incrementAndGet();
+        stats.mLatency.record(nanos);
+        stats.mBytes.addAndGet(bytes);
+        stats.mNanos.addAndGet(nanos);
+    }
+
+    private OperationStats getStats(JcifsMetrics.Target target, int operation) {
+        if (operation < 0 || operation >= JcifsMetrics.OP_COUNT) return null;
+        TargetStats stats = mTargetList.get(target);
+        if (stats == null) {
+            TargetStats new_stats = new TargetStats(target);
+            stats = mTargetList.putIfAbsent(target, new_stats);
+            if (stats == null) stats = new_stats;
+        }
+        return stats.mOperationList[operation];
+    }
+
+    public List<JcifsMetrics.Target> getTargetList() {
+        return new ArrayList<JcifsMetrics.Target>(mTargetList.keySet());
+    }
+
+    /**
+     * @return statistics of the operation on the target, null if nothing was recorded
+     */
+    public OperationStats getOperationStats(JcifsMetrics.Target target, int operation) {
+        if (operation < 0 || operation >= JcifsMetrics.OP_COUNT) return null;
+        TargetStats stats = mTargetList.get(target);
+        return stats == null ? null : stats.mOperationList[operation];
+    }
+
+    /**
+     * @return statistics of the operation summed over all targets
+     */
+    public OperationStats getTotalStats(int operation) {
+        OperationStats total = new OperationStats(null, operation);
+        for (TargetStats stats : mTargetList.values()) {
+            if (operation >= 0 && operation < JcifsMetrics.OP_COUNT) total.add(stats.mOperationList[operation]);
+        }
+        return total;
+    }
+
+    public void reset() {
+        mTargetList.clear();
+    }
+
+    /**
+     * One line per target and operation that has been called.
+     */
+    public String dump() {
+        StringBuilder sb = new StringBuilder();
+        for (TargetStats stats : mTargetList.values()) {
+            for (OperationStats op : stats.mOperationList) {
+                if (op.getCallCount() > 0) sb.append(op.toString()).append("\n");
+            }
+        }
+        return sb.toString();
+    }
+
+    private static class TargetStats {
+        private final OperationStats[] mOperationList = new OperationStats[JcifsMetrics.OP_COUNT];
+
+        TargetStats(JcifsMetrics.Target target) {
+            for (int i = 0; i < mOperationList.length; i++) mOperationList[i] = new OperationStats(target, i);
+        }
+    }
+
+    /**
+     * Statistics of one operation on one target. Read while recording continues, so the
+     * values are not a consistent snapshot.
+     */
+    public static class OperationStats {
+        private final JcifsMetrics.Target mTarget;
+        private final int mOperation;
+        private final AtomicLong mCallCount = new AtomicLong();
+        private final AtomicLong mErrorCount = new AtomicLong();
+        private final ConcurrentHashMap<Integer, AtomicLong> mErrorList = new ConcurrentHashMap<Integer, AtomicLong>();
+        private final JcifsLatencyHistogram mLatency = new JcifsLatencyHistogram();
+        private final AtomicLong mBytes = new AtomicLong();
+        private final AtomicLong mNanos = new AtomicLong();
+
+        OperationStats(JcifsMetrics.Target target, int operation) {
+            mTarget = target;
+            mOperation = operation;
+        }
+
+        private void add(OperationStats stats) {
+            mCallCount.addAndGet(stats.mCallCount.get());
+            mErrorCount.addAndGet(stats.mErrorCount.get());
+            for (Map.Entry<Integer, AtomicLong> item : stats.mErrorList.entrySet()) {
+                AtomicLong count = mErrorList.get(item.getKey());
+                if (count == null) {
+                    count = new AtomicLong();
+                    mErrorList.put(item.getKey(), count);
+                }
+                count.addAndGet(item.getValue().get());
+            }
+            mBytes.addAndGet(stats.mBytes.get());
+            mNanos.addAndGet(stats.mNanos.get());
+        }
+
+        /**
+         * @return the target, null for totals
+         */
+        public JcifsMetrics.Target getTarget() {
+            return mTarget;
+        }
+
+        public int getOperation() {
+            return mOperation;
+        }
+
+        public long getCallCount() {
+            return mCallCount.get();
+        }
+
+        public long getErrorCount() {
+            return mErrorCount.get();
+        }
+
+        /**
+         * @return error count by NT status, status 0 for failures without a server status
+         */
+        public Map<Integer, Long> getErrorCountByStatus() {
+            TreeMap<Integer, Long> result = new TreeMap<Integer, Long>();
+            for (Map.Entry<Integer, AtomicLong> item : mErrorList.entrySet()) {
+                result.put(item.getKey(), item.getValue().get());
+            }
+            return result;
+        }
+
+        /**
+         * @return latency in nanoseconds; for OP_READ and OP_WRITE the time spent per stream.
+         * Not available for totals.
+         */
+        public JcifsLatencyHistogram getLatency() {
+            return mLatency;
+        }
+
+        /**
+         * @return bytes transferred, OP_READ and OP_WRITE only
+         */
+        public long getBytes() {
+            return mBytes.get();
+        }
+
+        /**
+         * @return bytes per second while the streams were transferring, 0 if unknown
+         */
+        public double getBytesPerSecond() {
+            long nanos = mNanos.get();
+            return nanos <= 0 ? 0 : mBytes.get() * 1000000000.0 / nanos;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(mTarget == null ? "total" : mTarget.toString()).append(" ")
+                    .append(JcifsMetrics.getOperationName(mOperation))
+                    .append(" calls=").append(getCallCount())
+                    .append(" errors=").append(getErrorCount());
+            if (mLatency.getCount() > 0) {
+                sb.append(" mean=").append(String.format("%.3fms", mLatency.getMean() / 1000000.0))
+                        .append(" p50=").append(String.format("%.3fms", mLatency.getPercentile(50) / 1000000.0))
+                        .append(" p99=").append(String.format("%.3fms", mLatency.getPercentile(99) / 1000000.0))
+                        .append(" max=").append(String.format("%.3fms", mLatency.getMax() / 1000000.0));
+            }
+            if (mBytes.get() > 0) {
+                sb.append(" bytes=").append(getBytes())
+                        .append(" rate=").append(String.format("%.0fB/s", getBytesPerSecond()));
+            }
+            for (Map.Entry<Integer, Long> item : getErrorCountByStatus().entrySet()) {
+                sb.append(" ").append(String.format("0x%08x", item.getKey())).append("=").append(item.getValue());
+            }
+            return sb.toString();
+        }
+    }
+}
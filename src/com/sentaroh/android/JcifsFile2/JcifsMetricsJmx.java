@@ -0,0 +1,173 @@
+package com.sentaroh.android.JcifsFile2;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2011-2018 Sentaroh
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights to use,
+copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software,
+and to permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+*/
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Publishes a JcifsMetricsCollector as a JMX MBean.
+ *
+ * Kept apart from the collector because javax.management is not available on Android.
+ * Every target and operation that has been called shows up as read only attributes named
+ * "server/share/level/operation.attribute", e.g. "nas/data/SMB212/exists.p99".
+ */
+public class JcifsMetricsJmx implements DynamicMBean {
+
+    final static public String DEFAULT_OBJECT_NAME = "com.sentaroh.android.JcifsFile2:type=Metrics";
+
+    final static private String[] ATTRIBUTE_NAME = new String[]{"calls", "errors", "meanNanos",
+            "p50Nanos", "p99Nanos", "maxNanos", "bytes", "bytesPerSecond"};
+
+    private final JcifsMetricsCollector mCollector;
+    private ObjectName mObjectName = null;
+
+    public JcifsMetricsJmx(JcifsMetricsCollector collector) {
+        mCollector = collector;
+    }
+
+    /**
+     * Registers the MBean with the platform MBean server under DEFAULT_OBJECT_NAME.
+     */
+    public void register() throws JMException {
+        register(DEFAULT_OBJECT_NAME);
+    }
+
+    public synchronized void register(String object_name) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(object_name);
+        server.registerMBean(this, name);
+        mObjectName = name;
+    }
+
+    public synchronized void unregister() throws JMException {
+        if (mObjectName == null) return;
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(mObjectName);
+        mObjectName = null;
+    }
+
+    private static String getPrefix(JcifsMetrics.Target target, int operation) {
+        return target.getHost() + "/" + target.getShare() + "/"
+                + JcifsBackendRegistry.getLevelName(target.getSmbLevel()) + "/"
+                + JcifsMetrics.getOperationName(operation);
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        int dot = attribute.lastIndexOf('.');
+        if (dot > 0) {
+            String prefix = attribute.substring(0, dot);
+            String name = attribute.substring(dot + 1);
+            for (JcifsMetrics.Target target : mCollector.getTargetList()) {
+                for (int op = 0; op < JcifsMetrics.OP_COUNT; op++) {
+                    if (!getPrefix(target, op).equals(prefix)) continue;
+                    JcifsMetricsCollector.OperationStats stats = mCollector.getOperationStats(target, op);
+                    if (stats != null) {
+                        Object value = getValue(stats, name);
+                        if (value != null) return value;
+                    }
+                }
+            }
+        }
+        throw (new AttributeNotFoundException(attribute));
+    }
+
+    private static Object getValue(JcifsMetricsCollector.OperationStats stats, String name) {
+        if (name.equals("calls")) return stats.getCallCount();
+        if (name.equals("errors")) return stats.getErrorCount();
+        if (name.equals("meanNanos")) return (long) stats.getLatency().getMean();
+        if (name.equals("p50Nanos")) return stats.getLatency().getPercentile(50);
+        if (name.equals("p99Nanos")) return stats.getLatency().getPercentile(99);
+        if (name.equals("maxNanos")) return stats.getLatency().getMax();
+        if (name.equals("bytes")) return stats.getBytes();
+        if (name.equals("bytesPerSecond")) return stats.getBytesPerSecond();
+        return null;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList result = new AttributeList();
+        for (String name : attributes) {
+            try {
+                result.add(new Attribute(name, getAttribute(name)));
+            } catch (AttributeNotFoundException e) {
+                // not present anymore, e.g. after reset
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw (new AttributeNotFoundException("read only: " + attribute.getName()));
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String action, Object[] params, String[] signature) throws javax.management.MBeanException {
+        if (action.equals("reset")) {
+            mCollector.reset();
+            return null;
+        }
+        if (action.equals("dump")) return mCollector.dump();
+        throw (new javax.management.MBeanException(new UnsupportedOperationException(action)));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attribute_list = new ArrayList<MBeanAttributeInfo>();
+        for (JcifsMetrics.Target target : mCollector.getTargetList()) {
+            for (int op = 0; op < JcifsMetrics.OP_COUNT; op++) {
+                JcifsMetricsCollector.OperationStats stats = mCollector.getOperationStats(target, op);
+                if (stats == null || stats.getCallCount() == 0) continue;
+                String prefix = getPrefix(target, op);
+                for (String name : ATTRIBUTE_NAME) {
+                    String type = name.equals("bytesPerSecond") ? "double" : "long";
+                    attribute_list.add(new MBeanAttributeInfo(prefix + "." + name, type, name, true, false, false));
+                }
+            }
+        }
+        MBeanOperationInfo[] operation_list = new MBeanOperationInfo[]{
+                new MBeanOperationInfo("reset", "Clears all statistics", null, "void", MBeanOperationInfo.ACTION),
+                new MBeanOperationInfo("dump", "Statistics as text", null, "java.lang.String", MBeanOperationInfo.INFO)};
+        return new MBeanInfo(JcifsMetricsJmx.class.getName(), "JcifsFile2 operation metrics",
+                attribute_list.toArray(new MBeanAttributeInfo[attribute_list.size()]), null, operation_list, null);
+    }
+}
@@ -0,0 +1,236 @@
+package com.sentaroh.android.JcifsFile2;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2011-2018 Sentaroh
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights to use,
+copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software,
+and to permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+*/
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * NetBIOS/DNS lookup cache used by JcifsUtil.
+ *
+ * Positive and negative results are kept for their own TTL. Concurrent lookups of the
+ * same name wait for the one lookup that is already on the network instead of
+ * starting another one. SMB212 lookups use a single long lived name service context.
+ */
+public class JcifsNameResolver {
+
+    private static final Logger log = LoggerFactory.getLogger(JcifsNameResolver.class);
+
+    final static public long DEFAULT_POSITIVE_TTL = 5L * 60L * 1000L;
+    final static public long DEFAULT_NEGATIVE_TTL = 30L * 1000L;
+    final static public int DEFAULT_MAX_ENTRIES = 1024;
+
+    final static private int LOOKUP_IP_ADDRESS = 1;
+    final static private int LOOKUP_HOST_NAME = 2;
+    final static private int LOOKUP_NBT_ACTIVE = 3;
+
+    private static final LinkedHashMap<String, CacheEntry> mCache = new LinkedHashMap<String, CacheEntry>(64, 0.75f, true);
+    private static final ConcurrentHashMap<String, FutureTask<Object>> mInFlight = new ConcurrentHashMap<String, FutureTask<Object>>();
+
+    private static long mPositiveTtl = DEFAULT_POSITIVE_TTL;
+    private static long mNegativeTtl = DEFAULT_NEGATIVE_TTL;
+    private static int mMaxEntries = DEFAULT_MAX_ENTRIES;
+
+    private static final AtomicLong mHitCount = new AtomicLong();
+    private static final AtomicLong mMissCount = new AtomicLong();
+    private static final AtomicLong mCoalescedCount = new AtomicLong();
+
+    private static jcifsng212.context.BaseContext mNameServiceContext = null;
+
+    private JcifsNameResolver() {
+    }
+
+    /**
+     * Returns the name service context shared by all SMB212 lookups.
+     */
+    static synchronized jcifsng212.context.BaseContext getNameServiceContext() throws jcifsng212.CIFSException {
+        if (mNameServiceContext == null) {
+            mNameServiceContext = new jcifsng212.context.BaseContext(new jcifsng212.config.PropertyConfiguration(System.getProperties()));
+        }
+        return mNameServiceContext;
+    }
+
+    static String getIpAddressByHostName(final int smb_level, final String hn) {
+        return (String) lookup(LOOKUP_IP_ADDRESS, smb_level, hn, new Callable<Object>() {
+            @Override
+            public Object call() {
+                return JcifsUtil.getSmbHostIpAddressFromName(smb_level, hn);
+            }
+        });
+    }
+
+    static String getHostNameByAddress(final int smb_level, final String address) {
+        return (String) lookup(LOOKUP_HOST_NAME, smb_level, address, new Callable<Object>() {
+            @Override
+            public Object call() {
+                return JcifsUtil.getSmbHostNameFromAddress(smb_level, address);
+            }
+        });
+    }
+
+    static boolean isNetbiosAddressActive(final int smb_level, final String address) {
+        Boolean result = (Boolean) lookup(LOOKUP_NBT_ACTIVE, smb_level, address, new Callable<Object>() {
+            @Override
+            public Object call() {
+                return JcifsUtil.isNbtAddressActive(smb_level, address);
+            }
+        });
+        return result != null && result;
+    }
+
+    private static Object lookup(int type, int smb_level, String name, Callable<Object> loader) {
+        String key = type + ":" + smb_level + ":" + name;
+        synchronized (mCache) {
+            CacheEntry entry = mCache.get(key);
+            if (entry != null) {
+                if (entry.mExpireTime > System.currentTimeMillis()) {
+                    mHitCount.incrementAndGet();
+                    return entry.mValue;
+                }
+                mCache.remove(key);
+            }
+        }
+        mMissCount.incrementAndGet();
+
+        FutureTask<Object> task = new FutureTask<Object>(loader);
+        FutureTask<Object> running = mInFlight.putIfAbsent(key, task);
+        if (running == null) {
+            try {
+                task.run();
+                Object value = getResult(task);
+                long ttl = isNegative(value) ? mNegativeTtl : mPositiveTtl;
+                synchronized (mCache) {
+                    mCache.put(key, new CacheEntry(value, System.currentTimeMillis() + ttl));
+                    trimLocked();
+                }
+                return value;
+            } finally {
+                mInFlight.remove(key, task);
+            }
+        }
+        mCoalescedCount.incrementAndGet();
+        return getResult(running);
+    }
+
+    private static Object getResult(FutureTask<Object> task) {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.error("lookup Exception", e.getCause());
+        }
+        return null;
+    }
+
+    private static boolean isNegative(Object value) {
+        if (value == null) return true;
+        if (value instanceof Boolean) return !((Boolean) value);
+        if (value instanceof String) return ((String) value).length() == 0;
+        return false;
+    }
+
+    private static void trimLocked() {
+        Iterator<Map.Entry<String, CacheEntry>> it = mCache.entrySet().iterator();
+        while (mCache.size() > mMaxEntries && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    public static void setPositiveTtl(long ttl) {
+        mPositiveTtl = ttl;
+    }
+
+    public static long getPositiveTtl() {
+        return mPositiveTtl;
+    }
+
+    public static void setNegativeTtl(long ttl) {
+        mNegativeTtl = ttl;
+    }
+
+    public static long getNegativeTtl() {
+        return mNegativeTtl;
+    }
+
+    public static void setMaxEntries(int max_entries) {
+        synchronized (mCache) {
+            mMaxEntries = max_entries;
+            trimLocked();
+        }
+    }
+
+    public static void clearCache() {
+        synchronized (mCache) {
+            mCache.clear();
+        }
+    }
+
+    public static int getCacheSize() {
+        synchronized (mCache) {
+            return mCache.size();
+        }
+    }
+
+    public static long getHitCount() {
+        return mHitCount.get();
+    }
+
+    public static long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * Number of misses that were served by a lookup already in progress for the same name.
+     */
+    public static long getCoalescedCount() {
+        return mCoalescedCount.get();
+    }
+
+    public static void resetStatistics() {
+        mHitCount.set(0);
+        mMissCount.set(0);
+        mCoalescedCount.set(0);
+    }
+
+    private static class CacheEntry {
+        final Object mValue;
+        final long mExpireTime;
+
+        CacheEntry(Object value, long expire_time) {
+            mValue = value;
+            mExpireTime = expire_time;
+        }
+    }
+}
@@ -0,0 +1,363 @@
+package com.sentaroh.android.JcifsFile2;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2011-2018 Sentaroh
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights to use,
+copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software,
+and to permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+*/
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * Path of a JcifsFileSystem, "/share/dir/name". The first name is the share, "/" is the
+ * server. Names are compared ignoring case like on the server.
+ *
+ * A path returned by a JcifsDirectoryStream keeps the metadata of its directory entry, so
+ * reading its attributes right after the listing needs no request to the server.
+ */
+public class JcifsPath implements Path {
+
+    private final JcifsFileSystem mFileSystem;
+    private final String mPath;
+    private String[] mNameList = null;
+
+    private final JcifsFileEntry mEntry;
+    private final long mEntryTime;
+
+    JcifsPath(JcifsFileSystem fs, String path) {
+        this(fs, path, null);
+    }
+
+    JcifsPath(JcifsFileSystem fs, String path, JcifsFileEntry entry) {
+        mFileSystem = fs;
+        mPath = normalizeSeparator(path);
+        mEntry = entry;
+        mEntryTime = entry == null ? 0L : System.currentTimeMillis();
+    }
+
+    final static private String normalizeSeparator(String path) {
+        if (path.indexOf('\u0000') >= 0) throw new InvalidPathException(path, "Nul character not allowed");
+        StringBuilder sb = new StringBuilder(path.length());
+        char prev = 0;
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c == '/' && prev == '/') continue;
+            sb.append(c);
+            prev = c;
+        }
+        if (sb.length() > 1 && sb.charAt(sb.length() - 1) == '/') sb.setLength(sb.length() - 1);
+        return sb.toString();
+    }
+
+    String[] getNameList() {
+        if (mNameList == null) {
+            String names = isAbsolute() ? mPath.substring(1) : mPath;
+            mNameList = names.length() == 0 ? new String[0] : names.split("/");
+        }
+        return mNameList;
+    }
+
+    /**
+     * @param ttl time in milliseconds the listed metadata is used for
+     * @return the metadata of the directory entry this path was listed with, or null
+     */
+    JcifsFileEntry getListedEntry(long ttl) {
+        if (mEntry == null || System.currentTimeMillis() - mEntryTime > ttl) return null;
+        return mEntry;
+    }
+
+    /**
+     * @return the path of a directory entry of this directory, keeping its metadata
+     */
+    JcifsPath resolveEntry(JcifsFileEntry entry) {
+        String name = entry.getName();
+        if (name.endsWith("/")) name = name.substring(0, name.length() - 1);
+        return new JcifsPath(mFileSystem, mPath.endsWith("/") ? mPath + name : mPath + "/" + name, entry);
+    }
+
+    private JcifsPath toJcifsPath(Path other) {
+        if (!(other instanceof JcifsPath) || ((JcifsPath) other).mFileSystem != mFileSystem)
+            throw new ProviderMismatchException();
+        return (JcifsPath) other;
+    }
+
+    private JcifsPath newPath(String[] names, int begin, int end, boolean absolute) {
+        StringBuilder sb = new StringBuilder();
+        if (absolute) sb.append('/');
+        for (int i = begin; i < end; i++) {
+            if (i > begin) sb.append('/');
+            sb.append(names[i]);
+        }
+        return new JcifsPath(mFileSystem, sb.toString());
+    }
+
+    @Override
+    public JcifsFileSystem getFileSystem() {
+        return mFileSystem;
+    }
+
+    @Override
+    public boolean isAbsolute() {
+        return mPath.startsWith("/");
+    }
+
+    @Override
+    public Path getRoot() {
+        return isAbsolute() ? mFileSystem.getRoot() : null;
+    }
+
+    @Override
+    public Path getFileName() {
+        String[] names = getNameList();
+        if (names.length == 0) return mPath.length() == 0 ? this : null;
+        if (names.length == 1 && !isAbsolute()) return this;
+        return new JcifsPath(mFileSystem, names[names.length - 1]);
+    }
+
+    @Override
+    public Path getParent() {
+        String[] names = getNameList();
+        if (names.length == 0 || (names.length == 1 && !isAbsolute())) return null;
+        return newPath(names, 0, names.length - 1, isAbsolute());
+    }
+
+    @Override
+    public int getNameCount() {
+        return getNameList().length;
+    }
+
+    @Override
+    public Path getName(int index) {
+        String[] names = getNameList();
+        if (index < 0 || index >= names.length) throw new IllegalArgumentException("index=" + index);
+        return new JcifsPath(mFileSystem, names[index]);
+    }
+
+    @Override
+    public Path subpath(int begin, int end) {
+        String[] names = getNameList();
+        if (begin < 0 || end > names.length || begin >= end)
+            throw new IllegalArgumentException("begin=" + begin + ", end=" + end);
+        return newPath(names, begin, end, false);
+    }
+
+    @Override
+    public boolean startsWith(Path other) {
+        if (!(other instanceof JcifsPath) || ((JcifsPath) other).mFileSystem != mFileSystem) return false;
+        JcifsPath o = (JcifsPath) other;
+        if (isAbsolute() != o.isAbsolute()) return false;
+        String[] names = getNameList(), prefix = o.getNameList();
+        if (prefix.length > names.length) return false;
+        if (prefix.length == 0) return isAbsolute() || names.length == 0;
+        for (int i = 0; i < prefix.length; i++) {
+            if (!names[i].equalsIgnoreCase(prefix[i])) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean startsWith(String other) {
+        return startsWith(mFileSystem.getPath(other));
+    }
+
+    @Override
+    public boolean endsWith(Path other) {
+        if (!(other instanceof JcifsPath) || ((JcifsPath) other).mFileSystem != mFileSystem) return false;
+        JcifsPath o = (JcifsPath) other;
+        if (o.isAbsolute()) return equals(o);
+        String[] names = getNameList(), suffix = o.getNameList();
+        if (suffix.length > names.length) return false;
+        if (suffix.length == 0) return names.length == 0 && !isAbsolute();
+        for (int i = 1; i <= suffix.length; i++) {
+            if (!names[names.length - i].equalsIgnoreCase(suffix[suffix.length - i])) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean endsWith(String other) {
+        return endsWith(mFileSystem.getPath(other));
+    }
+
+    @Override
+    public Path normalize() {
+        String[] names = getNameList();
+        ArrayList<String> result = new ArrayList<String>(names.length);
+        boolean changed = false;
+        for (String name : names) {
+            if (name.equals(".")) {
+                changed = true;
+            } else if (name.equals("..")) {
+                if (!result.isEmpty() && !result.get(result.size() - 1).equals("..")) {
+                    result.remove(result.size() - 1);
+                    changed = true;
+                } else if (isAbsolute()) {
+                    changed = true;
+                } else {
+                    result.add(name);
+                }
+            } else {
+                result.add(name);
+            }
+        }
+        if (!changed) return this;
+        return newPath(result.toArray(new String[result.size()]), 0, result.size(), isAbsolute());
+    }
+
+    @Override
+    public Path resolve(Path other) {
+        JcifsPath o = toJcifsPath(other);
+        if (o.isAbsolute()) return o;
+        if (o.mPath.length() == 0) return this;
+        if (mPath.length() == 0) return o;
+        return new JcifsPath(mFileSystem, mPath + "/" + o.mPath);
+    }
+
+    @Override
+    public Path resolve(String other) {
+        return resolve(mFileSystem.getPath(other));
+    }
+
+    @Override
+    public Path resolveSibling(Path other) {
+        Path parent = getParent();
+        return parent == null ? toJcifsPath(other) : parent.resolve(other);
+    }
+
+    @Override
+    public Path resolveSibling(String other) {
+        return resolveSibling(mFileSystem.getPath(other));
+    }
+
+    @Override
+    public Path relativize(Path other) {
+        JcifsPath o = toJcifsPath(other);
+        if (isAbsolute() != o.isAbsolute())
+            throw new IllegalArgumentException("'other' is different type of Path");
+        String[] names = getNameList(), target = o.getNameList();
+        int common = 0;
+        while (common < names.length && common < target.length && names[common].equalsIgnoreCase(target[common])) common++;
+        StringBuilder sb = new StringBuilder();
+        for (int i = common; i < names.length; i++) {
+            if (sb.length() > 0) sb.append('/');
+            sb.append("..");
+        }
+        for (int i = common; i < target.length; i++) {
+            if (sb.length() > 0) sb.append('/');
+            sb.append(target[i]);
+        }
+        return new JcifsPath(mFileSystem, sb.toString());
+    }
+
+    @Override
+    public URI toUri() {
+        try {
+            return new URI(JcifsFileSystemProvider.SCHEME, mFileSystem.getServer(), ((JcifsPath) toAbsolutePath()).mPath, null);
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    @Override
+    public Path toAbsolutePath() {
+        if (isAbsolute()) return this;
+        return new JcifsPath(mFileSystem, "/" + mPath, mEntry);
+    }
+
+    @Override
+    public Path toRealPath(LinkOption... options) throws IOException {
+        Path path = toAbsolutePath().normalize();
+        mFileSystem.provider().checkAccess(path);
+        return path;
+    }
+
+    @Override
+    public File toFile() {
+        throw new UnsupportedOperationException("toFile");
+    }
+
+    @Override
+    public WatchKey register(WatchService watcher, WatchEvent.Kind<?>[] events, WatchEvent.Modifier... modifiers) {
+        throw new UnsupportedOperationException("register");
+    }
+
+    @Override
+    public WatchKey register(WatchService watcher, WatchEvent.Kind<?>... events) {
+        throw new UnsupportedOperationException("register");
+    }
+
+    @Override
+    public Iterator<Path> iterator() {
+        final String[] names = getNameList();
+        return new Iterator<Path>() {
+            private int mPos = 0;
+
+            @Override
+            public boolean hasNext() {
+                return mPos < names.length;
+            }
+
+            @Override
+            public Path next() {
+                if (mPos >= names.length) throw new java.util.NoSuchElementException();
+                return new JcifsPath(mFileSystem, names[mPos++]);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("remove");
+            }
+        };
+    }
+
+    @Override
+    public int compareTo(Path other) {
+        return mPath.compareToIgnoreCase(((JcifsPath) other).mPath);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof JcifsPath)) return false;
+        JcifsPath p = (JcifsPath) o;
+        return p.mFileSystem == mFileSystem && p.mPath.equalsIgnoreCase(mPath);
+    }
+
+    @Override
+    public int hashCode() {
+        return mPath.toLowerCase().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return mPath;
+    }
+}
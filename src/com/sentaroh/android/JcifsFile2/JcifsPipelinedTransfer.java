@@ -0,0 +1,411 @@
+package com.sentaroh.android.JcifsFile2;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2011-2018 Sentaroh
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights to use,
+copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software,
+and to permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+*/
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Transfers a single large file with several read or write requests in flight.
+ *
+ * The file is split into chunks and a window of chunks is transferred at the same time,
+ * each through its own file handle. jcifs-ng multiplexes the requests of all handles over
+ * the one SMB2 connection, within the credits granted by the server, so the transfer is
+ * no longer bound by one round trip per chunk. Chunks are written to the output strictly
+ * in file order.
+ *
+ * jcifs-1.3.17 serializes requests on a transport, so SMB1 files and a window size of 1
+ * use a plain sequential transfer.
+ */
+public class JcifsPipelinedTransfer {
+
+    private static final Logger log = LoggerFactory.getLogger(JcifsPipelinedTransfer.class);
+
+    final static public int DEFAULT_WINDOW_SIZE = 4;
+
+    final static private long TERMINATION_WAIT_TIME = 30L;
+
+    private int mWindowSize = DEFAULT_WINDOW_SIZE;
+    private int mChunkSize = 0;
+    private JcifsCopy.ProgressListener mListener = null;
+    private volatile boolean mCancelled = false;
+
+    private volatile long mLastBytes = 0;
+    private volatile long mLastElapsedNanos = 0;
+
+    public JcifsPipelinedTransfer() {
+    }
+
+    /**
+     * @param window_size number of chunks in flight
+     */
+    public JcifsPipelinedTransfer setWindowSize(int window_size) {
+        mWindowSize = Math.max(1, window_size);
+        return this;
+    }
+
+    /**
+     * @param chunk_size bytes per request, 0 is use JcifsBufferPool.getTransferBufferSize()
+     */
+    public JcifsPipelinedTransfer setChunkSize(int chunk_size) {
+        mChunkSize = chunk_size;
+        return this;
+    }
+
+    public JcifsPipelinedTransfer setProgressListener(JcifsCopy.ProgressListener listener) {
+        mListener = listener;
+        return this;
+    }
+
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * @return throughput of the last completed transfer in bytes per second
+     */
+    public long getBytesPerSecond() {
+        if (mLastElapsedNanos <= 0) return 0;
+        return (long) (mLastBytes * 1000000000.0d / mLastElapsedNanos);
+    }
+
+    public long getLastTransferredBytes() {
+        return mLastBytes;
+    }
+
+    public long getLastElapsedTime() {
+        return mLastElapsedNanos / 1000000L;
+    }
+
+    /**
+     * Reads the whole remote file into the output stream. The output stream is not closed.
+     *
+     * @return number of bytes transferred
+     * @throws JcifsException
+     */
+    public long read(JcifsFile src, OutputStream out) throws JcifsException {
+        long begin = System.nanoTime();
+        int chunk_size = getChunkSize(src);
+        long length = src.length();
+        long chunk_count = (length + chunk_size - 1) / chunk_size;
+        long transferred;
+        if (!src.isSmb212File() || mWindowSize == 1 || chunk_count <= 1) {
+            transferred = readSequential(src, out, chunk_size, length);
+        } else {
+            transferred = readPipelined(src, out, chunk_size, length, chunk_count);
+        }
+        recordThroughput(transferred, begin);
+        return transferred;
+    }
+
+    /**
+     * Writes the input stream to the remote file, replacing its content. The input stream
+     * is not closed.
+     *
+     * @return number of bytes transferred
+     * @throws JcifsException
+     */
+    public long write(InputStream in, JcifsFile dest) throws JcifsException {
+        long begin = System.nanoTime();
+        int chunk_size = getChunkSize(dest);
+        long transferred;
+        if (!dest.isSmb212File() || mWindowSize == 1) {
+            transferred = writeSequential(in, dest, chunk_size);
+        } else {
+            transferred = writePipelined(in, dest, chunk_size);
+        }
+        recordThroughput(transferred, begin);
+        return transferred;
+    }
+
+    private long readSequential(JcifsFile src, OutputStream out, int chunk_size, long length) throws JcifsException {
+        InputStream is = src.getInputStream();
+        byte[] buffer = JcifsBufferPool.acquire(chunk_size);
+        long transferred = 0;
+        try {
+            int n;
+            while ((n = is.read(buffer)) > 0) {
+                checkCancelled();
+                out.write(buffer, 0, n);
+                transferred += n;
+                notifyProgress(transferred, length);
+            }
+        } catch (IOException e) {
+            throw JcifsException.fromIOException(e);
+        } finally {
+            JcifsBufferPool.release(buffer);
+            try {
+                is.close();
+            } catch (IOException e) {
+                log.error("readSequential InputStream close IOException", e);
+            }
+        }
+        return transferred;
+    }
+
+    private long readPipelined(final JcifsFile src, OutputStream out, final int chunk_size,
+                               final long length, long chunk_count) throws JcifsException {
+        int window = (int) Math.min(mWindowSize, chunk_count);
+        final ArrayBlockingQueue<JcifsRandomAccessFile> handles = new ArrayBlockingQueue<JcifsRandomAccessFile>(window);
+        ArrayList<JcifsRandomAccessFile> opened = new ArrayList<JcifsRandomAccessFile>(window);
+        ExecutorService executor = Executors.newFixedThreadPool(window);
+        ArrayDeque<Future<Chunk>> in_flight = new ArrayDeque<Future<Chunk>>();
+        long transferred = 0;
+        try {
+            for (int i = 0; i < window; i++) {
+                JcifsRandomAccessFile raf = new JcifsRandomAccessFile(src, "r");
+                opened.add(raf);
+                handles.add(raf);
+            }
+            long next_chunk = 0;
+            while (next_chunk < chunk_count || !in_flight.isEmpty()) {
+                while (next_chunk < chunk_count && in_flight.size() < window) {
+                    final long position = next_chunk * chunk_size;
+                    final int size = (int) Math.min(chunk_size, length - position);
+                    in_flight.add(executor.submit(new Callable<Chunk>() {
+                        @Override
+                        public Chunk call() throws Exception {
+                            JcifsRandomAccessFile raf = handles.take();
+                            byte[] buffer = JcifsBufferPool.acquire(chunk_size);
+                            try {
+                                raf.seek(position);
+                                raf.readFully(buffer, 0, size);
+                            } catch (Exception e) {
+                                JcifsBufferPool.release(buffer);
+                                throw e;
+                            } finally {
+                                handles.put(raf);
+                            }
+                            return new Chunk(buffer, size);
+                        }
+                    }));
+                    next_chunk++;
+                }
+                Chunk chunk = getChunk(in_flight.pollFirst());
+                try {
+                    checkCancelled();
+                    out.write(chunk.mBuffer, 0, chunk.mSize);
+                } catch (IOException e) {
+                    throw JcifsException.fromIOException(e);
+                } finally {
+                    JcifsBufferPool.release(chunk.mBuffer);
+                }
+                transferred += chunk.mSize;
+                notifyProgress(transferred, length);
+            }
+        } finally {
+            shutdown(executor);
+            for (Future<Chunk> f : in_flight) releaseChunk(f);
+            closeHandles(opened);
+        }
+        return transferred;
+    }
+
+    private long writeSequential(InputStream in, JcifsFile dest, int chunk_size) throws JcifsException {
+        OutputStream os = dest.getOutputStream();
+        byte[] buffer = JcifsBufferPool.acquire(chunk_size);
+        long transferred = 0;
+        try {
+            try {
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    checkCancelled();
+                    os.write(buffer, 0, n);
+                    transferred += n;
+                    notifyProgress(transferred, -1);
+                }
+            } finally {
+                os.close();
+            }
+        } catch (IOException e) {
+            throw JcifsException.fromIOException(e);
+        } finally {
+            JcifsBufferPool.release(buffer);
+        }
+        return transferred;
+    }
+
+    private long writePipelined(InputStream in, JcifsFile dest, final int chunk_size) throws JcifsException {
+        final ArrayBlockingQueue<JcifsRandomAccessFile> handles = new ArrayBlockingQueue<JcifsRandomAccessFile>(mWindowSize);
+        ArrayList<JcifsRandomAccessFile> opened = new ArrayList<JcifsRandomAccessFile>(mWindowSize);
+        ExecutorService executor = Executors.newFixedThreadPool(mWindowSize);
+        ArrayDeque<Future<Integer>> in_flight = new ArrayDeque<Future<Integer>>();
+        ArrayDeque<byte[]> in_flight_buffers = new ArrayDeque<byte[]>();
+        long transferred = 0;
+        try {
+            for (int i = 0; i < mWindowSize; i++) {
+                JcifsRandomAccessFile raf = new JcifsRandomAccessFile(dest, "rw");
+                opened.add(raf);
+                if (i == 0) raf.setLength(0);
+                handles.add(raf);
+            }
+            long position = 0;
+            boolean eof = false;
+            while (!eof || !in_flight.isEmpty()) {
+                while (!eof && in_flight.size() < mWindowSize) {
+                    checkCancelled();
+                    final byte[] buffer = JcifsBufferPool.acquire(chunk_size);
+                    final int size = readChunk(in, buffer);
+                    if (size <= 0) {
+                        JcifsBufferPool.release(buffer);
+                        eof = true;
+                        break;
+                    }
+                    if (size < chunk_size) eof = true;
+                    final long chunk_position = position;
+                    position += size;
+                    in_flight_buffers.add(buffer);
+                    in_flight.add(executor.submit(new Callable<Integer>() {
+                        @Override
+                        public Integer call() throws Exception {
+                            JcifsRandomAccessFile raf = handles.take();
+                            try {
+                                raf.seek(chunk_position);
+                                raf.write(buffer, 0, size);
+                            } finally {
+                                handles.put(raf);
+                            }
+                            return size;
+                        }
+                    }));
+                }
+                if (in_flight.isEmpty()) break;
+                transferred += getChunk(in_flight.pollFirst());
+                JcifsBufferPool.release(in_flight_buffers.pollFirst());
+                notifyProgress(transferred, -1);
+            }
+        } finally {
+            shutdown(executor);
+            for (byte[] buffer : in_flight_buffers) JcifsBufferPool.release(buffer);
+            closeHandles(opened);
+        }
+        return transferred;
+    }
+
+    private int readChunk(InputStream in, byte[] buffer) throws JcifsException {
+        int filled = 0;
+        try {
+            while (filled < buffer.length) {
+                int n = in.read(buffer, filled, buffer.length - filled);
+                if (n < 0) break;
+                filled += n;
+            }
+        } catch (IOException e) {
+            throw JcifsException.fromIOException(e);
+        }
+        return filled;
+    }
+
+    private <T> T getChunk(Future<T> future) throws JcifsException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw (new JcifsException(e, 0, e.getCause()));
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof JcifsException) throw (JcifsException) e.getCause();
+            throw (new JcifsException(e.getCause(), 0, e.getCause().getCause()));
+        }
+    }
+
+    /**
+     * Stops the chunks not yet started and waits for the running ones, which still use
+     * their handle and buffer.
+     */
+    private void shutdown(ExecutorService executor) {
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(TERMINATION_WAIT_TIME, TimeUnit.SECONDS))
+                log.warn("shutdown chunk requests still running after " + TERMINATION_WAIT_TIME + " seconds");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the buffer of a chunk read but not written to the output.
+     */
+    private void releaseChunk(Future<Chunk> future) {
+        if (!future.isDone() || future.isCancelled()) return;
+        try {
+            JcifsBufferPool.release(future.get().mBuffer);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // The task returned its buffer itself.
+        }
+    }
+
+    private void closeHandles(ArrayList<JcifsRandomAccessFile> handles) {
+        for (JcifsRandomAccessFile raf : handles) {
+            try {
+                raf.close();
+            } catch (JcifsException e) {
+                log.error("closeHandles JcifsException", e);
+            }
+        }
+    }
+
+    private int getChunkSize(JcifsFile file) {
+        if (mChunkSize > 0) return mChunkSize;
+        return JcifsBufferPool.getTransferBufferSize(file.getAuth());
+    }
+
+    private void checkCancelled() throws JcifsException {
+        if (mCancelled) throw new JcifsException("Transfer cancelled.");
+    }
+
+    private void notifyProgress(long transferred, long total) {
+        JcifsCopy.ProgressListener listener = mListener;
+        if (listener != null) listener.onProgress(transferred, total);
+    }
+
+    private void recordThroughput(long bytes, long begin) {
+        mLastBytes = bytes;
+        mLastElapsedNanos = System.nanoTime() - begin;
+    }
+
+    private static class Chunk {
+        final byte[] mBuffer;
+        final int mSize;
+
+        Chunk(byte[] buffer, int size) {
+            mBuffer = buffer;
+            mSize = size;
+        }
+    }
+}
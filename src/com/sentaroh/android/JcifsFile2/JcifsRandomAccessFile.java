@@ -0,0 +1,100 @@
+package com.sentaroh.android.JcifsFile2;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2011-2018 Sentaroh
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights to use,
+copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software,
+and to permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+*/
+
+import java.io.IOException;
+
+/**
+ * Random access to a remote file, on top of the random access file of the backend.
+ * An instance is one open file handle and must not be shared between threads.
+ */
+public class JcifsRandomAccessFile {
+
+    private final JcifsBackend.RandomAccess mRaf;
+    private final JcifsBandwidthLimiter.Throttle mThrottle;
+
+    /**
+     * @param file the remote file
+     * @param mode "r" or "rw" as in java.io.RandomAccessFile
+     * @throws JcifsException
+     */
+    public JcifsRandomAccessFile(JcifsFile file, String mode) throws JcifsException {
+        mRaf = file.getBackend().openRandomAccess(mode);
+        mThrottle = JcifsBandwidthLimiter.getThrottle(file);
+    }
+
+    public int read(byte[] b, int off, int len) throws JcifsException {
+        int n = mRaf.read(b, off, len);
+        throttle(n);
+        return n;
+    }
+
+    /**
+     * Reads at the position. The file pointer is left after the last byte read.
+     *
+     * @return number of bytes read, -1 at end of file
+     */
+    public int read(long position, byte[] b, int off, int len) throws JcifsException {
+        seek(position);
+        return read(b, off, len);
+    }
+
+    public void readFully(byte[] b, int off, int len) throws JcifsException {
+        mRaf.readFully(b, off, len);
+        throttle(len);
+    }
+
+    public void write(byte[] b, int off, int len) throws JcifsException {
+        throttle(len);
+        mRaf.write(b, off, len);
+    }
+
+    public void seek(long position) throws JcifsException {
+        mRaf.seek(position);
+    }
+
+    public long getFilePointer() throws JcifsException {
+        return mRaf.getFilePointer();
+    }
+
+    public long length() throws JcifsException {
+        return mRaf.length();
+    }
+
+    public void setLength(long length) throws JcifsException {
+        mRaf.setLength(length);
+    }
+
+    public void close() throws JcifsException {
+        mRaf.close();
+    }
+
+    private void throttle(int bytes) throws JcifsException {
+        try {
+            mThrottle.acquire(bytes);
+        } catch (IOException e) {
+            throw JcifsException.fromIOException(e);
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package com.sentaroh.android.JcifsFile2;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2011-2018 Sentaroh
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights to use,
+copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software,
+and to permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+*/
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Retries operations that failed with a transient NT status.
+ *
+ * A failure is retried when its NT status is in the retryable set, or when it was caused
+ * by an IOException of the transport, which jcifs-1.3.17 reports as NT_STATUS_UNSUCCESSFUL.
+ * Every other status is fatal and is thrown at once, as are failures without a status such
+ * as a malformed url.
+ * The wait before retry n is a random time between 0 and
+ * min(max delay, initial delay * multiplier^(n-1)), so that clients failing together do not
+ * retry together. Each server has a retry budget that refills over time; when it is used
+ * up, failures are thrown without retry, which keeps a busy server from being flooded.
+ */
+public class JcifsRetryPolicy {
+
+    private static final Logger log = LoggerFactory.getLogger(JcifsRetryPolicy.class);
+
+    final static public int NT_STATUS_SHARING_VIOLATION = 0xC0000043;
+    final static public int NT_STATUS_FILE_LOCK_CONFLICT = 0xC0000054;
+    final static public int NT_STATUS_LOCK_NOT_GRANTED = 0xC0000055;
+    final static public int NT_STATUS_INSUFFICIENT_RESOURCES = 0xC000009A;
+    final static public int NT_STATUS_IO_TIMEOUT = 0xC00000B5;
+    final static public int NT_STATUS_NETWORK_BUSY = 0xC00000BF;
+    final static public int NT_STATUS_UNEXPECTED_NETWORK_ERROR = 0xC00000C4;
+    final static public int NT_STATUS_NETWORK_NAME_DELETED = 0xC00000C9;
+    final static public int NT_STATUS_PIPE_BROKEN = 0xC000014B;
+    final static public int NT_STATUS_USER_SESSION_DELETED = 0xC0000203;
+    final static public int NT_STATUS_INSUFF_SERVER_RESOURCES = 0xC0000205;
+    final static public int NT_STATUS_CONNECTION_DISCONNECTED = 0xC000020C;
+    final static public int NT_STATUS_CONNECTION_RESET = 0xC000020D;
+
+    final static public int DEFAULT_MAX_ATTEMPTS = 4;
+    final static public long DEFAULT_INITIAL_DELAY = 200L;
+    final static public long DEFAULT_MAX_DELAY = 10000L;
+    final static public double DEFAULT_MULTIPLIER = 2.0;
+    final static public int DEFAULT_HOST_RETRY_BUDGET = 50;
+    final static public long DEFAULT_HOST_BUDGET_PERIOD = 60000L;
+
+    public interface Operation<T> {
+        T call() throws JcifsException;
+    }
+
+    private static JcifsRetryPolicy mDefaultPolicy = null;
+
+    private final HashSet<Integer> mRetryableList = new HashSet<Integer>();
+    private boolean mRetryTransportError = true;
+    private int mMaxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private long mInitialDelay = DEFAULT_INITIAL_DELAY;
+    private long mMaxDelay = DEFAULT_MAX_DELAY;
+    private double mMultiplier = DEFAULT_MULTIPLIER;
+    private int mHostBudget = DEFAULT_HOST_RETRY_BUDGET;
+    private long mHostBudgetPeriod = DEFAULT_HOST_BUDGET_PERIOD;
+
+    private final HashMap<String, HostBudget> mHostBudgetList = new HashMap<String, HostBudget>();
+
+    private final AtomicLong mCallCount = new AtomicLong();
+    private final AtomicLong mRetryCount = new AtomicLong();
+    private final AtomicLong mRecoveredCount = new AtomicLong();
+    private final AtomicLong mGiveUpCount = new AtomicLong();
+    private final AtomicLong mBudgetExhaustedCount = new AtomicLong();
+
+    public JcifsRetryPolicy() {
+        mRetryableList.add(NT_STATUS_SHARING_VIOLATION);
+        mRetryableList.add(NT_STATUS_FILE_LOCK_CONFLICT);
+        mRetryableList.add(NT_STATUS_LOCK_NOT_GRANTED);
+        mRetryableList.add(NT_STATUS_INSUFFICIENT_RESOURCES);
+        mRetryableList.add(NT_STATUS_IO_TIMEOUT);
+        mRetryableList.add(NT_STATUS_NETWORK_BUSY);
+        mRetryableList.add(NT_STATUS_UNEXPECTED_NETWORK_ERROR);
+        mRetryableList.add(NT_STATUS_NETWORK_NAME_DELETED);
+        mRetryableList.add(NT_STATUS_PIPE_BROKEN);
+        mRetryableList.add(NT_STATUS_USER_SESSION_DELETED);
+        mRetryableList.add(NT_STATUS_INSUFF_SERVER_RESOURCES);
+        mRetryableList.add(NT_STATUS_CONNECTION_DISCONNECTED);
+        mRetryableList.add(NT_STATUS_CONNECTION_RESET);
+    }
+
+    /**
+     * @return the process wide policy with the default settings
+     */
+    public static synchronized JcifsRetryPolicy getDefault() {
+        if (mDefaultPolicy == null) mDefaultPolicy = new JcifsRetryPolicy();
+        return mDefaultPolicy;
+    }
+
+    public synchronized JcifsRetryPolicy addRetryableStatus(int nt_status) {
+        mRetryableList.add(nt_status);
+        return this;
+    }
+
+    public synchronized JcifsRetryPolicy removeRetryableStatus(int nt_status) {
+        mRetryableList.remove(nt_status);
+        return this;
+    }
+
+    /**
+     * @param retry true retries failures caused by an IOException of the transport,
+     *              whatever their NT status
+     */
+    public synchronized JcifsRetryPolicy setRetryTransportError(boolean retry) {
+        mRetryTransportError = retry;
+        return this;
+    }
+
+    /**
+     * @param attempts maximum number of calls, 1 disables retry
+     */
+    public synchronized JcifsRetryPolicy setMaxAttempts(int attempts) {
+        mMaxAttempts = Math.max(1, attempts);
+        return this;
+    }
+
+    public synchronized JcifsRetryPolicy setBackoff(long initial_delay, long max_delay, double multiplier) {
+        mInitialDelay = Math.max(0, initial_delay);
+        mMaxDelay = Math.max(mInitialDelay, max_delay);
+        mMultiplier = Math.max(1.0, multiplier);
+        return this;
+    }
+
+    /**
+     * @param retries retries allowed per server within the period
+     * @param period  time in milliseconds in which the budget refills completely
+     */
+    public synchronized JcifsRetryPolicy setHostRetryBudget(int retries, long period) {
+        mHostBudget = Math.max(0, retries);
+        mHostBudgetPeriod = Math.max(1, period);
+        clearHostBudget();
+        return this;
+    }
+
+    private void clearHostBudget() {
+        synchronized (mHostBudgetList) {
+            mHostBudgetList.clear();
+        }
+    }
+
+    public synchronized boolean isRetryable(JcifsException e) {
+        if (mRetryableList.contains(e.getNtStatus())) return true;
+        return mRetryTransportError && e.getCause() instanceof java.io.IOException;
+    }
+
+    /**
+     * Runs the operation on the file, retrying transient failures.
+     */
+    public <T> T execute(JcifsFile file, Operation<T> operation) throws JcifsException {
+        return execute(file.getServer(), operation);
+    }
+
+    /**
+     * Runs the operation, retrying transient failures.
+     *
+     * @param host server whose retry budget is used
+     * @throws JcifsException the failure of the last attempt
+     */
+    public <T> T execute(String host, Operation<T> operation) throws JcifsException {
+        mCallCount.incrementAndGet();
+        int max_attempts;
+        synchronized (this) {
+            max_attempts = mMaxAttempts;
+        }
+        for (int attempt = 1; ; attempt++) {
+            try {
+                T result = operation.call();
+                if (attempt > 1) mRecoveredCount.incrementAndGet();
+                return result;
+            } catch (JcifsException e) {
+                if (!isRetryable(e)) throw e;
+                if (attempt >= max_attempts) {
+                    mGiveUpCount.incrementAndGet();
+                    throw e;
+                }
+                if (!getHostBudget(host).tryTake()) {
+                    mGiveUpCount.incrementAndGet();
+                    mBudgetExhaustedCount.incrementAndGet();
+                    throw e;
+                }
+                mRetryCount.incrementAndGet();
+                long delay = getDelay(attempt);
+                log.debug("retry " + attempt + " for " + host + " in " + delay + "ms, status="
+                        + String.format("0x%08x", e.getNtStatus()));
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private synchronized long getDelay(int attempt) {
+        double max = Math.min((double) mMaxDelay, mInitialDelay * Math.pow(mMultiplier, attempt - 1));
+        return (long) (ThreadLocalRandom.current().nextDouble() * max);
+    }
+
+    private HostBudget getHostBudget(String host) {
+        String key = JcifsHostLimiter.getHostKey(host);
+        int capacity;
+        long period;
+        synchronized (this) {
+            capacity = mHostBudget;
+            period = mHostBudgetPeriod;
+        }
+        synchronized (mHostBudgetList) {
+            HostBudget budget = mHostBudgetList.get(key);
+            if (budget == null) {
+                budget = new HostBudget(capacity, period);
+                mHostBudgetList.put(key, budget);
+            }
+            return budget;
+        }
+    }
+
+    /**
+     * @return remaining retries of the server, as a whole number
+     */
+    public int getRemainingBudget(String host) {
+        return (int) getHostBudget(host).getTokens();
+    }
+
+    public long getCallCount() {
+        return mCallCount.get();
+    }
+
+    public long getRetryCount() {
+        return mRetryCount.get();
+    }
+
+    /**
+     * @return operations that succeeded after at least one retry
+     */
+    public long getRecoveredCount() {
+        return mRecoveredCount.get();
+    }
+
+    /**
+     * @return operations that failed with a retryable status and were not retried further
+     */
+    public long getGiveUpCount() {
+        return mGiveUpCount.get();
+    }
+
+    /**
+     * @return give ups caused by an exhausted host retry budget
+     */
+    public long getBudgetExhaustedCount() {
+        return mBudgetExhaustedCount.get();
+    }
+
+    public void resetStatistics() {
+        mCallCount.set(0);
+        mRetryCount.set(0);
+        mRecoveredCount.set(0);
+        mGiveUpCount.set(0);
+        mBudgetExhaustedCount.set(0);
+    }
+
+    /**
+     * Token bucket of retries, refilled continuously.
+     */
+    private static class HostBudget {
+        private final int mCapacity;
+        private final long mPeriod;
+        private double mTokens;
+        private long mLastRefill;
+
+        HostBudget(int capacity, long period) {
+            mCapacity = capacity;
+            mPeriod = period;
+            mTokens = capacity;
+            mLastRefill = System.currentTimeMillis();
+        }
+
+        synchronized boolean tryTake() {
+            refill();
+            if (mTokens < 1.0) return false;
+            mTokens -= 1.0;
+            return true;
+        }
+
+        synchronized double getTokens() {
+            refill();
+            return mTokens;
+        }
+
+        private void refill() {
+            long now = System.currentTimeMillis();
+            mTokens = Math.min(mCapacity, mTokens + (double) (now - mLastRefill) * mCapacity / mPeriod);
+            mLastRefill = now;
+        }
+    }
+}
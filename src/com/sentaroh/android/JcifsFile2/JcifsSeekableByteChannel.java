@@ -0,0 +1,226 @@
+package com.sentaroh.android.JcifsFile2;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2011-2018 Sentaroh
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights to use,
+copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software,
+and to permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+*/
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * SeekableByteChannel on a remote file, so that only the byte ranges actually needed are
+ * transferred (e.g. the central directory of a ZIP file or the tail of a log).
+ *
+ * Heap buffers are filled in place. Direct buffers are filled through one pooled
+ * transfer buffer. An optional read-ahead window serves small sequential reads from
+ * one larger request. Errors are reported as IOException with the JcifsException,
+ * which keeps the NT status, as cause.
+ */
+public class JcifsSeekableByteChannel implements SeekableByteChannel {
+
+    private final JcifsRandomAccessFile mRaf;
+    private final boolean mWritable;
+    private final int mTransferSize;
+    private long mPosition = 0;
+    private boolean mOpen = true;
+
+    private int mReadAheadSize = 0;
+    private byte[] mReadAheadBuffer = null;
+    private long mReadAheadStart = 0;
+    private int mReadAheadLength = 0;
+
+    /**
+     * @param file the remote file
+     * @param mode "r" or "rw"
+     * @throws JcifsException
+     */
+    public JcifsSeekableByteChannel(JcifsFile file, String mode) throws JcifsException {
+        mRaf = new JcifsRandomAccessFile(file, mode);
+        mWritable = mode.indexOf("w") >= 0;
+        mTransferSize = JcifsBufferPool.getTransferBufferSize(file.getAuth());
+    }
+
+    /**
+     * @param size read-ahead window in bytes, 0 disables read-ahead. Reads smaller than
+     *             the window fetch the whole window and are served from it.
+     */
+    public synchronized JcifsSeekableByteChannel setReadAheadSize(int size) {
+        mReadAheadSize = Math.max(0, size);
+        mReadAheadBuffer = null;
+        mReadAheadLength = 0;
+        return this;
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        int n = read(dst, mPosition);
+        if (n > 0) mPosition += n;
+        return n;
+    }
+
+    /**
+     * Reads at the position without changing the position of the channel.
+     *
+     * @return number of bytes read, -1 at end of file
+     */
+    public synchronized int read(ByteBuffer dst, long position) throws IOException {
+        checkOpen();
+        if (position < 0) throw new IllegalArgumentException("Negative position");
+        if (!dst.hasRemaining()) return 0;
+        try {
+            if (mReadAheadSize > 0 && dst.remaining() < mReadAheadSize) return readBuffered(dst, position);
+            return readDirect(dst, position);
+        } catch (JcifsException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    private int readBuffered(ByteBuffer dst, long position) throws JcifsException {
+        if (mReadAheadBuffer == null || mReadAheadBuffer.length != mReadAheadSize) mReadAheadBuffer = new byte[mReadAheadSize];
+        if (position < mReadAheadStart || position >= mReadAheadStart + mReadAheadLength) {
+            int n = mRaf.read(position, mReadAheadBuffer, 0, mReadAheadBuffer.length);
+            mReadAheadStart = position;
+            mReadAheadLength = Math.max(0, n);
+            if (n <= 0) return -1;
+        }
+        int offset = (int) (position - mReadAheadStart);
+        int count = Math.min(dst.remaining(), mReadAheadLength - offset);
+        dst.put(mReadAheadBuffer, offset, count);
+        return count;
+    }
+
+    private int readDirect(ByteBuffer dst, long position) throws JcifsException {
+        if (dst.hasArray()) {
+            int n = mRaf.read(position, dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+            if (n > 0) dst.position(dst.position() + n);
+            return n;
+        }
+        byte[] buffer = JcifsBufferPool.acquire(mTransferSize);
+        try {
+            int total = 0;
+            while (dst.hasRemaining()) {
+                int n = mRaf.read(position + total, buffer, 0, Math.min(buffer.length, dst.remaining()));
+                if (n <= 0) break;
+                dst.put(buffer, 0, n);
+                total += n;
+            }
+            return total == 0 ? -1 : total;
+        } finally {
+            JcifsBufferPool.release(buffer);
+        }
+    }
+
+    @Override
+    public synchronized int write(ByteBuffer src) throws IOException {
+        checkOpen();
+        if (!mWritable) throw new NonWritableChannelException();
+        mReadAheadLength = 0;
+        int total = 0;
+        try {
+            mRaf.seek(mPosition);
+            if (src.hasArray()) {
+                total = src.remaining();
+                mRaf.write(src.array(), src.arrayOffset() + src.position(), total);
+                src.position(src.position() + total);
+            } else {
+                byte[] buffer = JcifsBufferPool.acquire(mTransferSize);
+                try {
+                    while (src.hasRemaining()) {
+                        int n = Math.min(buffer.length, src.remaining());
+                        src.get(buffer, 0, n);
+                        mRaf.write(buffer, 0, n);
+                        total += n;
+                    }
+                } finally {
+                    JcifsBufferPool.release(buffer);
+                }
+            }
+        } catch (JcifsException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        mPosition += total;
+        return total;
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        checkOpen();
+        return mPosition;
+    }
+
+    @Override
+    public synchronized JcifsSeekableByteChannel position(long new_position) throws IOException {
+        checkOpen();
+        if (new_position < 0) throw new IllegalArgumentException("Negative position");
+        mPosition = new_position;
+        return this;
+    }
+
+    @Override
+    public synchronized long size() throws IOException {
+        checkOpen();
+        try {
+            return mRaf.length();
+        } catch (JcifsException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public synchronized JcifsSeekableByteChannel truncate(long size) throws IOException {
+        checkOpen();
+        if (!mWritable) throw new NonWritableChannelException();
+        if (size < 0) throw new IllegalArgumentException("Negative size");
+        try {
+            if (size < mRaf.length()) mRaf.setLength(size);
+        } catch (JcifsException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        mReadAheadLength = 0;
+        if (mPosition > size) mPosition = size;
+        return this;
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return mOpen;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!mOpen) return;
+        mOpen = false;
+        mReadAheadBuffer = null;
+        try {
+            mRaf.close();
+        } catch (JcifsException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    private void checkOpen() throws ClosedChannelException {
+        if (!mOpen) throw new ClosedChannelException();
+    }
+}
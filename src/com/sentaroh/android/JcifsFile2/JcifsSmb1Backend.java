@@ -0,0 +1,507 @@
+package com.sentaroh.android.JcifsFile2;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2011-2018 Sentaroh
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights to use,
+copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software,
+and to permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+*/
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.UnknownHostException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JcifsBackend on jcifs-1.3.17 (SMB1).
+ */
+public final class JcifsSmb1Backend implements JcifsBackend {
+
+    private static final Logger log = LoggerFactory.getLogger(JcifsSmb1Backend.class);
+
+    private final jcifs.smb.SmbFile mFile;
+
+    JcifsSmb1Backend(jcifs.smb.SmbFile file) {
+        mFile = file;
+    }
+
+    public jcifs.smb.SmbFile getSmbFile() {
+        return mFile;
+    }
+
+    @Override
+    public int getSmbLevel() {
+        return JcifsAuth.JCIFS_FILE_SMB1;
+    }
+
+    @Override
+    public String getName() {
+        return mFile.getName();
+    }
+
+    @Override
+    public String getPath() {
+        return mFile.getPath();
+    }
+
+    @Override
+    public String getCanonicalPath() {
+        return mFile.getCanonicalPath();
+    }
+
+    @Override
+    public String getShare() {
+        return mFile.getShare();
+    }
+
+    @Override
+    public String getServer() {
+        return mFile.getServer();
+    }
+
+    @Override
+    public String getUncPath() {
+        return mFile.getUncPath();
+    }
+
+    @Override
+    public String getParent() {
+        return mFile.getParent();
+    }
+
+    @Override
+    public boolean exists() throws JcifsException {
+        try {
+            return mFile.exists();
+        } catch (jcifs.smb.SmbException e) {
+            throw (new JcifsException(e, e.getNtStatus(), e.getRootCause()));
+        }
+    }
+
+    @Override
+    public int getType() throws JcifsException {
+        try {
+            return mFile.getType();
+        } catch (jcifs.smb.SmbException e) {
+            throw (new JcifsException(e, e.getNtStatus(), e.getRootCause()));
+        }
+    }
+
+    @Override
+    public int getAttributes() throws JcifsException {
+        try {
+            return mFile.getAttributes();
+        } catch (jcifs.smb.SmbException e) {
+            throw (new JcifsException(e, e.getNtStatus(), e.getRootCause()));
+        }
+    }
+
+    @Override
+    public boolean canRead() throws JcifsException {
+        try {
+            return mFile.canRead();
+        } catch (jcifs.smb.SmbException e) {
+            throw (new JcifsException(e, e.getNtStatus(), e.getRootCause()));
+        }
+    }
+
+    @Override
+    public boolean canWrite() throws JcifsException {
+        try {
+            return mFile.canWrite();
+        } catch (jcifs.smb.SmbException e) {
+            throw (new JcifsException(e, e.getNtStatus(), e.getRootCause()));
+        }
+    }
+
+    @Override
+    public boolean isDirectory() throws JcifsException {
+        try {
+            return mFile.isDirectory();
+        } catch (jcifs.smb.SmbException e) {
+            throw (new JcifsException(e, e.getNtStatus(), e.getRootCause()));
+        }
+    }
+
+    @Override
+    public boolean isFile() throws JcifsException {
+        try {
+            return mFile.isFile();
+        } catch (jcifs.smb.SmbException e) {
+            throw (new JcifsException(e, e.getNtStatus(), e.getRootCause()));
+        }
+    }
+
+    @Override
+    public boolean isHidden() throws JcifsException {
+        try {
+            return mFile.isHidden();
+        } catch (jcifs.smb.SmbException e) {
+            throw (new JcifsException(e, e.getNtStatus(), e.getRootCause()));
+        }
+    }
+
+    @Override
+    public long length() throws JcifsException {
+        try {
+            return mFile.length();
+        } catch (jcifs.smb.SmbException e) {
+            throw (new JcifsException(e, e.getNtStatus(), e.getRootCause()));
+        }
+    }
+
+    @Override
+    public long lastModified() throws JcifsException {
+        try {
+            return mFile.lastModified();
+        } catch (jcifs.smb.SmbException e) {
+            throw (new JcifsException(e, e.getNtStatus(), e.getRootCause()));
+        }
+    }
+
+    @Override
+    public long createTime() throws JcifsException {
+        try {
+            return mFile.createTime();
+        } catch (jcifs.smb.SmbException e) {
+            throw (new JcifsException(e, e.getNtStatus(), e.getRootCause()));
+        }
+    }
+
+    @Override
+    public void setLastModified(long time) throws JcifsException {
+        try {
+            mFile.setLastModified(time);
+        } catch (jcifs.smb.SmbException e) {
+            throw (new JcifsException(e, e.getNtStatus(), e.getRootCause()));
+        }
+    }
+
+    @Override
+    public void delete() throws JcifsException {
+        try {
+            mFile.delete();
+        } catch (jcifs.smb.SmbException e) {
+            throw (new JcifsException(e, e.getNtStatus(), e.getRootCause()));
+        }
+    }
+
+    @Override
+    public void mkdir() throws JcifsException {
+        try {
+            mFile.mkdir();
+        } catch (jcifs.smb.SmbException e) {
+            throw (new JcifsException(e, e.getNtStatus(), e.getRootCause()));
+        }
+    }
+
+    @Override
+    public void mkdirs() throws JcifsException {
+        try {
+            mFile.mkdirs();
+        } catch (jcifs.smb.SmbException e) {
+            throw (new JcifsException(e, e.getNtStatus(), e.getRootCause()));
+        }
+    }
+
+    @Override
+    public void createNewFile() throws JcifsException {
+        try {
+            mFile.createNewFile();
+        } catch (jcifs.smb.SmbException e) {
+            throw (new JcifsException(e, e.getNtStatus(), e.getRootCause()));
+        }
+    }
+
+    @Override
+    public void connect() throws JcifsException {
+        try {
+            mFile.connect();
+        } catch (IOException e) {
+            throw JcifsException.fromIOException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        //Nop for JCIFS(SMB1)
+    }
+
+    @Override
+    public void renameTo(JcifsBackend dest) throws JcifsException {
+        if (!(dest instanceof JcifsSmb1Backend)) throw new JcifsException("Null SMB1 file specified.");
+        try {
+            mFile.renameTo(((JcifsSmb1Backend) dest).mFile);
+        } catch (jcifs.smb.SmbException e) {
+            throw (new JcifsException(e, e.getNtStatus(), e.getRootCause()));
+        }
+    }
+
+    /**
+     * SMB1 has no server side copy of file data.
+     */
+    @Override
+    public boolean serverCopyTo(JcifsBackend dest) {
+        return false;
+    }
+
+    @Override
+    public InputStream getInputStream() throws JcifsException {
+        try {
+            return mFile.getInputStream();
+        } catch (IOException e) {
+            throw JcifsException.fromIOException(e);
+        }
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws JcifsException {
+        try {
+            return mFile.getOutputStream();
+        } catch (IOException e) {
+            throw JcifsException.fromIOException(e);
+        }
+    }
+
+    @Override
+    public RandomAccess openRandomAccess(String mode) throws JcifsException {
+        try {
+            return new Smb1RandomAccess(new jcifs.smb.SmbRandomAccessFile(mFile, mode));
+        } catch (IOException e) {
+            throw JcifsException.fromIOException(e);
+        }
+    }
+
+    @Override
+    public JcifsBackend getChild(String name) throws JcifsException {
+        try {
+            return new JcifsSmb1Backend(new jcifs.smb.SmbFile(mFile, name));
+        } catch (IOException e) {
+            throw JcifsException.fromIOException(e);
+        }
+    }
+
+    @Override
+    public String[] list() throws JcifsException {
+        try {
+            return mFile.list();
+        } catch (jcifs.smb.SmbException e) {
+            throw (new JcifsException(e, e.getNtStatus(), e.getRootCause()));
+        }
+    }
+
+    @Override
+    public JcifsBackend[] listFiles() throws JcifsException {
+        try {
+            jcifs.smb.SmbFile[] files = mFile.listFiles();
+            if (files == null) return null;
+            JcifsBackend[] result = new JcifsBackend[files.length];
+            for (int i = 0; i < files.length; i++) result[i] = new JcifsSmb1Backend(files[i]);
+            return result;
+        } catch (jcifs.smb.SmbException e) {
+            throw (new JcifsException(e, e.getNtStatus(), e.getRootCause()));
+        }
+    }
+
+    /**
+     * jcifs-1.3.17 sends FIND_CLOSE2 only when the enumeration ends normally, so a failing
+     * handler does not abort it. The remaining entries are skipped and the first error is
+     * thrown after the enumeration has ended.
+     */
+    @Override
+    public void listFiles(final ListHandler handler) throws JcifsException {
+        final Exception[] error = new Exception[1];
+        try {
+            mFile.listFiles(new jcifs.smb.SmbFileFilter() {
+                @Override
+                public boolean accept(jcifs.smb.SmbFile file) {
+                    if (error[0] != null) return false;
+                    try {
+                        handler.onEntry(new JcifsSmb1Backend(file));
+                    } catch (Exception e) {
+                        error[0] = e;
+                    }
+                    return false;
+                }
+            });
+        } catch (jcifs.smb.SmbException e) {
+            throw (new JcifsException(e, e.getNtStatus(), e.getRootCause()));
+        }
+        if (error[0] instanceof JcifsException) throw (JcifsException) error[0];
+        if (error[0] != null) throw (RuntimeException) error[0];
+    }
+
+    /**
+     * jcifs-1.3.17 has no lazy listing API.
+     */
+    @Override
+    public Children children(String wildcard) {
+        return null;
+    }
+
+    private static class Smb1RandomAccess implements RandomAccess {
+        private final jcifs.smb.SmbRandomAccessFile mRaf;
+
+        Smb1RandomAccess(jcifs.smb.SmbRandomAccessFile raf) {
+            mRaf = raf;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws JcifsException {
+            try {
+                return mRaf.read(b, off, len);
+            } catch (jcifs.smb.SmbException e) {
+                throw (new JcifsException(e, e.getNtStatus(), e.getRootCause()));
+            }
+        }
+
+        @Override
+        public void readFully(byte[] b, int off, int len) throws JcifsException {
+            try {
+                mRaf.readFully(b, off, len);
+            } catch (jcifs.smb.SmbException e) {
+                throw (new JcifsException(e, e.getNtStatus(), e.getRootCause()));
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws JcifsException {
+            try {
+                mRaf.write(b, off, len);
+            } catch (jcifs.smb.SmbException e) {
+                throw (new JcifsException(e, e.getNtStatus(), e.getRootCause()));
+            }
+        }
+
+        @Override
+        public void seek(long position) throws JcifsException {
+            try {
+                mRaf.seek(position);
+            } catch (jcifs.smb.SmbException e) {
+                throw (new JcifsException(e, e.getNtStatus(), e.getRootCause()));
+            }
+        }
+
+        @Override
+        public long getFilePointer() throws JcifsException {
+            try {
+                return mRaf.getFilePointer();
+            } catch (jcifs.smb.SmbException e) {
+                throw (new JcifsException(e, e.getNtStatus(), e.getRootCause()));
+            }
+        }
+
+        @Override
+        public long length() throws JcifsException {
+            try {
+                return mRaf.length();
+            } catch (jcifs.smb.SmbException e) {
+                throw (new JcifsException(e, e.getNtStatus(), e.getRootCause()));
+            }
+        }
+
+        @Override
+        public void setLength(long length) throws JcifsException {
+            try {
+                mRaf.setLength(length);
+            } catch (jcifs.smb.SmbException e) {
+                throw (new JcifsException(e, e.getNtStatus(), e.getRootCause()));
+            }
+        }
+
+        @Override
+        public void close() throws JcifsException {
+            try {
+                mRaf.close();
+            } catch (jcifs.smb.SmbException e) {
+                throw (new JcifsException(e, e.getNtStatus(), e.getRootCause()));
+            }
+        }
+    }
+
+    static class Provider implements JcifsBackendProvider {
+        @Override
+        public String getName() {
+            return "SMB1";
+        }
+
+        @Override
+        public JcifsBackend open(String url, JcifsAuth auth) throws MalformedURLException {
+            return new JcifsSmb1Backend(new jcifs.smb.SmbFile(url, auth.getSmb1Auth()));
+        }
+
+        @Override
+        public String getIpAddressFromName(String hn) {
+            String ipAddress = null;
+            try {
+                jcifs.netbios.NbtAddress nbtAddress = jcifs.netbios.NbtAddress.getByName(hn);
+                InetAddress address = nbtAddress.getInetAddress();
+                ipAddress = address.getHostAddress();
+            } catch (UnknownHostException e) {
+                log.error("getSmbHostIpAddressFromNameSmb1 UnknownHostException", e);
+            } catch (Exception e) {
+                log.error("getSmbHostIpAddressFromNameSmb1 Exception", e);
+            }
+            return ipAddress;
+        }
+
+        @Override
+        public String getHostNameFromAddress(String address) {
+            String srv_name = "";
+            try {
+                jcifs.netbios.NbtAddress[] uax = jcifs.netbios.NbtAddress.getAllByAddress(address);
+                if (uax != null) {
+                    for (int i = 0; i < uax.length; i++) {
+                        jcifs.netbios.NbtAddress ua = uax[i];
+                        String hn;
+                        hn = ua.firstCalledName();
+                        if (ua.getNameType() == 32) {
+                            srv_name = hn;
+                            break;
+                        }
+                    }
+                }
+            } catch (UnknownHostException e) {
+                log.error("getSmbHostNameFromAddressSmb1 UnknownHostException", e);
+            } catch (Exception e) {
+                log.error("getSmbHostNameFromAddressSmb1 Exception", e);
+            }
+            return srv_name;
+        }
+
+        @Override
+        public boolean isNbtAddressActive(String address) {
+            boolean result = false;
+            try {
+                jcifs.netbios.NbtAddress na = jcifs.netbios.NbtAddress.getByName(address);
+                result = na.isActive();
+            } catch (UnknownHostException e) {
+                log.error("isNbtAddressActiveSmb1 UnknownHostException", e);
+            } catch (Exception e) {
+                log.error("isNbtAddressActiveSmb1 Exception", e);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,630 @@
+package com.sentaroh.android.JcifsFile2;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2011-2018 Sentaroh
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights to use,
+copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software,
+and to permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+*/
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.UnknownHostException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JcifsBackend on jcifs-ng (SMB2).
+ */
+public final class JcifsSmb212Backend implements JcifsBackend {
+
+    private static final Logger log = LoggerFactory.getLogger(JcifsSmb212Backend.class);
+
+    final static int NT_STATUS_INVALID_DEVICE_REQUEST = 0xC0000010;
+    final static int NT_STATUS_NOT_SUPPORTED = 0xC00000BB;
+
+    final static private long SERVER_COPY_RETRY_TIME = 10L * 60L * 1000L;
+    final static private int SERVER_COPY_MAX_ENTRIES = 256;
+
+    /** host/share keys of the shares that refused FSCTL_SRV_COPYCHUNK, with the time of the refusal */
+    private static final LinkedHashMap<String, Long> mServerCopyUnsupportedList = new LinkedHashMap<String, Long>();
+
+    private final jcifsng212.smb.SmbFile mFile;
+
+    JcifsSmb212Backend(jcifsng212.smb.SmbFile file) {
+        mFile = file;
+    }
+
+    public jcifsng212.smb.SmbFile getSmbFile() {
+        return mFile;
+    }
+
+    @Override
+    public int getSmbLevel() {
+        return JcifsAuth.JCIFS_FILE_SMB212;
+    }
+
+    @Override
+    public String getName() {
+        return mFile.getName();
+    }
+
+    @Override
+    public String getPath() {
+        return mFile.getPath();
+    }
+
+    @Override
+    public String getCanonicalPath() {
+        return mFile.getCanonicalPath();
+    }
+
+    @Override
+    public String getShare() {
+        return mFile.getShare();
+    }
+
+    @Override
+    public String getServer() {
+        return mFile.getServer();
+    }
+
+    @Override
+    public String getUncPath() {
+        return mFile.getUncPath();
+    }
+
+    @Override
+    public String getParent() {
+        return mFile.getParent();
+    }
+
+    @Override
+    public boolean exists() throws JcifsException {
+        try {
+            return mFile.exists();
+        } catch (jcifsng212.smb.SmbException e) {
+            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+        }
+    }
+
+    @Override
+    public int getType() throws JcifsException {
+        try {
+            return mFile.getType();
+        } catch (jcifsng212.smb.SmbException e) {
+            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+        }
+    }
+
+    @Override
+    public int getAttributes() throws JcifsException {
+        try {
+            return mFile.getAttributes();
+        } catch (jcifsng212.smb.SmbException e) {
+            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+        }
+    }
+
+    @Override
+    public boolean canRead() throws JcifsException {
+        try {
+            return mFile.canRead();
+        } catch (jcifsng212.smb.SmbException e) {
+            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+        }
+    }
+
+    @Override
+    public boolean canWrite() throws JcifsException {
+        try {
+            return mFile.canWrite();
+        } catch (jcifsng212.smb.SmbException e) {
+            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+        }
+    }
+
+    @Override
+    public boolean isDirectory() throws JcifsException {
+        try {
+            return mFile.isDirectory();
+        } catch (jcifsng212.smb.SmbException e) {
+            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+        }
+    }
+
+    @Override
+    public boolean isFile() throws JcifsException {
+        try {
+            return mFile.isFile();
+        } catch (jcifsng212.smb.SmbException e) {
+            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+        }
+    }
+
+    @Override
+    public boolean isHidden() throws JcifsException {
+        try {
+            return mFile.isHidden();
+        } catch (jcifsng212.smb.SmbException e) {
+            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+        }
+    }
+
+    @Override
+    public long length() throws JcifsException {
+        try {
+            return mFile.length();
+        } catch (jcifsng212.smb.SmbException e) {
+            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+        }
+    }
+
+    @Override
+    public long lastModified() throws JcifsException {
+        try {
+            return mFile.lastModified();
+        } catch (jcifsng212.smb.SmbException e) {
+            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+        }
+    }
+
+    @Override
+    public long createTime() throws JcifsException {
+        try {
+            return mFile.createTime();
+        } catch (jcifsng212.smb.SmbException e) {
+            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+        }
+    }
+
+    @Override
+    public void setLastModified(long time) throws JcifsException {
+        try {
+            mFile.setLastModified(time);
+        } catch (jcifsng212.smb.SmbException e) {
+            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+        }
+    }
+
+    @Override
+    public void delete() throws JcifsException {
+        try {
+            mFile.delete();
+        } catch (jcifsng212.smb.SmbException e) {
+            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+        }
+    }
+
+    @Override
+    public void mkdir() throws JcifsException {
+        try {
+            mFile.mkdir();
+        } catch (jcifsng212.smb.SmbException e) {
+            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+        }
+    }
+
+    @Override
+    public void mkdirs() throws JcifsException {
+        try {
+            mFile.mkdirs();
+        } catch (jcifsng212.smb.SmbException e) {
+            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+        }
+    }
+
+    @Override
+    public void createNewFile() throws JcifsException {
+        try {
+            mFile.createNewFile();
+        } catch (jcifsng212.smb.SmbException e) {
+            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+        }
+    }
+
+    @Override
+    public void connect() throws JcifsException {
+        try {
+            mFile.connect();
+        } catch (IOException e) {
+            throw JcifsException.fromIOException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        mFile.close();
+    }
+
+    @Override
+    public void renameTo(JcifsBackend dest) throws JcifsException {
+        if (!(dest instanceof JcifsSmb212Backend)) throw new JcifsException("Null SMB212 file specified.");
+        try {
+            mFile.renameTo(((JcifsSmb212Backend) dest).mFile);
+        } catch (jcifsng212.smb.SmbException e) {
+            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+        }
+    }
+
+    /**
+     * jcifs-ng copies with FSCTL_SRV_COPYCHUNK when both files are in the same share of one
+     * context and the negotiated dialect is SMB2. Otherwise its copyTo() reads and writes
+     * through the client, so false is returned and the caller streams the data itself.
+     * False is also returned when the server refuses the copy; the partly created dest is
+     * deleted and the share is remembered for SERVER_COPY_RETRY_TIME so that later copies
+     * skip the request.
+     */
+    @Override
+    public boolean serverCopyTo(JcifsBackend dest) throws JcifsException {
+        if (!(dest instanceof JcifsSmb212Backend)) return false;
+        jcifsng212.smb.SmbFile d = ((JcifsSmb212Backend) dest).mFile;
+        if (mFile.getContext() != d.getContext() || mFile.getShare() == null || d.getShare() == null
+                || !mFile.getServer().equalsIgnoreCase(d.getServer())
+                || !mFile.getShare().equalsIgnoreCase(d.getShare())) return false;
+        String key = JcifsHostLimiter.getHostKey(mFile.getServer()) + "/" + mFile.getShare().toLowerCase();
+        if (isServerCopyUnsupported(key)) return false;
+        try {
+            if (!isSmb2()) return false;
+            mFile.copyTo(d);
+        } catch (jcifsng212.smb.SmbException e) {
+            if (!isServerCopyRefused(e)) throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+            log.debug("server copy refused by " + key, e);
+            setServerCopyUnsupported(key);
+            try {
+                if (d.exists()) d.delete();
+            } catch (jcifsng212.smb.SmbException ignore) {
+            }
+            return false;
+        } catch (jcifsng212.CIFSException e) {
+            throw JcifsException.fromIOException(e);
+        }
+        return true;
+    }
+
+    private boolean isSmb2() throws jcifsng212.CIFSException {
+        jcifsng212.SmbTreeHandle th = mFile.getTreeHandle();
+        try {
+            return th.isSMB2();
+        } finally {
+            th.close();
+        }
+    }
+
+    /**
+     * jcifs-ng wraps the failed FSCTL_SRV_COPYCHUNK request, so the status of the server is
+     * searched along the causes.
+     */
+    private static boolean isServerCopyRefused(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (!(t instanceof jcifsng212.smb.SmbException)) continue;
+            int status = ((jcifsng212.smb.SmbException) t).getNtStatus();
+            if (status == NT_STATUS_NOT_SUPPORTED || status == NT_STATUS_INVALID_DEVICE_REQUEST) return true;
+        }
+        return false;
+    }
+
+    private static boolean isServerCopyUnsupported(String key) {
+        synchronized (mServerCopyUnsupportedList) {
+            Long refused = mServerCopyUnsupportedList.get(key);
+            if (refused == null) return false;
+            if (System.currentTimeMillis() - refused < SERVER_COPY_RETRY_TIME) return true;
+            mServerCopyUnsupportedList.remove(key);
+            return false;
+        }
+    }
+
+    private static void setServerCopyUnsupported(String key) {
+        synchronized (mServerCopyUnsupportedList) {
+            mServerCopyUnsupportedList.remove(key);
+            mServerCopyUnsupportedList.put(key, System.currentTimeMillis());
+            Iterator<String> it = mServerCopyUnsupportedList.keySet().iterator();
+            while (mServerCopyUnsupportedList.size() > SERVER_COPY_MAX_ENTRIES && it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+    }
+
+    @Override
+    public InputStream getInputStream() throws JcifsException {
+        try {
+            return mFile.getInputStream();
+        } catch (IOException e) {
+            throw JcifsException.fromIOException(e);
+        }
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws JcifsException {
+        try {
+            return mFile.getOutputStream();
+        } catch (IOException e) {
+            throw JcifsException.fromIOException(e);
+        }
+    }
+
+    @Override
+    public RandomAccess openRandomAccess(String mode) throws JcifsException {
+        try {
+            return new Smb212RandomAccess(new jcifsng212.smb.SmbRandomAccessFile(mFile, mode));
+        } catch (IOException e) {
+            throw JcifsException.fromIOException(e);
+        }
+    }
+
+    @Override
+    public JcifsBackend getChild(String name) throws JcifsException {
+        try {
+            return new JcifsSmb212Backend(new jcifsng212.smb.SmbFile(mFile, name));
+        } catch (IOException e) {
+            throw JcifsException.fromIOException(e);
+        }
+    }
+
+    @Override
+    public String[] list() throws JcifsException {
+        try {
+            return mFile.list();
+        } catch (jcifsng212.smb.SmbException e) {
+            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+        }
+    }
+
+    @Override
+    public JcifsBackend[] listFiles() throws JcifsException {
+        try {
+            jcifsng212.smb.SmbFile[] files = mFile.listFiles();
+            if (files == null) return null;
+            JcifsBackend[] result = new JcifsBackend[files.length];
+            for (int i = 0; i < files.length; i++) result[i] = new JcifsSmb212Backend(files[i]);
+            return result;
+        } catch (jcifsng212.smb.SmbException e) {
+            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+        }
+    }
+
+    @Override
+    public void listFiles(final ListHandler handler) throws JcifsException {
+        try {
+            mFile.listFiles(new jcifsng212.smb.SmbFileFilter() {
+                @Override
+                public boolean accept(jcifsng212.smb.SmbFile file) {
+                    try {
+                        handler.onEntry(new JcifsSmb212Backend(file));
+                    } catch (JcifsException e) {
+                        throw new JcifsBackendRegistry.HandlerException(e);
+                    }
+                    return false;
+                }
+            });
+        } catch (jcifsng212.smb.SmbException e) {
+            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+        } catch (JcifsBackendRegistry.HandlerException e) {
+            throw e.mException;
+        }
+    }
+
+    /**
+     * Uses the jcifs-ng children iterator, which filters the wildcard on the server.
+     */
+    @Override
+    public Children children(String wildcard) throws JcifsException {
+        try {
+            if (wildcard == null) return new Smb212Children(mFile.children());
+            return new Smb212Children(mFile.children(wildcard));
+        } catch (jcifsng212.smb.SmbException e) {
+            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+        } catch (jcifsng212.CIFSException e) {
+            throw (new JcifsException(e, 0, e.getCause()));
+        }
+    }
+
+    private static JcifsException toJcifsException(jcifsng212.RuntimeCIFSException e) {
+        if (e.getCause() instanceof jcifsng212.smb.SmbException) {
+            jcifsng212.smb.SmbException se = (jcifsng212.smb.SmbException) e.getCause();
+            return new JcifsException(se, se.getNtStatus(), se.getCause());
+        }
+        return new JcifsException(e, 0, e.getCause());
+    }
+
+    private static class Smb212Children implements Children {
+        private final jcifsng212.CloseableIterator<jcifsng212.SmbResource> mIterator;
+
+        Smb212Children(jcifsng212.CloseableIterator<jcifsng212.SmbResource> iterator) {
+            mIterator = iterator;
+        }
+
+        @Override
+        public boolean hasNext() throws JcifsException {
+            try {
+                return mIterator.hasNext();
+            } catch (jcifsng212.RuntimeCIFSException e) {
+                throw toJcifsException(e);
+            }
+        }
+
+        @Override
+        public JcifsBackend next() throws JcifsException {
+            try {
+                return new JcifsSmb212Backend((jcifsng212.smb.SmbFile) mIterator.next());
+            } catch (jcifsng212.RuntimeCIFSException e) {
+                throw toJcifsException(e);
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                mIterator.close();
+            } catch (jcifsng212.CIFSException e) {
+                //Ignore
+            }
+        }
+    }
+
+    private static class Smb212RandomAccess implements RandomAccess {
+        private final jcifsng212.smb.SmbRandomAccessFile mRaf;
+
+        Smb212RandomAccess(jcifsng212.smb.SmbRandomAccessFile raf) {
+            mRaf = raf;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws JcifsException {
+            try {
+                return mRaf.read(b, off, len);
+            } catch (jcifsng212.smb.SmbException e) {
+                throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+            }
+        }
+
+        @Override
+        public void readFully(byte[] b, int off, int len) throws JcifsException {
+            try {
+                mRaf.readFully(b, off, len);
+            } catch (jcifsng212.smb.SmbException e) {
+                throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws JcifsException {
+            try {
+                mRaf.write(b, off, len);
+            } catch (jcifsng212.smb.SmbException e) {
+                throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+            }
+        }
+
+        @Override
+        public void seek(long position) throws JcifsException {
+            mRaf.seek(position);
+        }
+
+        @Override
+        public long getFilePointer() throws JcifsException {
+            return mRaf.getFilePointer();
+        }
+
+        @Override
+        public long length() throws JcifsException {
+            try {
+                return mRaf.length();
+            } catch (jcifsng212.smb.SmbException e) {
+                throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+            }
+        }
+
+        @Override
+        public void setLength(long length) throws JcifsException {
+            try {
+                mRaf.setLength(length);
+            } catch (jcifsng212.smb.SmbException e) {
+                throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+            }
+        }
+
+        @Override
+        public void close() throws JcifsException {
+            try {
+                mRaf.close();
+            } catch (jcifsng212.smb.SmbException e) {
+                throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+            }
+        }
+    }
+
+    static class Provider implements JcifsBackendProvider {
+        @Override
+        public String getName() {
+            return "SMB212";
+        }
+
+        @Override
+        public JcifsBackend open(String url, JcifsAuth auth) throws MalformedURLException {
+            return new JcifsSmb212Backend(new jcifsng212.smb.SmbFile(url, auth.getSmb212Auth()));
+        }
+
+        @Override
+        public String getIpAddressFromName(String hn) {
+            String ipAddress = null;
+            try {
+                jcifsng212.context.BaseContext bc = JcifsNameResolver.getNameServiceContext();
+                ipAddress = bc.getNameServiceClient().getByName(hn).getHostAddress();
+            } catch (UnknownHostException e) {
+                log.error("getSmbHostIpAddressFromNameSmb2 UnknownHostException", e);
+            } catch (jcifsng212.CIFSException e) {
+                log.error("getSmbHostIpAddressFromNameSmb2 CIFSException", e);
+            } catch (Exception e) {
+                log.error("getSmbHostIpAddressFromNameSmb2 Exception", e);
+            }
+            return ipAddress;
+        }
+
+        @Override
+        public String getHostNameFromAddress(String address) {
+            String srv_name = "";
+            try {
+                jcifsng212.context.BaseContext bc = JcifsNameResolver.getNameServiceContext();
+                jcifsng212.NetbiosAddress[] uax = bc.getNameServiceClient().getNbtAllByAddress(address);
+                if (uax != null) {
+                    for (int i = 0; i < uax.length; i++) {
+                        jcifsng212.NetbiosAddress ua = uax[i];
+                        String hn;
+                        hn = ua.firstCalledName();
+                        if (ua.getNameType() == 32) {
+                            srv_name = hn;
+                            break;
+                        }
+                    }
+                }
+            } catch (UnknownHostException e) {
+                log.error("getSmbHostNameFromAddressSmb2 UnknownHostException", e);
+            } catch (jcifsng212.CIFSException e) {
+                log.error("getSmbHostNameFromAddressSmb2 CIFSException", e);
+            } catch (Exception e) {
+                log.error("getSmbHostNameFromAddressSmb2 Exception", e);
+            }
+            return srv_name;
+        }
+
+        @Override
+        public boolean isNbtAddressActive(String address) {
+            boolean result = false;
+            try {
+                jcifsng212.context.BaseContext bc = JcifsNameResolver.getNameServiceContext();
+                jcifsng212.NetbiosAddress na = bc.getNameServiceClient().getNbtByName(address);
+                result = na.isActive(bc);
+            } catch (UnknownHostException e) {
+                log.error("isNbtAddressActiveSmb2 UnknownHostException", e);
+            } catch (jcifsng212.CIFSException e) {
+                log.error("isNbtAddressActiveSmb2 CIFSException", e);
+            } catch (Exception e) {
+                log.error("isNbtAddressActiveSmb2 Exception", e);
+            }
+            return result;
+        }
+    }
+}
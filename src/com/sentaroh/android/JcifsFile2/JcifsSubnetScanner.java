@@ -0,0 +1,377 @@
+package com.sentaroh.android.JcifsFile2;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2011-2018 Sentaroh
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights to use,
+copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software,
+and to permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+*/
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds SMB servers in an IPv4 address range.
+ *
+ * All connects are non-blocking and driven by one Selector, so the scan time is bound by
+ * the connect timeout rather than by the number of addresses. Results are passed to the
+ * listener as soon as every port of a host has been probed.
+ */
+public class JcifsSubnetScanner {
+
+    private static final Logger log = LoggerFactory.getLogger(JcifsSubnetScanner.class);
+
+    final static public int SMB_PORT_NETBIOS = 139;
+    final static public int SMB_PORT_DIRECT = 445;
+
+    final static public int DEFAULT_TIMEOUT = 500;
+    final static public int DEFAULT_MAX_CONCURRENCY = 256;
+
+    private int mSmbLevel = JcifsAuth.JCIFS_FILE_SMB1;
+    private int[] mPorts = new int[]{SMB_PORT_NETBIOS, SMB_PORT_DIRECT};
+    private int mTimeout = DEFAULT_TIMEOUT;
+    private int mMaxConcurrency = DEFAULT_MAX_CONCURRENCY;
+    private boolean mResolveHostName = false;
+
+    private volatile boolean mCancelled = false;
+
+    public interface ScanListener {
+        /**
+         * Called once for every host that accepted a connection on at least one port.
+         * Calls are serialized but may come from a host name lookup thread.
+         */
+        void onHostFound(ScanResult result);
+    }
+
+    public static class ScanResult {
+        private final String mAddress;
+        private final int[] mOpenPorts;
+        private final String mHostName;
+
+        ScanResult(String address, int[] open_ports, String host_name) {
+            mAddress = address;
+            mOpenPorts = open_ports;
+            mHostName = host_name;
+        }
+
+        public String getAddress() {
+            return mAddress;
+        }
+
+        public int[] getOpenPorts() {
+            return mOpenPorts.clone();
+        }
+
+        public boolean isPortOpen(int port) {
+            for (int p : mOpenPorts) if (p == port) return true;
+            return false;
+        }
+
+        /**
+         * @return SMB host name, empty if it could not be resolved, or null when host name
+         * resolution was not requested
+         */
+        public String getHostName() {
+            return mHostName;
+        }
+    }
+
+    /**
+     * @param smb_level JcifsAuth.JCIFS_FILE_SMB1 or JcifsAuth.JCIFS_FILE_SMB212, used for host name lookup
+     */
+    public JcifsSubnetScanner(int smb_level) {
+        mSmbLevel = smb_level;
+    }
+
+    /**
+     * @param ports TCP ports probed on every address, at least one
+     */
+    public void setPorts(int... ports) {
+        if (ports == null || ports.length == 0) throw new IllegalArgumentException("No port specified.");
+        for (int port : ports)
+            if (port <= 0 || port > 65535) throw new IllegalArgumentException("Invalid port: " + port);
+        mPorts = ports.clone();
+    }
+
+    /**
+     * @param timeout connect timeout in milliseconds
+     */
+    public void setTimeout(int timeout) {
+        mTimeout = timeout;
+    }
+
+    /**
+     * @param max_concurrency maximum number of connects in flight
+     */
+    public void setMaxConcurrency(int max_concurrency) {
+        mMaxConcurrency = Math.max(1, max_concurrency);
+    }
+
+    /**
+     * @param resolve true is look up the SMB host name of every live host
+     */
+    public void setResolveHostName(boolean resolve) {
+        mResolveHostName = resolve;
+    }
+
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * Probes every address in the range. Blocks until the scan is complete or cancelled.
+     *
+     * @param cidr     address range, "192.168.0.0/24" or a single address
+     * @param listener receives the live hosts while the scan is running
+     * @return number of live hosts
+     * @throws JcifsException
+     */
+    public int scan(String cidr, final ScanListener listener) throws JcifsException {
+        long[] range = parseCidr(cidr);
+        mCancelled = false;
+
+        ExecutorService resolver = mResolveHostName ? Executors.newFixedThreadPool(4) : null;
+        Selector selector = null;
+        int found = 0;
+        try {
+            selector = Selector.open();
+            ArrayDeque<Probe> pending = new ArrayDeque<Probe>();
+            int in_flight = 0;
+            long next = range[0];
+            int next_port = 0;
+            HostState host = null;
+            while (!mCancelled && (next <= range[1] || in_flight > 0)) {
+                while (!mCancelled && next <= range[1] && in_flight < mMaxConcurrency) {
+                    if (host == null) host = new HostState(toAddressString(next), mPorts.length);
+                    Probe probe = new Probe(host, mPorts[next_port], System.currentTimeMillis() + mTimeout);
+                    if (startConnect(selector, probe)) {
+                        pending.add(probe);
+                        in_flight++;
+                    } else if (probe.mHost.complete(probe)) {
+                        found += deliver(probe.mHost, listener, resolver);
+                    }
+                    next_port++;
+                    if (next_port == mPorts.length) {
+                        next_port = 0;
+                        next++;
+                        host = null;
+                    }
+                }
+                if (in_flight == 0) continue;
+
+                selector.select(Math.max(1, pending.peekFirst().mDeadline - System.currentTimeMillis()));
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    Probe probe = (Probe) key.attachment();
+                    try {
+                        if (!probe.mChannel.finishConnect()) continue;
+                        probe.mConnected = true;
+                    } catch (IOException e) {
+                        //Refused or unreachable
+                    }
+                    finish(probe);
+                    in_flight--;
+                    if (probe.mHost.complete(probe)) found += deliver(probe.mHost, listener, resolver);
+                }
+
+                long now = System.currentTimeMillis();
+                while (!pending.isEmpty() && (pending.peekFirst().mDone || pending.peekFirst().mDeadline <= now)) {
+                    Probe probe = pending.pollFirst();
+                    if (probe.mDone) continue;
+                    finish(probe);
+                    in_flight--;
+                    if (probe.mHost.complete(probe)) found += deliver(probe.mHost, listener, resolver);
+                }
+            }
+            for (Probe probe : pending) closeChannel(probe);
+        } catch (IOException e) {
+            throw (new JcifsException(e, 0, e.getCause()));
+        } finally {
+            if (selector != null) {
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    log.error("scan selector close IOException", e);
+                }
+            }
+            if (resolver != null) {
+                resolver.shutdown();
+                try {
+                    resolver.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return true when the connect is in progress, false when the probe is already complete
+     */
+    private boolean startConnect(Selector selector, Probe probe) {
+        try {
+            probe.mChannel = SocketChannel.open();
+            probe.mChannel.configureBlocking(false);
+            if (probe.mChannel.connect(new InetSocketAddress(probe.mHost.mAddress, probe.mPort))) {
+                probe.mConnected = true;
+                finish(probe);
+                return false;
+            }
+            probe.mChannel.register(selector, SelectionKey.OP_CONNECT, probe);
+            return true;
+        } catch (IOException e) {
+            finish(probe);
+            return false;
+        }
+    }
+
+    private void finish(Probe probe) {
+        probe.mDone = true;
+        closeChannel(probe);
+    }
+
+    private void closeChannel(Probe probe) {
+        if (probe.mChannel == null) return;
+        try {
+            probe.mChannel.close();
+        } catch (IOException e) {
+            //Ignore
+        }
+        probe.mChannel = null;
+    }
+
+    private int deliver(final HostState host, final ScanListener listener, ExecutorService resolver) {
+        if (host.mOpenCount == 0) return 0;
+        final int[] open_ports = new int[host.mOpenCount];
+        for (int i = 0; i < host.mOpenCount; i++) open_ports[i] = host.mOpenPorts[i];
+        if (resolver == null) {
+            notifyListener(listener, new ScanResult(host.mAddress, open_ports, null));
+        } else {
+            resolver.execute(new Runnable() {
+                @Override
+                public void run() {
+                    String hn = JcifsUtil.getSmbHostNameByAddress(mSmbLevel, host.mAddress);
+                    notifyListener(listener, new ScanResult(host.mAddress, open_ports, hn));
+                }
+            });
+        }
+        return 1;
+    }
+
+    private void notifyListener(ScanListener listener, ScanResult result) {
+        if (listener == null) return;
+        synchronized (listener) {
+            listener.onHostFound(result);
+        }
+    }
+
+    final static private long[] parseCidr(String cidr) throws JcifsException {
+        String addr = cidr.trim();
+        int prefix = 32;
+        if (addr.indexOf("/") >= 0) {
+            try {
+                prefix = Integer.parseInt(addr.substring(addr.indexOf("/") + 1));
+            } catch (NumberFormatException e) {
+                throw new JcifsException("Invalid CIDR prefix: " + cidr);
+            }
+            addr = addr.substring(0, addr.indexOf("/"));
+        }
+        String[] octet = addr.split("\\.");
+        if (prefix < 0 || prefix > 32 || octet.length != 4) throw new JcifsException("Invalid CIDR range: " + cidr);
+        long base = 0;
+        for (int i = 0; i < 4; i++) {
+            int num;
+            try {
+                num = Integer.parseInt(octet[i]);
+            } catch (NumberFormatException e) {
+                throw new JcifsException("Invalid CIDR range: " + cidr);
+            }
+            if (num < 0 || num > 255) throw new JcifsException("Invalid CIDR range: " + cidr);
+            base = (base << 8) | num;
+        }
+        long mask = prefix == 0 ? 0 : (0xffffffffL << (32 - prefix)) & 0xffffffffL;
+        long first = base & mask;
+        long last = first | (~mask & 0xffffffffL);
+        if (prefix < 31) {
+            //Skip network and broadcast address
+            first++;
+            last--;
+        }
+        return new long[]{first, last};
+    }
+
+    final static private String toAddressString(long addr) {
+        return ((addr >>> 24) & 0xff) + "." + ((addr >>> 16) & 0xff) + "." + ((addr >>> 8) & 0xff) + "." + (addr & 0xff);
+    }
+
+    private static class HostState {
+        final String mAddress;
+        final int[] mOpenPorts;
+        int mOpenCount = 0;
+        int mRemaining;
+
+        HostState(String address, int port_count) {
+            mAddress = address;
+            mOpenPorts = new int[port_count];
+            mRemaining = port_count;
+        }
+
+        /**
+         * @return true when this was the last outstanding port of the host
+         */
+        boolean complete(Probe probe) {
+            if (probe.mConnected) mOpenPorts[mOpenCount++] = probe.mPort;
+            mRemaining--;
+            return mRemaining == 0;
+        }
+    }
+
+    private static class Probe {
+        final HostState mHost;
+        final int mPort;
+        final long mDeadline;
+        SocketChannel mChannel = null;
+        boolean mDone = false;
+        boolean mConnected = false;
+
+        Probe(HostState host, int port, long deadline) {
+            mHost = host;
+            mPort = port;
+            mDeadline = deadline;
+        }
+    }
+}
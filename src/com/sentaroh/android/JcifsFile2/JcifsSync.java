@@ -0,0 +1,867 @@
+package com.sentaroh.android.JcifsFile2;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2011-2018 Sentaroh
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights to use,
+copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software,
+and to permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+*/
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One way mirror of a source directory into a destination directory, SMB to SMB,
+ * SMB to local or local to SMB.
+ *
+ * Both trees are scanned in parallel and compared by size and last modified time,
+ * optionally confirmed by a checksum when only the time differs. The resulting copy,
+ * delete, mkdir and setLastModified actions run as a parallel plan.
+ *
+ * With an index file the scan of both trees is saved after every run. When
+ * setTrustDirectoryLastModified(true) is set, a directory whose last modified time is
+ * unchanged since the saved scan is not listed again; its entries are taken from the index
+ * and only its sub directories are checked. Servers update the time of a directory when
+ * entries are created, deleted or renamed in it, but not when a file in it is rewritten,
+ * so this is off by default.
+ */
+public class JcifsSync {
+
+    private static final Logger log = LoggerFactory.getLogger(JcifsSync.class);
+
+    final static public int DEFAULT_PARALLELISM = 8;
+    final static public long DEFAULT_TIME_TOLERANCE = 2000L;
+
+    final static private int INDEX_MAGIC = 0x4A534958;
+    final static private int INDEX_VERSION = 1;
+    final static private byte FLAG_DIRECTORY = 0x01;
+
+    private final Side mSource;
+    private final Side mDest;
+
+    private File mIndexFile = null;
+    private boolean mTrustDirectoryLastModified = false;
+    private boolean mUseChecksum = false;
+    private boolean mDeleteExtraneous = true;
+    private int mParallelism = DEFAULT_PARALLELISM;
+    private long mTimeTolerance = DEFAULT_TIME_TOLERANCE;
+
+    private final JcifsCopy mCopy = new JcifsCopy();
+    private volatile boolean mCancelled = false;
+
+    public JcifsSync(JcifsFile src_dir, JcifsFile dest_dir) {
+        this(new RemoteSide(src_dir), new RemoteSide(dest_dir));
+    }
+
+    public JcifsSync(JcifsFile src_dir, File dest_dir) {
+        this(new RemoteSide(src_dir), new LocalSide(dest_dir));
+    }
+
+    public JcifsSync(File src_dir, JcifsFile dest_dir) {
+        this(new LocalSide(src_dir), new RemoteSide(dest_dir));
+    }
+
+    private JcifsSync(Side source, Side dest) {
+        mSource = source;
+        mDest = dest;
+    }
+
+    /**
+     * @param file index of the previous scan, read before and written after every run.
+     *             null scans both trees completely every time.
+     */
+    public JcifsSync setIndexFile(File file) {
+        mIndexFile = file;
+        return this;
+    }
+
+    public JcifsSync setTrustDirectoryLastModified(boolean trust) {
+        mTrustDirectoryLastModified = trust;
+        return this;
+    }
+
+    /**
+     * @param use true compares the contents of files of the same size whose time differs,
+     *            and only sets the time when they are equal
+     */
+    public JcifsSync setUseChecksum(boolean use) {
+        mUseChecksum = use;
+        return this;
+    }
+
+    /**
+     * @param delete true deletes destination entries that do not exist in the source
+     */
+    public JcifsSync setDeleteExtraneous(boolean delete) {
+        mDeleteExtraneous = delete;
+        return this;
+    }
+
+    public JcifsSync setParallelism(int parallelism) {
+        mParallelism = Math.max(1, parallelism);
+        return this;
+    }
+
+    /**
+     * @param tolerance last modified times that differ by no more than this many
+     *                  milliseconds are equal. Local file systems may store whole seconds.
+     */
+    public JcifsSync setTimeTolerance(long tolerance) {
+        mTimeTolerance = Math.max(0, tolerance);
+        return this;
+    }
+
+    /**
+     * Stops the running synchronization. The next run() starts normally.
+     */
+    public void cancel() {
+        mCancelled = true;
+        mCopy.cancel();
+    }
+
+    /**
+     * Runs one synchronization.
+     *
+     * @return counts of the actions and the actions that failed
+     * @throws JcifsException when a tree could not be scanned completely. Nothing is changed
+     *                        in that case.
+     */
+    public Result run() throws JcifsException {
+        mCancelled = false;
+        Result result = new Result();
+        Index index = readIndex();
+        ExecutorService executor = Executors.newFixedThreadPool(mParallelism);
+        try {
+            Scanner source_scanner = new Scanner(mSource, index.mSource, executor, result);
+            Scanner dest_scanner = new Scanner(mDest, index.mDest, executor, result);
+            source_scanner.start(false);
+            dest_scanner.start(true);
+            ConcurrentSkipListMap<String, Record> source = source_scanner.finish();
+            ConcurrentSkipListMap<String, Record> dest = dest_scanner.finish();
+            ArrayList<Action> plan = createPlan(source, dest);
+            runPlan(plan, dest, executor, result);
+            writeIndex(source, dest);
+        } finally {
+            executor.shutdownNow();
+        }
+        return result;
+    }
+
+    private ArrayList<Action> createPlan(ConcurrentSkipListMap<String, Record> source,
+                                         ConcurrentSkipListMap<String, Record> dest) {
+        ArrayList<Action> plan = new ArrayList<Action>();
+        String deleted_dir = null;
+        for (Record d : dest.values()) {
+            if (d.mPath.length() == 0 || source.containsKey(d.mPath)) continue;
+            if (deleted_dir != null && d.mPath.startsWith(deleted_dir)) continue;
+            // A file in place of a directory or the reverse is always replaced.
+            if (!mDeleteExtraneous && !source.containsKey(getOtherTypePath(d.mPath))) continue;
+            plan.add(new Action(Action.DELETE, d));
+            if (d.isDirectory()) deleted_dir = d.mPath;
+        }
+        for (Record s : source.values()) {
+            if (s.mPath.length() == 0) continue;
+            Record d = dest.get(s.mPath);
+            if (s.isDirectory()) {
+                if (d == null) plan.add(new Action(Action.MKDIR, s));
+            } else if (d == null || d.mSize != s.mSize) {
+                plan.add(new Action(Action.COPY, s));
+            } else if (Math.abs(d.mLastModified - s.mLastModified) > mTimeTolerance) {
+                plan.add(new Action(mUseChecksum ? Action.COMPARE : Action.COPY, s));
+            }
+        }
+        return plan;
+    }
+
+    private static String getOtherTypePath(String path) {
+        return path.endsWith("/") ? path.substring(0, path.length() - 1) : path + "/";
+    }
+
+    /**
+     * Deletes first, then creates the directories, then copies in parallel. The destination
+     * scan is updated with every action that succeeded, for the index.
+     */
+    private void runPlan(ArrayList<Action> plan, final ConcurrentSkipListMap<String, Record> dest,
+                         ExecutorService executor, final Result result) throws JcifsException {
+        final TaskGroup group = new TaskGroup(executor);
+        for (final Action action : plan) {
+            if (action.mType != Action.DELETE) continue;
+            group.submit(new Runnable() {
+                @Override
+                public void run() {
+                    runAction(action, dest, result);
+                }
+            });
+        }
+        group.await();
+        for (Action action : plan) {
+            if (action.mType == Action.MKDIR) runAction(action, dest, result);
+        }
+        for (final Action action : plan) {
+            if (action.mType == Action.DELETE || action.mType == Action.MKDIR) continue;
+            group.submit(new Runnable() {
+                @Override
+                public void run() {
+                    runAction(action, dest, result);
+                }
+            });
+        }
+        group.await();
+        if (mCancelled) throw new JcifsException("Synchronization cancelled.");
+    }
+
+    @SuppressWarnings("fallthrough")
+    private void runAction(Action action, ConcurrentSkipListMap<String, Record> dest, Result result) {
+        if (mCancelled) return;
+        Record r = action.mRecord;
+        String host = mDest.getHost() != null ? mDest.getHost() : mSource.getHost();
+        try {
+            JcifsHostLimiter.acquire(host);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            switch (action.mType) {
+                case Action.DELETE:
+                    mDest.delete(r.mPath, r.isDirectory());
+                    dest.subMap(r.mPath, true, r.mPath + Character.MAX_VALUE, false).clear();
+                    result.mDeleted.incrementAndGet();
+                    break;
+                case Action.MKDIR:
+                    mDest.mkdirs(r.mPath);
+                    dest.put(r.mPath, new Record(r.mPath, FLAG_DIRECTORY, 0, 0, r.mAttributes));
+                    result.mDirectoriesCreated.incrementAndGet();
+                    break;
+                case Action.COMPARE:
+                    if (Arrays.equals(mSource.getChecksum(r.mPath), mDest.getChecksum(r.mPath))) {
+                        mDest.setLastModified(r.mPath, r.mLastModified);
+                        dest.put(r.mPath, r);
+                        result.mTimeUpdated.incrementAndGet();
+                        break;
+                    }
+                    // Contents differ, copy.
+                case Action.COPY:
+                    long n = copy(r.mPath);
+                    dest.put(r.mPath, r);
+                    result.mCopied.incrementAndGet();
+                    result.mCopiedBytes.addAndGet(n);
+                    break;
+            }
+            invalidateParent(dest, r.mPath);
+        } catch (JcifsException e) {
+            log.debug("sync " + r.mPath + " failed", e);
+            result.addFailure(r.mPath, e);
+        } finally {
+            JcifsHostLimiter.release(host);
+        }
+    }
+
+    /**
+     * The time of a changed destination directory is unknown, 0 makes the next scan list it.
+     */
+    private static void invalidateParent(ConcurrentSkipListMap<String, Record> dest, String path) {
+        String p = path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+        int pos = p.lastIndexOf('/');
+        String parent = pos < 0 ? "" : p.substring(0, pos + 1);
+        Record r = dest.get(parent);
+        if (r != null) dest.put(parent, new Record(parent, FLAG_DIRECTORY, 0, 0, r.mAttributes));
+    }
+
+    private long copy(String path) throws JcifsException {
+        if (mSource instanceof RemoteSide && mDest instanceof RemoteSide)
+            return mCopy.copy(((RemoteSide) mSource).getFile(path), ((RemoteSide) mDest).getFile(path));
+        if (mSource instanceof RemoteSide)
+            return mCopy.copy(((RemoteSide) mSource).getFile(path), ((LocalSide) mDest).getFile(path));
+        return mCopy.copy(((LocalSide) mSource).getFile(path), ((RemoteSide) mDest).getFile(path));
+    }
+
+    /**
+     * Scans one tree. Every directory is one task on the shared executor.
+     */
+    private class Scanner {
+        private final Side mSide;
+        private final NavigableMap<String, Record> mOldList;
+        private final ConcurrentSkipListMap<String, Record> mNewList = new ConcurrentSkipListMap<String, Record>();
+        private final TaskGroup mGroup;
+        private final Result mResult;
+        private volatile JcifsException mError = null;
+
+        Scanner(Side side, NavigableMap<String, Record> old_list, ExecutorService executor, Result result) {
+            mSide = side;
+            mOldList = old_list;
+            mGroup = new TaskGroup(executor);
+            mResult = result;
+        }
+
+        void start(boolean create_root) throws JcifsException {
+            Record root = mSide.stat("");
+            if (root == null && !create_root) throw new JcifsException("Source directory does not exist: " + mSide.getRootPath());
+            if (root == null) {
+                mSide.mkdirs("");
+                return;
+            }
+            mNewList.put("", root);
+            submit(root);
+        }
+
+        ConcurrentSkipListMap<String, Record> finish() throws JcifsException {
+            mGroup.await();
+            if (mError != null) throw mError;
+            if (mCancelled) throw new JcifsException("Synchronization cancelled.");
+            return mNewList;
+        }
+
+        private void submit(final Record dir) {
+            mGroup.submit(new Runnable() {
+                @Override
+                public void run() {
+                    if (mError != null || mCancelled) return;
+                    try {
+                        scanDirectory(dir);
+                    } catch (JcifsException e) {
+                        mError = e;
+                    }
+                }
+            });
+        }
+
+        private void scanDirectory(Record dir) throws JcifsException {
+            Record old = mOldList.get(dir.mPath);
+            if (mTrustDirectoryLastModified && old != null && old.isDirectory() && dir.mLastModified != 0
+                    && old.mLastModified == dir.mLastModified) {
+                mResult.mReusedDirectories.incrementAndGet();
+                String from = dir.mPath;
+                for (Record r : mOldList.subMap(from, false, from + Character.MAX_VALUE, false).values()) {
+                    int sep = r.mPath.indexOf('/', from.length());
+                    if (sep >= 0 && sep != r.mPath.length() - 1) continue;
+                    if (!r.isDirectory()) {
+                        mNewList.put(r.mPath, r);
+                        continue;
+                    }
+                    // The time of a directory does not change with its sub directories.
+                    Record current = statWithPermit(r.mPath);
+                    if (current == null || !current.isDirectory()) continue;
+                    mNewList.put(current.mPath, current);
+                    submit(current);
+                }
+                return;
+            }
+            mResult.mListedDirectories.incrementAndGet();
+            Record[] list;
+            String host = mSide.getHost();
+            try {
+                JcifsHostLimiter.acquire(host);
+            } catch (InterruptedException e) {
+                throw (new JcifsException(e, 0, e.getCause()));
+            }
+            try {
+                list = mSide.list(dir.mPath);
+            } finally {
+                JcifsHostLimiter.release(host);
+            }
+            for (Record r : list) {
+                mNewList.put(r.mPath, r);
+                if (r.isDirectory()) submit(r);
+            }
+        }
+
+        private Record statWithPermit(String path) throws JcifsException {
+            String host = mSide.getHost();
+            try {
+                JcifsHostLimiter.acquire(host);
+            } catch (InterruptedException e) {
+                throw (new JcifsException(e, 0, e.getCause()));
+            }
+            try {
+                return mSide.stat(path);
+            } finally {
+                JcifsHostLimiter.release(host);
+            }
+        }
+    }
+
+    /**
+     * Tasks on a shared executor that can be waited for as a group.
+     */
+    private static class TaskGroup {
+        private final ExecutorService mExecutor;
+        private int mPending = 0;
+
+        TaskGroup(ExecutorService executor) {
+            mExecutor = executor;
+        }
+
+        void submit(final Runnable task) {
+            synchronized (this) {
+                mPending++;
+            }
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        synchronized (TaskGroup.this) {
+                            mPending--;
+                            TaskGroup.this.notifyAll();
+                        }
+                    }
+                }
+            });
+        }
+
+        synchronized void await() throws JcifsException {
+            while (mPending > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw (new JcifsException(e, 0, e.getCause()));
+                }
+            }
+        }
+    }
+
+    private Index readIndex() {
+        Index index = new Index();
+        if (mIndexFile == null || !mIndexFile.exists()) return index;
+        DataInputStream dis = null;
+        try {
+            dis = new DataInputStream(new BufferedInputStream(new FileInputStream(mIndexFile), 65536));
+            if (dis.readInt() != INDEX_MAGIC || dis.readInt() != INDEX_VERSION) return index;
+            if (!dis.readUTF().equals(mSource.getRootPath()) || !dis.readUTF().equals(mDest.getRootPath())) return index;
+            ConcurrentSkipListMap<String, Record> source = readRecords(dis);
+            ConcurrentSkipListMap<String, Record> dest = readRecords(dis);
+            index.mSource = source;
+            index.mDest = dest;
+        } catch (IOException e) {
+            log.warn("sync index can not be read, the trees are scanned completely: " + mIndexFile.getPath(), e);
+        } finally {
+            if (dis != null) try {
+                dis.close();
+            } catch (IOException e) {
+                log.error("sync index close IOException", e);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Records are written in path order. Each path is stored as the length of the prefix
+     * it shares with the previous path and the remaining characters.
+     */
+    private static ConcurrentSkipListMap<String, Record> readRecords(DataInputStream dis) throws IOException {
+        ConcurrentSkipListMap<String, Record> list = new ConcurrentSkipListMap<String, Record>();
+        int count = dis.readInt();
+        String prev = "";
+        for (int i = 0; i < count; i++) {
+            int prefix = dis.readUnsignedShort();
+            String path = prev.substring(0, prefix) + dis.readUTF();
+            byte flags = dis.readByte();
+            long size = (flags & FLAG_DIRECTORY) != 0 ? 0 : dis.readLong();
+            long last_modified = dis.readLong();
+            int attributes = dis.readInt();
+            list.put(path, new Record(path, flags, size, last_modified, attributes));
+            prev = path;
+        }
+        return list;
+    }
+
+    private void writeIndex(ConcurrentSkipListMap<String, Record> source,
+                            ConcurrentSkipListMap<String, Record> dest) throws JcifsException {
+        if (mIndexFile == null) return;
+        File temp = new File(mIndexFile.getPath() + ".tmp");
+        try {
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 65536));
+            try {
+                dos.writeInt(INDEX_MAGIC);
+                dos.writeInt(INDEX_VERSION);
+                dos.writeUTF(mSource.getRootPath());
+                dos.writeUTF(mDest.getRootPath());
+                writeRecords(dos, source);
+                writeRecords(dos, dest);
+            } finally {
+                dos.close();
+            }
+            if (mIndexFile.exists() && !mIndexFile.delete())
+                throw new JcifsException("Index file can not be replaced: " + mIndexFile.getPath());
+            if (!temp.renameTo(mIndexFile))
+                throw new JcifsException("Index file can not be renamed: " + temp.getPath());
+        } catch (IOException e) {
+            temp.delete();
+            throw (new JcifsException(e, 0, e.getCause()));
+        }
+    }
+
+    private static void writeRecords(DataOutputStream dos, ConcurrentSkipListMap<String, Record> list) throws IOException {
+        dos.writeInt(list.size());
+        String prev = "";
+        for (Record r : list.values()) {
+            int prefix = 0;
+            int max = Math.min(Math.min(prev.length(), r.mPath.length()), 0xffff);
+            while (prefix < max && prev.charAt(prefix) == r.mPath.charAt(prefix)) prefix++;
+            dos.writeShort(prefix);
+            dos.writeUTF(r.mPath.substring(prefix));
+            dos.writeByte(r.mFlags);
+            if (!r.isDirectory()) dos.writeLong(r.mSize);
+            dos.writeLong(r.mLastModified);
+            dos.writeInt(r.mAttributes);
+            prev = r.mPath;
+        }
+    }
+
+    private static class Index {
+        NavigableMap<String, Record> mSource = new ConcurrentSkipListMap<String, Record>();
+        NavigableMap<String, Record> mDest = new ConcurrentSkipListMap<String, Record>();
+    }
+
+    /**
+     * One entry of a scan. Paths are relative to the root, directories end with "/",
+     * the root itself is "".
+     */
+    private static class Record {
+        final String mPath;
+        final byte mFlags;
+        final long mSize;
+        final long mLastModified;
+        final int mAttributes;
+
+        Record(String path, byte flags, long size, long last_modified, int attributes) {
+            mPath = path;
+            mFlags = flags;
+            mSize = size;
+            mLastModified = last_modified;
+            mAttributes = attributes;
+        }
+
+        boolean isDirectory() {
+            return (mFlags & FLAG_DIRECTORY) != 0;
+        }
+    }
+
+    private static class Action {
+        final static int DELETE = 0;
+        final static int MKDIR = 1;
+        final static int COPY = 2;
+        final static int COMPARE = 3;
+
+        final int mType;
+        final Record mRecord;
+
+        Action(int type, Record record) {
+            mType = type;
+            mRecord = record;
+        }
+    }
+
+    /**
+     * One side of the synchronization.
+     */
+    private interface Side {
+        String getRootPath();
+
+        /**
+         * @return server for JcifsHostLimiter, null for the local file system
+         */
+        String getHost();
+
+        /**
+         * @return the record of the path, null if it does not exist
+         */
+        Record stat(String path) throws JcifsException;
+
+        Record[] list(String dir_path) throws JcifsException;
+
+        void mkdirs(String path) throws JcifsException;
+
+        void delete(String path, boolean directory) throws JcifsException;
+
+        void setLastModified(String path, long last_modified) throws JcifsException;
+
+        InputStream getInputStream(String path) throws JcifsException;
+
+        byte[] getChecksum(String path) throws JcifsException;
+    }
+
+    private static abstract class AbstractSide implements Side {
+        @Override
+        public byte[] getChecksum(String path) throws JcifsException {
+            InputStream is = getInputStream(path);
+            byte[] buffer = JcifsBufferPool.acquire(JcifsBufferPool.SMB1_TRANSFER_BUFFER_SIZE);
+            try {
+                MessageDigest md = MessageDigest.getInstance("MD5");
+                int n;
+                while ((n = is.read(buffer)) > 0) md.update(buffer, 0, n);
+                return md.digest();
+            } catch (NoSuchAlgorithmException e) {
+                throw (new JcifsException(e, 0, e.getCause()));
+            } catch (IOException e) {
+                throw JcifsException.fromIOException(e);
+            } finally {
+                JcifsBufferPool.release(buffer);
+                try {
+                    is.close();
+                } catch (IOException e) {
+                    log.error("sync checksum InputStream close IOException", e);
+                }
+            }
+        }
+    }
+
+    private static class RemoteSide extends AbstractSide {
+        private final JcifsFile mRoot;
+        private final String mRootPath;
+
+        RemoteSide(JcifsFile root) {
+            mRoot = root;
+            mRootPath = JcifsTreeOperation.getDirectoryPath(root.getPath());
+        }
+
+        JcifsFile getFile(String path) throws JcifsException {
+            if (path.length() == 0) return mRoot;
+            try {
+                return new JcifsFile(mRootPath + path, mRoot.getAuth());
+            } catch (MalformedURLException e) {
+                throw (new JcifsException(e, 0, e.getCause()));
+            }
+        }
+
+        @Override
+        public String getRootPath() {
+            return mRootPath;
+        }
+
+        @Override
+        public String getHost() {
+            return mRoot.getServer();
+        }
+
+        @Override
+        public Record stat(String path) throws JcifsException {
+            JcifsFileEntry entry = getFile(path).stat(true);
+            return entry == null ? null : toRecord(path, entry);
+        }
+
+        @Override
+        public Record[] list(String dir_path) throws JcifsException {
+            JcifsFileEntry[] entries = getFile(dir_path).listEntries();
+            if (entries == null) throw new JcifsException("Directory can not be listed: " + mRootPath + dir_path);
+            Record[] list = new Record[entries.length];
+            for (int i = 0; i < entries.length; i++) {
+                String name = entries[i].getName();
+                if (entries[i].isDirectory() && !name.endsWith("/")) name = name + "/";
+                list[i] = toRecord(dir_path + name, entries[i]);
+            }
+            return list;
+        }
+
+        private static Record toRecord(String path, JcifsFileEntry entry) {
+            if (entry.isDirectory() && path.length() > 0 && !path.endsWith("/")) path = path + "/";
+            return new Record(path, entry.isDirectory() ? FLAG_DIRECTORY : 0,
+                    entry.isDirectory() ? 0 : entry.length(), entry.getLastModified(), entry.getAttributes());
+        }
+
+        @Override
+        public void mkdirs(String path) throws JcifsException {
+            JcifsFile d = getFile(path);
+            if (!d.exists()) d.mkdirs();
+        }
+
+        @Override
+        public void delete(String path, boolean directory) throws JcifsException {
+            // JcifsFile.delete() removes a directory with its contents. It takes no host permit
+            // of its own, the action already holds one.
+            getFile(path).delete();
+        }
+
+        @Override
+        public void setLastModified(String path, long last_modified) throws JcifsException {
+            getFile(path).setLastModified(last_modified);
+        }
+
+        @Override
+        public InputStream getInputStream(String path) throws JcifsException {
+            return getFile(path).getInputStream();
+        }
+    }
+
+    private static class LocalSide extends AbstractSide {
+        private final File mRoot;
+
+        LocalSide(File root) {
+            mRoot = root;
+        }
+
+        File getFile(String path) {
+            return path.length() == 0 ? mRoot : new File(mRoot, path);
+        }
+
+        @Override
+        public String getRootPath() {
+            return mRoot.getAbsolutePath();
+        }
+
+        @Override
+        public String getHost() {
+            return null;
+        }
+
+        @Override
+        public Record stat(String path) {
+            File f = getFile(path);
+            if (!f.exists()) return null;
+            if (f.isDirectory() && path.length() > 0 && !path.endsWith("/")) path = path + "/";
+            return toRecord(path, f);
+        }
+
+        @Override
+        public Record[] list(String dir_path) throws JcifsException {
+            File[] files = getFile(dir_path).listFiles();
+            if (files == null) throw new JcifsException("Directory can not be listed: " + getFile(dir_path).getPath());
+            Record[] list = new Record[files.length];
+            for (int i = 0; i < files.length; i++)
+                list[i] = toRecord(dir_path + files[i].getName() + (files[i].isDirectory() ? "/" : ""), files[i]);
+            return list;
+        }
+
+        private static Record toRecord(String path, File f) {
+            boolean dir = f.isDirectory();
+            int attributes = (dir ? JcifsFile.ATTR_DIRECTORY : 0) | (f.isHidden() ? JcifsFile.ATTR_HIDDEN : 0)
+                    | (f.canWrite() ? 0 : JcifsFile.ATTR_READONLY);
+            return new Record(path, dir ? FLAG_DIRECTORY : 0, dir ? 0 : f.length(), f.lastModified(), attributes);
+        }
+
+        @Override
+        public void mkdirs(String path) throws JcifsException {
+            File d = getFile(path);
+            if (!d.isDirectory() && !d.mkdirs() && !d.isDirectory())
+                throw new JcifsException("Directory can not be created: " + d.getPath());
+        }
+
+        @Override
+        public void delete(String path, boolean directory) throws JcifsException {
+            deleteLocal(getFile(path));
+        }
+
+        private static void deleteLocal(File f) throws JcifsException {
+            File[] children = f.isDirectory() ? f.listFiles() : null;
+            if (children != null) for (File c : children) deleteLocal(c);
+            if (!f.delete() && f.exists()) throw new JcifsException("File can not be deleted: " + f.getPath());
+        }
+
+        @Override
+        public void setLastModified(String path, long last_modified) throws JcifsException {
+            if (!getFile(path).setLastModified(last_modified))
+                throw new JcifsException("Last modified time can not be set: " + getFile(path).getPath());
+        }
+
+        @Override
+        public InputStream getInputStream(String path) throws JcifsException {
+            try {
+                return new FileInputStream(getFile(path));
+            } catch (IOException e) {
+                throw (new JcifsException(e, 0, e.getCause()));
+            }
+        }
+    }
+
+    /**
+     * Outcome of one run.
+     */
+    public static class Result {
+        private final AtomicLong mListedDirectories = new AtomicLong();
+        private final AtomicLong mReusedDirectories = new AtomicLong();
+        private final AtomicLong mCopied = new AtomicLong();
+        private final AtomicLong mCopiedBytes = new AtomicLong();
+        private final AtomicLong mDeleted = new AtomicLong();
+        private final AtomicLong mDirectoriesCreated = new AtomicLong();
+        private final AtomicLong mTimeUpdated = new AtomicLong();
+        private final ArrayList<Map.Entry<String, JcifsException>> mFailureList = new ArrayList<Map.Entry<String, JcifsException>>();
+
+        synchronized void addFailure(String path, JcifsException e) {
+            mFailureList.add(new java.util.AbstractMap.SimpleImmutableEntry<String, JcifsException>(path, e));
+        }
+
+        /**
+         * @return directories listed on both sides
+         */
+        public long getListedDirectoryCount() {
+            return mListedDirectories.get();
+        }
+
+        /**
+         * @return directories whose entries were taken from the index
+         */
+        public long getReusedDirectoryCount() {
+            return mReusedDirectories.get();
+        }
+
+        public long getCopiedFileCount() {
+            return mCopied.get();
+        }
+
+        public long getCopiedBytes() {
+            return mCopiedBytes.get();
+        }
+
+        public long getDeletedCount() {
+            return mDeleted.get();
+        }
+
+        public long getCreatedDirectoryCount() {
+            return mDirectoriesCreated.get();
+        }
+
+        /**
+         * @return files with equal contents whose time was set without copying
+         */
+        public long getLastModifiedUpdatedCount() {
+            return mTimeUpdated.get();
+        }
+
+        /**
+         * @return relative path and exception of every action that failed
+         */
+        public synchronized ArrayList<Map.Entry<String, JcifsException>> getFailures() {
+            return new ArrayList<Map.Entry<String, JcifsException>>(mFailureList);
+        }
+    }
+}
@@ -0,0 +1,641 @@
+package com.sentaroh.android.JcifsFile2;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2011-2018 Sentaroh
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights to use,
+copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software,
+and to permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+*/
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copies many files at once, sorted by size.
+ *
+ * Files below the small file threshold run on many lanes with JcifsCopy, so the open and
+ * close round trips of one file overlap with those of the others. Larger files run on a
+ * few lanes with JcifsPipelinedTransfer, remote to remote copies within one share on the
+ * server. Large lanes with no large file left take small files.
+ *
+ * A lane takes the next file of the host with the fewest running files whose
+ * JcifsHostLimiter limit allows one more, so the lanes are spread over the hosts. A file is
+ * only taken when the buffer memory it needs is left in the byte budget; the budget is
+ * reserved before the host permits, so a lane waiting for the budget holds no permit.
+ *
+ * Destinations are written in place, a failed file may be left partly written.
+ */
+public class JcifsTransferScheduler {
+
+    final static public long DEFAULT_SMALL_FILE_THRESHOLD = 4L * 1024L * 1024L;
+    final static public int DEFAULT_SMALL_FILE_LANES = 16;
+    final static public int DEFAULT_LARGE_FILE_LANES = 2;
+    final static public long DEFAULT_BYTE_BUDGET = 64L * 1024L * 1024L;
+
+    final static private long PROGRESS_INTERVAL = 500L;
+    final static private long HOST_RETRY_INTERVAL = 50L;
+
+    public interface ProgressListener {
+        /**
+         * Called after every file and at most every 500 milliseconds while bytes are copied,
+         * from the lane threads.
+         */
+        void onProgress(Progress progress);
+    }
+
+    private long mSmallFileThreshold = DEFAULT_SMALL_FILE_THRESHOLD;
+    private int mSmallFileLanes = DEFAULT_SMALL_FILE_LANES;
+    private int mLargeFileLanes = DEFAULT_LARGE_FILE_LANES;
+    private int mWindowSize = JcifsPipelinedTransfer.DEFAULT_WINDOW_SIZE;
+    private long mByteBudget = DEFAULT_BYTE_BUDGET;
+    private boolean mPreserveLastModified = true;
+    private ProgressListener mListener = null;
+    private JcifsBandwidthLimiter.Job mBandwidthJob = null;
+    private volatile boolean mCancelled = false;
+
+    private final ArrayList<Job> mJobList = new ArrayList<Job>();
+
+    private final Object mLock = new Object();
+    private final LinkedHashMap<String, ArrayDeque<Job>> mSmallQueue = new LinkedHashMap<String, ArrayDeque<Job>>();
+    private final LinkedHashMap<String, ArrayDeque<Job>> mLargeQueue = new LinkedHashMap<String, ArrayDeque<Job>>();
+    private final HashMap<String, Integer> mRunningList = new HashMap<String, Integer>();
+    private final HashSet<Object> mActiveTransferList = new HashSet<Object>();
+
+    private long mBudgetInUse = 0;
+
+    private final AtomicLong mTransferredBytes = new AtomicLong();
+    private final AtomicLong mSkippedBytes = new AtomicLong();
+    private final AtomicLong mLastNotifyTime = new AtomicLong();
+    private long mTotalBytes = 0;
+    private volatile int mCompletedCount = 0;
+    private volatile int mFailedCount = 0;
+    private volatile long mBeginNanos = 0;
+    private volatile long mEndNanos = 0;
+
+    public JcifsTransferScheduler() {
+    }
+
+    /**
+     * @param threshold files smaller than this run on the small file lanes
+     */
+    public JcifsTransferScheduler setSmallFileThreshold(long threshold) {
+        mSmallFileThreshold = Math.max(0, threshold);
+        return this;
+    }
+
+    public JcifsTransferScheduler setSmallFileLanes(int lanes) {
+        mSmallFileLanes = Math.max(1, lanes);
+        return this;
+    }
+
+    public JcifsTransferScheduler setLargeFileLanes(int lanes) {
+        mLargeFileLanes = Math.max(1, lanes);
+        return this;
+    }
+
+    /**
+     * @param window_size chunks in flight of a large file, see JcifsPipelinedTransfer
+     */
+    public JcifsTransferScheduler setWindowSize(int window_size) {
+        mWindowSize = Math.max(1, window_size);
+        return this;
+    }
+
+    /**
+     * @param budget bytes of transfer buffers all running files may hold together. A file
+     *               needing more than the whole budget runs alone.
+     */
+    public JcifsTransferScheduler setByteBudget(long budget) {
+        mByteBudget = Math.max(1, budget);
+        return this;
+    }
+
+    public JcifsTransferScheduler setPreserveLastModified(boolean preserve) {
+        mPreserveLastModified = preserve;
+        return this;
+    }
+
+    public JcifsTransferScheduler setProgressListener(ProgressListener listener) {
+        mListener = listener;
+        return this;
+    }
+
+    /**
+     * @param job the bandwidth job all files of the transfer are charged to, null makes
+     *            every file a job of its own
+     */
+    public JcifsTransferScheduler setBandwidthJob(JcifsBandwidthLimiter.Job job) {
+        mBandwidthJob = job;
+        return this;
+    }
+
+    /**
+     * Stops the running files. Files not yet started are reported as failed with "Cancelled".
+     */
+    public void cancel() {
+        mCancelled = true;
+        Object[] list;
+        synchronized (mLock) {
+            list = mActiveTransferList.toArray();
+            mLock.notifyAll();
+        }
+        for (Object transfer : list) {
+            if (transfer instanceof JcifsCopy) ((JcifsCopy) transfer).cancel();
+            else ((JcifsPipelinedTransfer) transfer).cancel();
+        }
+    }
+
+    /**
+     * Adds a remote to local copy. The size is read from the remote file, which is served
+     * by the metadata cache if the file was listed.
+     */
+    public JcifsTransferScheduler add(JcifsFile src, File dest) throws JcifsException {
+        return addJob(new Job(src, null, null, dest, src.length()));
+    }
+
+    public JcifsTransferScheduler add(File src, JcifsFile dest) {
+        return addJob(new Job(null, src, dest, null, src.length()));
+    }
+
+    public JcifsTransferScheduler add(JcifsFile src, JcifsFile dest) throws JcifsException {
+        return addJob(new Job(src, null, dest, null, src.length()));
+    }
+
+    /**
+     * Adds a remote to local copy of a listed entry, no request is made for the size.
+     */
+    public JcifsTransferScheduler add(JcifsFileEntry src, File dest) {
+        return addJob(new Job(src.getFile(), null, null, dest, src.length()));
+    }
+
+    public JcifsTransferScheduler add(JcifsFileEntry src, JcifsFile dest) {
+        return addJob(new Job(src.getFile(), null, dest, null, src.length()));
+    }
+
+    private JcifsTransferScheduler addJob(Job job) {
+        synchronized (mLock) {
+            if (mBeginNanos != 0) throw new IllegalStateException("Transfer already started");
+            mJobList.add(job);
+            mTotalBytes += job.mSize;
+        }
+        return this;
+    }
+
+    /**
+     * Copies all added files and waits for the end.
+     *
+     * @return results in the order the files were added, the url is the source path
+     */
+    public JcifsBatch.Report run() {
+        ArrayList<Job> large_list = new ArrayList<Job>();
+        synchronized (mLock) {
+            if (mBeginNanos != 0) throw new IllegalStateException("Transfer already started");
+            mBeginNanos = System.nanoTime();
+            for (Job job : mJobList) {
+                job.mLarge = job.mSize >= mSmallFileThreshold;
+                if (job.mLarge) large_list.add(job);
+                else enqueue(mSmallQueue, job);
+            }
+        }
+        // Largest first, so the last large file does not run alone at the end.
+        Collections.sort(large_list, new Comparator<Job>() {
+            @Override
+            public int compare(Job a, Job b) {
+                return a.mSize < b.mSize ? 1 : (a.mSize > b.mSize ? -1 : 0);
+            }
+        });
+        synchronized (mLock) {
+            for (Job job : large_list) enqueue(mLargeQueue, job);
+        }
+
+        int small_lanes = Math.min(mSmallFileLanes, mJobList.size() - large_list.size());
+        int large_lanes = Math.min(mLargeFileLanes, large_list.size());
+        if (large_lanes == 0 && small_lanes == 0) small_lanes = 1;
+        final CountDownLatch latch = new CountDownLatch(small_lanes + large_lanes);
+        ExecutorService executor = Executors.newFixedThreadPool(small_lanes + large_lanes);
+        try {
+            for (int i = 0; i < small_lanes + large_lanes; i++) {
+                final boolean large_lane = i < large_lanes;
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        JcifsBandwidthLimiter.Job job = mBandwidthJob;
+                        if (job != null) job.attach();
+                        try {
+                            runLane(large_lane);
+                        } finally {
+                            if (job != null) job.detach();
+                            latch.countDown();
+                        }
+                    }
+                });
+            }
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel();
+        } finally {
+            executor.shutdownNow();
+            mEndNanos = System.nanoTime();
+        }
+        JcifsBatch.Result[] result = new JcifsBatch.Result[mJobList.size()];
+        for (int i = 0; i < result.length; i++) {
+            Job job = mJobList.get(i);
+            if (job.mResult == null) job.mResult = new JcifsBatch.Result(job.getPath(), new JcifsException("Cancelled"));
+            result[i] = job.mResult;
+        }
+        notifyProgress(true);
+        return new JcifsBatch.Report(result);
+    }
+
+    /**
+     * @return a snapshot of the transfer, may be called from any thread
+     */
+    public Progress getProgress() {
+        long begin = mBeginNanos;
+        long end = mEndNanos;
+        long elapsed = begin == 0 ? 0 : ((end == 0 ? System.nanoTime() : end) - begin) / 1000000L;
+        long total;
+        int job_count;
+        synchronized (mLock) {
+            total = mTotalBytes;
+            job_count = mJobList.size();
+        }
+        return new Progress(job_count, mCompletedCount, mFailedCount, total, mTransferredBytes.get(),
+                mSkippedBytes.get(), elapsed);
+    }
+
+    private void runLane(boolean large_lane) {
+        while (true) {
+            Job job;
+            try {
+                job = takeJob(large_lane);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (job == null) return;
+            try {
+                runJob(job);
+                job.mResult = new JcifsBatch.Result(job.getPath(), null);
+            } catch (JcifsException e) {
+                job.mResult = new JcifsBatch.Result(job.getPath(), e);
+            } finally {
+                finishJob(job);
+            }
+        }
+    }
+
+    private void enqueue(LinkedHashMap<String, ArrayDeque<Job>> queue, Job job) {
+        String key = job.mHostList[0];
+        ArrayDeque<Job> list = queue.get(key);
+        if (list == null) {
+            list = new ArrayDeque<Job>();
+            queue.put(key, list);
+        }
+        list.add(job);
+    }
+
+    /**
+     * Takes the next file, reserves its buffer memory from the byte budget and acquires the
+     * JcifsHostLimiter permits of its hosts.
+     *
+     * @return null if no file is left for the lane or the transfer is cancelled
+     */
+    private Job takeJob(boolean large_lane) throws InterruptedException {
+        synchronized (mLock) {
+            while (!mCancelled) {
+                if (mSmallQueue.isEmpty() && (!large_lane || mLargeQueue.isEmpty())) return null;
+                Job job = large_lane ? pollJob(mLargeQueue) : null;
+                if (job == null) job = pollJob(mSmallQueue);
+                if (job != null) {
+                    for (String host : job.mHostList) {
+                        Integer count = mRunningList.get(host);
+                        mRunningList.put(host, count == null ? 1 : count + 1);
+                    }
+                    return job;
+                }
+                // JcifsHostLimiter does not tell when a permit is released elsewhere. Budget
+                // released by a finished file wakes the lanes at once.
+                mLock.wait(HOST_RETRY_INTERVAL);
+            }
+            return null;
+        }
+    }
+
+    private Job pollJob(LinkedHashMap<String, ArrayDeque<Job>> queue) {
+        ArrayList<String> host_list = new ArrayList<String>(queue.keySet());
+        Collections.sort(host_list, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return getRunningCount(a) - getRunningCount(b);
+            }
+        });
+        for (String host : host_list) {
+            ArrayDeque<Job> list = queue.get(host);
+            Job job = list.peek();
+            long reserved = tryReserveBudget(getBufferBytes(job));
+            if (reserved < 0) continue;
+            if (!tryAcquireHosts(job)) {
+                mBudgetInUse -= reserved;
+                continue;
+            }
+            job.mReservedBytes = reserved;
+            list.poll();
+            if (list.isEmpty()) queue.remove(host);
+            return job;
+        }
+        return null;
+    }
+
+    private int getRunningCount(String host) {
+        Integer count = mRunningList.get(host);
+        return count == null ? 0 : count;
+    }
+
+    private boolean tryAcquireHosts(Job job) {
+        for (int i = 0; i < job.mHostList.length; i++) {
+            if (!JcifsHostLimiter.tryAcquire(job.mHostList[i])) {
+                for (int j = 0; j < i; j++) JcifsHostLimiter.release(job.mHostList[j]);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void finishJob(Job job) {
+        for (String host : job.mHostList) JcifsHostLimiter.release(host);
+        synchronized (mLock) {
+            mBudgetInUse -= job.mReservedBytes;
+            for (String host : job.mHostList) {
+                int count = getRunningCount(host) - 1;
+                if (count <= 0) mRunningList.remove(host);
+                else mRunningList.put(host, count);
+            }
+            if (job.mResult.isSuccess()) {
+                mCompletedCount++;
+            } else {
+                mFailedCount++;
+                mSkippedBytes.addAndGet(Math.max(0, job.mSize - job.mTransferred));
+            }
+            mLock.notifyAll();
+        }
+        notifyProgress(true);
+    }
+
+    /**
+     * @return bytes of buffers the file holds while it runs
+     */
+    private long getBufferBytes(Job job) {
+        JcifsFile remote = job.mRemoteSrc != null ? job.mRemoteSrc : job.mRemoteDest;
+        long chunk = JcifsBufferPool.getTransferBufferSize(remote.getAuth());
+        if (!job.mLarge) return chunk;
+        // Chunks of the window plus one queued for the output.
+        return chunk * (mWindowSize + 1);
+    }
+
+    /**
+     * Called with mLock held.
+     *
+     * @return the bytes reserved, -1 if the budget left is too small
+     */
+    private long tryReserveBudget(long bytes) {
+        long reserve = Math.min(bytes, mByteBudget);
+        if (mBudgetInUse + reserve > mByteBudget) return -1;
+        mBudgetInUse += reserve;
+        return reserve;
+    }
+
+    private void runJob(final Job job) throws JcifsException {
+        JcifsCopy.ProgressListener counter = new JcifsCopy.ProgressListener() {
+            @Override
+            public void onProgress(long copied, long total) {
+                long delta = copied - job.mTransferred;
+                if (delta <= 0) return;
+                job.mTransferred = copied;
+                mTransferredBytes.addAndGet(delta);
+                notifyProgress(false);
+            }
+        };
+        if (job.mLarge) runLargeJob(job, counter);
+        else runSmallJob(job, counter);
+    }
+
+    private void runSmallJob(Job job, JcifsCopy.ProgressListener counter) throws JcifsException {
+        JcifsCopy copy = new JcifsCopy()
+                .setUseTemporaryFile(false)
+                .setPreserveLastModified(mPreserveLastModified)
+                .setProgressListener(counter);
+        addActiveTransfer(copy);
+        try {
+            if (job.mRemoteSrc != null && job.mRemoteDest != null) copy.copy(job.mRemoteSrc, job.mRemoteDest);
+            else if (job.mRemoteSrc != null) copy.copy(job.mRemoteSrc, job.mLocalDest);
+            else copy.copy(job.mLocalSrc, job.mRemoteDest);
+        } finally {
+            removeActiveTransfer(copy);
+        }
+    }
+
+    private void runLargeJob(Job job, JcifsCopy.ProgressListener counter) throws JcifsException {
+        long last_modified = 0L;
+        if (mPreserveLastModified)
+            last_modified = job.mRemoteSrc != null ? job.mRemoteSrc.getLastModified() : job.mLocalSrc.lastModified();
+        if (job.mRemoteSrc != null && job.mRemoteDest != null && job.mRemoteSrc.serverCopyTo(job.mRemoteDest)) {
+            counter.onProgress(job.mSize, job.mSize);
+        } else {
+            JcifsPipelinedTransfer transfer = new JcifsPipelinedTransfer()
+                    .setWindowSize(mWindowSize)
+                    .setProgressListener(counter);
+            addActiveTransfer(transfer);
+            try {
+                if (job.mRemoteSrc != null) {
+                    OutputStream os = job.mRemoteDest != null ? job.mRemoteDest.getOutputStream() : new FileOutputStream(job.mLocalDest);
+                    try {
+                        transfer.read(job.mRemoteSrc, os);
+                    } finally {
+                        os.close();
+                    }
+                } else {
+                    InputStream is = new FileInputStream(job.mLocalSrc);
+                    try {
+                        transfer.write(is, job.mRemoteDest);
+                    } finally {
+                        is.close();
+                    }
+                }
+            } catch (IOException e) {
+                throw JcifsException.fromIOException(e);
+            } finally {
+                removeActiveTransfer(transfer);
+            }
+        }
+        if (mPreserveLastModified) {
+            if (job.mRemoteDest != null) job.mRemoteDest.setLastModified(last_modified);
+            else job.mLocalDest.setLastModified(last_modified);
+        }
+    }
+
+    private void addActiveTransfer(Object transfer) throws JcifsException {
+        synchronized (mLock) {
+            if (mCancelled) throw new JcifsException("Cancelled");
+            mActiveTransferList.add(transfer);
+        }
+    }
+
+    private void removeActiveTransfer(Object transfer) {
+        synchronized (mLock) {
+            mActiveTransferList.remove(transfer);
+        }
+    }
+
+    private void notifyProgress(boolean force) {
+        ProgressListener listener = mListener;
+        if (listener == null) return;
+        long now = System.currentTimeMillis();
+        long last = mLastNotifyTime.get();
+        if (!force && (now - last < PROGRESS_INTERVAL || !mLastNotifyTime.compareAndSet(last, now))) return;
+        if (force) mLastNotifyTime.set(now);
+        listener.onProgress(getProgress());
+    }
+
+    private static class Job {
+        final JcifsFile mRemoteSrc;
+        final File mLocalSrc;
+        final JcifsFile mRemoteDest;
+        final File mLocalDest;
+        final long mSize;
+        final String[] mHostList;
+        boolean mLarge = false;
+        long mReservedBytes = 0;
+        volatile long mTransferred = 0;
+        volatile JcifsBatch.Result mResult = null;
+
+        Job(JcifsFile remote_src, File local_src, JcifsFile remote_dest, File local_dest, long size) {
+            mRemoteSrc = remote_src;
+            mLocalSrc = local_src;
+            mRemoteDest = remote_dest;
+            mLocalDest = local_dest;
+            mSize = Math.max(0, size);
+            String src_host = remote_src == null ? null : JcifsHostLimiter.getHostKey(remote_src.getServer());
+            String dest_host = remote_dest == null ? null : JcifsHostLimiter.getHostKey(remote_dest.getServer());
+            if (src_host != null && dest_host != null && !src_host.equals(dest_host))
+                mHostList = new String[]{src_host, dest_host};
+            else mHostList = new String[]{src_host != null ? src_host : dest_host};
+        }
+
+        String getPath() {
+            return mRemoteSrc != null ? mRemoteSrc.getPath() : mLocalSrc.getPath();
+        }
+    }
+
+    /**
+     * Snapshot of a transfer. Throughput is the average since the start, the estimated
+     * time is the remaining bytes at that rate.
+     */
+    public static class Progress {
+        private final int mJobCount;
+        private final int mCompletedCount;
+        private final int mFailedCount;
+        private final long mTotalBytes;
+        private final long mTransferredBytes;
+        private final long mSkippedBytes;
+        private final long mElapsedTime;
+
+        Progress(int job_count, int completed, int failed, long total, long transferred, long skipped, long elapsed) {
+            mJobCount = job_count;
+            mCompletedCount = completed;
+            mFailedCount = failed;
+            mTotalBytes = total;
+            mTransferredBytes = transferred;
+            mSkippedBytes = skipped;
+            mElapsedTime = elapsed;
+        }
+
+        public int getFileCount() {
+            return mJobCount;
+        }
+
+        public int getCompletedCount() {
+            return mCompletedCount;
+        }
+
+        public int getFailedCount() {
+            return mFailedCount;
+        }
+
+        public long getTotalBytes() {
+            return mTotalBytes;
+        }
+
+        public long getTransferredBytes() {
+            return mTransferredBytes;
+        }
+
+        /**
+         * @return bytes left, not counting the rest of failed files
+         */
+        public long getRemainingBytes() {
+            return Math.max(0, mTotalBytes - mTransferredBytes - mSkippedBytes);
+        }
+
+        /**
+         * @return milliseconds since the start
+         */
+        public long getElapsedTime() {
+            return mElapsedTime;
+        }
+
+        public long getBytesPerSecond() {
+            if (mElapsedTime <= 0) return 0;
+            return mTransferredBytes * 1000L / mElapsedTime;
+        }
+
+        /**
+         * @return estimated milliseconds to the end, -1 if not known yet
+         */
+        public long getEstimatedTimeRemaining() {
+            long rate = getBytesPerSecond();
+            if (mCompletedCount + mFailedCount >= mJobCount) return 0;
+            if (rate <= 0) return -1;
+            return getRemainingBytes() * 1000L / rate;
+        }
+
+        @Override
+        public String toString() {
+            return "files=" + (mCompletedCount + mFailedCount) + "/" + mJobCount + ", failed=" + mFailedCount +
+                    ", bytes=" + mTransferredBytes + "/" + mTotalBytes + ", rate=" + getBytesPerSecond() +
+                    "B/s, eta=" + getEstimatedTimeRemaining() + "ms";
+        }
+    }
+}
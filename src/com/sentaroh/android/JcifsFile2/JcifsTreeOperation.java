@@ -0,0 +1,428 @@
+package com.sentaroh.android.JcifsFile2;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2011-2018 Sentaroh
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights to use,
+copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software,
+and to permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+*/
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Recursive delete and copy of directory trees.
+ *
+ * The tree is listed by JcifsTreeWalker while a pool of workers already deletes or copies
+ * the files found so far, so listing and file requests overlap and several of each are in
+ * flight. File copies go through one JcifsCopy and share its pooled buffers. All requests
+ * take a JcifsHostLimiter permit for their server.
+ */
+public class JcifsTreeOperation {
+
+    final static public int DEFAULT_PARALLELISM = 8;
+
+    public interface ProgressListener {
+        /**
+         * Called from the worker threads after every file. The totals grow while the tree
+         * is still being listed.
+         *
+         * @param done_files  files deleted or copied so far
+         * @param total_files files found so far
+         * @param done_bytes  bytes copied so far, 0 for delete
+         * @param total_bytes size of the files found so far
+         */
+        void onProgress(long done_files, long total_files, long done_bytes, long total_bytes);
+    }
+
+    private int mParallelism = DEFAULT_PARALLELISM;
+    private ProgressListener mListener = null;
+    private final JcifsCopy mCopy = new JcifsCopy();
+    private volatile boolean mCancelled = false;
+
+    private final AtomicLong mDoneFiles = new AtomicLong();
+    private final AtomicLong mTotalFiles = new AtomicLong();
+    private final AtomicLong mDoneBytes = new AtomicLong();
+    private final AtomicLong mTotalBytes = new AtomicLong();
+
+    public JcifsTreeOperation() {
+    }
+
+    /**
+     * @param parallelism number of directory listings and of file requests in flight
+     */
+    public JcifsTreeOperation setParallelism(int parallelism) {
+        mParallelism = Math.max(1, parallelism);
+        return this;
+    }
+
+    public JcifsTreeOperation setProgressListener(ProgressListener listener) {
+        mListener = listener;
+        return this;
+    }
+
+    public JcifsTreeOperation setPreserveLastModified(boolean preserve) {
+        mCopy.setPreserveLastModified(preserve);
+        return this;
+    }
+
+    /**
+     * Stops the running operation. Files already deleted or copied stay so. The next
+     * operation starts normally.
+     */
+    public void cancel() {
+        mCancelled = true;
+        mCopy.cancel();
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    private void start() {
+        mCancelled = false;
+        mDoneFiles.set(0);
+        mTotalFiles.set(0);
+        mDoneBytes.set(0);
+        mTotalBytes.set(0);
+    }
+
+    /**
+     * Deletes the directory with all its contents. Files are deleted while the tree is
+     * still being listed, the emptied directories deepest first.
+     *
+     * @throws JcifsException the first failure, or cancellation
+     */
+    public void deleteRecursive(JcifsFile dir) throws JcifsException {
+        start();
+        if (!dir.isDirectory()) {
+            dir.delete();
+            return;
+        }
+        final TaskRunner runner = new TaskRunner(dir.getServer());
+        final ArrayList<ArrayList<JcifsFile>> dir_list = new ArrayList<ArrayList<JcifsFile>>();
+        try {
+            walk(dir, runner, new EntryHandler() {
+                @Override
+                public boolean onEntry(final JcifsFileEntry entry, int depth) {
+                    if (entry.isDirectory()) {
+                        while (dir_list.size() < depth) dir_list.add(new ArrayList<JcifsFile>());
+                        dir_list.get(depth - 1).add(entry.getFile());
+                        return !runner.isStopped();
+                    }
+                    mTotalFiles.incrementAndGet();
+                    runner.submit(new Task() {
+                        @Override
+                        public void run() throws JcifsException {
+                            entry.getFile().delete();
+                            mDoneFiles.incrementAndGet();
+                            notifyProgress();
+                        }
+                    });
+                    return !runner.isStopped();
+                }
+            });
+            runner.await();
+            for (int i = dir_list.size() - 1; i >= 0; i--) {
+                for (final JcifsFile d : dir_list.get(i)) {
+                    runner.submit(new Task() {
+                        @Override
+                        public void run() throws JcifsException {
+                            d.delete();
+                        }
+                    });
+                }
+                runner.await();
+            }
+            checkCancelled();
+            dir.delete();
+        } finally {
+            runner.shutdown();
+        }
+    }
+
+    /**
+     * Copies the contents of the remote directory into the remote directory dest_dir,
+     * which is created if necessary.
+     *
+     * @throws JcifsException the first failure, or cancellation
+     */
+    public void copyTree(JcifsFile src_dir, final JcifsFile dest_dir) throws JcifsException {
+        final String dest_root = getDirectoryPath(dest_dir.getPath());
+        copyTree(src_dir, new Target() {
+            @Override
+            public void makeDirectory(String rel_path) throws JcifsException {
+                JcifsFile d = getRemoteFile(dest_root + rel_path, dest_dir.getAuth());
+                if (!d.exists()) d.mkdirs();
+            }
+
+            @Override
+            public long copyFile(JcifsFileEntry src, String rel_path) throws JcifsException {
+                return mCopy.copy(src.getFile(), getRemoteFile(dest_root + rel_path, dest_dir.getAuth()));
+            }
+        });
+    }
+
+    /**
+     * Copies the contents of the remote directory into the local directory dest_dir,
+     * which is created if necessary.
+     *
+     * @throws JcifsException the first failure, or cancellation
+     */
+    public void copyTree(JcifsFile src_dir, final File dest_dir) throws JcifsException {
+        copyTree(src_dir, new Target() {
+            @Override
+            public void makeDirectory(String rel_path) throws JcifsException {
+                File d = rel_path.length() == 0 ? dest_dir : new File(dest_dir, rel_path);
+                if (!d.isDirectory() && !d.mkdirs() && !d.isDirectory())
+                    throw new JcifsException("Directory can not be created: " + d.getPath());
+            }
+
+            @Override
+            public long copyFile(JcifsFileEntry src, String rel_path) throws JcifsException {
+                return mCopy.copy(src.getFile(), new File(dest_dir, rel_path));
+            }
+        });
+    }
+
+    private void copyTree(JcifsFile src_dir, final Target target) throws JcifsException {
+        start();
+        final String src_root = getDirectoryPath(src_dir.getPath());
+        final TaskRunner runner = new TaskRunner(src_dir.getServer());
+        final ConcurrentHashMap<String, FutureTask<Void>> created_dir_list = new ConcurrentHashMap<String, FutureTask<Void>>();
+        final ThreadLocal<long[]> file_progress = new ThreadLocal<long[]>() {
+            @Override
+            protected long[] initialValue() {
+                return new long[1];
+            }
+        };
+        mCopy.setProgressListener(new JcifsCopy.ProgressListener() {
+            @Override
+            public void onProgress(long copied, long total) {
+                long[] last = file_progress.get();
+                mDoneBytes.addAndGet(copied - last[0]);
+                last[0] = copied;
+            }
+        });
+        try {
+            makeDirectory(target, "", created_dir_list);
+            walk(src_dir, runner, new EntryHandler() {
+                @Override
+                public boolean onEntry(final JcifsFileEntry entry, int depth) {
+                    final String rel_path = entry.getPath().substring(src_root.length());
+                    if (entry.isDirectory()) {
+                        runner.submit(new Task() {
+                            @Override
+                            public void run() throws JcifsException {
+                                makeDirectory(target, rel_path, created_dir_list);
+                            }
+                        });
+                        return !runner.isStopped();
+                    }
+                    mTotalFiles.incrementAndGet();
+                    mTotalBytes.addAndGet(entry.length());
+                    runner.submit(new Task() {
+                        @Override
+                        public void run() throws JcifsException {
+                            int pos = rel_path.lastIndexOf('/');
+                            makeDirectory(target, pos < 0 ? "" : rel_path.substring(0, pos + 1), created_dir_list);
+                            file_progress.get()[0] = 0;
+                            target.copyFile(entry, rel_path);
+                            mDoneFiles.incrementAndGet();
+                            notifyProgress();
+                        }
+                    });
+                    return !runner.isStopped();
+                }
+            });
+            runner.await();
+        } finally {
+            runner.shutdown();
+            mCopy.setProgressListener(null);
+        }
+    }
+
+    /**
+     * Creates each destination directory once, other tasks needing it wait for the creation.
+     */
+    private void makeDirectory(final Target target, final String rel_path,
+                               ConcurrentHashMap<String, FutureTask<Void>> created_dir_list) throws JcifsException {
+        FutureTask<Void> task = new FutureTask<Void>(new Callable<Void>() {
+            @Override
+            public Void call() throws JcifsException {
+                target.makeDirectory(rel_path);
+                return null;
+            }
+        });
+        FutureTask<Void> existing = created_dir_list.putIfAbsent(rel_path, task);
+        if (existing == null) {
+            task.run();
+            existing = task;
+        }
+        try {
+            existing.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw (new JcifsException(e, 0, e.getCause()));
+        } catch (ExecutionException e) {
+            throw AsyncJcifsFile.toJcifsException(e.getCause());
+        }
+    }
+
+    private void walk(JcifsFile dir, final TaskRunner runner, final EntryHandler handler) throws JcifsException {
+        JcifsTreeWalker.walk(dir, new JcifsTreeWalker.Visitor() {
+            @Override
+            public boolean onEntry(JcifsFileEntry entry, int depth) {
+                if (mCancelled) return false;
+                return handler.onEntry(entry, depth);
+            }
+
+            @Override
+            public boolean onError(JcifsFile d, JcifsException e) {
+                runner.setError(e);
+                return false;
+            }
+        }, new JcifsTreeWalker.Options().setParallelism(mParallelism));
+        checkCancelled();
+        runner.checkError();
+    }
+
+    private void notifyProgress() {
+        ProgressListener listener = mListener;
+        if (listener != null)
+            listener.onProgress(mDoneFiles.get(), mTotalFiles.get(), mDoneBytes.get(), mTotalBytes.get());
+    }
+
+    private void checkCancelled() throws JcifsException {
+        if (mCancelled) throw new JcifsException("Operation cancelled.");
+    }
+
+    final static String getDirectoryPath(String path) {
+        return path.endsWith("/") ? path : path + "/";
+    }
+
+    private static JcifsFile getRemoteFile(String url, JcifsAuth auth) throws JcifsException {
+        try {
+            return new JcifsFile(url, auth);
+        } catch (MalformedURLException e) {
+            throw (new JcifsException(e, 0, e.getCause()));
+        }
+    }
+
+    private interface EntryHandler {
+        boolean onEntry(JcifsFileEntry entry, int depth);
+    }
+
+    private interface Target {
+        void makeDirectory(String rel_path) throws JcifsException;
+
+        long copyFile(JcifsFileEntry src, String rel_path) throws JcifsException;
+    }
+
+    private interface Task {
+        void run() throws JcifsException;
+    }
+
+    /**
+     * Runs file tasks on a fixed pool under the host limit and keeps the first error.
+     */
+    private class TaskRunner {
+        private final String mHost;
+        private final ExecutorService mExecutor = Executors.newFixedThreadPool(mParallelism);
+        private final Object mLock = new Object();
+        private int mPending = 0;
+        private volatile JcifsException mError = null;
+
+        TaskRunner(String host) {
+            mHost = host;
+        }
+
+        void submit(final Task task) {
+            synchronized (mLock) {
+                mPending++;
+            }
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (isStopped()) return;
+                        JcifsHostLimiter.acquire(mHost);
+                        try {
+                            task.run();
+                        } finally {
+                            JcifsHostLimiter.release(mHost);
+                        }
+                    } catch (JcifsException e) {
+                        setError(e);
+                    } catch (InterruptedException e) {
+                        setError(new JcifsException(e, 0, e.getCause()));
+                    } finally {
+                        synchronized (mLock) {
+                            mPending--;
+                            mLock.notifyAll();
+                        }
+                    }
+                }
+            });
+        }
+
+        /**
+         * Waits until all submitted tasks have finished.
+         */
+        void await() throws JcifsException {
+            synchronized (mLock) {
+                while (mPending > 0) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        cancel();
+                        throw (new JcifsException(e, 0, e.getCause()));
+                    }
+                }
+            }
+            checkCancelled();
+            checkError();
+        }
+
+        boolean isStopped() {
+            return mCancelled || mError != null;
+        }
+
+        synchronized void setError(JcifsException e) {
+            if (mError == null) mError = e;
+        }
+
+        void checkError() throws JcifsException {
+            if (mError != null) throw mError;
+        }
+
+        void shutdown() {
+            mExecutor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package com.sentaroh.android.JcifsFile2;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2011-2018 Sentaroh
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights to use,
+copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software,
+and to permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+*/
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Recursive directory walker that lists many directories at the same time.
+ *
+ * Every directory found is listed by its own task, so on a high latency link many
+ * directory queries are in flight at once instead of one after another. All listings use
+ * the JcifsAuth of the root and take a JcifsHostLimiter permit for the server.
+ */
+public class JcifsTreeWalker {
+
+    public interface Visitor {
+        /**
+         * Called for every entry below the root.
+         *
+         * @param entry entry with the metadata of the directory listing
+         * @param depth 1 for the entries of the root directory
+         * @return false to stop the walk
+         */
+        boolean onEntry(JcifsFileEntry entry, int depth);
+
+        /**
+         * Called when a directory could not be listed.
+         *
+         * @return true to continue with the other directories, false to stop the walk and
+         * throw the exception from walk()
+         */
+        boolean onError(JcifsFile dir, JcifsException e);
+    }
+
+    public interface DirectoryFilter {
+        /**
+         * Decides whether a directory is descended into. Called from the worker threads,
+         * before the directory has been passed to the visitor.
+         */
+        boolean acceptDirectory(JcifsFileEntry dir, int depth);
+    }
+
+    public static class Options {
+        final static public int DEFAULT_PARALLELISM = 8;
+
+        private int mParallelism = DEFAULT_PARALLELISM;
+        private int mMaxDepth = Integer.MAX_VALUE;
+        private boolean mOrdered = false;
+        private DirectoryFilter mFilter = null;
+        private ExecutorService mExecutor = null;
+
+        /**
+         * @param parallelism number of directories listed at the same time. The
+         *                    JcifsHostLimiter limit of the server applies as well.
+         */
+        public Options setParallelism(int parallelism) {
+            mParallelism = Math.max(1, parallelism);
+            return this;
+        }
+
+        /**
+         * @param max_depth 1 visits only the entries of the root directory
+         */
+        public Options setMaxDepth(int max_depth) {
+            mMaxDepth = max_depth;
+            return this;
+        }
+
+        /**
+         * @param ordered true delivers the entries in the order of a sequential depth first
+         *                walk, on the calling thread. false delivers them as soon as each
+         *                listing completes, from the worker threads, one call at a time.
+         */
+        public Options setOrdered(boolean ordered) {
+            mOrdered = ordered;
+            return this;
+        }
+
+        public Options setDirectoryFilter(DirectoryFilter filter) {
+            mFilter = filter;
+            return this;
+        }
+
+        /**
+         * @param executor executor for the listing tasks. It is not shut down by the walker.
+         *                 When not set, a pool of parallelism threads is used for the walk.
+         */
+        public Options setExecutor(ExecutorService executor) {
+            mExecutor = executor;
+            return this;
+        }
+    }
+
+    private final JcifsFile mRoot;
+    private final Visitor mVisitor;
+    private final Options mOptions;
+    private final String mHost;
+    private ExecutorService mExecutor;
+
+    private final AtomicInteger mPending = new AtomicInteger();
+    private final CountDownLatch mCompleted = new CountDownLatch(1);
+    private volatile boolean mStopped = false;
+    private volatile JcifsException mFatalError = null;
+
+    private JcifsTreeWalker(JcifsFile root, Visitor visitor, Options options) {
+        mRoot = root;
+        mVisitor = visitor;
+        mOptions = options == null ? new Options() : options;
+        mHost = root.getServer();
+    }
+
+    /**
+     * Walks the tree below root. Returns when every directory has been listed and every
+     * entry has been passed to the visitor, or when the visitor stopped the walk.
+     *
+     * @throws JcifsException when a listing failed and the visitor did not continue
+     */
+    public static void walk(JcifsFile root, Visitor visitor, Options options) throws JcifsException {
+        new JcifsTreeWalker(root, visitor, options).run();
+    }
+
+    private void run() throws JcifsException {
+        boolean own_executor = mOptions.mExecutor == null;
+        mExecutor = own_executor ? Executors.newFixedThreadPool(mOptions.mParallelism) : mOptions.mExecutor;
+        try {
+            DirNode root = new DirNode(mRoot, 0);
+            submit(root);
+            if (mOptions.mOrdered) deliverOrdered(root);
+            mCompleted.await();
+        } catch (InterruptedException e) {
+            mStopped = true;
+            Thread.currentThread().interrupt();
+            throw (new JcifsException(e, 0, e.getCause()));
+        } finally {
+            if (own_executor) mExecutor.shutdownNow();
+        }
+        if (mFatalError != null) throw mFatalError;
+    }
+
+    private void submit(final DirNode node) {
+        mPending.incrementAndGet();
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    listDirectory(node);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            node.mError = new JcifsException(e, 0, e.getCause());
+            if (!mOptions.mOrdered) deliverUnordered(node);
+            node.mDone.countDown();
+            finishTask();
+        }
+    }
+
+    private void listDirectory(DirNode node) {
+        try {
+            if (mStopped) return;
+            boolean acquired = false;
+            try {
+                JcifsHostLimiter.acquire(mHost);
+                acquired = true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                node.mError = new JcifsException(e, 0, e.getCause());
+            }
+            if (acquired) {
+                try {
+                    JcifsFileEntry[] entries = node.mDir.listEntries();
+                    node.mEntries = entries == null ? new JcifsFileEntry[0] : entries;
+                } catch (JcifsException e) {
+                    node.mError = e;
+                } finally {
+                    JcifsHostLimiter.release(mHost);
+                }
+            }
+            if (node.mEntries != null) {
+                int depth = node.mDepth + 1;
+                node.mChildren = new DirNode[node.mEntries.length];
+                for (int i = 0; i < node.mEntries.length && !mStopped; i++) {
+                    JcifsFileEntry entry = node.mEntries[i];
+                    if (!entry.isDirectory() || depth >= mOptions.mMaxDepth) continue;
+                    if (mOptions.mFilter != null && !mOptions.mFilter.acceptDirectory(entry, depth)) continue;
+                    node.mChildren[i] = new DirNode(entry.getFile(), depth);
+                    submit(node.mChildren[i]);
+                }
+            }
+            if (!mOptions.mOrdered) deliverUnordered(node);
+        } finally {
+            node.mDone.countDown();
+            finishTask();
+        }
+    }
+
+    private void finishTask() {
+        if (mPending.decrementAndGet() == 0) mCompleted.countDown();
+    }
+
+    private void deliverUnordered(DirNode node) {
+        synchronized (mVisitor) {
+            if (mStopped) return;
+            if (node.mError != null) {
+                handleError(node);
+                return;
+            }
+            for (JcifsFileEntry entry : node.mEntries) {
+                if (!mVisitor.onEntry(entry, node.mDepth + 1)) {
+                    stop();
+                    return;
+                }
+            }
+            node.mEntries = null;
+        }
+    }
+
+    private void deliverOrdered(DirNode root) throws InterruptedException {
+        ArrayDeque<DirNode> stack = new ArrayDeque<DirNode>();
+        ArrayDeque<Integer> position = new ArrayDeque<Integer>();
+        root.mDone.await();
+        stack.push(root);
+        position.push(0);
+        while (!stack.isEmpty() && !mStopped) {
+            DirNode node = stack.peek();
+            int i = position.pop();
+            if (node.mError != null) {
+                stack.pop();
+                handleError(node);
+                continue;
+            }
+            if (node.mEntries == null || i >= node.mEntries.length) {
+                stack.pop();
+                node.mEntries = null;
+                node.mChildren = null;
+                continue;
+            }
+            position.push(i + 1);
+            if (!mVisitor.onEntry(node.mEntries[i], node.mDepth + 1)) {
+                stop();
+                break;
+            }
+            DirNode child = node.mChildren[i];
+            if (child != null) {
+                child.mDone.await();
+                stack.push(child);
+                position.push(0);
+            }
+        }
+    }
+
+    private void handleError(DirNode node) {
+        if (!mVisitor.onError(node.mDir, node.mError)) {
+            mFatalError = node.mError;
+            stop();
+        }
+    }
+
+    private void stop() {
+        mStopped = true;
+    }
+
+    private static class DirNode {
+        final JcifsFile mDir;
+        final int mDepth;
+        final CountDownLatch mDone = new CountDownLatch(1);
+        volatile JcifsFileEntry[] mEntries = null;
+        volatile DirNode[] mChildren = null;
+        volatile JcifsException mError = null;
+
+        DirNode(JcifsFile dir, int depth) {
+            mDir = dir;
+            mDepth = depth;
+        }
+    }
+}
@@ -24,18 +24,11 @@ OTHER DEALINGS IN THE SOFTWARE.
 */
 
 import java.io.IOException;
-import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.net.UnknownHostException;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 public class JcifsUtil {
 
-	private static final Logger log = LoggerFactory.getLogger(JcifsUtil.class);
-	
     final static public boolean isValidIpAddress(String in_addr) {
         boolean result = false;
         String strip_addr = in_addr;
@@ -68,41 +61,12 @@ public class JcifsUtil {
     }
 
     final static public String getSmbHostIpAddressByHostName(int smb_level, String hn) {
-        if (smb_level==JcifsAuth.JCIFS_FILE_SMB1) {
-            return getSmbHostIpAddressFromNameSmb1(hn);
-        } else if (smb_level==JcifsAuth.JCIFS_FILE_SMB212) {
-            return getSmbHostIpAddressFromNameSmb212(hn);
-        }
-        return null;
-    }
-
-    final static private String getSmbHostIpAddressFromNameSmb1(String hn) {
-        String ipAddress = null;
-        try {
-            jcifs.netbios.NbtAddress nbtAddress = jcifs.netbios.NbtAddress.getByName(hn);
-            InetAddress address = nbtAddress.getInetAddress();
-            ipAddress = address.getHostAddress();
-        } catch (UnknownHostException e) {
-        	log.error("getSmbHostIpAddressFromNameSmb1 UnknownHostException", e);
-        } catch (Exception e) {
-        	log.error("getSmbHostIpAddressFromNameSmb1 Exception", e);
-        }
-        return ipAddress;
+        return JcifsNameResolver.getIpAddressByHostName(smb_level, hn);
     }
 
-    final static private String getSmbHostIpAddressFromNameSmb212(String hn) {
-        String ipAddress = null;
-        try {
-            jcifsng212.context.BaseContext bc = new jcifsng212.context.BaseContext(new jcifsng212.config.PropertyConfiguration(System.getProperties()));
-            ipAddress = bc.getNameServiceClient().getByName(hn).getHostAddress();
-        } catch (UnknownHostException e) {
-			log.error("getSmbHostIpAddressFromNameSmb2 UnknownHostException", e);
-        } catch (jcifsng212.CIFSException e) {
-        	log.error("getSmbHostIpAddressFromNameSmb2 CIFSException", e);
-        } catch (Exception e) {
-        	log.error("getSmbHostIpAddressFromNameSmb2 Exception", e);
-        }
-        return ipAddress;
+    final static String getSmbHostIpAddressFromName(int smb_level, String hn) {
+        JcifsBackendProvider provider = JcifsBackendRegistry.getProvider(smb_level);
+        return provider == null ? null : provider.getIpAddressFromName(hn);
     }
 
     final static public boolean isIpAddressAndPortConnected(String address, int port, int timeout) {
@@ -122,99 +86,21 @@ public class JcifsUtil {
     }
 
     final static public String getSmbHostNameByAddress(int smb_level, String address) {
-        if (smb_level==JcifsAuth.JCIFS_FILE_SMB1) {
-            return getSmbHostNameFromAddressSmb1(address);
-        } else if (smb_level==JcifsAuth.JCIFS_FILE_SMB212) {
-            return getSmbHostNameFromAddressSmb212(address);
-        }
-        return null;
-    }
-
-    final static private String getSmbHostNameFromAddressSmb1(String address) {
-        String srv_name = "";
-        try {
-            jcifs.netbios.NbtAddress[] uax = jcifs.netbios.NbtAddress.getAllByAddress(address);
-            if (uax != null) {
-                for (int i = 0; i < uax.length; i++) {
-                    jcifs.netbios.NbtAddress ua = uax[i];
-                    String hn;
-                    hn = ua.firstCalledName();
-                    if (ua.getNameType() == 32) {
-                        srv_name = hn;
-                        break;
-                    }
-                }
-            }
-        } catch (UnknownHostException e) {
-        	log.error("getSmbHostNameFromAddressSmb1 UnknownHostException", e);
-        } catch (Exception e) {
-        	log.error("getSmbHostNameFromAddressSmb1 Exception", e);
-        }
-        return srv_name;
+        return JcifsNameResolver.getHostNameByAddress(smb_level, address);
     }
 
-    final static private String getSmbHostNameFromAddressSmb212(String address) {
-        String srv_name = "";
-        try {
-            jcifsng212.context.BaseContext bc = new jcifsng212.context.BaseContext(new jcifsng212.config.PropertyConfiguration(System.getProperties()));
-            jcifsng212.NetbiosAddress[] uax = bc.getNameServiceClient().getNbtAllByAddress(address);
-            if (uax != null) {
-                for (int i = 0; i < uax.length; i++) {
-                    jcifsng212.NetbiosAddress ua = uax[i];
-                    String hn;
-                    hn = ua.firstCalledName();
-                    if (ua.getNameType() == 32) {
-                        srv_name = hn;
-                        break;
-                    }
-                }
-            }
-        } catch (UnknownHostException e) {
-        	log.error("getSmbHostNameFromAddressSmb2 UnknownHostException", e);
-        } catch (jcifsng212.CIFSException e) {
-        	log.error("getSmbHostNameFromAddressSmb2 CIFSException", e);
-        } catch (Exception e) {
-        	log.error("getSmbHostNameFromAddressSmb2 Exception", e);
-        }
-        return srv_name;
+    final static String getSmbHostNameFromAddress(int smb_level, String address) {
+        JcifsBackendProvider provider = JcifsBackendRegistry.getProvider(smb_level);
+        return provider == null ? null : provider.getHostNameFromAddress(address);
     }
 
     final static public boolean isNetbiosAddress(int smb_level, String address) {
-        if (smb_level==JcifsAuth.JCIFS_FILE_SMB1) {
-            return isNbtAddressActiveSmb1(address);
-        } else if (smb_level==JcifsAuth.JCIFS_FILE_SMB212) {
-            return isNbtAddressActiveSmb212(address);
-        }
-        return false;
-    }
-
-    final static private boolean isNbtAddressActiveSmb1(String address) {
-        boolean result = false;
-        try {
-            jcifs.netbios.NbtAddress na = jcifs.netbios.NbtAddress.getByName(address);
-            result = na.isActive();
-        } catch (UnknownHostException e) {
-        	log.error("isNbtAddressActiveSmb1 UnknownHostException", e);
-        } catch (Exception e) {
-        	log.error("isNbtAddressActiveSmb1 Exception", e);
-        }
-        return result;
+        return JcifsNameResolver.isNetbiosAddressActive(smb_level, address);
     }
 
-    final static private boolean isNbtAddressActiveSmb212(String address) {
-        boolean result = false;
-        try {
-            jcifsng212.context.BaseContext bc = new jcifsng212.context.BaseContext(new jcifsng212.config.PropertyConfiguration(System.getProperties()));
-            jcifsng212.NetbiosAddress na = bc.getNameServiceClient().getNbtByName(address);
-            result = na.isActive(bc);
-        } catch (UnknownHostException e) {
-        	log.error("isNbtAddressActiveSmb2 UnknownHostException", e);
-        } catch (jcifsng212.CIFSException e) {
-        	log.error("isNbtAddressActiveSmb2 CIFSException", e);
-        } catch (Exception e) {
-        	log.error("isNbtAddressActiveSmb2 Exception", e);
-        }
-        return result;
+    final static boolean isNbtAddressActive(int smb_level, String address) {
+        JcifsBackendProvider provider = JcifsBackendRegistry.getProvider(smb_level);
+        return provider != null && provider.isNbtAddressActive(address);
     }
 
     final static public String[] analyzeNtStatusCode(JcifsException e, String url, String user) {
@@ -0,0 +1,385 @@
+package com.sentaroh.android.JcifsFile2;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2011-2018 Sentaroh
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights to use,
+copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software,
+and to permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+*/
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reports changes below a remote directory.
+ *
+ * On SMB2 the server pushes the changes with CHANGE_NOTIFY. On SMB1, or when the server
+ * does not support change notification, the tree is listed periodically with
+ * JcifsTreeWalker and compared with the previous listing; this needs one request per
+ * directory and none per file.
+ *
+ * Events are coalesced per path and delivered in batches once no new event arrived for the
+ * coalesce delay, or at the latest after the maximum latency.
+ */
+public class JcifsWatcher implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(JcifsWatcher.class);
+
+    final static public long DEFAULT_COALESCE_DELAY = 500L;
+    final static public long DEFAULT_MAX_LATENCY = 5000L;
+    final static public long DEFAULT_POLL_INTERVAL = 30000L;
+
+    final static private int NT_STATUS_NOT_SUPPORTED = 0xC00000BB;
+    final static private long RETRY_DELAY = 5000L;
+
+    public interface Listener {
+        /**
+         * Called from the delivery thread of the watcher, one batch at a time.
+         */
+        void onChanges(List<Event> events);
+
+        /**
+         * Called when a watch or poll request failed. The watcher retries after a delay and
+         * reports OVERFLOW once the watch is re-established, changes may have been missed.
+         */
+        void onError(JcifsException e);
+    }
+
+    public static class Event {
+        final static public int ADDED = 1;
+        final static public int REMOVED = 2;
+        final static public int MODIFIED = 3;
+        /**
+         * More changes happened than the server could report, or the watch was interrupted
+         * by an error. The whole tree must be rescanned.
+         */
+        final static public int OVERFLOW = 4;
+
+        private final int mType;
+        private final String mPath;
+
+        Event(int type, String path) {
+            mType = type;
+            mPath = path;
+        }
+
+        public int getType() {
+            return mType;
+        }
+
+        /**
+         * @return path relative to the watched directory with "/" separators, "" for OVERFLOW
+         */
+        public String getPath() {
+            return mPath;
+        }
+
+        @Override
+        public String toString() {
+            return (mType == ADDED ? "ADDED " : mType == REMOVED ? "REMOVED " : mType == MODIFIED ? "MODIFIED " : "OVERFLOW ") + mPath;
+        }
+    }
+
+    private final JcifsFile mDir;
+    private final boolean mRecursive;
+    private final Listener mListener;
+    private long mCoalesceDelay = DEFAULT_COALESCE_DELAY;
+    private long mMaxLatency = DEFAULT_MAX_LATENCY;
+    private long mPollInterval = DEFAULT_POLL_INTERVAL;
+
+    private final LinkedHashMap<String, Integer> mPendingList = new LinkedHashMap<String, Integer>();
+    private long mFirstPendingTime = 0;
+    private long mLastPendingTime = 0;
+
+    private volatile boolean mClosed = false;
+    private volatile boolean mPolling = false;
+    private Thread mWatchThread = null;
+    private Thread mDeliveryThread = null;
+    private volatile jcifsng212.SmbWatchHandle mWatchHandle = null;
+    private boolean mResyncNeeded = false;
+
+    public JcifsWatcher(JcifsFile dir, boolean recursive, Listener listener) {
+        mDir = dir;
+        mRecursive = recursive;
+        mListener = listener;
+    }
+
+    /**
+     * Creates and starts a watcher with the default settings.
+     */
+    public static JcifsWatcher watch(JcifsFile dir, boolean recursive, Listener listener) {
+        return new JcifsWatcher(dir, recursive, listener).start();
+    }
+
+    public JcifsWatcher setCoalesceDelay(long delay) {
+        mCoalesceDelay = Math.max(0, delay);
+        return this;
+    }
+
+    public JcifsWatcher setMaxLatency(long latency) {
+        mMaxLatency = Math.max(0, latency);
+        return this;
+    }
+
+    /**
+     * @param interval time between two listings when change notification is not available
+     */
+    public JcifsWatcher setPollInterval(long interval) {
+        mPollInterval = Math.max(1000L, interval);
+        return this;
+    }
+
+    public synchronized JcifsWatcher start() {
+        if (mWatchThread != null) return this;
+        mPolling = !mDir.isSmb212File();
+        mWatchThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watchLoop();
+            }
+        }, "JcifsWatcher " + mDir.getPath());
+        mWatchThread.setDaemon(true);
+        mDeliveryThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                deliveryLoop();
+            }
+        }, "JcifsWatcher delivery");
+        mDeliveryThread.setDaemon(true);
+        mWatchThread.start();
+        mDeliveryThread.start();
+        return this;
+    }
+
+    /**
+     * @return true while changes are detected by listing instead of change notification
+     */
+    public boolean isPolling() {
+        return mPolling;
+    }
+
+    public JcifsFile getDirectory() {
+        return mDir;
+    }
+
+    @Override
+    public void close() {
+        mClosed = true;
+        closeWatchHandle();
+        synchronized (mPendingList) {
+            mPendingList.notifyAll();
+        }
+        if (mWatchThread != null) mWatchThread.interrupt();
+    }
+
+    private void watchLoop() {
+        HashMap<String, JcifsFileEntry> snapshot = null;
+        while (!mClosed) {
+            try {
+                if (!mPolling) {
+                    watchSmb212();
+                } else {
+                    HashMap<String, JcifsFileEntry> current = scan();
+                    if (snapshot != null) compare(snapshot, current);
+                    else if (mResyncNeeded) addEvent(Event.OVERFLOW, "");
+                    mResyncNeeded = false;
+                    snapshot = current;
+                    sleep(mPollInterval);
+                }
+            } catch (JcifsException e) {
+                if (mClosed) break;
+                if (!mPolling && e.getNtStatus() == NT_STATUS_NOT_SUPPORTED) {
+                    log.debug("Change notification is not supported, polling " + mDir.getPath());
+                    mPolling = true;
+                    continue;
+                }
+                mResyncNeeded = true;
+                try {
+                    mListener.onError(e);
+                } catch (RuntimeException re) {
+                    log.error("watch listener RuntimeException", re);
+                }
+                sleep(RETRY_DELAY);
+            }
+        }
+        closeWatchHandle();
+    }
+
+    private void watchSmb212() throws JcifsException {
+        int filter = jcifsng212.FileNotifyInformation.FILE_NOTIFY_CHANGE_FILE_NAME
+                | jcifsng212.FileNotifyInformation.FILE_NOTIFY_CHANGE_DIR_NAME
+                | jcifsng212.FileNotifyInformation.FILE_NOTIFY_CHANGE_ATTRIBUTES
+                | jcifsng212.FileNotifyInformation.FILE_NOTIFY_CHANGE_SIZE
+                | jcifsng212.FileNotifyInformation.FILE_NOTIFY_CHANGE_LAST_WRITE;
+        try {
+            if (mWatchHandle == null) {
+                mWatchHandle = mDir.getSmb212File().watch(filter, mRecursive);
+                if (mResyncNeeded) addEvent(Event.OVERFLOW, "");
+                mResyncNeeded = false;
+            }
+            List<jcifsng212.FileNotifyInformation> list = mWatchHandle.watch();
+            if (mClosed) return;
+            if (list == null || list.isEmpty()) {
+                addEvent(Event.OVERFLOW, "");
+                return;
+            }
+            for (jcifsng212.FileNotifyInformation info : list) {
+                String path = info.getFileName().replace('\\', '/');
+                switch (info.getAction()) {
+                    case jcifsng212.FileNotifyInformation.FILE_ACTION_ADDED:
+                    case jcifsng212.FileNotifyInformation.FILE_ACTION_RENAMED_NEW_NAME:
+                        addEvent(Event.ADDED, path);
+                        break;
+                    case jcifsng212.FileNotifyInformation.FILE_ACTION_REMOVED:
+                    case jcifsng212.FileNotifyInformation.FILE_ACTION_RENAMED_OLD_NAME:
+                        addEvent(Event.REMOVED, path);
+                        break;
+                    default:
+                        addEvent(Event.MODIFIED, path);
+                        break;
+                }
+            }
+        } catch (jcifsng212.smb.SmbException e) {
+            closeWatchHandle();
+            throw (new JcifsException(e, e.getNtStatus(), e.getCause()));
+        } catch (jcifsng212.CIFSException e) {
+            closeWatchHandle();
+            throw (new JcifsException(e, 0, e.getCause()));
+        }
+    }
+
+    private void closeWatchHandle() {
+        jcifsng212.SmbWatchHandle handle = mWatchHandle;
+        mWatchHandle = null;
+        if (handle == null) return;
+        try {
+            handle.close();
+        } catch (jcifsng212.CIFSException e) {
+            log.debug("watch handle close CIFSException", e);
+        }
+    }
+
+    private HashMap<String, JcifsFileEntry> scan() throws JcifsException {
+        final HashMap<String, JcifsFileEntry> list = new HashMap<String, JcifsFileEntry>();
+        final String root = JcifsTreeOperation.getDirectoryPath(mDir.getPath());
+        JcifsTreeWalker.walk(mDir, new JcifsTreeWalker.Visitor() {
+            @Override
+            public boolean onEntry(JcifsFileEntry entry, int depth) {
+                String path = entry.getPath().substring(root.length());
+                if (path.endsWith("/")) path = path.substring(0, path.length() - 1);
+                list.put(path, entry);
+                return !mClosed;
+            }
+
+            @Override
+            public boolean onError(JcifsFile dir, JcifsException e) {
+                return false;
+            }
+        }, new JcifsTreeWalker.Options().setMaxDepth(mRecursive ? Integer.MAX_VALUE : 1));
+        return list;
+    }
+
+    private void compare(HashMap<String, JcifsFileEntry> previous, HashMap<String, JcifsFileEntry> current) {
+        for (Map.Entry<String, JcifsFileEntry> e : current.entrySet()) {
+            JcifsFileEntry p = previous.get(e.getKey());
+            JcifsFileEntry c = e.getValue();
+            if (p == null) addEvent(Event.ADDED, e.getKey());
+            else if (p.isDirectory() != c.isDirectory()) {
+                addEvent(Event.REMOVED, e.getKey());
+                addEvent(Event.ADDED, e.getKey());
+            } else if (!c.isDirectory() && (p.length() != c.length() || p.getLastModified() != c.getLastModified()
+                    || p.getAttributes() != c.getAttributes())) {
+                addEvent(Event.MODIFIED, e.getKey());
+            }
+        }
+        for (String path : previous.keySet()) {
+            if (!current.containsKey(path)) addEvent(Event.REMOVED, path);
+        }
+    }
+
+    /**
+     * Merges the event with a pending event of the same path.
+     */
+    private void addEvent(int type, String path) {
+        synchronized (mPendingList) {
+            Integer pending = mPendingList.remove(path);
+            int merged = type;
+            if (pending != null) {
+                int p = pending;
+                if (p == Event.ADDED && type == Event.REMOVED) merged = 0;
+                else if (p == Event.ADDED) merged = Event.ADDED;
+                else if (p == Event.REMOVED && type == Event.ADDED) merged = Event.MODIFIED;
+                else if (p == Event.OVERFLOW) merged = Event.OVERFLOW;
+            }
+            if (merged != 0) mPendingList.put(path, merged);
+            long now = System.currentTimeMillis();
+            if (mFirstPendingTime == 0) mFirstPendingTime = now;
+            mLastPendingTime = now;
+            mPendingList.notifyAll();
+        }
+    }
+
+    private void deliveryLoop() {
+        while (!mClosed) {
+            ArrayList<Event> batch = new ArrayList<Event>();
+            synchronized (mPendingList) {
+                try {
+                    while (!mClosed) {
+                        long now = System.currentTimeMillis();
+                        if (mPendingList.isEmpty()) {
+                            mFirstPendingTime = 0;
+                            mPendingList.wait();
+                            continue;
+                        }
+                        long due = Math.min(mLastPendingTime + mCoalesceDelay, mFirstPendingTime + mMaxLatency);
+                        if (now >= due) break;
+                        mPendingList.wait(due - now);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (mClosed) return;
+                for (Map.Entry<String, Integer> e : mPendingList.entrySet())
+                    batch.add(new Event(e.getValue(), e.getKey()));
+                mPendingList.clear();
+                mFirstPendingTime = 0;
+            }
+            try {
+                mListener.onChanges(batch);
+            } catch (RuntimeException e) {
+                log.error("watch listener RuntimeException", e);
+            }
+        }
+    }
+
+    private void sleep(long time) {
+        try {
+            Thread.sleep(time);
+        } catch (InterruptedException e) {
+            // close() interrupts the wait.
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.sentaroh.android.JcifsFile2;
+
+/*
+The MIT License (MIT)
+Copyright (c) 2011-2018 Sentaroh
+
+Permission is hereby granted, free of charge, to any person obtaining a copy of
+this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights to use,
+copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software,
+and to permit persons to whom the Software is furnished to do so, subject to
+the following conditions:
+
+The above copyright notice and this permission notice shall be included in all copies or
+substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT,
+TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+OTHER DEALINGS IN THE SOFTWARE.
+
+*/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+public class JcifsSubnetScannerTest {
+
+    @Test
+    public void scanFindsLoopbackListener() throws Exception {
+        ServerSocket open = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        ServerSocket closed = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        int closed_port = closed.getLocalPort();
+        closed.close();
+        try {
+            JcifsSubnetScanner scanner = new JcifsSubnetScanner(JcifsAuth.JCIFS_FILE_SMB212);
+            scanner.setPorts(open.getLocalPort(), closed_port);
+            scanner.setTimeout(2000);
+            final ArrayList<JcifsSubnetScanner.ScanResult> found = new ArrayList<JcifsSubnetScanner.ScanResult>();
+            int count = scanner.scan("127.0.0.1", new JcifsSubnetScanner.ScanListener() {
+                @Override
+                public void onHostFound(JcifsSubnetScanner.ScanResult result) {
+                    found.add(result);
+                }
+            });
+            assertEquals(1, count);
+            assertEquals(1, found.size());
+            assertEquals("127.0.0.1", found.get(0).getAddress());
+            assertTrue(found.get(0).isPortOpen(open.getLocalPort()));
+            assertFalse(found.get(0).isPortOpen(closed_port));
+            assertEquals(null, found.get(0).getHostName());
+        } finally {
+            open.close();
+        }
+    }
+
+    @Test
+    public void scanSkipsAddressWithoutListener() throws Exception {
+        ServerSocket closed = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        int closed_port = closed.getLocalPort();
+        closed.close();
+        JcifsSubnetScanner scanner = new JcifsSubnetScanner(JcifsAuth.JCIFS_FILE_SMB212);
+        scanner.setPorts(closed_port);
+        scanner.setTimeout(2000);
+        assertEquals(0, scanner.scan("127.0.0.1/32", new JcifsSubnetScanner.ScanListener() {
+            @Override
+            public void onHostFound(JcifsSubnetScanner.ScanResult result) {
+            }
+        }));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setPortsRejectsEmptyList() {
+        new JcifsSubnetScanner(JcifsAuth.JCIFS_FILE_SMB212).setPorts();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setPortsRejectsInvalidPort() {
+        new JcifsSubnetScanner(JcifsAuth.JCIFS_FILE_SMB212).setPorts(445, 0);
+    }
+}